@@ -0,0 +1,36 @@
+--
+-- Open Hospital (www.open-hospital.org)
+-- Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+--
+-- Open Hospital is a free and open source software for healthcare data management.
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- https://www.gnu.org/licenses/gpl-3.0-standalone.html
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with this program. If not, see <https://www.gnu.org/licenses/>.
+--
+
+-- Chunks saved by the bulk stock movements endpoint for an idempotency key, one row per chunk,
+-- so that a retry after a restart or on another node skips them. Rows older than the retention
+-- of the keys are deleted by the API.
+CREATE TABLE IF NOT EXISTS OH_API_BULK_CHUNKS (
+	BCH_KEY VARCHAR(255) NOT NULL,
+	BCH_INDEX INT NOT NULL,
+	BCH_TYPE VARCHAR(10) NOT NULL,
+	BCH_REF VARCHAR(50) NOT NULL,
+	BCH_DIGEST VARBINARY(32) NOT NULL,
+	BCH_LINES INT NOT NULL,
+	BCH_CREATED DATETIME NOT NULL,
+	PRIMARY KEY (BCH_KEY, BCH_INDEX),
+	KEY IDX_BCH_CREATED (BCH_CREATED)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -0,0 +1,31 @@
+--
+-- Open Hospital (www.open-hospital.org)
+-- Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+--
+-- Open Hospital is a free and open source software for healthcare data management.
+--
+-- This program is free software: you can redistribute it and/or modify
+-- it under the terms of the GNU General Public License as published by
+-- the Free Software Foundation, either version 3 of the License, or
+-- (at your option) any later version.
+--
+-- https://www.gnu.org/licenses/gpl-3.0-standalone.html
+--
+-- This program is distributed in the hope that it will be useful,
+-- but WITHOUT ANY WARRANTY; without even the implied warranty of
+-- MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+-- GNU General Public License for more details.
+--
+-- You should have received a copy of the GNU General Public License
+-- along with this program. If not, see <https://www.gnu.org/licenses/>.
+--
+
+-- Counters of the yearly progressive numbers (OPD, vaccination and ward admission progressives)
+-- reserved in blocks by the API, one row per sequence, scope and year.
+CREATE TABLE IF NOT EXISTS OH_API_PROGRESSIVES (
+	PRG_SEQUENCE VARCHAR(32) NOT NULL,
+	PRG_SCOPE VARCHAR(50) NOT NULL,
+	PRG_YEAR INT NOT NULL,
+	PRG_NEXT BIGINT NOT NULL,
+	PRIMARY KEY (PRG_SEQUENCE, PRG_SCOPE, PRG_YEAR)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
@@ -24,6 +24,8 @@ package org.isf;
 import jakarta.annotation.PostConstruct;
 
 import org.isf.generaldata.GeneralData;
+import org.isf.shared.fields.FieldsAnnotationIntrospector;
+import org.isf.shared.fields.FieldsPropertyFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -32,6 +34,7 @@ import org.springframework.boot.context.ApplicationPidFileWriter;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.ImportResource;
 
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
@@ -51,6 +54,10 @@ public class OpenHospitalApiApplication extends SpringBootServletInitializer {
 	@PostConstruct
 	public void setUp() {
 		objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		// sparse fieldsets (?fields=...), see FieldsResponseBodyAdvice
+		objectMapper.setAnnotationIntrospector(AnnotationIntrospector.pair(
+			objectMapper.getSerializationConfig().getAnnotationIntrospector(), new FieldsAnnotationIntrospector()));
+		objectMapper.setFilterProvider(FieldsPropertyFilter.defaultProvider());
 		GeneralData.getGeneralData(); // initialize core settings
 	}
 
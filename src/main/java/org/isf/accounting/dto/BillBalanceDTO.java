@@ -0,0 +1,132 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.dto;
+
+import java.time.LocalDateTime;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Totals of a pending bill")
+public class BillBalanceDTO {
+
+	@Schema(description = "The bill id", example = "12")
+	private int id;
+
+	@Schema(description = "The patient code, 0 for bills without patient", example = "3")
+	private int patientCode;
+
+	@Schema(description = "The patient name", example = "Mario Rossi")
+	private String patientName;
+
+	@Schema(description = "The bill date")
+	private LocalDateTime date;
+
+	@Schema(description = "The price list name", example = "Basic")
+	private String listName;
+
+	@Schema(description = "The sum of the bill items", example = "150.0")
+	private double amount;
+
+	@Schema(description = "The sum of the bill payments", example = "100.0")
+	private double paid;
+
+	@Schema(description = "The amount left to pay", example = "50.0")
+	private double balance;
+
+	public BillBalanceDTO() {
+	}
+
+	public BillBalanceDTO(int id, int patientCode, String patientName, LocalDateTime date, String listName, double amount, double paid) {
+		this.id = id;
+		this.patientCode = patientCode;
+		this.patientName = patientName;
+		this.date = date;
+		this.listName = listName;
+		this.amount = amount;
+		this.paid = paid;
+		this.balance = amount - paid;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public int getPatientCode() {
+		return patientCode;
+	}
+
+	public void setPatientCode(int patientCode) {
+		this.patientCode = patientCode;
+	}
+
+	public String getPatientName() {
+		return patientName;
+	}
+
+	public void setPatientName(String patientName) {
+		this.patientName = patientName;
+	}
+
+	public LocalDateTime getDate() {
+		return date;
+	}
+
+	public void setDate(LocalDateTime date) {
+		this.date = date;
+	}
+
+	public String getListName() {
+		return listName;
+	}
+
+	public void setListName(String listName) {
+		this.listName = listName;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+
+	public double getPaid() {
+		return paid;
+	}
+
+	public void setPaid(double paid) {
+		this.paid = paid;
+	}
+
+	public double getBalance() {
+		return balance;
+	}
+
+	public void setBalance(double balance) {
+		this.balance = balance;
+	}
+}
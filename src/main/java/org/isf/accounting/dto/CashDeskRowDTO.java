@@ -0,0 +1,96 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.dto;
+
+import java.time.LocalDate;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Payments of a day received by a cashier for bills of a price list")
+public class CashDeskRowDTO {
+
+	@Schema(description = "The day of the payments")
+	private LocalDate day;
+
+	@Schema(description = "The cashier user", example = "admin")
+	private String user;
+
+	@Schema(description = "The price list name of the paid bills", example = "Basic")
+	private String listName;
+
+	@Schema(description = "The number of payments", example = "42")
+	private long payments;
+
+	@Schema(description = "The sum of the payments", example = "1250.0")
+	private double amount;
+
+	public CashDeskRowDTO() {
+	}
+
+	public CashDeskRowDTO(LocalDate day, String user, String listName, long payments, double amount) {
+		this.day = day;
+		this.user = user;
+		this.listName = listName;
+		this.payments = payments;
+		this.amount = amount;
+	}
+
+	public LocalDate getDay() {
+		return day;
+	}
+
+	public void setDay(LocalDate day) {
+		this.day = day;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public void setUser(String user) {
+		this.user = user;
+	}
+
+	public String getListName() {
+		return listName;
+	}
+
+	public void setListName(String listName) {
+		this.listName = listName;
+	}
+
+	public long getPayments() {
+		return payments;
+	}
+
+	public void setPayments(long payments) {
+		this.payments = payments;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Payments of a period grouped by day, cashier user and price list")
+public class CashDeskSummaryDTO {
+
+	@Schema(description = "The low date range endpoint, inclusive")
+	private LocalDateTime from;
+
+	@Schema(description = "The high date range endpoint, inclusive")
+	private LocalDateTime to;
+
+	@Schema(description = "The number of payments of the period", example = "420")
+	private long payments;
+
+	@Schema(description = "The sum of the payments of the period", example = "12500.0")
+	private double amount;
+
+	@Schema(description = "The totals by day, user and price list, ordered by day, user and price list")
+	private List<CashDeskRowDTO> rows;
+
+	public CashDeskSummaryDTO() {
+	}
+
+	public CashDeskSummaryDTO(LocalDateTime from, LocalDateTime to, List<CashDeskRowDTO> rows) {
+		this.from = from;
+		this.to = to;
+		this.rows = rows;
+		for (CashDeskRowDTO row : rows) {
+			payments += row.getPayments();
+			amount += row.getAmount();
+		}
+	}
+
+	public LocalDateTime getFrom() {
+		return from;
+	}
+
+	public void setFrom(LocalDateTime from) {
+		this.from = from;
+	}
+
+	public LocalDateTime getTo() {
+		return to;
+	}
+
+	public void setTo(LocalDateTime to) {
+		this.to = to;
+	}
+
+	public long getPayments() {
+		return payments;
+	}
+
+	public void setPayments(long payments) {
+		this.payments = payments;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+
+	public List<CashDeskRowDTO> getRows() {
+		return rows;
+	}
+
+	public void setRows(List<CashDeskRowDTO> rows) {
+		this.rows = rows;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Totals of the pending bills of a patient, or of all patients")
+public class PendingBillsSummaryDTO {
+
+	@Schema(description = "The patient code, null for all patients", example = "3")
+	private Integer patientCode;
+
+	@Schema(description = "The number of pending bills", example = "2")
+	private int bills;
+
+	@Schema(description = "The sum of the bill items", example = "300.0")
+	private double amount;
+
+	@Schema(description = "The sum of the bill payments", example = "250.0")
+	private double paid;
+
+	@Schema(description = "The amount left to pay", example = "50.0")
+	private double balance;
+
+	@Schema(description = "The totals of every pending bill, most recent first")
+	private List<BillBalanceDTO> details;
+
+	public PendingBillsSummaryDTO() {
+	}
+
+	public PendingBillsSummaryDTO(Integer patientCode, List<BillBalanceDTO> details) {
+		this.patientCode = patientCode;
+		this.details = details;
+		this.bills = details.size();
+		for (BillBalanceDTO bill : details) {
+			amount += bill.getAmount();
+			paid += bill.getPaid();
+		}
+		this.balance = amount - paid;
+	}
+
+	public Integer getPatientCode() {
+		return patientCode;
+	}
+
+	public void setPatientCode(Integer patientCode) {
+		this.patientCode = patientCode;
+	}
+
+	public int getBills() {
+		return bills;
+	}
+
+	public void setBills(int bills) {
+		this.bills = bills;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+
+	public double getPaid() {
+		return paid;
+	}
+
+	public void setPaid(double paid) {
+		this.paid = paid;
+	}
+
+	public double getBalance() {
+		return balance;
+	}
+
+	public void setBalance(double balance) {
+		this.balance = balance;
+	}
+
+	public List<BillBalanceDTO> getDetails() {
+		return details;
+	}
+
+	public void setDetails(List<BillBalanceDTO> details) {
+		this.details = details;
+	}
+}
@@ -22,12 +22,15 @@
 package org.isf.accounting.rest;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.isf.accounting.dto.BillDTO;
 import org.isf.accounting.dto.BillItemsDTO;
 import org.isf.accounting.dto.BillPaymentsDTO;
+import org.isf.accounting.dto.CashDeskSummaryDTO;
 import org.isf.accounting.dto.FullBillDTO;
+import org.isf.accounting.dto.PendingBillsSummaryDTO;
 import org.isf.accounting.manager.BillBrowserManager;
 import org.isf.accounting.mapper.BillItemsMapper;
 import org.isf.accounting.mapper.BillMapper;
@@ -35,10 +38,14 @@ import org.isf.accounting.mapper.BillPaymentsMapper;
 import org.isf.accounting.model.Bill;
 import org.isf.accounting.model.BillItems;
 import org.isf.accounting.model.BillPayments;
+import org.isf.accounting.service.BillBalanceLedger;
+import org.isf.accounting.service.BillItemIndex;
+import org.isf.accounting.service.CashDeskAggregator;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
 import org.isf.priceslist.manager.PriceListManager;
 import org.isf.priceslist.model.PriceList;
+import org.isf.priceslist.service.PriceMatrix;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
@@ -82,13 +89,25 @@ public class BillController {
 
 	private final BillPaymentsMapper billPaymentsMapper;
 
+	private final PriceMatrix priceMatrix;
+
+	private final BillBalanceLedger billBalanceLedger;
+
+	private final CashDeskAggregator cashDeskAggregator;
+
+	private final BillItemIndex billItemIndex;
+
 	public BillController(
 		BillBrowserManager billManager,
 		PriceListManager priceListManager,
 		PatientBrowserManager patientManager,
 		BillMapper billMapper,
 		BillItemsMapper billItemsMapper,
-		BillPaymentsMapper billPaymentsMapper
+		BillPaymentsMapper billPaymentsMapper,
+		PriceMatrix priceMatrix,
+		BillBalanceLedger billBalanceLedger,
+		CashDeskAggregator cashDeskAggregator,
+		BillItemIndex billItemIndex
 	) {
 		this.billManager = billManager;
 		this.priceListManager = priceListManager;
@@ -96,6 +115,10 @@ public class BillController {
 		this.billMapper = billMapper;
 		this.billItemsMapper = billItemsMapper;
 		this.billPaymentsMapper = billPaymentsMapper;
+		this.priceMatrix = priceMatrix;
+		this.billBalanceLedger = billBalanceLedger;
+		this.cashDeskAggregator = cashDeskAggregator;
+		this.billItemIndex = billItemIndex;
 	}
 
 	/**
@@ -117,9 +140,7 @@ public class BillController {
 
 		Patient pat = patientManager.getPatientById(bill.getBillPatient().getCode());
 
-		List<PriceList> list = priceListManager.getLists();
-
-		PriceList plist = list.stream().filter(priceList -> priceList.getName().equals(bill.getListName())).findAny().orElse(null);
+		PriceList plist = findPriceList(bill.getListName());
 
 		if (pat != null) {
 			bill.setBillPatient(pat);
@@ -142,6 +163,9 @@ public class BillController {
 		} catch (OHServiceException e) {
 			throw new OHAPIException(new OHExceptionMessage("Bill is not created."));
 		}
+		billBalanceLedger.billChanged(bill.getId());
+		billItemIndex.billChanged(bill.getId());
+		cashDeskAggregator.paymentsChanged(paymentDates(billPayments));
 
 		return newBillDto;
 	}
@@ -167,9 +191,7 @@ public class BillController {
 
 		Patient pat = patientManager.getPatientById(bill.getBillPatient().getCode());
 
-		List<PriceList> list = priceListManager.getLists();
-
-		PriceList plist = list.stream().filter(pricel -> pricel.getName().equals(bill.getListName())).findAny().orElse(null);
+		PriceList plist = findPriceList(bill.getListName());
 
 		if (pat != null) {
 			bill.setBillPatient(pat);
@@ -187,11 +209,17 @@ public class BillController {
 
 		List<BillPayments> billPayments = billPaymentsMapper.map2ModelList(odBillDto.getBillPayments());
 
+		List<LocalDateTime> changedPayments = paymentDates(billManager.getPayments(id));
+		changedPayments.addAll(paymentDates(billPayments));
+
 		try {
 			billManager.updateBill(bill, billItems, billPayments);
 		} catch (OHServiceException e) {
 			throw new OHAPIException(new OHExceptionMessage("Bill is not updated."));
 		}
+		billBalanceLedger.billChanged(bill.getId());
+		billItemIndex.billChanged(bill.getId());
+		cashDeskAggregator.paymentsChanged(changedPayments);
 
 		return odBillDto;
 	}
@@ -253,6 +281,22 @@ public class BillController {
 		return billPaymentsMapper.map2DTOList(payments);
 	}
 
+	/**
+	 * Retrieves the totals of the billPayments of a period, grouped by day, cashier user and price list,
+	 * without returning the payments themselves.
+	 * @param dateFrom the low date range endpoint, inclusive.
+	 * @param dateTo the high date range endpoint, inclusive.
+	 * @return the totals of the payments
+	 */
+	@GetMapping("/bills/payments/summary")
+	public CashDeskSummaryDTO getPaymentsSummary(
+		@RequestParam(value = "datefrom") @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'") @Schema(implementation = String.class) LocalDateTime dateFrom,
+		@RequestParam(value = "dateto") @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'") @Schema(implementation = String.class) LocalDateTime dateTo) {
+		LOGGER.info("Get payments summary datefrom: {}  dateTo: {}", dateFrom, dateTo);
+
+		return cashDeskAggregator.aggregate(dateFrom, dateTo);
+	}
+
 	/**
 	 * Gets all the {@link BillPayments} for the specified {@link Bill}.
 	 * @param id the bill id.
@@ -326,6 +370,18 @@ public class BillController {
 		return billMapper.map2DTOList(billManager.getPendingBills(code));
 	}
 
+	/**
+	 * Returns the totals, paid amounts and balances of the pending {@link Bill}s, without their items and payments.
+	 * @param code the patient code, all patients if not set.
+	 * @return the totals of every pending bill and their sum.
+	 */
+	@GetMapping("/bills/pending/summary")
+	public PendingBillsSummaryDTO getPendingBillsSummary(@RequestParam(value = "patient_code", required = false) Integer code) {
+		LOGGER.info("Get pending bills summary for patient: {}", code);
+
+		return billBalanceLedger.summary(code);
+	}
+
 	/**
 	 * Search all the {@link Bill}s for the specified parameters
 	 * @param dateFrom the low date range endpoint, inclusive.
@@ -343,9 +399,32 @@ public class BillController {
 
 		LOGGER.info("Get Bills dateFrom: {}  dateTo: {}  Bill ITEM ID: {}", dateFrom, dateTo, billItem.getId());
 
+		if (billItemIndex.isReady() && billItem.getItemDescription() != null) {
+			return billMapper.map2DTOList(billItemIndex.loadBills(billItemIndex.findBillIds(dateFrom, dateTo, List.of(billItem.getItemDescription()))));
+		}
 		return billMapper.map2DTOList(billManager.getBills(dateFrom, dateTo, billItem));
 	}
 
+	/**
+	 * Search the {@link Bill}s of a period containing all the specified items.
+	 * @param dateFrom the low date range endpoint, inclusive.
+	 * @param dateTo the high date range endpoint, inclusive.
+	 * @param items the item descriptions.
+	 * @return the bills containing every item, in ascending id order.
+	 */
+	@GetMapping("/bills/search/by/items")
+	public List<BillDTO> searchBillsByItems(
+		@RequestParam(value = "datefrom") @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'") @Schema(implementation = String.class) LocalDateTime dateFrom,
+		@RequestParam(value = "dateto") @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'") @Schema(implementation = String.class) LocalDateTime dateTo,
+		@RequestParam(value = "item") List<String> items) {
+		LOGGER.info("Get Bills dateFrom: {}  dateTo: {}  items: {}", dateFrom, dateTo, items);
+
+		if (!billItemIndex.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Bill items are not indexed yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return billMapper.map2DTOList(billItemIndex.loadBills(billItemIndex.findBillIds(dateFrom, dateTo, items)));
+	}
+
 	/**
 	 * Returns all the distinct stored {@link BillItems}.
 	 *
@@ -356,6 +435,9 @@ public class BillController {
 	public List<BillItemsDTO> getDistinctItems() throws OHServiceException {
 		LOGGER.info("get all the distinct stored BillItems");
 
+		if (billItemIndex.isReady()) {
+			return billItemsMapper.map2DTOList(billItemIndex.getDistinctItems());
+		}
 		return billItemsMapper.map2DTOList(billManager.getDistinctItems()); // TODO: verify if it's correct
 	}
 
@@ -375,11 +457,16 @@ public class BillController {
 			throw new OHAPIException(new OHExceptionMessage("Bill not found with ID :" + id), HttpStatus.NOT_FOUND);
 		}
 
+		List<LocalDateTime> deletedPayments = paymentDates(billManager.getPayments(id));
+
 		try {
 			billManager.deleteBill(bill);
 		} catch (OHServiceException e) {
 			throw new OHAPIException(new OHExceptionMessage("Bill is not deleted."));
 		}
+		billBalanceLedger.billChanged(bill.getId());
+		billItemIndex.billChanged(bill.getId());
+		cashDeskAggregator.paymentsChanged(deletedPayments);
 
 		return true;
 	}
@@ -398,4 +485,24 @@ public class BillController {
 
 		return billMapper.map2DTOList(billManager.getBills(billPayments));
 	}
+
+	/**
+	 * Find a price list by name in the compiled {@link PriceMatrix}, reading the lists from the database only when
+	 * the matrix is not compiled yet or does not know the name (a list created by another instance since the last refresh).
+	 */
+	private PriceList findPriceList(String name) throws OHServiceException {
+		PriceList priceList = priceMatrix.findListByName(name);
+		if (priceList != null) {
+			return priceList;
+		}
+		return priceListManager.getLists().stream().filter(pricel -> pricel.getName().equals(name)).findAny().orElse(null);
+	}
+
+	private static List<LocalDateTime> paymentDates(List<BillPayments> payments) {
+		List<LocalDateTime> dates = new ArrayList<>();
+		if (payments != null) {
+			payments.forEach(payment -> dates.add(payment.getDate()));
+		}
+		return dates;
+	}
 }
@@ -0,0 +1,236 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.accounting.dto.BillBalanceDTO;
+import org.isf.accounting.dto.PendingBillsSummaryDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory totals of the pending (open) bills, grouped by patient.
+ * <p>
+ * The totals are loaded at startup with three grouped queries (bills, items, payments), refreshed for a single bill by
+ * {@link org.isf.accounting.rest.BillController} when a bill is created, updated, paid or deleted, and periodically
+ * reloaded to fix the drift caused by other clients. Before the first load the totals are read from the database.
+ */
+@Component
+public class BillBalanceLedger {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BillBalanceLedger.class);
+
+	private static final String OPEN = "O";
+
+	private static final String BILLS_JPQL = "SELECT b.id, p.code, b.patName, b.date, b.listName FROM Bill b LEFT JOIN b.billPatient p"
+		+ " WHERE b.status = '" + OPEN + '\'';
+
+	private static final String ITEMS_JPQL = "SELECT i.bill.id, SUM(i.itemAmount * i.itemQuantity) FROM BillItems i"
+		+ " WHERE i.bill.status = '" + OPEN + '\'';
+
+	private static final String PAYMENTS_JPQL = "SELECT y.bill.id, SUM(y.amount) FROM BillPayments y"
+		+ " WHERE y.bill.status = '" + OPEN + '\'';
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean enabled;
+
+	// the following state is guarded by this
+
+	private final Map<Integer, Map<Integer, BillBalanceDTO>> byPatient = new HashMap<>();
+
+	private final Map<Integer, Integer> patientOfBill = new HashMap<>();
+
+	private Set<Integer> refreshedDuringReload;
+
+	private boolean ready;
+
+	public BillBalanceLedger(@Value("${bills.balance.enabled:true}") boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Bill balance ledger disabled.");
+			return;
+		}
+		reload();
+	}
+
+	/**
+	 * Reload the totals of every pending bill.
+	 */
+	@Scheduled(fixedDelayString = "${bills.balance.reload.interval:PT10M}", initialDelayString = "${bills.balance.reload.interval:PT10M}")
+	public void reload() {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			refreshedDuringReload = new HashSet<>();
+		}
+		try {
+			long start = System.currentTimeMillis();
+			List<BillBalanceDTO> bills = load(null, null);
+			Set<Integer> refreshed;
+			synchronized (this) {
+				byPatient.clear();
+				patientOfBill.clear();
+				bills.forEach(this::put);
+				ready = true;
+				refreshed = refreshedDuringReload;
+				refreshedDuringReload = null;
+			}
+			// bills changed while loading may have been read before their change
+			refreshed.forEach(this::billChanged);
+			LOGGER.debug("Bill balances loaded: {} pending bills in {} ms.", bills.size(), System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			synchronized (this) {
+				refreshedDuringReload = null;
+			}
+			LOGGER.error("Unable to load the bill balances.", exception);
+		}
+	}
+
+	/**
+	 * Refresh the totals of a bill after it has been created, updated, paid or deleted.
+	 *
+	 * @param billId the bill id
+	 */
+	public void billChanged(int billId) {
+		if (!enabled) {
+			return;
+		}
+		try {
+			List<BillBalanceDTO> bills = load(null, billId);
+			synchronized (this) {
+				remove(billId);
+				bills.forEach(this::put);
+				if (refreshedDuringReload != null) {
+					refreshedDuringReload.add(billId);
+				}
+			}
+		} catch (RuntimeException exception) {
+			LOGGER.warn("Unable to refresh the balance of bill {}.", billId, exception);
+		}
+	}
+
+	/**
+	 * @param patientCode the patient code, {@code null} for all patients
+	 * @return the totals of the pending bills of the patient
+	 */
+	public PendingBillsSummaryDTO summary(Integer patientCode) {
+		List<BillBalanceDTO> details = null;
+		synchronized (this) {
+			if (ready) {
+				details = new ArrayList<>();
+				if (patientCode == null) {
+					for (Map<Integer, BillBalanceDTO> patientBills : byPatient.values()) {
+						details.addAll(patientBills.values());
+					}
+				} else {
+					details.addAll(byPatient.getOrDefault(patientCode, Map.of()).values());
+				}
+			}
+		}
+		if (details == null) {
+			details = load(patientCode, null);
+		}
+		details.sort(Comparator.comparing(BillBalanceDTO::getDate, Comparator.nullsLast(Comparator.reverseOrder()))
+			.thenComparing(BillBalanceDTO::getId, Comparator.reverseOrder()));
+		return new PendingBillsSummaryDTO(patientCode, details);
+	}
+
+	private void put(BillBalanceDTO bill) {
+		byPatient.computeIfAbsent(bill.getPatientCode(), code -> new HashMap<>()).put(bill.getId(), bill);
+		patientOfBill.put(bill.getId(), bill.getPatientCode());
+	}
+
+	private void remove(int billId) {
+		Integer patientCode = patientOfBill.remove(billId);
+		if (patientCode != null) {
+			Map<Integer, BillBalanceDTO> patientBills = byPatient.get(patientCode);
+			patientBills.remove(billId);
+			if (patientBills.isEmpty()) {
+				byPatient.remove(patientCode);
+			}
+		}
+	}
+
+	/**
+	 * Read the totals of the pending bills, optionally of a single patient or a single bill.
+	 */
+	private List<BillBalanceDTO> load(Integer patientCode, Integer billId) {
+		Map<Integer, Double> amounts = sums(ITEMS_JPQL, "i", patientCode, billId);
+		Map<Integer, Double> payments = sums(PAYMENTS_JPQL, "y", patientCode, billId);
+		String filter = (patientCode == null ? "" : " AND p.code = :patient") + (billId == null ? "" : " AND b.id = :bill");
+		TypedQuery<Object[]> query = entityManager.createQuery(BILLS_JPQL + filter, Object[].class);
+		bind(query, patientCode, billId);
+		List<BillBalanceDTO> bills = new ArrayList<>();
+		for (Object[] row : query.getResultList()) {
+			int id = ((Number) row[0]).intValue();
+			int patient = row[1] == null ? 0 : ((Number) row[1]).intValue();
+			bills.add(new BillBalanceDTO(id, patient, (String) row[2], (LocalDateTime) row[3], (String) row[4], amounts.getOrDefault(id, 0.0),
+				payments.getOrDefault(id, 0.0)));
+		}
+		return bills;
+	}
+
+	private Map<Integer, Double> sums(String jpql, String alias, Integer patientCode, Integer billId) {
+		String filter = (patientCode == null ? "" : " AND " + alias + ".bill.billPatient.code = :patient")
+			+ (billId == null ? "" : " AND " + alias + ".bill.id = :bill");
+		TypedQuery<Object[]> query = entityManager.createQuery(jpql + filter + " GROUP BY " + alias + ".bill.id", Object[].class);
+		bind(query, patientCode, billId);
+		Map<Integer, Double> sums = new HashMap<>();
+		for (Object[] row : query.getResultList()) {
+			sums.put(((Number) row[0]).intValue(), row[1] == null ? 0.0 : ((Number) row[1]).doubleValue());
+		}
+		return sums;
+	}
+
+	private static void bind(TypedQuery<Object[]> query, Integer patientCode, Integer billId) {
+		if (patientCode != null) {
+			query.setParameter("patient", patientCode);
+		}
+		if (billId != null) {
+			query.setParameter("bill", billId);
+		}
+	}
+}
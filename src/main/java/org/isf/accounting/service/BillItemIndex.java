@@ -0,0 +1,389 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.accounting.model.Bill;
+import org.isf.accounting.model.BillItems;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Inverted index of the bill items: for every item description, the sorted ids of the bills containing it.
+ * <p>
+ * The index answers "which bills of a period contain all of these items" by intersecting the postings of the
+ * items, smallest first, and filtering the candidates on the bill dates kept in memory; only the matching bills are
+ * then read, by id. It is built at startup by streaming the bill items, updated for a single bill by
+ * {@link org.isf.accounting.rest.BillController} after every bill write, and periodically rebuilt to catch the writes
+ * of other clients.
+ */
+@Component
+public class BillItemIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BillItemIndex.class);
+
+	private static final int IN_CLAUSE_SIZE = 1000;
+
+	private static final String BILLS_JPQL = "SELECT b.id, b.date FROM Bill b";
+
+	private static final String ITEMS_JPQL = "SELECT i.bill.id, i.itemDescription, i.itemDisplayCode, i.itemId FROM BillItems i";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean enabled;
+
+	private final int fetchSize;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// the following state is guarded by lock
+
+	private Map<String, Postings> postings = new HashMap<>();
+
+	private Map<Integer, Indexed> bills = new HashMap<>();
+
+	private Map<String, BillItems> distinctItems = new HashMap<>();
+
+	private Set<Integer> refreshedDuringRebuild;
+
+	private volatile boolean ready;
+
+	public BillItemIndex(
+		@Value("${bills.items.index.enabled:true}") boolean enabled,
+		@Value("${bills.items.index.fetch.size:1000}") int fetchSize
+	) {
+		this.enabled = enabled;
+		this.fetchSize = fetchSize;
+	}
+
+	/**
+	 * A bill of the index: its date and the distinct descriptions of its items.
+	 */
+	private record Indexed(LocalDateTime date, Set<String> items) {
+	}
+
+	/**
+	 * The sorted ids of the bills containing an item.
+	 */
+	private static final class Postings {
+
+		private int[] ids = new int[4];
+
+		private int size;
+
+		private void add(int id) {
+			if (size > 0 && ids[size - 1] < id) {
+				append(id);
+				return;
+			}
+			int position = Arrays.binarySearch(ids, 0, size, id);
+			if (position >= 0) {
+				return;
+			}
+			position = -position - 1;
+			grow();
+			System.arraycopy(ids, position, ids, position + 1, size - position);
+			ids[position] = id;
+			size++;
+		}
+
+		private void append(int id) {
+			grow();
+			ids[size++] = id;
+		}
+
+		private void remove(int id) {
+			int position = Arrays.binarySearch(ids, 0, size, id);
+			if (position >= 0) {
+				System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+				size--;
+			}
+		}
+
+		private boolean contains(int id) {
+			return Arrays.binarySearch(ids, 0, size, id) >= 0;
+		}
+
+		private void grow() {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void buildOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Bill items index disabled.");
+			return;
+		}
+		rebuild();
+	}
+
+	/**
+	 * Rebuild the whole index from the database.
+	 */
+	@Scheduled(fixedDelayString = "${bills.items.index.refresh.interval:PT30M}", initialDelayString = "${bills.items.index.refresh.interval:PT30M}")
+	@Transactional(readOnly = true)
+	public void rebuild() {
+		if (!enabled) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			refreshedDuringRebuild = new HashSet<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		try {
+			long start = System.currentTimeMillis();
+			Map<Integer, LocalDateTime> dates = new HashMap<>();
+			try (Stream<Object[]> rows = stream(BILLS_JPQL + " ORDER BY b.id")) {
+				rows.forEach(row -> dates.put(((Number) row[0]).intValue(), (LocalDateTime) row[1]));
+			}
+			Map<String, Postings> newPostings = new HashMap<>();
+			Map<Integer, Set<String>> itemsByBill = new HashMap<>();
+			Map<String, BillItems> newDistinctItems = new HashMap<>();
+			try (Stream<Object[]> rows = stream(ITEMS_JPQL + " ORDER BY i.bill.id")) {
+				rows.forEach(row -> {
+					int billId = ((Number) row[0]).intValue();
+					String description = (String) row[1];
+					if (description != null && itemsByBill.computeIfAbsent(billId, id -> new HashSet<>()).add(description)) {
+						newPostings.computeIfAbsent(description, item -> new Postings()).add(billId);
+						newDistinctItems.computeIfAbsent(description, item -> distinctItem(row));
+					}
+				});
+			}
+			Map<Integer, Indexed> newBills = new HashMap<>();
+			dates.forEach((id, date) -> newBills.put(id, new Indexed(date, itemsByBill.getOrDefault(id, Set.of()))));
+
+			Set<Integer> refreshed;
+			lock.writeLock().lock();
+			try {
+				postings = newPostings;
+				bills = newBills;
+				distinctItems = newDistinctItems;
+				refreshed = refreshedDuringRebuild;
+				refreshedDuringRebuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			ready = true;
+			// bills written while building may have been read before their change
+			refreshed.forEach(this::billChanged);
+			LOGGER.debug("Bill items index built: {} bills, {} items in {} ms.", newBills.size(), newPostings.size(),
+				System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			lock.writeLock().lock();
+			try {
+				refreshedDuringRebuild = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			LOGGER.error("Unable to build the bill items index.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the index has been built
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Re-index a bill after it has been created, updated or deleted.
+	 *
+	 * @param billId the bill id
+	 */
+	public void billChanged(int billId) {
+		if (!enabled) {
+			return;
+		}
+		try {
+			List<Object[]> billRows = entityManager.createQuery(BILLS_JPQL + " WHERE b.id = :bill", Object[].class)
+				.setParameter("bill", billId)
+				.getResultList();
+			List<Object[]> itemRows = entityManager.createQuery(ITEMS_JPQL + " WHERE i.bill.id = :bill", Object[].class)
+				.setParameter("bill", billId)
+				.getResultList();
+			lock.writeLock().lock();
+			try {
+				Indexed previous = bills.remove(billId);
+				if (previous != null) {
+					for (String item : previous.items()) {
+						Postings itemPostings = postings.get(item);
+						itemPostings.remove(billId);
+						if (itemPostings.size == 0) {
+							postings.remove(item);
+							distinctItems.remove(item);
+						}
+					}
+				}
+				if (!billRows.isEmpty()) {
+					Set<String> items = new HashSet<>();
+					for (Object[] row : itemRows) {
+						String description = (String) row[1];
+						if (description != null && items.add(description)) {
+							postings.computeIfAbsent(description, item -> new Postings()).add(billId);
+							distinctItems.computeIfAbsent(description, item -> distinctItem(row));
+						}
+					}
+					bills.put(billId, new Indexed((LocalDateTime) billRows.get(0)[1], items));
+				}
+				if (refreshedDuringRebuild != null) {
+					refreshedDuringRebuild.add(billId);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		} catch (RuntimeException exception) {
+			LOGGER.warn("Unable to index the items of bill {}.", billId, exception);
+		}
+	}
+
+	/**
+	 * @param from the low date range endpoint, inclusive
+	 * @param to the high date range endpoint, inclusive
+	 * @param items the item descriptions
+	 * @return the ids of the bills of the period containing all the items, in ascending order
+	 */
+	public List<Integer> findBillIds(LocalDateTime from, LocalDateTime to, Collection<String> items) {
+		List<Integer> ids = new ArrayList<>();
+		Set<String> distinct = new LinkedHashSet<>(items);
+		if (distinct.isEmpty()) {
+			return ids;
+		}
+		lock.readLock().lock();
+		try {
+			List<Postings> lists = new ArrayList<>(distinct.size());
+			for (String item : distinct) {
+				Postings itemPostings = postings.get(item);
+				if (itemPostings == null) {
+					return ids;
+				}
+				lists.add(itemPostings);
+			}
+			lists.sort(Comparator.comparingInt(list -> list.size));
+			Postings smallest = lists.get(0);
+			for (int i = 0; i < smallest.size; i++) {
+				int id = smallest.ids[i];
+				if (inPeriod(bills.get(id), from, to) && containedInAll(lists, id)) {
+					ids.add(id);
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return ids;
+	}
+
+	/**
+	 * @return one item for every distinct item description
+	 */
+	public List<BillItems> getDistinctItems() {
+		lock.readLock().lock();
+		try {
+			List<BillItems> items = new ArrayList<>(distinctItems.values());
+			items.sort(Comparator.comparing(BillItems::getItemDescription));
+			return items;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param ids bill ids
+	 * @return the bills, in the order of the ids
+	 */
+	public List<Bill> loadBills(List<Integer> ids) {
+		Map<Integer, Bill> loaded = new HashMap<>();
+		for (int from = 0; from < ids.size(); from += IN_CLAUSE_SIZE) {
+			for (Bill bill : entityManager.createQuery("SELECT b FROM Bill b WHERE b.id IN :ids", Bill.class)
+				.setParameter("ids", ids.subList(from, Math.min(from + IN_CLAUSE_SIZE, ids.size())))
+				.getResultList()) {
+				loaded.put(bill.getId(), bill);
+			}
+		}
+		List<Bill> result = new ArrayList<>(loaded.size());
+		for (Integer id : ids) {
+			Bill bill = loaded.get(id);
+			if (bill != null) {
+				result.add(bill);
+			}
+		}
+		return result;
+	}
+
+	private static boolean containedInAll(List<Postings> lists, int id) {
+		for (int i = 1; i < lists.size(); i++) {
+			if (!lists.get(i).contains(id)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean inPeriod(Indexed bill, LocalDateTime from, LocalDateTime to) {
+		return bill != null && bill.date() != null && !bill.date().isBefore(from) && !bill.date().isAfter(to);
+	}
+
+	private static BillItems distinctItem(Object[] row) {
+		BillItems item = new BillItems();
+		item.setItemDescription((String) row[1]);
+		item.setItemDisplayCode((String) row[2]);
+		item.setItemId((String) row[3]);
+		return item;
+	}
+
+	private Stream<Object[]> stream(String jpql) {
+		return entityManager.createQuery(jpql, Object[].class)
+			.setHint("org.hibernate.fetchSize", fetchSize)
+			.setHint("org.hibernate.readOnly", true)
+			.getResultStream();
+	}
+}
@@ -0,0 +1,218 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.accounting.dto.CashDeskRowDTO;
+import org.isf.accounting.dto.CashDeskSummaryDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Totals of the bill payments of a period, grouped by day, cashier user and price list.
+ * <p>
+ * The payments are streamed from the database and folded into the totals as they are read: only the totals are
+ * kept in memory, whatever the number of payments. The totals of the closed days (before today) entirely inside
+ * the period are kept as daily rollups and reused by the following requests; a rollup is dropped when
+ * {@link org.isf.accounting.rest.BillController} writes a bill with payments on that day, and after
+ * {@code bills.cashdesk.rollup.ttl} to catch the writes of other clients.
+ */
+@Component
+public class CashDeskAggregator {
+
+	private static final String PAYMENTS_JPQL = "SELECT y.date, y.user, b.listName, y.amount FROM BillPayments y JOIN y.bill b"
+		+ " WHERE b.status <> 'D' AND y.date >= :from AND y.date ";
+
+	/** A day ending at or after this time is taken as a whole day. */
+	private static final LocalTime END_OF_DAY = LocalTime.of(23, 59, 59);
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean rollupEnabled;
+
+	private final Duration rollupTtl;
+
+	private final int fetchSize;
+
+	private final Map<LocalDate, Rollup> rollups = new ConcurrentHashMap<>();
+
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public CashDeskAggregator(
+		@Value("${bills.cashdesk.rollup.enabled:true}") boolean rollupEnabled,
+		@Value("${bills.cashdesk.rollup.ttl:PT6H}") Duration rollupTtl,
+		@Value("${bills.cashdesk.fetch.size:1000}") int fetchSize
+	) {
+		this.rollupEnabled = rollupEnabled;
+		this.rollupTtl = rollupTtl;
+		this.fetchSize = fetchSize;
+	}
+
+	private record Key(LocalDate day, String user, String listName) {
+	}
+
+	private record Total(long payments, double amount) {
+
+		private Total plus(long otherPayments, double otherAmount) {
+			return new Total(payments + otherPayments, amount + otherAmount);
+		}
+	}
+
+	private record Rollup(Instant computed, Map<Key, Total> totals) {
+	}
+
+	/**
+	 * @param from the low date range endpoint, inclusive
+	 * @param to the high date range endpoint, inclusive
+	 * @return the totals of the payments of the period
+	 */
+	@Transactional(readOnly = true)
+	public CashDeskSummaryDTO aggregate(LocalDateTime from, LocalDateTime to) {
+		Map<Key, Total> totals = new HashMap<>();
+		if (!from.isAfter(to)) {
+			LocalDate firstDay = from.toLocalTime().equals(LocalTime.MIDNIGHT) ? from.toLocalDate() : from.toLocalDate().plusDays(1);
+			LocalDate lastDay = to.toLocalTime().isBefore(END_OF_DAY) ? to.toLocalDate().minusDays(1) : to.toLocalDate();
+			LocalDate yesterday = LocalDate.now().minusDays(1);
+			if (lastDay.isAfter(yesterday)) {
+				lastDay = yesterday;
+			}
+			if (!rollupEnabled || firstDay.isAfter(lastDay)) {
+				stream(from, to, true, totals);
+			} else {
+				if (from.isBefore(firstDay.atStartOfDay())) {
+					stream(from, firstDay.atStartOfDay(), false, totals);
+				}
+				addRollups(firstDay, lastDay, totals);
+				LocalDateTime tail = lastDay.plusDays(1).atStartOfDay();
+				if (!to.isBefore(tail)) {
+					stream(tail, to, true, totals);
+				}
+			}
+		}
+		List<CashDeskRowDTO> rows = new ArrayList<>(totals.size());
+		totals.forEach((key, total) -> rows.add(new CashDeskRowDTO(key.day(), key.user(), key.listName(), total.payments(), total.amount())));
+		rows.sort(Comparator.comparing(CashDeskRowDTO::getDay)
+			.thenComparing(CashDeskRowDTO::getUser, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(CashDeskRowDTO::getListName, Comparator.nullsFirst(Comparator.naturalOrder())));
+		return new CashDeskSummaryDTO(from, to, rows);
+	}
+
+	/**
+	 * Drop the rollups of the days of written payments.
+	 *
+	 * @param dates the dates of the payments created, updated or deleted
+	 */
+	public void paymentsChanged(Collection<LocalDateTime> dates) {
+		invalidations.incrementAndGet();
+		for (LocalDateTime date : dates) {
+			if (date != null) {
+				rollups.remove(date.toLocalDate());
+			}
+		}
+	}
+
+	@Scheduled(fixedDelayString = "PT1H")
+	public void purgeExpiredRollups() {
+		Instant expiry = Instant.now().minus(rollupTtl);
+		rollups.values().removeIf(rollup -> rollup.computed().isBefore(expiry));
+	}
+
+	/**
+	 * Add the rollups of the given days, computing the missing ones with one query per run of consecutive days.
+	 */
+	private void addRollups(LocalDate firstDay, LocalDate lastDay, Map<Key, Total> totals) {
+		Instant expiry = Instant.now().minus(rollupTtl);
+		LocalDate runStart = null;
+		for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+			Rollup rollup = rollups.get(day);
+			boolean missing = rollup == null || rollup.computed().isBefore(expiry);
+			if (missing && runStart == null) {
+				runStart = day;
+			} else if (!missing && runStart != null) {
+				computeRollups(runStart, day.minusDays(1));
+				runStart = null;
+			}
+		}
+		if (runStart != null) {
+			computeRollups(runStart, lastDay);
+		}
+		for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+			Rollup rollup = rollups.get(day);
+			Map<Key, Total> dayTotals = rollup == null ? computeRollups(day, day).get(day) : rollup.totals();
+			dayTotals.forEach((key, total) -> totals.merge(key, total, (a, b) -> a.plus(b.payments(), b.amount())));
+		}
+	}
+
+	private Map<LocalDate, Map<Key, Total>> computeRollups(LocalDate firstDay, LocalDate lastDay) {
+		long generation = invalidations.get();
+		Map<Key, Total> totals = new HashMap<>();
+		stream(firstDay.atStartOfDay(), lastDay.plusDays(1).atStartOfDay(), false, totals);
+		Map<LocalDate, Map<Key, Total>> byDay = new HashMap<>();
+		for (LocalDate day = firstDay; !day.isAfter(lastDay); day = day.plusDays(1)) {
+			byDay.put(day, new HashMap<>());
+		}
+		totals.forEach((key, total) -> byDay.get(key.day()).put(key, total));
+		Instant now = Instant.now();
+		byDay.forEach((day, dayTotals) -> {
+			// a write during the computation may not be part of the totals: do not keep them
+			if (invalidations.get() == generation) {
+				rollups.put(day, new Rollup(now, Map.copyOf(dayTotals)));
+			}
+		});
+		return byDay;
+	}
+
+	private void stream(LocalDateTime from, LocalDateTime to, boolean toInclusive, Map<Key, Total> totals) {
+		try (Stream<Object[]> payments = entityManager.createQuery(PAYMENTS_JPQL + (toInclusive ? "<= :to" : "< :to"), Object[].class)
+			.setParameter("from", from)
+			.setParameter("to", to)
+			.setHint("org.hibernate.fetchSize", fetchSize)
+			.setHint("org.hibernate.readOnly", true)
+			.getResultStream()) {
+			payments.forEach(row -> {
+				Key key = new Key(((LocalDateTime) row[0]).toLocalDate(), (String) row[1], (String) row[2]);
+				double amount = row[3] == null ? 0 : ((Number) row[3]).doubleValue();
+				totals.merge(key, new Total(1, amount), (a, b) -> a.plus(b.payments(), b.amount()));
+			});
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Daily census and length of stay of a ward, or of all wards, over a period")
+public class AdmissionCensusDTO {
+
+	@Schema(description = "The ward code, null for all wards", example = "M")
+	private String wardCode;
+
+	@Schema(description = "The first day of the period, inclusive")
+	private LocalDate dateFrom;
+
+	@Schema(description = "The last day of the period, inclusive")
+	private LocalDate dateTo;
+
+	@Schema(description = "The census of every day of the period")
+	private List<CensusDayDTO> days;
+
+	@Schema(description = "The length of stay of the admissions discharged in the period")
+	private LengthOfStayDTO lengthOfStay;
+
+	public AdmissionCensusDTO() {
+	}
+
+	public AdmissionCensusDTO(String wardCode, LocalDate dateFrom, LocalDate dateTo, List<CensusDayDTO> days, LengthOfStayDTO lengthOfStay) {
+		this.wardCode = wardCode;
+		this.dateFrom = dateFrom;
+		this.dateTo = dateTo;
+		this.days = days;
+		this.lengthOfStay = lengthOfStay;
+	}
+
+	public String getWardCode() {
+		return wardCode;
+	}
+
+	public void setWardCode(String wardCode) {
+		this.wardCode = wardCode;
+	}
+
+	public LocalDate getDateFrom() {
+		return dateFrom;
+	}
+
+	public void setDateFrom(LocalDate dateFrom) {
+		this.dateFrom = dateFrom;
+	}
+
+	public LocalDate getDateTo() {
+		return dateTo;
+	}
+
+	public void setDateTo(LocalDate dateTo) {
+		this.dateTo = dateTo;
+	}
+
+	public List<CensusDayDTO> getDays() {
+		return days;
+	}
+
+	public void setDays(List<CensusDayDTO> days) {
+		this.days = days;
+	}
+
+	public LengthOfStayDTO getLengthOfStay() {
+		return lengthOfStay;
+	}
+
+	public void setLengthOfStay(LengthOfStayDTO lengthOfStay) {
+		this.lengthOfStay = lengthOfStay;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.dto;
+
+import java.time.LocalDate;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Census of a day")
+public class CensusDayDTO {
+
+	@Schema(description = "The day")
+	private LocalDate date;
+
+	@Schema(description = "The number of patients present at the end of the day", example = "23")
+	private int present;
+
+	@Schema(description = "The number of admissions of the day", example = "4")
+	private int admissions;
+
+	@Schema(description = "The number of discharges of the day", example = "3")
+	private int discharges;
+
+	public CensusDayDTO() {
+	}
+
+	public CensusDayDTO(LocalDate date, int present, int admissions, int discharges) {
+		this.date = date;
+		this.present = present;
+		this.admissions = admissions;
+		this.discharges = discharges;
+	}
+
+	public LocalDate getDate() {
+		return date;
+	}
+
+	public void setDate(LocalDate date) {
+		this.date = date;
+	}
+
+	public int getPresent() {
+		return present;
+	}
+
+	public void setPresent(int present) {
+		this.present = present;
+	}
+
+	public int getAdmissions() {
+		return admissions;
+	}
+
+	public void setAdmissions(int admissions) {
+		this.admissions = admissions;
+	}
+
+	public int getDischarges() {
+		return discharges;
+	}
+
+	public void setDischarges(int discharges) {
+		this.discharges = discharges;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Length of stay, in days, of the admissions discharged in a period")
+public class LengthOfStayDTO {
+
+	@Schema(description = "The number of discharged admissions", example = "120")
+	private int discharges;
+
+	@Schema(description = "The mean length of stay", example = "4.2")
+	private double mean;
+
+	@Schema(description = "The median length of stay", example = "3")
+	private int p50;
+
+	@Schema(description = "The 75th percentile of the length of stay", example = "5")
+	private int p75;
+
+	@Schema(description = "The 90th percentile of the length of stay", example = "9")
+	private int p90;
+
+	@Schema(description = "The 95th percentile of the length of stay", example = "12")
+	private int p95;
+
+	@Schema(description = "The longest stay", example = "41")
+	private int max;
+
+	public LengthOfStayDTO() {
+	}
+
+	public LengthOfStayDTO(int discharges, double mean, int p50, int p75, int p90, int p95, int max) {
+		this.discharges = discharges;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p75 = p75;
+		this.p90 = p90;
+		this.p95 = p95;
+		this.max = max;
+	}
+
+	public int getDischarges() {
+		return discharges;
+	}
+
+	public void setDischarges(int discharges) {
+		this.discharges = discharges;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public void setMean(double mean) {
+		this.mean = mean;
+	}
+
+	public int getP50() {
+		return p50;
+	}
+
+	public void setP50(int p50) {
+		this.p50 = p50;
+	}
+
+	public int getP75() {
+		return p75;
+	}
+
+	public void setP75(int p75) {
+		this.p75 = p75;
+	}
+
+	public int getP90() {
+		return p90;
+	}
+
+	public void setP90(int p90) {
+		this.p90 = p90;
+	}
+
+	public int getP95() {
+		return p95;
+	}
+
+	public void setP95(int p95) {
+		this.p95 = p95;
+	}
+
+	public int getMax() {
+		return max;
+	}
+
+	public void setMax(int max) {
+		this.max = max;
+	}
+}
@@ -27,6 +27,8 @@ import java.util.stream.Collectors;
 import org.isf.admission.dto.AdmissionDTO;
 import org.isf.admission.model.Admission;
 import org.isf.shared.GenericMapper;
+import org.isf.shared.fields.FieldSelection;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -38,7 +40,8 @@ public class AdmissionMapper extends GenericMapper<Admission, AdmissionDTO> {
 
 	@Override
 	public List<AdmissionDTO> map2DTOList(List<Admission> list) {
-		return list.stream().map(it -> map2DTO(it)).collect(Collectors.toList());
+		return FieldsMappingCondition.apply(FieldSelection.currentForList(),
+			() -> list.stream().map(it -> map2DTO(it)).collect(Collectors.toList()));
 	}
 
 	@Override
@@ -21,17 +21,20 @@
  */
 package org.isf.admission.rest;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 
 import jakarta.validation.Valid;
 
+import org.isf.admission.dto.AdmissionCensusDTO;
 import org.isf.admission.dto.AdmissionDTO;
 import org.isf.admission.dto.AdmittedPatientDTO;
 import org.isf.admission.manager.AdmissionBrowserManager;
 import org.isf.admission.mapper.AdmissionMapper;
 import org.isf.admission.mapper.AdmittedPatientMapper;
 import org.isf.admission.model.Admission;
+import org.isf.admission.service.AdmissionCensusIndex;
 import org.isf.admtype.model.AdmissionType;
 import org.isf.disctype.manager.DischargeTypeBrowserManager;
 import org.isf.disctype.model.DischargeType;
@@ -47,11 +50,13 @@ import org.isf.pregtreattype.manager.PregnantTreatmentTypeBrowserManager;
 import org.isf.pregtreattype.model.PregnantTreatmentType;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.shared.pagination.Page;
+import org.isf.shared.progressive.ProgressiveAllocator;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
 import org.isf.ward.manager.WardBrowserManager;
 import org.isf.ward.model.Ward;
+import org.isf.ward.service.WardOccupancyTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.format.annotation.DateTimeFormat;
@@ -107,6 +112,12 @@ public class AdmissionController {
 
 	private final DischargeTypeBrowserManager dischargeTypeManager;
 
+	private final WardOccupancyTracker wardOccupancyTracker;
+
+	private final ProgressiveAllocator progressiveAllocator;
+
+	private final AdmissionCensusIndex admissionCensusIndex;
+
 	public AdmissionController(
 		AdmissionBrowserManager admissionManager,
 		PatientBrowserManager patientManager,
@@ -117,7 +128,10 @@ public class AdmissionController {
 		DeliveryResultTypeBrowserManager deliveryResultTypeBrowserManager,
 		AdmissionMapper admissionMapper,
 		AdmittedPatientMapper admittedMapper,
-		DischargeTypeBrowserManager dischargeTypeManager
+		DischargeTypeBrowserManager dischargeTypeManager,
+		WardOccupancyTracker wardOccupancyTracker,
+		ProgressiveAllocator progressiveAllocator,
+		AdmissionCensusIndex admissionCensusIndex
 	) {
 		this.admissionManager = admissionManager;
 		this.patientManager = patientManager;
@@ -129,6 +143,9 @@ public class AdmissionController {
 		this.admissionMapper = admissionMapper;
 		this.admittedMapper = admittedMapper;
 		this.dischargeTypeManager = dischargeTypeManager;
+		this.wardOccupancyTracker = wardOccupancyTracker;
+		this.progressiveAllocator = progressiveAllocator;
+		this.admissionCensusIndex = admissionCensusIndex;
 	}
 
 	/**
@@ -259,8 +276,35 @@ public class AdmissionController {
 		return admissionsPageableDTO;
 	}
 
+	/**
+	 * Get the daily census of a {@link Ward}, or of all the wards, within specified date range: the patients present
+	 * at the end of every day, the admissions and the discharges of the day, and the length of stay of the admissions
+	 * discharged in the range.
+	 *
+	 * @param dateFrom the first day, inclusive
+	 * @param dateTo the last day, inclusive
+	 * @param wardCode Ward Code, all the wards if missing
+	 * @return the census of the range.
+	 */
+	@GetMapping("/admissions/census")
+	public AdmissionCensusDTO getCensus(
+		@RequestParam(value = "dateFrom") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) @Schema(implementation = String.class) LocalDate dateFrom,
+		@RequestParam(value = "dateTo") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) @Schema(implementation = String.class) LocalDate dateTo,
+		@RequestParam(value = "wardCode", required = false) String wardCode
+	) {
+		LOGGER.info("Get admission census from {} to {} for ward {}", dateFrom, dateTo, wardCode);
+		if (dateFrom.isAfter(dateTo)) {
+			throw new OHAPIException(new OHExceptionMessage("dateFrom must not be after dateTo."));
+		}
+		if (!admissionCensusIndex.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Admission census is not computed yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return admissionCensusIndex.census(dateFrom, dateTo, StringUtils.hasText(wardCode) ? wardCode : null);
+	}
+
 	/**
 	 * Get the next progressive ID in the year for specified {@link Ward} code.
+	 * The ID is only given to the admission when it is saved.
 	 *
 	 * @param wardCode Ward Code
 	 * @return the next progressive ID.
@@ -274,7 +318,8 @@ public class AdmissionController {
 			throw new OHAPIException(new OHExceptionMessage("Ward not found for code:" + wardCode));
 		}
 
-		return admissionManager.getNextYProg(wardCode);
+		return progressiveAllocator.peek(ProgressiveAllocator.Sequence.ADMISSION, wardCode,
+			() -> admissionManager.getNextYProg(wardCode) - 1);
 	}
 
 	/**
@@ -291,6 +336,10 @@ public class AdmissionController {
 		if (wardCode.trim().isEmpty() || !wardManager.isCodePresent(wardCode)) {
 			throw new OHAPIException(new OHExceptionMessage("Ward not found for code:" + wardCode));
 		}
+		Integer occupation = wardOccupancyTracker.isReady() ? wardOccupancyTracker.getOccupation(wardCode) : null;
+		if (occupation != null) {
+			return occupation;
+		}
 
 		return admissionManager.getUsedWardBed(wardCode);
 	}
@@ -312,6 +361,8 @@ public class AdmissionController {
 		}
 
 		admissionManager.setDeleted(id);
+		wardOccupancyTracker.moved(WardOccupancyTracker.occupiedWard(admission), null);
+		admissionCensusIndex.admissionChanged(id);
 		return true;
 	}
 
@@ -358,7 +409,12 @@ public class AdmissionController {
 		}
 
 		adm.setAdmitted(0);
+		String wardBefore = WardOccupancyTracker.occupiedWard(admission);
 		Admission admissionUpdated = admissionManager.updateAdmission(adm);
+		if (admissionUpdated != null) {
+			wardOccupancyTracker.moved(wardBefore, WardOccupancyTracker.occupiedWard(admissionUpdated));
+			admissionCensusIndex.admissionChanged(admissionUpdated.getId());
+		}
 
 		return admissionUpdated != null;
 	}
@@ -513,14 +569,33 @@ public class AdmissionController {
 			? newAdmission.getPatient().getFirstName() + ' ' + newAdmission.getPatient().getSecondName()
 			: newAdmission.getPatient().getName();
 		LOGGER.info("Create admission for patient {}", name);
+		allocateYProg(newAdmission);
 		int aId = admissionManager.newAdmissionReturnKey(newAdmission);
 		if (aId > 0) {
 			newAdmission.setId(aId);
+			wardOccupancyTracker.moved(null, WardOccupancyTracker.occupiedWard(newAdmission));
+			admissionCensusIndex.admissionChanged(aId);
 		}
 
 		return admissionMapper.map2DTO(newAdmission);
 	}
 
+	/**
+	 * Give a new {@link Admission} of the current year the next progressive ID of its {@link Ward}, unless the
+	 * allocator is unavailable.
+	 */
+	private void allocateYProg(Admission admission) throws OHServiceException {
+		Ward ward = admission.getWard();
+		if (ward != null && (admission.getAdmDate() == null || admission.getAdmDate().getYear() == LocalDate.now().getYear())) {
+			String wardCode = ward.getCode();
+			Integer yProg = progressiveAllocator.next(ProgressiveAllocator.Sequence.ADMISSION, wardCode,
+				() -> admissionManager.getNextYProg(wardCode) - 1);
+			if (yProg != null) {
+				admission.setYProg(yProg);
+			}
+		}
+	}
+
 	@ExceptionHandler
 	@ResponseStatus(HttpStatus.BAD_REQUEST)
 	public void handle(HttpMessageNotReadableException e) {
@@ -542,6 +617,7 @@ public class AdmissionController {
 		if (old == null) {
 			throw new OHAPIException(new OHExceptionMessage("Admission not found."));
 		}
+		String wardBefore = WardOccupancyTracker.occupiedWard(old);
 
 		Admission updateAdmission = admissionMapper.map2Model(updateAdmissionDTO);
 
@@ -681,6 +757,8 @@ public class AdmissionController {
 		if (isUpdatedAdmission == null) {
 			throw new OHAPIException(new OHExceptionMessage("Admission not updated."));
 		}
+		wardOccupancyTracker.moved(wardBefore, WardOccupancyTracker.occupiedWard(isUpdatedAdmission));
+		admissionCensusIndex.admissionChanged(isUpdatedAdmission.getId());
 
 		return admissionMapper.map2DTO(isUpdatedAdmission);
 	}
@@ -0,0 +1,367 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.admission.dto.AdmissionCensusDTO;
+import org.isf.admission.dto.CensusDayDTO;
+import org.isf.admission.dto.LengthOfStayDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * In-memory index of the admission stays (admission day, discharge day and ward) answering the daily census and
+ * the length of stay of any period without reading the admission table.
+ * <p>
+ * Every ward keeps the number of admissions and of discharges of every day in Fenwick trees, so the patients present
+ * at the end of a day are two prefix sums away, and the lengths of stay ordered by discharge day. The index is loaded
+ * at startup, updated by {@link org.isf.admission.rest.AdmissionController} when an admission is created, updated,
+ * discharged or deleted, and periodically reloaded to catch the writes of other clients.
+ */
+@Component
+public class AdmissionCensusIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionCensusIndex.class);
+
+	private static final String STAYS_JPQL = "SELECT a.id, w.code, a.admDate, a.disDate FROM Admission a JOIN a.ward w"
+		+ " WHERE a.deleted = 'N'";
+
+	private static final int[] PERCENTILES = { 50, 75, 90, 95 };
+
+	private record Stay(String ward, long admDay, Long disDay) {
+
+		int lengthOfStay() {
+			return (int) (disDay - admDay);
+		}
+	}
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean enabled;
+
+	private final int fetchSize;
+
+	private volatile boolean ready;
+
+	// guarded by this
+
+	private Map<Integer, Stay> stays = new HashMap<>();
+
+	private Map<String, WardStays> wards = new HashMap<>();
+
+	private Set<Integer> refreshedDuringReload;
+
+	public AdmissionCensusIndex(
+		@Value("${admission.census.enabled:true}") boolean enabled,
+		@Value("${admission.census.fetch.size:1000}") int fetchSize
+	) {
+		this.enabled = enabled;
+		this.fetchSize = fetchSize;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void loadOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Admission census index disabled.");
+			return;
+		}
+		reload();
+	}
+
+	/**
+	 * Reload every stay from the admissions.
+	 */
+	@Scheduled(fixedDelayString = "${admission.census.reload.interval:PT1H}", initialDelayString = "${admission.census.reload.interval:PT1H}")
+	@Transactional(readOnly = true)
+	public void reload() {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			refreshedDuringReload = new HashSet<>();
+		}
+		try {
+			long start = System.currentTimeMillis();
+			Map<Integer, Stay> loaded = new HashMap<>();
+			try (Stream<Object[]> rows = entityManager.createQuery(STAYS_JPQL, Object[].class)
+				.setHint("org.hibernate.fetchSize", fetchSize)
+				.setHint("org.hibernate.readOnly", true)
+				.getResultStream()) {
+				rows.forEach(row -> {
+					Stay stay = stay(row);
+					if (stay != null) {
+						loaded.put((Integer) row[0], stay);
+					}
+				});
+			}
+			Map<String, WardStays> built = new HashMap<>();
+			loaded.forEach((id, stay) -> built.computeIfAbsent(stay.ward(), ward -> new WardStays()).add(id, stay, 1));
+			Set<Integer> refreshed;
+			synchronized (this) {
+				stays = loaded;
+				wards = built;
+				refreshed = refreshedDuringReload;
+				refreshedDuringReload = null;
+			}
+			ready = true;
+			// admissions written while loading may have been read before their change
+			refreshed.forEach(this::refresh);
+			LOGGER.debug("Admission census index loaded: {} stays in {} ms.", loaded.size(), System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			synchronized (this) {
+				refreshedDuringReload = null;
+			}
+			LOGGER.error("Unable to load the admission census index.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the index has been loaded
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Re-read an admission created, updated, discharged or deleted.
+	 *
+	 * @param id the admission id
+	 */
+	public void admissionChanged(int id) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			if (refreshedDuringReload != null) {
+				refreshedDuringReload.add(id);
+			}
+		}
+		refresh(id);
+	}
+
+	/**
+	 * Compute the daily census and the length of stay of a period.
+	 *
+	 * @param dateFrom the first day, inclusive
+	 * @param dateTo the last day, inclusive
+	 * @param wardCode the ward code, {@code null} for all the wards
+	 * @return the census of every day and the length of stay of the admissions discharged in the period
+	 */
+	public synchronized AdmissionCensusDTO census(LocalDate dateFrom, LocalDate dateTo, String wardCode) {
+		List<WardStays> selected = wardCode == null ? new ArrayList<>(wards.values()) : new ArrayList<>();
+		if (wardCode != null && wards.containsKey(wardCode)) {
+			selected.add(wards.get(wardCode));
+		}
+		long from = dateFrom.toEpochDay();
+		long to = dateTo.toEpochDay();
+		List<CensusDayDTO> days = new ArrayList<>((int) Math.max(0, to - from + 1));
+		if (from <= to) {
+			int present = 0;
+			for (WardStays ward : selected) {
+				present += ward.admissions.sumUpTo(from - 1) - ward.discharges.sumUpTo(from - 1);
+			}
+			for (long day = from; day <= to; day++) {
+				int admissions = 0;
+				int discharges = 0;
+				for (WardStays ward : selected) {
+					admissions += ward.admissions.get(day);
+					discharges += ward.discharges.get(day);
+				}
+				present += admissions - discharges;
+				days.add(new CensusDayDTO(LocalDate.ofEpochDay(day), present, admissions, discharges));
+			}
+		}
+		return new AdmissionCensusDTO(wardCode, dateFrom, dateTo, days, lengthOfStay(selected, from, to));
+	}
+
+	private LengthOfStayDTO lengthOfStay(List<WardStays> selected, long from, long to) {
+		int count = 0;
+		for (WardStays ward : selected) {
+			count += from > to ? 0 : ward.lengths.subMap(key(from, 0), true, key(to, -1), true).size();
+		}
+		if (count == 0) {
+			return new LengthOfStayDTO(0, 0, 0, 0, 0, 0, 0);
+		}
+		int[] lengths = new int[count];
+		int index = 0;
+		long total = 0;
+		for (WardStays ward : selected) {
+			for (int length : ward.lengths.subMap(key(from, 0), true, key(to, -1), true).values()) {
+				lengths[index++] = length;
+				total += length;
+			}
+		}
+		Arrays.sort(lengths);
+		int[] percentiles = new int[PERCENTILES.length];
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			// nearest rank
+			percentiles[i] = lengths[Math.max(0, (int) Math.ceil(PERCENTILES[i] / 100.0 * count) - 1)];
+		}
+		return new LengthOfStayDTO(count, (double) total / count, percentiles[0], percentiles[1], percentiles[2], percentiles[3],
+			lengths[count - 1]);
+	}
+
+	private void refresh(int id) {
+		try {
+			List<Object[]> rows = entityManager.createQuery(STAYS_JPQL + " AND a.id = :id", Object[].class)
+				.setParameter("id", id)
+				.getResultList();
+			Stay stay = rows.isEmpty() ? null : stay(rows.get(0));
+			synchronized (this) {
+				Stay previous = stay == null ? stays.remove(id) : stays.put(id, stay);
+				if (previous != null) {
+					wards.get(previous.ward()).add(id, previous, -1);
+				}
+				if (stay != null) {
+					wards.computeIfAbsent(stay.ward(), ward -> new WardStays()).add(id, stay, 1);
+				}
+			}
+		} catch (RuntimeException exception) {
+			LOGGER.error("Unable to refresh the admission {} in the census index.", id, exception);
+		}
+	}
+
+	private static Stay stay(Object[] row) {
+		LocalDateTime admDate = (LocalDateTime) row[2];
+		LocalDateTime disDate = (LocalDateTime) row[3];
+		if (admDate == null) {
+			return null;
+		}
+		long admDay = admDate.toLocalDate().toEpochDay();
+		// a discharge recorded before the admission is counted as a same day discharge
+		Long disDay = disDate == null ? null : Math.max(admDay, disDate.toLocalDate().toEpochDay());
+		return new Stay((String) row[1], admDay, disDay);
+	}
+
+	private static long key(long disDay, int id) {
+		return (disDay << 32) | (id & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * The stays of a ward.
+	 */
+	private static final class WardStays {
+
+		private final DayCounts admissions = new DayCounts();
+
+		private final DayCounts discharges = new DayCounts();
+
+		// discharge day and admission id -> length of stay
+		private final NavigableMap<Long, Integer> lengths = new TreeMap<>();
+
+		void add(int id, Stay stay, int delta) {
+			admissions.add(stay.admDay(), delta);
+			if (stay.disDay() != null) {
+				discharges.add(stay.disDay(), delta);
+				if (delta > 0) {
+					lengths.put(key(stay.disDay(), id), stay.lengthOfStay());
+				} else {
+					lengths.remove(key(stay.disDay(), id));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts by day, with prefix sums in logarithmic time (Fenwick tree). The covered days grow as needed.
+	 */
+	private static final class DayCounts {
+
+		private long base;
+
+		private int[] counts = new int[0];
+
+		private int[] tree = new int[1];
+
+		void add(long day, int delta) {
+			ensureCovers(day);
+			int index = (int) (day - base);
+			counts[index] += delta;
+			for (int i = index + 1; i < tree.length; i += i & -i) {
+				tree[i] += delta;
+			}
+		}
+
+		int get(long day) {
+			long index = day - base;
+			return index < 0 || index >= counts.length ? 0 : counts[(int) index];
+		}
+
+		int sumUpTo(long day) {
+			long index = Math.min(day - base, counts.length - 1L);
+			int sum = 0;
+			for (int i = (int) (index + 1); i > 0; i -= i & -i) {
+				sum += tree[i];
+			}
+			return index < 0 ? 0 : sum;
+		}
+
+		private void ensureCovers(long day) {
+			if (counts.length == 0) {
+				base = day;
+			}
+			if (day >= base && day - base < counts.length) {
+				return;
+			}
+			long first = Math.min(base, day);
+			long last = Math.max(base + counts.length - 1, day);
+			// leave room to grow on both sides
+			long margin = Math.max(366, (last - first + 1) / 2);
+			long newBase = day < base ? first - margin : first;
+			int[] grown = new int[(int) (last + margin - newBase + 1)];
+			System.arraycopy(counts, 0, grown, (int) (base - newBase), counts.length);
+			base = newBase;
+			counts = grown;
+			tree = new int[grown.length + 1];
+			for (int i = 1; i < tree.length; i++) {
+				tree[i] += counts[i - 1];
+				int parent = i + (i & -i);
+				if (parent < tree.length) {
+					tree[parent] += tree[i];
+				}
+			}
+		}
+	}
+}
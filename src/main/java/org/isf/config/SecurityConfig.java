@@ -279,6 +279,7 @@ public class SecurityConfig {
 				.requestMatchers(HttpMethod.PUT, "/pregnanttreatmenttypes/**").hasAuthority("pregnanttreatmenttypes.update")
 				.requestMatchers(HttpMethod.DELETE, "/pregnanttreatmenttypes/**").hasAuthority("pregnanttreatmenttypes.delete")
 				// pricelists
+				.requestMatchers(HttpMethod.POST, "/pricelists/*/quote").hasAnyAuthority("pricelists.read")
 				.requestMatchers(HttpMethod.POST, "/pricelists/**").hasAuthority("pricelists.create")
 				.requestMatchers(HttpMethod.GET, "/pricelists/**").hasAnyAuthority("pricelists.read")
 				.requestMatchers(HttpMethod.PUT, "/pricelists/**").hasAuthority("pricelists.update")
@@ -0,0 +1,83 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.examination.dto;
+
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "The readings of a vital sign, as parallel arrays of timestamps and values")
+public class VitalSeriesDTO {
+
+	@Schema(description = "The vital sign", example = "WEIGHT")
+	private String vital;
+
+	@Schema(description = "The number of readings in the time window, before downsampling", example = "1440")
+	private int total;
+
+	@ArraySchema(schema = @Schema(description = "Date of the reading, in milliseconds since the epoch in the server time zone", example = "1710424680000"))
+	private long[] timestamps;
+
+	@ArraySchema(schema = @Schema(description = "Value of the reading", example = "71.5"))
+	private double[] values;
+
+	public VitalSeriesDTO() {
+	}
+
+	public VitalSeriesDTO(String vital, int total, long[] timestamps, double[] values) {
+		this.vital = vital;
+		this.total = total;
+		this.timestamps = timestamps;
+		this.values = values;
+	}
+
+	public String getVital() {
+		return vital;
+	}
+
+	public void setVital(String vital) {
+		this.vital = vital;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	public void setTimestamps(long[] timestamps) {
+		this.timestamps = timestamps;
+	}
+
+	public double[] getValues() {
+		return values;
+	}
+
+	public void setValues(double[] values) {
+		this.values = values;
+	}
+}
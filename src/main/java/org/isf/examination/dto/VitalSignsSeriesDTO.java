@@ -0,0 +1,97 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.examination.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "The vital signs of a patient over a time window")
+public class VitalSignsSeriesDTO {
+
+	@Schema(description = "The patient code", example = "1")
+	private Integer patientCode;
+
+	@Schema(description = "The start of the time window, inclusive, null if unbounded", type = "string")
+	private LocalDateTime dateFrom;
+
+	@Schema(description = "The end of the time window, exclusive, null if unbounded", type = "string")
+	private LocalDateTime dateTo;
+
+	@Schema(description = "The maximum number of readings of every series", example = "500")
+	private int points;
+
+	@Schema(description = "The series of every requested vital sign")
+	private List<VitalSeriesDTO> series;
+
+	public VitalSignsSeriesDTO() {
+	}
+
+	public VitalSignsSeriesDTO(Integer patientCode, LocalDateTime dateFrom, LocalDateTime dateTo, int points, List<VitalSeriesDTO> series) {
+		this.patientCode = patientCode;
+		this.dateFrom = dateFrom;
+		this.dateTo = dateTo;
+		this.points = points;
+		this.series = series;
+	}
+
+	public Integer getPatientCode() {
+		return patientCode;
+	}
+
+	public void setPatientCode(Integer patientCode) {
+		this.patientCode = patientCode;
+	}
+
+	public LocalDateTime getDateFrom() {
+		return dateFrom;
+	}
+
+	public void setDateFrom(LocalDateTime dateFrom) {
+		this.dateFrom = dateFrom;
+	}
+
+	public LocalDateTime getDateTo() {
+		return dateTo;
+	}
+
+	public void setDateTo(LocalDateTime dateTo) {
+		this.dateTo = dateTo;
+	}
+
+	public int getPoints() {
+		return points;
+	}
+
+	public void setPoints(int points) {
+		this.points = points;
+	}
+
+	public List<VitalSeriesDTO> getSeries() {
+		return series;
+	}
+
+	public void setSeries(List<VitalSeriesDTO> series) {
+		this.series = series;
+	}
+}
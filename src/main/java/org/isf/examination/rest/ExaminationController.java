@@ -21,15 +21,19 @@
  */
 package org.isf.examination.rest;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.isf.examination.dto.PatientExaminationDTO;
+import org.isf.examination.dto.VitalSignsSeriesDTO;
 import org.isf.examination.manager.ExaminationBrowserManager;
 import org.isf.examination.mapper.PatientExaminationMapper;
 import org.isf.examination.model.Ausculation;
 import org.isf.examination.model.Bowel;
 import org.isf.examination.model.Diurese;
 import org.isf.examination.model.PatientExamination;
+import org.isf.examination.service.VitalSignsSeries;
 import org.isf.generaldata.ExaminationParameters;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
@@ -40,6 +44,7 @@ import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -52,6 +57,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
@@ -69,14 +75,18 @@ public class ExaminationController {
 
 	private final PatientBrowserManager patientBrowserManager;
 
+	private final VitalSignsSeries vitalSignsSeries;
+
 	public ExaminationController(
 		ExaminationBrowserManager examinationBrowserManager,
 		PatientExaminationMapper patientExaminationMapper,
-		PatientBrowserManager patientBrowserManager
+		PatientBrowserManager patientBrowserManager,
+		VitalSignsSeries vitalSignsSeries
 	) {
 		this.examinationBrowserManager = examinationBrowserManager;
 		this.patientExaminationMapper = patientExaminationMapper;
 		this.patientBrowserManager = patientBrowserManager;
+		this.vitalSignsSeries = vitalSignsSeries;
 	}
 
 	@PostMapping("/examinations")
@@ -203,6 +213,55 @@ public class ExaminationController {
 		return patientExaminationMapper.map2DTOList(examinationBrowserManager.getByPatID(patId));
 	}
 
+	/**
+	 * Get the readings of some vital signs of a patient within a time window, as one pair of timestamp and value
+	 * arrays per vital sign, each downsampled to at most {@code points} readings.
+	 *
+	 * @param patId the patient code
+	 * @param vitals any of {@code HEIGHT}, {@code WEIGHT}, {@code AP_MIN}, {@code AP_MAX}, {@code HR}, {@code TEMP}
+	 * and {@code SAT}, all of them if missing
+	 * @param dateFrom the start of the time window, inclusive, unbounded if missing
+	 * @param dateTo the end of the time window, exclusive, unbounded if missing
+	 * @param points the maximum number of readings of every series, between 3 and {@code examination.series.max.points}
+	 * @return the series of every vital sign.
+	 */
+	@GetMapping("/examinations/patient/{patId}/series")
+	public VitalSignsSeriesDTO getVitalSignsSeries(
+		@PathVariable Integer patId,
+		@RequestParam(value = "vitals", required = false) List<String> vitals,
+		@RequestParam(value = "dateFrom", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) @Schema(implementation = String.class) LocalDateTime dateFrom,
+		@RequestParam(value = "dateTo", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) @Schema(implementation = String.class) LocalDateTime dateTo,
+		@RequestParam(value = "points", required = false, defaultValue = "500") int points
+	) throws OHServiceException {
+		LOGGER.info("Get vital signs {} of patient {} from {} to {}", vitals, patId, dateFrom, dateTo);
+		if (points < 3 || points > vitalSignsSeries.getMaxPoints()) {
+			throw new OHAPIException(new OHExceptionMessage("points must be between 3 and " + vitalSignsSeries.getMaxPoints() + '.'));
+		}
+		if (dateFrom != null && dateTo != null && dateFrom.isAfter(dateTo)) {
+			throw new OHAPIException(new OHExceptionMessage("dateFrom must not be after dateTo."));
+		}
+		List<VitalSignsSeries.Vital> selected = new ArrayList<>();
+		if (vitals == null || vitals.isEmpty()) {
+			selected.addAll(List.of(VitalSignsSeries.Vital.values()));
+		} else {
+			for (String vital : vitals) {
+				try {
+					VitalSignsSeries.Vital parsed = VitalSignsSeries.Vital.parse(vital);
+					if (!selected.contains(parsed)) {
+						selected.add(parsed);
+					}
+				} catch (IllegalArgumentException e) {
+					throw new OHAPIException(new OHExceptionMessage("Unknown vital sign: " + vital + '.'));
+				}
+			}
+		}
+		if (patientBrowserManager.getPatientById(patId) == null) {
+			throw new OHAPIException(new OHExceptionMessage("Patient does not exist."), HttpStatus.NOT_FOUND);
+		}
+
+		return vitalSignsSeries.series(patId, selected, dateFrom, dateTo, points);
+	}
+
 	public void validateExamination(PatientExaminationDTO newPatientExamination) throws OHServiceException {
 		ExaminationParameters.initialize();
 
@@ -0,0 +1,253 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.examination.service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.examination.dto.VitalSeriesDTO;
+import org.isf.examination.dto.VitalSignsSeriesDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Time series of the vital signs of a patient, read as projections of the examinations and downsampled with the
+ * largest-triangle-three-buckets algorithm, which keeps the shape of the curve (peaks included) with far fewer points.
+ * <p>
+ * Every series is built in primitive arrays: no object is created per reading.
+ */
+@Component
+public class VitalSignsSeries {
+
+	/**
+	 * The vital signs that can be charted, with the examination property they are read from.
+	 */
+	public enum Vital {
+		HEIGHT("pex_height"),
+		WEIGHT("pex_weight"),
+		AP_MIN("pex_ap_min"),
+		AP_MAX("pex_ap_max"),
+		HR("pex_hr"),
+		TEMP("pex_temp"),
+		SAT("pex_sat");
+
+		private final String property;
+
+		Vital(String property) {
+			this.property = property;
+		}
+
+		/**
+		 * @param name the name of the vital sign, case insensitive
+		 * @return the vital sign
+		 * @throws IllegalArgumentException if there is no vital sign with this name
+		 */
+		public static Vital parse(String name) {
+			return valueOf(name.trim().toUpperCase(Locale.ROOT));
+		}
+	}
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final int fetchSize;
+
+	private final int maxPoints;
+
+	public VitalSignsSeries(
+		@Value("${examination.series.fetch.size:1000}") int fetchSize,
+		@Value("${examination.series.max.points:5000}") int maxPoints
+	) {
+		this.fetchSize = fetchSize;
+		this.maxPoints = maxPoints;
+	}
+
+	/**
+	 * @return the highest number of points a series can be downsampled to
+	 */
+	public int getMaxPoints() {
+		return maxPoints;
+	}
+
+	/**
+	 * Read the series of the given vital signs of a patient.
+	 *
+	 * @param patientCode the patient code
+	 * @param vitals the vital signs, in the order of the returned series
+	 * @param dateFrom the start of the time window, inclusive, {@code null} if unbounded
+	 * @param dateTo the end of the time window, exclusive, {@code null} if unbounded
+	 * @param points the maximum number of readings of every series, at least 3
+	 * @return the series, sorted by date
+	 */
+	@Transactional(readOnly = true)
+	public VitalSignsSeriesDTO series(int patientCode, List<Vital> vitals, LocalDateTime dateFrom, LocalDateTime dateTo, int points) {
+		StringBuilder jpql = new StringBuilder("SELECT e.pex_date");
+		for (Vital vital : vitals) {
+			jpql.append(", e.").append(vital.property);
+		}
+		jpql.append(" FROM PatientExamination e WHERE e.patient.code = :patientCode");
+		if (dateFrom != null) {
+			jpql.append(" AND e.pex_date >= :dateFrom");
+		}
+		if (dateTo != null) {
+			jpql.append(" AND e.pex_date < :dateTo");
+		}
+		jpql.append(" ORDER BY e.pex_date, e.pex_ID");
+
+		TypedQuery<Object[]> query = entityManager.createQuery(jpql.toString(), Object[].class)
+			.setParameter("patientCode", patientCode)
+			.setHint("org.hibernate.fetchSize", fetchSize)
+			.setHint("org.hibernate.readOnly", true);
+		if (dateFrom != null) {
+			query.setParameter("dateFrom", dateFrom);
+		}
+		if (dateTo != null) {
+			query.setParameter("dateTo", dateTo);
+		}
+
+		ZoneId zone = ZoneId.systemDefault();
+		Column[] columns = new Column[vitals.size()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new Column();
+		}
+		try (Stream<Object[]> rows = query.getResultStream()) {
+			rows.forEach(row -> {
+				LocalDateTime date = (LocalDateTime) row[0];
+				if (date == null) {
+					return;
+				}
+				long timestamp = date.atZone(zone).toInstant().toEpochMilli();
+				for (int i = 0; i < columns.length; i++) {
+					if (row[i + 1] instanceof Number value) {
+						columns[i].add(timestamp, value.doubleValue());
+					}
+				}
+			});
+		}
+
+		List<VitalSeriesDTO> series = new ArrayList<>(columns.length);
+		for (int i = 0; i < columns.length; i++) {
+			series.add(columns[i].toSeries(vitals.get(i).name(), points));
+		}
+		return new VitalSignsSeriesDTO(patientCode, dateFrom, dateTo, points, series);
+	}
+
+	/**
+	 * Select the points kept by the largest-triangle-three-buckets downsampling: the first and the last points, and in
+	 * every bucket in between the point forming the largest triangle with the point kept in the previous bucket and the
+	 * average of the next bucket.
+	 *
+	 * @param x the abscissas, in ascending order
+	 * @param y the ordinates
+	 * @param size the number of points
+	 * @param threshold the number of points to keep, at least 3
+	 * @return the indexes of the kept points, in ascending order
+	 */
+	static int[] largestTriangleThreeBuckets(long[] x, double[] y, int size, int threshold) {
+		if (threshold >= size || threshold < 3) {
+			int[] all = new int[size];
+			Arrays.setAll(all, i -> i);
+			return all;
+		}
+		int[] kept = new int[threshold];
+		double every = (double) (size - 2) / (threshold - 2);
+		long origin = x[0];
+		int a = 0;
+		for (int bucket = 0; bucket < threshold - 2; bucket++) {
+			int nextStart = (int) Math.floor((bucket + 1) * every) + 1;
+			int nextEnd = Math.min((int) Math.floor((bucket + 2) * every) + 1, size);
+			double averageX = 0;
+			double averageY = 0;
+			for (int i = nextStart; i < nextEnd; i++) {
+				averageX += x[i] - origin;
+				averageY += y[i];
+			}
+			averageX /= nextEnd - nextStart;
+			averageY /= nextEnd - nextStart;
+
+			int start = (int) Math.floor(bucket * every) + 1;
+			int end = (int) Math.floor((bucket + 1) * every) + 1;
+			double ax = x[a] - origin;
+			double ay = y[a];
+			double maxArea = -1;
+			int selected = start;
+			for (int i = start; i < end; i++) {
+				// twice the area, enough to compare
+				double area = Math.abs((ax - averageX) * (y[i] - ay) - (ax - (x[i] - origin)) * (averageY - ay));
+				if (area > maxArea) {
+					maxArea = area;
+					selected = i;
+				}
+			}
+			kept[bucket + 1] = selected;
+			a = selected;
+		}
+		kept[threshold - 1] = size - 1;
+		return kept;
+	}
+
+	/**
+	 * The readings of a vital sign, in growable primitive arrays.
+	 */
+	private static final class Column {
+
+		private long[] timestamps = new long[64];
+
+		private double[] values = new double[64];
+
+		private int size;
+
+		void add(long timestamp, double value) {
+			if (size == timestamps.length) {
+				timestamps = Arrays.copyOf(timestamps, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			timestamps[size] = timestamp;
+			values[size] = value;
+			size++;
+		}
+
+		VitalSeriesDTO toSeries(String vital, int points) {
+			if (size <= points) {
+				return new VitalSeriesDTO(vital, size, Arrays.copyOf(timestamps, size), Arrays.copyOf(values, size));
+			}
+			int[] kept = largestTriangleThreeBuckets(timestamps, values, size, points);
+			long[] keptTimestamps = new long[kept.length];
+			double[] keptValues = new double[kept.length];
+			for (int i = 0; i < kept.length; i++) {
+				keptTimestamps[i] = timestamps[kept[i]];
+				keptValues[i] = values[kept[i]];
+			}
+			return new VitalSeriesDTO(vital, size, keptTimestamps, keptValues);
+		}
+	}
+}
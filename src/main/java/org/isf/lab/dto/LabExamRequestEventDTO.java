@@ -0,0 +1,135 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.lab.dto;
+
+import java.time.LocalDateTime;
+
+import org.isf.lab.model.LaboratoryStatus;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Creation or status change of a lab exam request")
+public class LabExamRequestEventDTO {
+
+	@Schema(description = "Sequence number of the event, sent as the event id", example = "42")
+	private long sequence;
+
+	@Schema(description = "Laboratory Code", example = "12")
+	private Integer code;
+
+	@Schema(description = "Laboratory Patient Code", example = "3")
+	private Integer patientCode;
+
+	@Schema(description = "Ward of the patient's current admission, empty for patients not admitted", example = "M")
+	private String wardCode;
+
+	@Schema(description = "Exam Code", example = "01.01")
+	private String examCode;
+
+	@Schema(description = "Status before the change, empty for a creation", example = "DRAFT")
+	private LaboratoryStatus previousStatus;
+
+	@Schema(description = "Status after the change", example = "OPEN")
+	private LaboratoryStatus status;
+
+	@Schema(description = "Date of the change", type = "string")
+	private LocalDateTime date;
+
+	public LabExamRequestEventDTO() {
+	}
+
+	public LabExamRequestEventDTO(long sequence, Integer code, Integer patientCode, String wardCode, String examCode,
+		LaboratoryStatus previousStatus, LaboratoryStatus status, LocalDateTime date) {
+		this.sequence = sequence;
+		this.code = code;
+		this.patientCode = patientCode;
+		this.wardCode = wardCode;
+		this.examCode = examCode;
+		this.previousStatus = previousStatus;
+		this.status = status;
+		this.date = date;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public Integer getCode() {
+		return code;
+	}
+
+	public void setCode(Integer code) {
+		this.code = code;
+	}
+
+	public Integer getPatientCode() {
+		return patientCode;
+	}
+
+	public void setPatientCode(Integer patientCode) {
+		this.patientCode = patientCode;
+	}
+
+	public String getWardCode() {
+		return wardCode;
+	}
+
+	public void setWardCode(String wardCode) {
+		this.wardCode = wardCode;
+	}
+
+	public String getExamCode() {
+		return examCode;
+	}
+
+	public void setExamCode(String examCode) {
+		this.examCode = examCode;
+	}
+
+	public LaboratoryStatus getPreviousStatus() {
+		return previousStatus;
+	}
+
+	public void setPreviousStatus(LaboratoryStatus previousStatus) {
+		this.previousStatus = previousStatus;
+	}
+
+	public LaboratoryStatus getStatus() {
+		return status;
+	}
+
+	public void setStatus(LaboratoryStatus status) {
+		this.status = status;
+	}
+
+	public LocalDateTime getDate() {
+		return date;
+	}
+
+	public void setDate(LocalDateTime date) {
+		this.date = date;
+	}
+}
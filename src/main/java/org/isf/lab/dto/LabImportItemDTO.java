@@ -0,0 +1,101 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.lab.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Outcome of an item of a lab results import")
+public class LabImportItemDTO {
+
+	public enum Status {
+		/** Saved. */
+		IMPORTED,
+		/** Not saved: unknown patient or exam, invalid item or rejected by the laboratory rules. */
+		FAILED
+	}
+
+	@Schema(description = "The index of the item in the request, starting from 0", example = "0")
+	private int index;
+
+	@Schema(description = "Laboratory Patient Code", example = "3")
+	private Integer patientCode;
+
+	@Schema(description = "Exam Code", example = "01.01")
+	private String examCode;
+
+	@Schema(description = "The item outcome", example = "IMPORTED")
+	private Status status;
+
+	@Schema(description = "The reason of the failure", example = "Patient not found.")
+	private String error;
+
+	public LabImportItemDTO() {
+	}
+
+	public LabImportItemDTO(int index, Integer patientCode, String examCode, Status status, String error) {
+		this.index = index;
+		this.patientCode = patientCode;
+		this.examCode = examCode;
+		this.status = status;
+		this.error = error;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public Integer getPatientCode() {
+		return patientCode;
+	}
+
+	public void setPatientCode(Integer patientCode) {
+		this.patientCode = patientCode;
+	}
+
+	public String getExamCode() {
+		return examCode;
+	}
+
+	public void setExamCode(String examCode) {
+		this.examCode = examCode;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+}
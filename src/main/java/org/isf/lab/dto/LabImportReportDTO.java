@@ -0,0 +1,84 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.lab.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Report of a lab results import")
+public class LabImportReportDTO {
+
+	@Schema(description = "The number of items in the request", example = "500")
+	private int total;
+
+	@Schema(description = "The number of items saved", example = "498")
+	private int imported;
+
+	@Schema(description = "The number of items not saved", example = "2")
+	private int failed;
+
+	@Schema(description = "The outcome of every item, in the request order")
+	private List<LabImportItemDTO> items;
+
+	public LabImportReportDTO() {
+	}
+
+	public LabImportReportDTO(List<LabImportItemDTO> items) {
+		this.items = items;
+		this.total = items.size();
+		this.imported = (int) items.stream().filter(item -> item.getStatus() == LabImportItemDTO.Status.IMPORTED).count();
+		this.failed = total - imported;
+	}
+
+	public int getTotal() {
+		return total;
+	}
+
+	public void setTotal(int total) {
+		this.total = total;
+	}
+
+	public int getImported() {
+		return imported;
+	}
+
+	public void setImported(int imported) {
+		this.imported = imported;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+	public void setFailed(int failed) {
+		this.failed = failed;
+	}
+
+	public List<LabImportItemDTO> getItems() {
+		return items;
+	}
+
+	public void setItems(List<LabImportItemDTO> items) {
+		this.items = items;
+	}
+}
@@ -30,6 +30,7 @@ import java.util.stream.Collectors;
 
 import org.isf.exa.manager.ExamBrowsingManager;
 import org.isf.exa.model.Exam;
+import org.isf.lab.dto.LabImportReportDTO;
 import org.isf.lab.dto.LabWithRowsDTO;
 import org.isf.lab.dto.LaboratoryDTO;
 import org.isf.lab.dto.LaboratoryRowDTO;
@@ -39,29 +40,38 @@ import org.isf.lab.mapper.LaboratoryRowMapper;
 import org.isf.lab.model.Laboratory;
 import org.isf.lab.model.LaboratoryRow;
 import org.isf.lab.model.LaboratoryStatus;
+import org.isf.lab.service.LabBulkImport;
+import org.isf.lab.service.LabExamRequestFeed;
+import org.isf.lab.service.LabExamRequestQuery;
 import org.isf.patient.dto.PatientSTATUS;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.shared.pagination.Page;
+import org.isf.shared.pagination.PageInfoDTO;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
@@ -86,6 +96,8 @@ public class LaboratoryController {
 
 	private static final String DONE = LaboratoryStatus.done.toString();
 
+	private static final List<LaboratoryStatus> PENDING_STATUSES = List.of(LaboratoryStatus.draft, LaboratoryStatus.open);
+
 	private final LabManager laboratoryManager;
 
 	private final ExamBrowsingManager examManager;
@@ -96,18 +108,30 @@ public class LaboratoryController {
 
 	private final LaboratoryRowMapper laboratoryRowMapper;
 
+	private final LabExamRequestFeed labExamRequestFeed;
+
+	private final LabExamRequestQuery labExamRequestQuery;
+
+	private final LabBulkImport labBulkImport;
+
 	public LaboratoryController(
 		LabManager laboratoryManager,
 		PatientBrowserManager patientBrowserManager,
 		ExamBrowsingManager examManager,
 		LaboratoryMapper laboratoryMapper,
-		LaboratoryRowMapper laboratoryRowMapper
+		LaboratoryRowMapper laboratoryRowMapper,
+		LabExamRequestFeed labExamRequestFeed,
+		LabExamRequestQuery labExamRequestQuery,
+		LabBulkImport labBulkImport
 	) {
 		this.laboratoryManager = laboratoryManager;
 		this.patientBrowserManager = patientBrowserManager;
 		this.examManager = examManager;
 		this.laboratoryMapper = laboratoryMapper;
 		this.laboratoryRowMapper = laboratoryRowMapper;
+		this.labExamRequestFeed = labExamRequestFeed;
+		this.labExamRequestQuery = labExamRequestQuery;
+		this.labBulkImport = labBulkImport;
 	}
 
 	/**
@@ -149,6 +173,7 @@ public class LaboratoryController {
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Laboratory not created."));
 		}
+		labExamRequestFeed.created(labToInsert);
 
 		return true;
 	}
@@ -184,16 +209,8 @@ public class LaboratoryController {
 		labToInsert.setStatus(DRAFT);
 		labToInsert.setResult("");
 		labToInsert.setInOutPatient(laboratoryDTO.getInOutPatient().toString());
-		List<Laboratory> labList = laboratoryManager.getLaboratory(patient)
-			.stream()
-			.filter(e -> e.getStatus().equals(DRAFT)).toList();
-
-		if (!labList.isEmpty()) {
-			for (Laboratory lab : labList) {
-				if (lab.getExam().equals(exam)) {
-					throw new OHAPIException(new OHExceptionMessage("Exam Request already exists."));
-				}
-			}
+		if (labExamRequestQuery.exists(patient.getCode(), exam.getCode(), LaboratoryStatus.draft)) {
+			throw new OHAPIException(new OHExceptionMessage("Exam Request already exists."));
 		}
 
 		try {
@@ -201,6 +218,7 @@ public class LaboratoryController {
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Laboratory not created."));
 		}
+		labExamRequestFeed.created(labToInsert);
 
 		return true;
 	}
@@ -255,10 +273,40 @@ public class LaboratoryController {
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Laboratory not created."));
 		}
+		labsToInsert.forEach(labExamRequestFeed::created);
 
 		return true;
 	}
 
+	/**
+	 * Import a {@link List} of {@link LabWithRowsDTO}, e.g. the results uploaded by an analyzer.
+	 * Unlike {@code /laboratories/insertList}, an invalid or rejected item does not abort the whole list.
+	 *
+	 * @param labsWithRows List of lab exam with rows
+	 * @param chunkSize Number of lab exams saved per transaction
+	 * @return the outcome of every item, with status {@code 201} if every item has been saved, {@code 207} if some
+	 * have been saved, {@code 422} if none
+	 * @throws OHServiceException When the list is empty or too large
+	 */
+	@PostMapping("/laboratories/import")
+	public ResponseEntity<LabImportReportDTO> importLaboratories(
+		@RequestBody List<LabWithRowsDTO> labsWithRows,
+		@RequestParam(name = "chunk_size", required = false, defaultValue = "0") int chunkSize
+	) throws OHServiceException {
+		LOGGER.info("Import {} Exams with result", labsWithRows.size());
+		if (labsWithRows.isEmpty()) {
+			throw new OHAPIException(new OHExceptionMessage("No laboratory to import."));
+		}
+		if (labsWithRows.size() > labBulkImport.getMaxItems()) {
+			throw new OHAPIException(new OHExceptionMessage("Too many laboratories, the maximum is " + labBulkImport.getMaxItems() + "."));
+		}
+
+		LabImportReportDTO report = labBulkImport.importAll(labsWithRows, chunkSize);
+		HttpStatus status = report.getFailed() == 0 ? HttpStatus.CREATED
+			: report.getImported() > 0 ? HttpStatus.MULTI_STATUS : HttpStatus.UNPROCESSABLE_ENTITY;
+		return ResponseEntity.status(status).body(report);
+	}
+
 	/**
 	 * Updates the specified {@link LaboratoryRowDTO} object.
 	 *
@@ -289,6 +337,7 @@ public class LaboratoryController {
 		if (lab.getStatus().equalsIgnoreCase(DELETED) || lab.getStatus().equalsIgnoreCase(INVALID)) {
 			throw new OHAPIException(new OHExceptionMessage("This exam can not be update because its status is " + lab.getStatus()));
 		}
+		String previousStatus = lab.getStatus();
 
 		Patient patient = patientBrowserManager.getPatientById(laboratoryDTO.getPatientCode());
 		if (patient == null) {
@@ -323,6 +372,7 @@ public class LaboratoryController {
 			}
 			throw new OHAPIException(e.getMessages().get(0));
 		}
+		labExamRequestFeed.statusChanged(labToInsert, previousStatus, labToInsert.getStatus());
 
 		return true;
 	}
@@ -341,12 +391,17 @@ public class LaboratoryController {
 		@PathVariable Integer code, @RequestParam String status
 	) throws OHServiceException {
 		LOGGER.info("Update exam request code: {}", code);
+		Laboratory lab = laboratoryManager.getLaboratory(code).orElse(null);
+		String previousStatus = lab == null ? null : lab.getStatus();
 
 		try {
 			laboratoryManager.updateExamRequest(code, status);
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Laboratory not updated."));
 		}
+		if (lab != null) {
+			labExamRequestFeed.statusChanged(lab, previousStatus, status);
+		}
 
 		return true;
 	}
@@ -371,8 +426,10 @@ public class LaboratoryController {
 			throw new OHAPIException(new OHExceptionMessage("Lab exam not found."), HttpStatus.NOT_FOUND);
 		}
 
+		String previousStatus = lab.get().getStatus();
 		try {
 			laboratoryManager.updateExamRequest(code, DELETED);
+			labExamRequestFeed.statusChanged(lab.get(), previousStatus, DELETED);
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Exam is not deleted."));
@@ -495,16 +552,10 @@ public class LaboratoryController {
 			throw new OHAPIException(new OHExceptionMessage("Patient not found."));
 		}
 
-		List<Laboratory> labList = laboratoryManager.getLaboratory(patient).stream()
-			.filter(e -> e.getStatus().equalsIgnoreCase(DRAFT) || e.getStatus().equalsIgnoreCase(OPEN)).toList();
+		List<Laboratory> labList = labExamRequestQuery.find(
+			new LabExamRequestQuery.Filter(PENDING_STATUSES, patient.getCode(), null, null), 0, 0);
 
-		return labList.stream().map(lab -> {
-			LaboratoryDTO laboratoryDTO = laboratoryMapper.map2DTO(lab);
-			laboratoryDTO.setRegistrationDate(lab.getCreatedDate());
-			laboratoryDTO.setInOutPatient(PatientSTATUS.valueOf(lab.getInOutPatient()));
-			laboratoryDTO.setStatus(LaboratoryStatus.valueOf(lab.getStatus()));
-			return laboratoryDTO;
-		}).collect(Collectors.toList());
+		return labList.stream().map(this::toExamRequestDTO).collect(Collectors.toList());
 	}
 
 	/**
@@ -517,16 +568,71 @@ public class LaboratoryController {
 	@GetMapping("/laboratories/examRequest")
 	public List<LaboratoryDTO> getLaboratoryExamRequest() throws OHServiceException {
 		LOGGER.info("Get all Exam Requested");
-		List<Laboratory> labList = laboratoryManager.getLaboratory().stream()
-			.filter(e -> e.getStatus().equalsIgnoreCase(DRAFT) || e.getStatus().equalsIgnoreCase(OPEN)).toList();
+		List<Laboratory> labList = labExamRequestQuery.find(new LabExamRequestQuery.Filter(PENDING_STATUSES, null, null, null), 0, 0);
 
-		return labList.stream().map(lab -> {
-			LaboratoryDTO laboratoryDTO = laboratoryMapper.map2DTO(lab);
-			laboratoryDTO.setRegistrationDate(lab.getCreatedDate());
-			laboratoryDTO.setInOutPatient(PatientSTATUS.valueOf(lab.getInOutPatient()));
-			laboratoryDTO.setStatus(LaboratoryStatus.valueOf(lab.getStatus()));
-			return laboratoryDTO;
-		}).collect(Collectors.toList());
+		return labList.stream().map(this::toExamRequestDTO).collect(Collectors.toList());
+	}
+
+	/**
+	 * Get the {@link LaboratoryDTO}s matching the specified filters, divided by pages. Filtering and paging are done
+	 * by the database.
+	 *
+	 * @param statuses Comma separated statuses, DRAFT and OPEN if not specified
+	 * @param patientCode Patient code
+	 * @param dateFrom Start date
+	 * @param dateTo End date
+	 * @param page The page number
+	 * @param size The page size
+	 * @return the page of found {@link LaboratoryDTO}s, most recent first
+	 * @throws OHServiceException When a status is not valid
+	 */
+	@GetMapping("/laboratories/examRequest/search")
+	public Page<LaboratoryDTO> searchExamRequests(
+		@RequestParam(value = "status", required = false) List<String> statuses,
+		@RequestParam(value = "patientCode", required = false) Integer patientCode,
+		@RequestParam(value = "dateFrom", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'") @Schema(implementation = String.class) LocalDateTime dateFrom,
+		@RequestParam(value = "dateTo", required = false) @DateTimeFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'") @Schema(implementation = String.class) LocalDateTime dateTo,
+		@RequestParam(value = "page", required = false, defaultValue = "0") int page,
+		@RequestParam(value = "size", required = false, defaultValue = DEFAULT_PAGE_SIZE) int size
+	) throws OHServiceException {
+		LOGGER.info("Search Exam Requests");
+		List<LaboratoryStatus> statusList = PENDING_STATUSES;
+		if (statuses != null && !statuses.isEmpty()) {
+			statusList = new ArrayList<>();
+			for (String status : statuses) {
+				statusList.add(parseStatus(status));
+			}
+		}
+		if (page < 0 || size < 1) {
+			throw new OHAPIException(new OHExceptionMessage("Invalid page or size."));
+		}
+
+		LabExamRequestQuery.Filter filter = new LabExamRequestQuery.Filter(statusList, patientCode, dateFrom, dateTo);
+		List<LaboratoryDTO> labList = labExamRequestQuery.find(filter, page, size).stream().map(this::toExamRequestDTO).toList();
+
+		Page<LaboratoryDTO> result = new Page<>();
+		result.setData(labList);
+		result.setPageInfo(PageInfoDTO.of(page, size, labList.size(), labExamRequestQuery.count(filter)));
+		return result;
+	}
+
+	/**
+	 * Streams the creations and status changes of the exam requests as server-sent {@code created} and
+	 * {@code status} events, optionally restricted to the patients admitted in a ward or to a patient.
+	 * A client reconnecting with the {@code Last-Event-ID} header first receives the events it missed.
+	 *
+	 * @param wardCode Ward code
+	 * @param patientCode Patient code
+	 * @param lastEventId Id of the last event received
+	 * @return the event stream
+	 */
+	@GetMapping(value = "/laboratories/examRequest/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamExamRequests(
+		@RequestParam(value = "wardCode", required = false) String wardCode,
+		@RequestParam(value = "patientCode", required = false) Integer patientCode,
+		@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId
+	) {
+		return labExamRequestFeed.subscribe(wardCode, patientCode, lastEventId);
 	}
 
 	/**
@@ -728,11 +834,30 @@ public class LaboratoryController {
 			throw new OHAPIException(new OHExceptionMessage("Lab exam not found"), HttpStatus.NOT_FOUND);
 		}
 
+		String previousStatus = labo.get().getStatus();
 		try {
 			laboratoryManager.updateExamRequest(code, INVALID);
+			labExamRequestFeed.statusChanged(labo.get(), previousStatus, INVALID);
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Exam request is not deleted."));
 		}
 	}
+
+	private LaboratoryDTO toExamRequestDTO(Laboratory lab) {
+		LaboratoryDTO laboratoryDTO = laboratoryMapper.map2DTO(lab);
+		laboratoryDTO.setRegistrationDate(lab.getCreatedDate());
+		laboratoryDTO.setInOutPatient(PatientSTATUS.valueOf(lab.getInOutPatient()));
+		laboratoryDTO.setStatus(LaboratoryStatus.valueOf(lab.getStatus()));
+		return laboratoryDTO;
+	}
+
+	private static LaboratoryStatus parseStatus(String status) throws OHAPIException {
+		for (LaboratoryStatus value : LaboratoryStatus.values()) {
+			if (value.toString().equalsIgnoreCase(status.trim())) {
+				return value;
+			}
+		}
+		throw new OHAPIException(new OHExceptionMessage("Invalid status " + status + "."));
+	}
 }
@@ -0,0 +1,243 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.lab.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.exa.model.Exam;
+import org.isf.lab.dto.LabImportItemDTO;
+import org.isf.lab.dto.LabImportReportDTO;
+import org.isf.lab.dto.LabWithRowsDTO;
+import org.isf.lab.dto.LaboratoryDTO;
+import org.isf.lab.dto.LaboratoryRowDTO;
+import org.isf.lab.manager.LabManager;
+import org.isf.lab.mapper.LaboratoryMapper;
+import org.isf.lab.mapper.LaboratoryRowMapper;
+import org.isf.lab.model.Laboratory;
+import org.isf.lab.model.LaboratoryRow;
+import org.isf.patient.model.Patient;
+import org.isf.utils.exception.OHServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Imports a batch of lab exams with their results, e.g. the upload of an analyzer.
+ * <p>
+ * The patients and exams of the whole batch are resolved up front with one query each, the items are then
+ * validated in parallel and the valid ones saved in chunks, each chunk in a single transaction. When a chunk is
+ * rejected its items are saved one by one, so that only the faulty items are reported as failed.
+ */
+@Component
+public class LabBulkImport {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LabBulkImport.class);
+
+	/** Upper bound of the values bound to an {@code IN} clause. */
+	private static final int IN_CLAUSE_SIZE = 1000;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final LabManager laboratoryManager;
+
+	private final LaboratoryMapper laboratoryMapper;
+
+	private final LaboratoryRowMapper laboratoryRowMapper;
+
+	private final LabExamRequestFeed labExamRequestFeed;
+
+	private final int defaultChunkSize;
+
+	private final int maxItems;
+
+	public LabBulkImport(
+		LabManager laboratoryManager,
+		LaboratoryMapper laboratoryMapper,
+		LaboratoryRowMapper laboratoryRowMapper,
+		LabExamRequestFeed labExamRequestFeed,
+		@Value("${lab.import.chunk.size:100}") int defaultChunkSize,
+		@Value("${lab.import.max.items:5000}") int maxItems
+	) {
+		this.laboratoryManager = laboratoryManager;
+		this.laboratoryMapper = laboratoryMapper;
+		this.laboratoryRowMapper = laboratoryRowMapper;
+		this.labExamRequestFeed = labExamRequestFeed;
+		this.defaultChunkSize = defaultChunkSize;
+		this.maxItems = maxItems;
+	}
+
+	/**
+	 * A validated item with its patient and exam.
+	 */
+	private record Prepared(int index, LabWithRowsDTO item, Patient patient, Exam exam) {
+	}
+
+	/**
+	 * @return the maximum number of items of an import
+	 */
+	public int getMaxItems() {
+		return maxItems;
+	}
+
+	/**
+	 * Import the given lab exams.
+	 *
+	 * @param items the lab exams with their results
+	 * @param chunkSize the number of items saved per transaction, the configured default if not positive
+	 * @return the outcome of every item
+	 */
+	public LabImportReportDTO importAll(List<LabWithRowsDTO> items, int chunkSize) {
+		int size = chunkSize > 0 ? chunkSize : defaultChunkSize;
+		Set<Integer> patientCodes = new LinkedHashSet<>();
+		Set<String> examCodes = new LinkedHashSet<>();
+		for (LabWithRowsDTO item : items) {
+			LaboratoryDTO laboratoryDTO = item == null ? null : item.getLaboratoryDTO();
+			if (laboratoryDTO != null) {
+				patientCodes.add(laboratoryDTO.getPatientCode());
+				if (laboratoryDTO.getExam() != null) {
+					examCodes.add(laboratoryDTO.getExam().getCode());
+				}
+			}
+		}
+		patientCodes.remove(null);
+		examCodes.remove(null);
+		Map<Integer, Patient> patients = load("SELECT p FROM Patient p WHERE p.code IN :codes", Patient.class, patientCodes, Patient::getCode);
+		Map<String, Exam> exams = load("SELECT e FROM Exam e WHERE e.code IN :codes", Exam.class, examCodes, Exam::getCode);
+
+		LabImportItemDTO[] outcomes = new LabImportItemDTO[items.size()];
+		List<Prepared> prepared = IntStream.range(0, items.size()).parallel()
+			.mapToObj(index -> prepare(index, items.get(index), patients, exams, outcomes))
+			.filter(Objects::nonNull)
+			.toList();
+
+		for (int from = 0; from < prepared.size(); from += size) {
+			List<Prepared> chunk = prepared.subList(from, Math.min(from + size, prepared.size()));
+			if (chunk.size() == 1 || !save(chunk, outcomes)) {
+				for (Prepared item : chunk) {
+					save(List.of(item), outcomes);
+				}
+			}
+		}
+		for (Prepared item : prepared) {
+			if (outcomes[item.index()] == null) {
+				outcomes[item.index()] = outcome(item, LabImportItemDTO.Status.IMPORTED, null);
+			}
+		}
+		LabImportReportDTO report = new LabImportReportDTO(List.of(outcomes));
+		LOGGER.info("Lab import: {} items, {} imported, {} failed.", report.getTotal(), report.getImported(), report.getFailed());
+		return report;
+	}
+
+	private Prepared prepare(int index, LabWithRowsDTO item, Map<Integer, Patient> patients, Map<String, Exam> exams,
+		LabImportItemDTO[] outcomes) {
+		LaboratoryDTO laboratoryDTO = item == null ? null : item.getLaboratoryDTO();
+		Integer patientCode = laboratoryDTO == null ? null : laboratoryDTO.getPatientCode();
+		String examCode = laboratoryDTO == null || laboratoryDTO.getExam() == null ? null : laboratoryDTO.getExam().getCode();
+		String error = null;
+		if (laboratoryDTO == null) {
+			error = "Laboratory is required.";
+		} else if (patientCode == null || !patients.containsKey(patientCode)) {
+			error = "Patient not found.";
+		} else if (examCode == null || !exams.containsKey(examCode)) {
+			error = "Exam not found.";
+		} else if (laboratoryDTO.getInOutPatient() == null) {
+			error = "Patient status (inOutPatient) is required.";
+		}
+		if (error != null) {
+			outcomes[index] = new LabImportItemDTO(index, patientCode, examCode, LabImportItemDTO.Status.FAILED, error);
+			return null;
+		}
+		return new Prepared(index, item, patients.get(patientCode), exams.get(examCode));
+	}
+
+	private boolean save(List<Prepared> chunk, LabImportItemDTO[] outcomes) {
+		// the entities are built for every attempt, those of a rolled back chunk may hold generated codes
+		List<Laboratory> laboratories = new ArrayList<>(chunk.size());
+		List<List<LaboratoryRow>> rows = new ArrayList<>(chunk.size());
+		for (Prepared item : chunk) {
+			LaboratoryDTO laboratoryDTO = item.item().getLaboratoryDTO();
+			Laboratory laboratory = laboratoryMapper.map2Model(laboratoryDTO);
+			laboratory.setExam(item.exam());
+			laboratory.setPatient(item.patient());
+			laboratory.setInOutPatient(laboratoryDTO.getInOutPatient().toString());
+			laboratories.add(laboratory);
+			List<LaboratoryRow> labRows = new ArrayList<>();
+			if (item.item().getLaboratoryRowList() != null) {
+				for (String rowDescription : item.item().getLaboratoryRowList()) {
+					labRows.add(laboratoryRowMapper.map2Model(new LaboratoryRowDTO(rowDescription, laboratoryDTO)));
+				}
+			}
+			rows.add(labRows);
+		}
+		try {
+			laboratoryManager.newLaboratory2(laboratories, rows);
+		} catch (OHServiceException | RuntimeException exception) {
+			// larger chunks are retried item by item, a single item is reported as failed
+			if (chunk.size() == 1) {
+				Prepared item = chunk.get(0);
+				LOGGER.debug("Lab import item {} rejected: {}", item.index(), exception.getMessage());
+				outcomes[item.index()] = outcome(item, LabImportItemDTO.Status.FAILED, errorMessage(exception));
+			}
+			return false;
+		}
+		laboratories.forEach(labExamRequestFeed::created);
+		return true;
+	}
+
+	private <K, T> Map<K, T> load(String jpql, Class<T> type, Collection<K> codes, Function<T, K> code) {
+		Map<K, T> entities = new HashMap<>();
+		List<K> values = new ArrayList<>(codes);
+		for (int from = 0; from < values.size(); from += IN_CLAUSE_SIZE) {
+			entityManager.createQuery(jpql, type)
+				.setParameter("codes", values.subList(from, Math.min(from + IN_CLAUSE_SIZE, values.size())))
+				.getResultList()
+				.forEach(entity -> entities.put(code.apply(entity), entity));
+		}
+		return entities;
+	}
+
+	private static LabImportItemDTO outcome(Prepared item, LabImportItemDTO.Status status, String error) {
+		return new LabImportItemDTO(item.index(), item.patient().getCode(), item.exam().getCode(), status, error);
+	}
+
+	private static String errorMessage(Exception exception) {
+		if (exception instanceof OHServiceException serviceException && serviceException.getMessages() != null
+			&& !serviceException.getMessages().isEmpty()) {
+			return serviceException.getMessages().get(0).getMessage();
+		}
+		return exception.getMessage();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.lab.service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.lab.dto.LabExamRequestEventDTO;
+import org.isf.lab.model.Laboratory;
+import org.isf.lab.model.LaboratoryStatus;
+import org.isf.patient.dto.PatientSTATUS;
+import org.isf.shared.sse.SseBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Stream of the creations and status changes of the lab exam requests.
+ * <p>
+ * The last events are kept in a bounded replay buffer: a client reconnecting with the {@code Last-Event-ID} header
+ * receives the events it missed before the new ones. When the id is no longer in the buffer, or was issued before a
+ * restart, a {@code reset} event tells the client to reload the exam requests, followed by the whole buffer.
+ */
+@Component
+public class LabExamRequestFeed {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LabExamRequestFeed.class);
+
+	public static final String CREATED = "created";
+
+	public static final String STATUS = "status";
+
+	public static final String RESET = "reset";
+
+	private static final String WARD_JPQL = "SELECT a.ward.code FROM Admission a WHERE a.patient.code = :patient AND a.admitted = 1 AND a.deleted = 'N'";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final int replaySize;
+
+	private final SseBroadcaster broadcaster;
+
+	private final String instance = Long.toString(System.currentTimeMillis(), Character.MAX_RADIX);
+
+	private final Deque<SseBroadcaster.Event> replay = new ArrayDeque<>();
+
+	private long sequence;
+
+	public LabExamRequestFeed(
+		@Value("${lab.requests.replay.size:1000}") int replaySize,
+		@Value("${lab.requests.sse.timeout:1800000}") long sseTimeout
+	) {
+		this.replaySize = replaySize;
+		this.broadcaster = new SseBroadcaster("lab-exam-requests", sseTimeout);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		broadcaster.shutdown();
+	}
+
+	/**
+	 * Publish the creation of an exam request.
+	 *
+	 * @param laboratory the saved exam request
+	 */
+	public void created(Laboratory laboratory) {
+		publish(CREATED, laboratory, null, laboratory.getStatus());
+	}
+
+	/**
+	 * Publish the status change of an exam request, if the status actually changed.
+	 *
+	 * @param laboratory the exam request
+	 * @param previousStatus the status before the change
+	 * @param status the status after the change
+	 */
+	public void statusChanged(Laboratory laboratory, String previousStatus, String status) {
+		if (status == null || status.equalsIgnoreCase(previousStatus)) {
+			return;
+		}
+		publish(STATUS, laboratory, previousStatus, status);
+	}
+
+	/**
+	 * Subscribe to the exam request events, optionally restricted to a ward or a patient.
+	 *
+	 * @param wardCode the ward of the patients, all the wards if {@code null}
+	 * @param patientCode the patient, all the patients if {@code null}
+	 * @param lastEventId the id of the last event received before reconnecting, if any
+	 * @return the emitter of the stream
+	 */
+	public SseEmitter subscribe(String wardCode, Integer patientCode, String lastEventId) {
+		synchronized (replay) {
+			List<SseBroadcaster.Event> missed = new ArrayList<>();
+			if (lastEventId != null) {
+				long last = parseSequence(lastEventId);
+				if (last < 0 || (!replay.isEmpty() && last < sequenceOf(replay.getFirst()) - 1) || last > sequence) {
+					missed.add(new SseBroadcaster.Event(null, RESET, ""));
+					last = 0;
+				}
+				for (SseBroadcaster.Event event : replay) {
+					if (sequenceOf(event) > last && matches(event, wardCode, patientCode)) {
+						missed.add(event);
+					}
+				}
+			}
+			// publishing holds the same lock, so no event falls between the replay and the subscription
+			return broadcaster.subscribe(missed, event -> matches(event, wardCode, patientCode));
+		}
+	}
+
+	private void publish(String name, Laboratory laboratory, String previousStatus, String status) {
+		String wardCode = PatientSTATUS.I.toString().equals(laboratory.getInOutPatient()) ? findWard(laboratory) : null;
+		synchronized (replay) {
+			sequence++;
+			LabExamRequestEventDTO data = new LabExamRequestEventDTO(sequence, laboratory.getCode(),
+				laboratory.getPatient() == null ? null : laboratory.getPatient().getCode(), wardCode,
+				laboratory.getExam() == null ? null : laboratory.getExam().getCode(), toStatus(previousStatus), toStatus(status),
+				LocalDateTime.now());
+			SseBroadcaster.Event event = new SseBroadcaster.Event(instance + '-' + sequence, name, data);
+			replay.addLast(event);
+			while (replay.size() > replaySize) {
+				replay.removeFirst();
+			}
+			broadcaster.publish(event);
+		}
+	}
+
+	private String findWard(Laboratory laboratory) {
+		if (laboratory.getPatient() == null) {
+			return null;
+		}
+		try {
+			return entityManager.createQuery(WARD_JPQL, String.class)
+				.setParameter("patient", laboratory.getPatient().getCode())
+				.setMaxResults(1)
+				.getResultStream()
+				.findFirst()
+				.orElse(null);
+		} catch (RuntimeException exception) {
+			LOGGER.warn("Unable to find the ward of patient {}: {}", laboratory.getPatient().getCode(), exception.getMessage());
+			return null;
+		}
+	}
+
+	private long parseSequence(String eventId) {
+		int dash = eventId.lastIndexOf('-');
+		if (dash < 0 || !instance.equals(eventId.substring(0, dash))) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(eventId.substring(dash + 1));
+		} catch (NumberFormatException exception) {
+			return -1;
+		}
+	}
+
+	private static long sequenceOf(SseBroadcaster.Event event) {
+		return ((LabExamRequestEventDTO) event.data()).getSequence();
+	}
+
+	private static boolean matches(SseBroadcaster.Event event, String wardCode, Integer patientCode) {
+		if (!(event.data() instanceof LabExamRequestEventDTO data)) {
+			return true;
+		}
+		return (wardCode == null || wardCode.equals(data.getWardCode())) && (patientCode == null || patientCode.equals(data.getPatientCode()));
+	}
+
+	private static LaboratoryStatus toStatus(String status) {
+		if (status == null) {
+			return null;
+		}
+		for (LaboratoryStatus value : LaboratoryStatus.values()) {
+			if (value.toString().equalsIgnoreCase(status)) {
+				return value;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.lab.service;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.lab.model.Laboratory;
+import org.isf.lab.model.LaboratoryStatus;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lab exam queries filtered and paged by the database, so that listing the exam requests no longer loads the
+ * whole laboratory history.
+ */
+@Component
+public class LabExamRequestQuery {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Filter of the lab exams; every criterion is optional.
+	 *
+	 * @param statuses the statuses, any status if {@code null} or empty
+	 * @param patientCode the patient
+	 * @param from the first exam date, inclusive
+	 * @param to the last exam date, inclusive
+	 */
+	public record Filter(Collection<LaboratoryStatus> statuses, Integer patientCode, LocalDateTime from, LocalDateTime to) {
+	}
+
+	/**
+	 * Find the lab exams matching a filter, most recent first.
+	 *
+	 * @param filter the filter
+	 * @param page the page number, starting at 0
+	 * @param size the page size, all the matching exams if not positive
+	 * @return the exams of the page, with their exam loaded
+	 */
+	public List<Laboratory> find(Filter filter, int page, int size) {
+		Map<String, Object> parameters = new HashMap<>();
+		TypedQuery<Laboratory> query = entityManager.createQuery(
+			"SELECT l FROM Laboratory l JOIN FETCH l.exam" + where(filter, parameters) + " ORDER BY l.labDate DESC, l.code DESC", Laboratory.class);
+		parameters.forEach(query::setParameter);
+		if (size > 0) {
+			query.setFirstResult(page * size).setMaxResults(size);
+		}
+		return query.getResultList();
+	}
+
+	/**
+	 * @param filter the filter
+	 * @return the number of lab exams matching the filter
+	 */
+	public long count(Filter filter) {
+		Map<String, Object> parameters = new HashMap<>();
+		TypedQuery<Long> query = entityManager.createQuery("SELECT COUNT(l) FROM Laboratory l" + where(filter, parameters), Long.class);
+		parameters.forEach(query::setParameter);
+		return query.getSingleResult();
+	}
+
+	/**
+	 * Check whether a patient already has an exam request of an exam with the given status, looking the request up
+	 * by patient instead of loading every exam of the patient.
+	 *
+	 * @param patientCode the patient
+	 * @param examCode the exam
+	 * @param status the status
+	 * @return {@code true} if such a request exists
+	 */
+	public boolean exists(int patientCode, String examCode, LaboratoryStatus status) {
+		return !entityManager.createQuery(
+				"SELECT l.code FROM Laboratory l WHERE l.patient.code = :patient AND l.exam.code = :exam AND l.status = :status", Integer.class)
+			.setParameter("patient", patientCode)
+			.setParameter("exam", examCode)
+			.setParameter("status", status.toString())
+			.setMaxResults(1)
+			.getResultList()
+			.isEmpty();
+	}
+
+	private static String where(Filter filter, Map<String, Object> parameters) {
+		StringBuilder where = new StringBuilder(" WHERE 1 = 1");
+		if (filter.statuses() != null && !filter.statuses().isEmpty()) {
+			where.append(" AND l.status IN :statuses");
+			parameters.put("statuses", filter.statuses().stream().map(LaboratoryStatus::toString).toList());
+		}
+		if (filter.patientCode() != null) {
+			where.append(" AND l.patient.code = :patient");
+			parameters.put("patient", filter.patientCode());
+		}
+		if (filter.from() != null) {
+			where.append(" AND l.labDate >= :from");
+			parameters.put("from", filter.from());
+		}
+		if (filter.to() != null) {
+			where.append(" AND l.labDate <= :to");
+			parameters.put("to", filter.to());
+		}
+		return where.toString();
+	}
+}
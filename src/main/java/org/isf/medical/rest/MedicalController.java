@@ -30,6 +30,7 @@ import org.isf.medical.dto.MedicalSortBy;
 import org.isf.medical.mapper.MedicalMapper;
 import org.isf.medicals.manager.MedicalBrowsingManager;
 import org.isf.medicals.model.Medical;
+import org.isf.medicalstock.service.CriticalStockMonitor;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
@@ -63,9 +64,12 @@ public class MedicalController {
 
 	private final MedicalMapper mapper;
 
-	public MedicalController(MedicalBrowsingManager medicalManager, MedicalMapper mapper) {
+	private final CriticalStockMonitor criticalStockMonitor;
+
+	public MedicalController(MedicalBrowsingManager medicalManager, MedicalMapper mapper, CriticalStockMonitor criticalStockMonitor) {
 		this.medicalManager = medicalManager;
 		this.mapper = mapper;
+		this.criticalStockMonitor = criticalStockMonitor;
 	}
 	/**
 	 * Returns the requested medical.
@@ -167,8 +171,10 @@ public class MedicalController {
 	) throws OHServiceException {
 		LOGGER.info("Creating a new medical ...");
 		try {
+			Medical medical = medicalManager.newMedical(mapper.map2Model(medicalDTO), ignoreSimilar);
+			criticalStockMonitor.medicalSaved(medical);
 			LOGGER.info("Medical successfully created.");
-			return mapper.map2DTO(medicalManager.newMedical(mapper.map2Model(medicalDTO), ignoreSimilar));
+			return mapper.map2DTO(medical);
 		} catch (OHServiceException serviceException) {
 			LOGGER.info("Medical is not created.");
 			throw new OHAPIException(new OHExceptionMessage("Medical not created."));
@@ -189,8 +195,10 @@ public class MedicalController {
 	) throws OHServiceException {
 		LOGGER.info("Updating a medical ...");
 		try {
+			Medical medical = medicalManager.updateMedical(mapper.map2Model(medicalDTO), ignoreSimilar);
+			criticalStockMonitor.medicalSaved(medical);
 			LOGGER.info("Medical successfully updated.");
-			return mapper.map2DTO(medicalManager.updateMedical(mapper.map2Model(medicalDTO), ignoreSimilar));
+			return mapper.map2DTO(medical);
 		} catch (OHServiceException serviceException) {
 			LOGGER.info("Medical is not updated.");
 			throw new OHAPIException(new OHExceptionMessage("Medical not updated."));
@@ -211,6 +219,7 @@ public class MedicalController {
 		}
 		try {
 			medicalManager.deleteMedical(medical);
+			criticalStockMonitor.medicalDeleted(code);
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Medical not deleted"));
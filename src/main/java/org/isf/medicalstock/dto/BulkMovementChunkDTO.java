@@ -0,0 +1,115 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Outcome of a chunk of a bulk movement ingestion")
+public class BulkMovementChunkDTO {
+
+	public enum Status {
+		/** Saved by this request. */
+		COMMITTED,
+		/** Already saved by a previous request with the same idempotency key. */
+		SKIPPED,
+		/** Not saved: invalid movements or rejected by the stock rules. */
+		FAILED
+	}
+
+	@Schema(description = "The chunk index, starting from 0", example = "0")
+	private int index;
+
+	@Schema(description = "The index of the first movement of the chunk in the request, starting from 0", example = "0")
+	private int firstLine;
+
+	@Schema(description = "The number of movements of the chunk", example = "200")
+	private int lines;
+
+	@Schema(description = "The reference number given to the movements of the chunk", example = "DLV-2024-001-2")
+	private String referenceNumber;
+
+	@Schema(description = "The chunk outcome", example = "COMMITTED")
+	private Status status;
+
+	@Schema(description = "The reason of the failure", example = "Line 412: the movement's date is required")
+	private String error;
+
+	public BulkMovementChunkDTO() {
+	}
+
+	public BulkMovementChunkDTO(int index, int firstLine, int lines, String referenceNumber, Status status, String error) {
+		this.index = index;
+		this.firstLine = firstLine;
+		this.lines = lines;
+		this.referenceNumber = referenceNumber;
+		this.status = status;
+		this.error = error;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public int getFirstLine() {
+		return firstLine;
+	}
+
+	public void setFirstLine(int firstLine) {
+		this.firstLine = firstLine;
+	}
+
+	public int getLines() {
+		return lines;
+	}
+
+	public void setLines(int lines) {
+		this.lines = lines;
+	}
+
+	public String getReferenceNumber() {
+		return referenceNumber;
+	}
+
+	public void setReferenceNumber(String referenceNumber) {
+		this.referenceNumber = referenceNumber;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+}
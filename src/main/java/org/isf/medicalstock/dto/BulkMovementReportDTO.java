@@ -0,0 +1,115 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Progress and outcome of a bulk movement ingestion")
+public class BulkMovementReportDTO {
+
+	public enum Status {
+		RUNNING,
+		COMPLETED,
+		FAILED
+	}
+
+	@Schema(description = "The idempotency key of the request, if any", example = "5f0c2b7e-8d1a-4a53-9c1e-2d7d0b1f9a11")
+	private String idempotencyKey;
+
+	@Schema(description = "Whether the movements are charging or discharging movements", example = "true")
+	private boolean charging;
+
+	@Schema(description = "The reference number of the request", example = "DLV-2024-001")
+	private String referenceNumber;
+
+	@Schema(description = "The overall status", example = "COMPLETED")
+	private Status status;
+
+	@Schema(description = "The number of movements saved, by this request or by previous ones with the same idempotency key", example = "3000")
+	private int committedLines;
+
+	@Schema(description = "The outcome of every chunk processed so far")
+	private List<BulkMovementChunkDTO> chunks;
+
+	public BulkMovementReportDTO() {
+	}
+
+	public BulkMovementReportDTO(String idempotencyKey, boolean charging, String referenceNumber, Status status, int committedLines,
+		List<BulkMovementChunkDTO> chunks) {
+		this.idempotencyKey = idempotencyKey;
+		this.charging = charging;
+		this.referenceNumber = referenceNumber;
+		this.status = status;
+		this.committedLines = committedLines;
+		this.chunks = chunks;
+	}
+
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	public boolean isCharging() {
+		return charging;
+	}
+
+	public void setCharging(boolean charging) {
+		this.charging = charging;
+	}
+
+	public String getReferenceNumber() {
+		return referenceNumber;
+	}
+
+	public void setReferenceNumber(String referenceNumber) {
+		this.referenceNumber = referenceNumber;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public int getCommittedLines() {
+		return committedLines;
+	}
+
+	public void setCommittedLines(int committedLines) {
+		this.committedLines = committedLines;
+	}
+
+	public List<BulkMovementChunkDTO> getChunks() {
+		return chunks;
+	}
+
+	public void setChunks(List<BulkMovementChunkDTO> chunks) {
+		this.chunks = chunks;
+	}
+}
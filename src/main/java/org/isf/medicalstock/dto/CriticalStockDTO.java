@@ -0,0 +1,94 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Medical whose quantity in the main store is below its critical level")
+public class CriticalStockDTO {
+
+	@Schema(description = "The medical's code", example = "1")
+	private int medicalCode;
+
+	@Schema(description = "The medical's description", example = "Paracetamol 500mg")
+	private String description;
+
+	@Schema(description = "The quantity in the main store", example = "8")
+	private double quantity;
+
+	@Schema(description = "The critical level of the medical", example = "10")
+	private double minQuantity;
+
+	@Schema(description = "Whether the medical is below its critical level, false when it just left the critical items", example = "true")
+	private boolean critical;
+
+	public CriticalStockDTO() {
+	}
+
+	public CriticalStockDTO(int medicalCode, String description, double quantity, double minQuantity, boolean critical) {
+		this.medicalCode = medicalCode;
+		this.description = description;
+		this.quantity = quantity;
+		this.minQuantity = minQuantity;
+		this.critical = critical;
+	}
+
+	public int getMedicalCode() {
+		return medicalCode;
+	}
+
+	public void setMedicalCode(int medicalCode) {
+		this.medicalCode = medicalCode;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public double getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(double quantity) {
+		this.quantity = quantity;
+	}
+
+	public double getMinQuantity() {
+		return minQuantity;
+	}
+
+	public void setMinQuantity(double minQuantity) {
+		this.minQuantity = minQuantity;
+	}
+
+	public boolean isCritical() {
+		return critical;
+	}
+
+	public void setCritical(boolean critical) {
+		this.critical = critical;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import java.time.LocalDate;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Quantity to take from a lot")
+public class LotPickDTO {
+
+	@Schema(description = "The lot's code", example = "LT001")
+	private String lotCode;
+
+	@Schema(description = "The due date", example = "2021-06-24", type = "string")
+	private LocalDate dueDate;
+
+	@Schema(description = "The preparation date", example = "2020-06-24", type = "string")
+	private LocalDate preparationDate;
+
+	@Schema(description = "The quantity to take from the lot", example = "20")
+	private int quantity;
+
+	public LotPickDTO() {
+	}
+
+	public LotPickDTO(String lotCode, LocalDate dueDate, LocalDate preparationDate, int quantity) {
+		this.lotCode = lotCode;
+		this.dueDate = dueDate;
+		this.preparationDate = preparationDate;
+		this.quantity = quantity;
+	}
+
+	public String getLotCode() {
+		return lotCode;
+	}
+
+	public void setLotCode(String lotCode) {
+		this.lotCode = lotCode;
+	}
+
+	public LocalDate getDueDate() {
+		return dueDate;
+	}
+
+	public void setDueDate(LocalDate dueDate) {
+		this.dueDate = dueDate;
+	}
+
+	public LocalDate getPreparationDate() {
+		return preparationDate;
+	}
+
+	public void setPreparationDate(LocalDate preparationDate) {
+		this.preparationDate = preparationDate;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Quantity of a medical to take from the main store")
+public class LotRequestDTO {
+
+	@NotNull(message = "The medical is required")
+	@Schema(description = "The medical's code", example = "1")
+	private Integer medicalCode;
+
+	@Positive(message = "The quantity must be positive")
+	@Schema(description = "The quantity to take", example = "30")
+	private int quantity;
+
+	public LotRequestDTO() {
+	}
+
+	public LotRequestDTO(Integer medicalCode, int quantity) {
+		this.medicalCode = medicalCode;
+		this.quantity = quantity;
+	}
+
+	public Integer getMedicalCode() {
+		return medicalCode;
+	}
+
+	public void setMedicalCode(Integer medicalCode) {
+		this.medicalCode = medicalCode;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Lots to take a quantity of a medical from, first expiring first")
+public class LotSelectionDTO {
+
+	@Schema(description = "The medical's code", example = "1")
+	private int medicalCode;
+
+	@Schema(description = "The requested quantity", example = "30")
+	private int quantity;
+
+	@Schema(description = "The quantity missing in the main store, 0 if the request is satisfied", example = "0")
+	private int shortage;
+
+	@Schema(description = "The lots and the quantity to take from each of them")
+	private List<LotPickDTO> lots;
+
+	public LotSelectionDTO() {
+	}
+
+	public LotSelectionDTO(int medicalCode, int quantity, int shortage, List<LotPickDTO> lots) {
+		this.medicalCode = medicalCode;
+		this.quantity = quantity;
+		this.shortage = shortage;
+		this.lots = lots;
+	}
+
+	public int getMedicalCode() {
+		return medicalCode;
+	}
+
+	public void setMedicalCode(int medicalCode) {
+		this.medicalCode = medicalCode;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public int getShortage() {
+		return shortage;
+	}
+
+	public void setShortage(int shortage) {
+		this.shortage = shortage;
+	}
+
+	public List<LotPickDTO> getLots() {
+		return lots;
+	}
+
+	public void setLots(List<LotPickDTO> lots) {
+		this.lots = lots;
+	}
+}
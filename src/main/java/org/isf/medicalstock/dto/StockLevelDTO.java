@@ -0,0 +1,82 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Quantity of a medical in stock, in the main store or in a ward, for a lot")
+public class StockLevelDTO {
+
+	@Schema(description = "The medical's code", example = "1")
+	private int medicalCode;
+
+	@Schema(description = "The ward's code, null for the main store", example = "M")
+	private String wardCode;
+
+	@Schema(description = "The lot's code, null for the quantities without lot", example = "LT001")
+	private String lotCode;
+
+	@Schema(description = "The quantity in stock", example = "120")
+	private double quantity;
+
+	public StockLevelDTO() {
+	}
+
+	public StockLevelDTO(int medicalCode, String wardCode, String lotCode, double quantity) {
+		this.medicalCode = medicalCode;
+		this.wardCode = wardCode;
+		this.lotCode = lotCode;
+		this.quantity = quantity;
+	}
+
+	public int getMedicalCode() {
+		return medicalCode;
+	}
+
+	public void setMedicalCode(int medicalCode) {
+		this.medicalCode = medicalCode;
+	}
+
+	public String getWardCode() {
+		return wardCode;
+	}
+
+	public void setWardCode(String wardCode) {
+		this.wardCode = wardCode;
+	}
+
+	public String getLotCode() {
+		return lotCode;
+	}
+
+	public void setLotCode(String lotCode) {
+		this.lotCode = lotCode;
+	}
+
+	public double getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(double quantity) {
+		this.quantity = quantity;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Result of the comparison of the stock level snapshot with a full recompute")
+public class StockLevelVerificationDTO {
+
+	@Schema(description = "The number of stock levels compared", example = "1520")
+	private int checked;
+
+	@Schema(description = "Whether the mismatching levels have been replaced by the recomputed ones", example = "false")
+	private boolean repaired;
+
+	@Schema(description = "The stock levels that differ")
+	private List<StockLevelMismatchDTO> mismatches;
+
+	public StockLevelVerificationDTO() {
+	}
+
+	public StockLevelVerificationDTO(int checked, boolean repaired, List<StockLevelMismatchDTO> mismatches) {
+		this.checked = checked;
+		this.repaired = repaired;
+		this.mismatches = mismatches;
+	}
+
+	public int getChecked() {
+		return checked;
+	}
+
+	public void setChecked(int checked) {
+		this.checked = checked;
+	}
+
+	public boolean isRepaired() {
+		return repaired;
+	}
+
+	public void setRepaired(boolean repaired) {
+		this.repaired = repaired;
+	}
+
+	public List<StockLevelMismatchDTO> getMismatches() {
+		return mismatches;
+	}
+
+	public void setMismatches(List<StockLevelMismatchDTO> mismatches) {
+		this.mismatches = mismatches;
+	}
+}
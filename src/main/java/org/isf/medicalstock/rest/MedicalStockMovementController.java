@@ -21,34 +21,51 @@
  */
 package org.isf.medicalstock.rest;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+
 import org.isf.medicals.manager.MedicalBrowsingManager;
 import org.isf.medicals.model.Medical;
+import org.isf.medicalstock.dto.BulkMovementReportDTO;
+import org.isf.medicalstock.dto.CriticalStockDTO;
 import org.isf.medicalstock.dto.LotDTO;
+import org.isf.medicalstock.dto.LotRequestDTO;
+import org.isf.medicalstock.dto.LotSelectionDTO;
 import org.isf.medicalstock.dto.MovementDTO;
+import org.isf.medicalstock.dto.StockLevelDTO;
+import org.isf.medicalstock.dto.StockLevelVerificationDTO;
 import org.isf.medicalstock.manager.MovBrowserManager;
 import org.isf.medicalstock.manager.MovStockInsertingManager;
 import org.isf.medicalstock.mapper.LotMapper;
 import org.isf.medicalstock.mapper.MovementMapper;
 import org.isf.medicalstock.model.Lot;
 import org.isf.medicalstock.model.Movement;
+import org.isf.medicalstock.service.BulkMovementIngestion;
+import org.isf.medicalstock.service.CriticalStockMonitor;
+import org.isf.medicalstock.service.FefoLotIndex;
+import org.isf.medicalstock.service.StockLevelSnapshot;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.ward.model.Ward;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -69,18 +86,34 @@ public class MedicalStockMovementController {
 
 	private final MedicalBrowsingManager medicalManager;
 
+	private final StockLevelSnapshot stockLevelSnapshot;
+
+	private final CriticalStockMonitor criticalStockMonitor;
+
+	private final FefoLotIndex fefoLotIndex;
+
+	private final BulkMovementIngestion bulkMovementIngestion;
+
 	public MedicalStockMovementController(
 		MovementMapper movMapper,
 		LotMapper lotMapper,
 		MovBrowserManager movManager,
 		MovStockInsertingManager movInsertingManager,
-		MedicalBrowsingManager medicalManager
+		MedicalBrowsingManager medicalManager,
+		StockLevelSnapshot stockLevelSnapshot,
+		CriticalStockMonitor criticalStockMonitor,
+		FefoLotIndex fefoLotIndex,
+		BulkMovementIngestion bulkMovementIngestion
 	) {
 		this.movMapper = movMapper;
 		this.lotMapper = lotMapper;
 		this.movManager = movManager;
 		this.movInsertingManager = movInsertingManager;
 		this.medicalManager = medicalManager;
+		this.stockLevelSnapshot = stockLevelSnapshot;
+		this.criticalStockMonitor = criticalStockMonitor;
+		this.fefoLotIndex = fefoLotIndex;
+		this.bulkMovementIngestion = bulkMovementIngestion;
 	}
 
 	/**
@@ -100,7 +133,13 @@ public class MedicalStockMovementController {
 		@RequestParam(name = "ref") String referenceNumber
 	) throws OHServiceException {
 		List<Movement> movements = new ArrayList<>(movMapper.map2ModelList(movementDTOs));
-		movInsertingManager.newMultipleChargingMovements(movements, referenceNumber);
+		List<Movement> saved = stockLevelSnapshot.write(StockLevelSnapshot.medicalsOf(movements), () -> {
+			List<Movement> result = movInsertingManager.newMultipleChargingMovements(movements, referenceNumber);
+			stockLevelSnapshot.applyMovements(result, true);
+			return result;
+		});
+		fefoLotIndex.movementsSaved(saved);
+		criticalStockMonitor.movementsSaved(saved);
 		return true;
 	}
 
@@ -121,11 +160,70 @@ public class MedicalStockMovementController {
 		@RequestParam(name = "ref") String referenceNumber
 	) throws OHServiceException {
 		List<Movement> movements = new ArrayList<>(movMapper.map2ModelList(movementDTOs));
-		movInsertingManager.newMultipleDischargingMovements(movements, referenceNumber);
+		List<Movement> saved = stockLevelSnapshot.write(StockLevelSnapshot.medicalsOf(movements), () -> {
+			List<Movement> result = movInsertingManager.newMultipleDischargingMovements(movements, referenceNumber);
+			stockLevelSnapshot.applyMovements(result, false);
+			return result;
+		});
+		criticalStockMonitor.movementsSaved(saved);
 
 		return true;
 	}
 
+	/**
+	 * Insert a large list of charging or discharging {@link Movement}s, read as a stream and saved in chunks.
+	 *
+	 * @param request - the request, whose body is the JSON array of {@link Movement}s
+	 * @param type - {@code charge} or {@code discharge}
+	 * @param referenceNumber - the reference number of the movements, suffixed by the chunk number from the second chunk
+	 * @param chunkSize - the number of movements saved together
+	 * @param idempotencyKey - the key making the retries safe: the chunks already saved with the same key are skipped
+	 * @return the outcome of every chunk, with status {@code 201} if every movement has been saved, {@code 422} otherwise
+	 * @throws OHServiceException When the request cannot be processed
+	 */
+	@PostMapping(value = "/medicalstockmovements/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<BulkMovementReportDTO> newBulkMovements(
+		HttpServletRequest request,
+		@RequestParam(name = "type") String type,
+		@RequestParam(name = "ref") String referenceNumber,
+		@RequestParam(name = "chunk_size", required = false) Integer chunkSize,
+		@RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey
+	) throws OHServiceException {
+		boolean charging;
+		if ("charge".equals(type)) {
+			charging = true;
+		} else if ("discharge".equals(type)) {
+			charging = false;
+		} else {
+			throw new OHAPIException(new OHExceptionMessage("The type must be 'charge' or 'discharge'."));
+		}
+		BulkMovementReportDTO report;
+		try {
+			report = bulkMovementIngestion.ingest(request.getInputStream(), charging, referenceNumber, idempotencyKey, chunkSize);
+		} catch (IOException exception) {
+			throw new OHAPIException(new OHExceptionMessage("Unable to read the movements."));
+		}
+		HttpStatus status = report.getStatus() == BulkMovementReportDTO.Status.COMPLETED ? HttpStatus.CREATED : HttpStatus.UNPROCESSABLE_ENTITY;
+		return ResponseEntity.status(status).body(report);
+	}
+
+	/**
+	 * Retrieves the progress of a bulk insertion of {@link Movement}s.
+	 *
+	 * @param idempotencyKey - the idempotency key of the bulk insertion
+	 * @return the outcome of every chunk processed so far
+	 * @throws OHServiceException When the key is unknown
+	 */
+	@GetMapping("/medicalstockmovements/bulk/{key}")
+	public BulkMovementReportDTO getBulkMovementsReport(@PathVariable("key") String idempotencyKey) throws OHServiceException {
+		BulkMovementReportDTO report = bulkMovementIngestion.getReport(idempotencyKey);
+		if (report == null) {
+			throw new OHAPIException(new OHExceptionMessage("Bulk movements not found."), HttpStatus.NOT_FOUND);
+		}
+
+		return report;
+	}
+
 	/**
 	 * Retrieves all the {@link Movement}s.
 	 * @return the retrieved movements.
@@ -215,6 +313,27 @@ public class MedicalStockMovementController {
 		return lotMapper.map2DTOList(movInsertingManager.getLotByMedical(med));
 	}
 
+	/**
+	 * Selects the lots to discharge for each requested medical and quantity, first expiring first out.
+	 * Each lot is used up before moving to the next one; a request that cannot be fulfilled is returned
+	 * with the missing quantity in {@code shortage}.
+	 * @param requests the medicals and quantities to discharge
+	 * @param includeExpired whether lots already expired can be selected
+	 * @return the lots to discharge, one selection per request
+	 * @throws OHServiceException When the lots are not loaded yet
+	 */
+	@PostMapping("/medicalstockmovements/lots/select")
+	public List<LotSelectionDTO> selectLots(
+		@Valid @RequestBody List<LotRequestDTO> requests,
+		@RequestParam(name = "include_expired", defaultValue = "false") boolean includeExpired
+	) throws OHServiceException {
+		if (!fefoLotIndex.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Lots are not available yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		return fefoLotIndex.select(requests, includeExpired);
+	}
+
 	/**
 	 * Checks if the provided quantity is under the medical limits. 
 	 * @param medCode Medical code
@@ -232,6 +351,83 @@ public class MedicalStockMovementController {
 			throw new OHAPIException(new OHExceptionMessage("Medical not found."), HttpStatus.NOT_FOUND);
 		}
 
+		Double quantity = stockLevelSnapshot.getQuantity(medCode, null);
+		if (quantity != null) {
+			return quantity - specifiedQuantity < med.getMinqty();
+		}
+
 		return movInsertingManager.alertCriticalQuantity(med, specifiedQuantity);
 	}
+
+	/**
+	 * Retrieves the medicals whose quantity in the main store is below their critical level.
+	 * @return the critical items
+	 * @throws OHServiceException When the critical items are not loaded yet
+	 */
+	@GetMapping("/medicalstockmovements/critical")
+	public List<CriticalStockDTO> getCriticalItems() throws OHServiceException {
+		if (!criticalStockMonitor.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Critical items are not available yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		return criticalStockMonitor.getCriticalItems();
+	}
+
+	/**
+	 * Streams the medicals entering or leaving the critical items as server-sent {@code critical} events.
+	 * The current critical items are sent first.
+	 * @return the event stream
+	 */
+	@GetMapping(value = "/medicalstockmovements/critical/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter streamCriticalItems() {
+		return criticalStockMonitor.subscribe();
+	}
+
+	/**
+	 * Retrieves the current stock levels from the stock level snapshot.
+	 * @param medicalCode Medical code, all the medicals if not specified
+	 * @param wardId Ward code, empty for the main store, all the locations if not specified
+	 * @return the non-zero stock levels by medical, location and lot
+	 * @throws OHServiceException When the snapshot is not loaded yet
+	 */
+	@GetMapping("/medicalstockmovements/levels")
+	public List<StockLevelDTO> getStockLevels(
+		@RequestParam(name = "med_code", required = false) Integer medicalCode,
+		@RequestParam(name = "ward_id", required = false) String wardId
+	) throws OHServiceException {
+		if (!stockLevelSnapshot.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Stock levels are not available yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		return stockLevelSnapshot.getLevels(medicalCode, wardId);
+	}
+
+	/**
+	 * Compares the stock level snapshot with the stock levels recomputed from the database.
+	 * @return the mismatching stock levels
+	 * @throws OHServiceException When the snapshot is not loaded yet
+	 */
+	@GetMapping("/medicalstockmovements/levels/verify")
+	public StockLevelVerificationDTO verifyStockLevels() throws OHServiceException {
+		if (!stockLevelSnapshot.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Stock levels are not available yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		return stockLevelSnapshot.verify(false);
+	}
+
+	/**
+	 * Compares the stock level snapshot with the stock levels recomputed from the database and replaces the
+	 * levels of the mismatching medicals.
+	 * @return the mismatching stock levels, before the repair
+	 * @throws OHServiceException When the snapshot is not loaded yet
+	 */
+	@PostMapping("/medicalstockmovements/levels/repair")
+	public StockLevelVerificationDTO repairStockLevels() throws OHServiceException {
+		if (!stockLevelSnapshot.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Stock levels are not available yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+
+		return stockLevelSnapshot.verify(true);
+	}
 }
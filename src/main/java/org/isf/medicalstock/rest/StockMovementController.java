@@ -35,6 +35,9 @@ import org.isf.medicalstock.mapper.LotMapper;
 import org.isf.medicalstock.mapper.MovementMapper;
 import org.isf.medicalstock.model.Lot;
 import org.isf.medicalstock.model.Movement;
+import org.isf.medicalstock.service.CriticalStockMonitor;
+import org.isf.medicalstock.service.FefoLotIndex;
+import org.isf.medicalstock.service.StockLevelSnapshot;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
@@ -68,18 +71,30 @@ public class StockMovementController {
 
 	private final MedicalBrowsingManager medicalManager;
 
+	private final StockLevelSnapshot stockLevelSnapshot;
+
+	private final CriticalStockMonitor criticalStockMonitor;
+
+	private final FefoLotIndex fefoLotIndex;
+
 	public StockMovementController(
 		MovementMapper movMapper,
 		LotMapper lotMapper,
 		MovBrowserManager movManager,
 		MovStockInsertingManager movInsertingManager,
-		MedicalBrowsingManager medicalManager
+		MedicalBrowsingManager medicalManager,
+		StockLevelSnapshot stockLevelSnapshot,
+		CriticalStockMonitor criticalStockMonitor,
+		FefoLotIndex fefoLotIndex
 	) {
 		this.movMapper = movMapper;
 		this.lotMapper = lotMapper;
 		this.movManager = movManager;
 		this.movInsertingManager = movInsertingManager;
 		this.medicalManager = medicalManager;
+		this.stockLevelSnapshot = stockLevelSnapshot;
+		this.criticalStockMonitor = criticalStockMonitor;
+		this.fefoLotIndex = fefoLotIndex;
 	}
 
 	/**
@@ -99,7 +114,13 @@ public class StockMovementController {
 		@RequestParam(name="ref", required=true) String referenceNumber
 	) throws OHServiceException {
 		List<Movement> movements = new ArrayList<>(movMapper.map2ModelList(movementDTOs));
-		movInsertingManager.newMultipleChargingMovements(movements, referenceNumber);
+		List<Movement> saved = stockLevelSnapshot.write(StockLevelSnapshot.medicalsOf(movements), () -> {
+			List<Movement> result = movInsertingManager.newMultipleChargingMovements(movements, referenceNumber);
+			stockLevelSnapshot.applyMovements(result, true);
+			return result;
+		});
+		fefoLotIndex.movementsSaved(saved);
+		criticalStockMonitor.movementsSaved(saved);
 
 		return true;
 	}
@@ -121,7 +142,12 @@ public class StockMovementController {
 		@RequestParam(name="ref", required=true) String referenceNumber
 	) throws OHServiceException {
 		List<Movement> movements = new ArrayList<>(movMapper.map2ModelList(movementDTOs));
-		movInsertingManager.newMultipleDischargingMovements(movements, referenceNumber);
+		List<Movement> saved = stockLevelSnapshot.write(StockLevelSnapshot.medicalsOf(movements), () -> {
+			List<Movement> result = movInsertingManager.newMultipleDischargingMovements(movements, referenceNumber);
+			stockLevelSnapshot.applyMovements(result, false);
+			return result;
+		});
+		criticalStockMonitor.movementsSaved(saved);
 
 		return true;
 	}
@@ -233,6 +259,11 @@ public class StockMovementController {
 			throw new OHAPIException(new OHExceptionMessage("Medical not found."));
 		}
 
+		Double quantity = stockLevelSnapshot.getQuantity(medCode, null);
+		if (quantity != null) {
+			return quantity - specifiedQuantity < med.getMinqty();
+		}
+
 		return movInsertingManager.alertCriticalQuantity(med, specifiedQuantity);
 	}
 }
@@ -0,0 +1,499 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+
+import org.isf.medicalstock.dto.BulkMovementChunkDTO;
+import org.isf.medicalstock.dto.BulkMovementReportDTO;
+import org.isf.medicalstock.dto.MovementDTO;
+import org.isf.medicalstock.manager.MovStockInsertingManager;
+import org.isf.medicalstock.mapper.MovementMapper;
+import org.isf.medicalstock.model.Movement;
+import org.isf.shared.exceptions.OHAPIException;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Ingestion of large lists of charging or discharging movements.
+ * <p>
+ * The request body, a JSON array of movements, is read as a stream and saved in chunks: every chunk is validated
+ * and saved in its own transaction, so that a delivery of thousands of lines never holds the stock tables for
+ * long. The first chunk gets the reference number of the request, the following ones get a {@code -2},
+ * {@code -3}, ... suffix, as the stock rules require a reference number per save.
+ * <p>
+ * When the client provides an idempotency key, the digest of every saved chunk is kept with it: a retry with the
+ * same key skips the chunks already saved and resumes from the first missing one, a completed request is never
+ * saved twice. The digests are stored in the {@code OH_API_BULK_CHUNKS} table, in the transaction saving the chunk,
+ * so that a retry after a restart or on another node is safe too; without the table (see
+ * {@code sql/oh_api_bulk_chunks.sql}) they are only kept in memory. Keys are kept for
+ * {@code stock.bulk.idempotency.ttl}.
+ */
+@Component
+public class BulkMovementIngestion {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BulkMovementIngestion.class);
+
+	private static final String CHECK_TABLE_SQL = "SELECT COUNT(*) FROM OH_API_BULK_CHUNKS WHERE BCH_INDEX < 0";
+
+	private static final String CHUNKS_SQL = "SELECT BCH_INDEX, BCH_TYPE, BCH_REF, BCH_DIGEST, BCH_LINES FROM OH_API_BULK_CHUNKS"
+		+ " WHERE BCH_KEY = :key ORDER BY BCH_INDEX";
+
+	private static final String INSERT_CHUNK_SQL = "INSERT INTO OH_API_BULK_CHUNKS (BCH_KEY, BCH_INDEX, BCH_TYPE, BCH_REF, BCH_DIGEST, BCH_LINES, BCH_CREATED)"
+		+ " VALUES (:key, :index, :type, :ref, :digest, :lines, :created)";
+
+	private static final String PURGE_SQL = "DELETE FROM OH_API_BULK_CHUNKS WHERE BCH_CREATED < :expiry";
+
+	/** Delay before looking again for a missing table. */
+	private static final Duration TABLE_CHECK_INTERVAL = Duration.ofMinutes(5);
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final MovStockInsertingManager movInsertingManager;
+
+	private final MovementMapper movMapper;
+
+	private final StockLevelSnapshot stockLevelSnapshot;
+
+	private final CriticalStockMonitor criticalStockMonitor;
+
+	private final FefoLotIndex fefoLotIndex;
+
+	private final ObjectMapper objectMapper;
+
+	private final Validator validator;
+
+	private final int defaultChunkSize;
+
+	private final int maxChunkSize;
+
+	private final Duration idempotencyTtl;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+	private volatile boolean tableExists;
+
+	private volatile Instant tableChecked;
+
+	public BulkMovementIngestion(
+		MovStockInsertingManager movInsertingManager,
+		MovementMapper movMapper,
+		StockLevelSnapshot stockLevelSnapshot,
+		CriticalStockMonitor criticalStockMonitor,
+		FefoLotIndex fefoLotIndex,
+		ObjectMapper objectMapper,
+		Validator validator,
+		PlatformTransactionManager transactionManager,
+		@Value("${stock.bulk.chunk.size:200}") int defaultChunkSize,
+		@Value("${stock.bulk.max.chunk.size:2000}") int maxChunkSize,
+		@Value("${stock.bulk.idempotency.ttl:PT24H}") Duration idempotencyTtl
+	) {
+		this.movInsertingManager = movInsertingManager;
+		this.movMapper = movMapper;
+		this.stockLevelSnapshot = stockLevelSnapshot;
+		this.criticalStockMonitor = criticalStockMonitor;
+		this.fefoLotIndex = fefoLotIndex;
+		this.objectMapper = objectMapper;
+		this.validator = validator;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.defaultChunkSize = defaultChunkSize;
+		this.maxChunkSize = maxChunkSize;
+		this.idempotencyTtl = idempotencyTtl;
+	}
+
+	/**
+	 * A bulk request and, when it has an idempotency key, the chunks already saved for it.
+	 */
+	private static final class Job {
+
+		private final String idempotencyKey;
+
+		private final boolean charging;
+
+		private final String referenceNumber;
+
+		private final Instant created = Instant.now();
+
+		private final List<byte[]> committedDigests = new ArrayList<>();
+
+		private final List<BulkMovementChunkDTO> chunks = new ArrayList<>();
+
+		private BulkMovementReportDTO.Status status = BulkMovementReportDTO.Status.RUNNING;
+
+		private int committedLines;
+
+		private boolean running;
+
+		private Job(String idempotencyKey, boolean charging, String referenceNumber) {
+			this.idempotencyKey = idempotencyKey;
+			this.charging = charging;
+			this.referenceNumber = referenceNumber;
+		}
+
+		private synchronized void add(BulkMovementChunkDTO chunk) {
+			chunks.add(chunk);
+		}
+
+		private synchronized BulkMovementReportDTO report() {
+			return new BulkMovementReportDTO(idempotencyKey, charging, referenceNumber, status, committedLines, new ArrayList<>(chunks));
+		}
+	}
+
+	/**
+	 * Read and save the movements of a request body.
+	 *
+	 * @param body the request body, a JSON array of movements
+	 * @param charging {@code true} for charging movements, {@code false} for discharging ones
+	 * @param referenceNumber the reference number of the movements
+	 * @param idempotencyKey the idempotency key, may be {@code null}
+	 * @param chunkSize the number of movements saved together, {@code null} for the default
+	 * @return the outcome of every chunk
+	 * @throws OHServiceException When the key is in use or was used for another request, or the body is not an array
+	 */
+	public BulkMovementReportDTO ingest(InputStream body, boolean charging, String referenceNumber, String idempotencyKey, Integer chunkSize)
+		throws OHServiceException {
+		int size = chunkSize == null ? defaultChunkSize : chunkSize;
+		if (size <= 0 || size > maxChunkSize) {
+			throw new OHAPIException(new OHExceptionMessage("The chunk size must be between 1 and " + maxChunkSize + '.'));
+		}
+		Job job = start(charging, referenceNumber, idempotencyKey);
+		if (job.status == BulkMovementReportDTO.Status.COMPLETED) {
+			return job.report();
+		}
+		try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				throw new OHAPIException(new OHExceptionMessage("The request body must be an array of movements."));
+			}
+			List<MovementDTO> buffer = new ArrayList<>(size);
+			int index = 0;
+			int line = 0;
+			boolean failed = false;
+			while (!failed) {
+				JsonToken token = nextToken(parser, job, index, line, buffer.size());
+				if (token == null) {
+					failed = true;
+				} else if (token == JsonToken.END_ARRAY) {
+					break;
+				} else {
+					MovementDTO movement = readMovement(parser, job, index, line, buffer.size());
+					if (movement == null) {
+						failed = true;
+					} else {
+						buffer.add(movement);
+						if (buffer.size() == size) {
+							failed = !process(job, index++, line, buffer);
+							line += buffer.size();
+							buffer.clear();
+						}
+					}
+				}
+			}
+			if (!failed && !buffer.isEmpty()) {
+				failed = !process(job, index, line, buffer);
+			}
+			finish(job, failed ? BulkMovementReportDTO.Status.FAILED : BulkMovementReportDTO.Status.COMPLETED);
+		} catch (IOException exception) {
+			finish(job, BulkMovementReportDTO.Status.FAILED);
+			throw new OHAPIException(new OHExceptionMessage("Unable to read the movements."));
+		} catch (OHServiceException | RuntimeException exception) {
+			finish(job, BulkMovementReportDTO.Status.FAILED);
+			throw exception;
+		}
+		return job.report();
+	}
+
+	/**
+	 * @param idempotencyKey the idempotency key of a request
+	 * @return the progress of the request, {@code null} if the key is unknown
+	 */
+	public BulkMovementReportDTO getReport(String idempotencyKey) {
+		Job job = jobs.get(idempotencyKey);
+		return job == null ? null : job.report();
+	}
+
+	@Scheduled(fixedDelayString = "PT1H")
+	public void purgeExpiredKeys() {
+		Instant expiry = Instant.now().minus(idempotencyTtl);
+		jobs.values().removeIf(job -> {
+			synchronized (job) {
+				return !job.running && job.created.isBefore(expiry);
+			}
+		});
+		if (tableExists()) {
+			try {
+				transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(PURGE_SQL)
+					.setParameter("expiry", LocalDateTime.now().minus(idempotencyTtl))
+					.executeUpdate());
+			} catch (RuntimeException exception) {
+				LOGGER.error("Unable to purge the expired bulk movements idempotency keys.", exception);
+			}
+		}
+	}
+
+	private Job start(boolean charging, String referenceNumber, String idempotencyKey) throws OHServiceException {
+		Job job = idempotencyKey == null ? new Job(null, charging, referenceNumber)
+			: jobs.computeIfAbsent(idempotencyKey, key -> new Job(key, charging, referenceNumber));
+		synchronized (job) {
+			if (job.charging != charging || !job.referenceNumber.equals(referenceNumber)) {
+				throw new OHAPIException(new OHExceptionMessage("The idempotency key has already been used for another request."),
+					HttpStatus.UNPROCESSABLE_ENTITY);
+			}
+			if (job.running) {
+				throw new OHAPIException(new OHExceptionMessage("A request with the same idempotency key is in progress."), HttpStatus.CONFLICT);
+			}
+			if (job.status != BulkMovementReportDTO.Status.COMPLETED) {
+				if (job.idempotencyKey != null) {
+					restore(job);
+				}
+				job.running = true;
+				job.status = BulkMovementReportDTO.Status.RUNNING;
+				job.chunks.clear();
+			}
+		}
+		return job;
+	}
+
+	/**
+	 * Replace the chunks saved for the key of a job with the ones stored, which include the chunks saved before a
+	 * restart or by another node.
+	 */
+	private void restore(Job job) throws OHServiceException {
+		if (!tableExists()) {
+			return;
+		}
+		List<?> rows = transactionTemplate.execute(status -> entityManager.createNativeQuery(CHUNKS_SQL)
+			.setParameter("key", job.idempotencyKey)
+			.getResultList());
+		List<byte[]> digests = new ArrayList<>();
+		int lines = 0;
+		for (Object row : rows) {
+			Object[] columns = (Object[]) row;
+			if (!type(job.charging).equals(columns[1]) || !job.referenceNumber.equals(columns[2])) {
+				throw new OHAPIException(new OHExceptionMessage("The idempotency key has already been used for another request."),
+					HttpStatus.UNPROCESSABLE_ENTITY);
+			}
+			digests.add((byte[]) columns[3]);
+			lines += ((Number) columns[4]).intValue();
+		}
+		job.committedDigests.clear();
+		job.committedDigests.addAll(digests);
+		job.committedLines = lines;
+	}
+
+	/**
+	 * Save a chunk and, when the job has an idempotency key, store its digest in the same transaction.
+	 */
+	private List<Movement> save(Job job, int index, String chunkReference, List<Movement> models, byte[] digest) throws OHServiceException {
+		if (job.idempotencyKey == null || !tableExists()) {
+			return save(job.charging, models, chunkReference);
+		}
+		OHServiceException[] rejected = new OHServiceException[1];
+		List<Movement> saved = transactionTemplate.execute(status -> {
+			try {
+				List<Movement> result = save(job.charging, models, chunkReference);
+				entityManager.createNativeQuery(INSERT_CHUNK_SQL)
+					.setParameter("key", job.idempotencyKey)
+					.setParameter("index", index)
+					.setParameter("type", type(job.charging))
+					.setParameter("ref", job.referenceNumber)
+					.setParameter("digest", digest)
+					.setParameter("lines", models.size())
+					.setParameter("created", LocalDateTime.now())
+					.executeUpdate();
+				return result;
+			} catch (OHServiceException exception) {
+				status.setRollbackOnly();
+				rejected[0] = exception;
+				return null;
+			}
+		});
+		if (rejected[0] != null) {
+			throw rejected[0];
+		}
+		return saved;
+	}
+
+	private List<Movement> save(boolean charging, List<Movement> models, String chunkReference) throws OHServiceException {
+		return charging ? movInsertingManager.newMultipleChargingMovements(models, chunkReference)
+			: movInsertingManager.newMultipleDischargingMovements(models, chunkReference);
+	}
+
+	/**
+	 * Check that the table of the idempotency keys exists, again every {@link #TABLE_CHECK_INTERVAL} while it is missing.
+	 */
+	private boolean tableExists() {
+		Instant checked = tableChecked;
+		if (tableExists || checked != null && checked.plus(TABLE_CHECK_INTERVAL).isAfter(Instant.now())) {
+			return tableExists;
+		}
+		synchronized (this) {
+			if (tableChecked == checked) {
+				try {
+					transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(CHECK_TABLE_SQL).getSingleResult());
+					tableExists = true;
+				} catch (RuntimeException exception) {
+					LOGGER.warn("Table OH_API_BULK_CHUNKS not found (see sql/oh_api_bulk_chunks.sql), idempotency keys are kept in memory only: {}",
+						exception.getMessage());
+				}
+				tableChecked = Instant.now();
+			}
+		}
+		return tableExists;
+	}
+
+	private static String type(boolean charging) {
+		return charging ? "charge" : "discharge";
+	}
+
+	private static void finish(Job job, BulkMovementReportDTO.Status status) {
+		synchronized (job) {
+			job.status = status;
+			job.running = false;
+		}
+	}
+
+	/**
+	 * Validate and save a chunk, unless it was saved by a previous request with the same idempotency key.
+	 *
+	 * @return {@code true} if the chunk is saved
+	 */
+	private boolean process(Job job, int index, int firstLine, List<MovementDTO> movements) throws OHServiceException {
+		String chunkReference = index == 0 ? job.referenceNumber : job.referenceNumber + '-' + (index + 1);
+		byte[] digest = digest(movements);
+		synchronized (job) {
+			if (index < job.committedDigests.size()) {
+				if (Arrays.equals(job.committedDigests.get(index), digest)) {
+					job.chunks.add(new BulkMovementChunkDTO(index, firstLine, movements.size(), chunkReference, BulkMovementChunkDTO.Status.SKIPPED, null));
+					return true;
+				}
+				job.chunks.add(new BulkMovementChunkDTO(index, firstLine, movements.size(), chunkReference, BulkMovementChunkDTO.Status.FAILED,
+					"The chunk differs from the one already saved with the same idempotency key."));
+				return false;
+			}
+		}
+
+		for (int i = 0; i < movements.size(); i++) {
+			Set<ConstraintViolation<MovementDTO>> violations = validator.validate(movements.get(i));
+			if (!violations.isEmpty()) {
+				job.add(new BulkMovementChunkDTO(index, firstLine, movements.size(), chunkReference, BulkMovementChunkDTO.Status.FAILED,
+					"Line " + (firstLine + i) + ": " + violations.iterator().next().getMessage()));
+				return false;
+			}
+		}
+
+		List<Movement> models = new ArrayList<>(movMapper.map2ModelList(movements));
+		try {
+			stockLevelSnapshot.write(StockLevelSnapshot.medicalsOf(models), () -> {
+				List<Movement> saved = save(job, index, chunkReference, models, digest);
+				// recorded before anything else can fail: a retry must never save the chunk again
+				synchronized (job) {
+					if (job.idempotencyKey != null) {
+						job.committedDigests.add(digest);
+					}
+					job.committedLines += movements.size();
+					job.chunks.add(new BulkMovementChunkDTO(index, firstLine, movements.size(), chunkReference, BulkMovementChunkDTO.Status.COMMITTED, null));
+				}
+				try {
+					stockLevelSnapshot.applyMovements(saved, job.charging);
+					criticalStockMonitor.movementsSaved(saved);
+					if (job.charging) {
+						fefoLotIndex.movementsSaved(saved);
+					}
+				} catch (RuntimeException exception) {
+					// the snapshot is repaired by its next reconciliation, the FEFO lots and critical items by their next reload
+					LOGGER.error("Unable to update the stock caches with the bulk movements chunk {} of '{}'.", index, job.referenceNumber, exception);
+				}
+				return saved;
+			});
+		} catch (OHServiceException exception) {
+			LOGGER.info("Bulk movements chunk {} of '{}' rejected: {}", index, job.referenceNumber, exception.getMessage());
+			job.add(new BulkMovementChunkDTO(index, firstLine, movements.size(), chunkReference, BulkMovementChunkDTO.Status.FAILED,
+				exception.getMessage()));
+			return false;
+		}
+		return true;
+	}
+
+	private JsonToken nextToken(JsonParser parser, Job job, int index, int line, int buffered) throws IOException {
+		try {
+			return parser.nextToken();
+		} catch (JsonProcessingException exception) {
+			malformed(job, index, line, buffered, exception);
+			return null;
+		}
+	}
+
+	private MovementDTO readMovement(JsonParser parser, Job job, int index, int line, int buffered) throws IOException {
+		try {
+			return objectMapper.readValue(parser, MovementDTO.class);
+		} catch (JsonProcessingException exception) {
+			malformed(job, index, line, buffered, exception);
+			return null;
+		}
+	}
+
+	private static void malformed(Job job, int index, int line, int buffered, JsonProcessingException exception) {
+		job.add(new BulkMovementChunkDTO(index, line, buffered + 1, null, BulkMovementChunkDTO.Status.FAILED,
+			"Line " + (line + buffered) + ": malformed movement, " + exception.getOriginalMessage()));
+	}
+
+	private byte[] digest(List<MovementDTO> movements) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(movements));
+		} catch (NoSuchAlgorithmException | JsonProcessingException exception) {
+			throw new IllegalStateException(exception);
+		}
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.medicals.model.Medical;
+import org.isf.medicalstock.dto.CriticalStockDTO;
+import org.isf.medicalstock.model.Movement;
+import org.isf.shared.sse.SseBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * The set of medicals whose quantity in the main store is below their critical level.
+ * <p>
+ * The set is loaded at startup with a single query and re-evaluated for the medicals of every movement saved
+ * through the stock movement endpoints. After a movement the quantities are read from the {@link StockLevelSnapshot},
+ * like the critical check endpoint does, and from the {@link Medical} columns only for the medicals the snapshot does
+ * not know. The startup load and the periodic reload read the {@link Medical} columns, so that they catch the
+ * quantities, medicals and critical levels changed by other clients without waiting for the snapshot to be
+ * reconciled. Medicals entering or leaving the set are pushed to the subscribers of the critical stock stream.
+ */
+@Component
+public class CriticalStockMonitor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CriticalStockMonitor.class);
+
+	private static final String EVENT_NAME = "critical";
+
+	private static final String MEDICALS_JPQL = "SELECT m.code, m.description, m.minqty, m.initialqty + m.inqty - m.outqty FROM Medical m";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final StockLevelSnapshot stockLevelSnapshot;
+
+	private final boolean enabled;
+
+	private final SseBroadcaster broadcaster;
+
+	private final Map<Integer, Threshold> thresholds = new ConcurrentHashMap<>();
+
+	private final Map<Integer, CriticalStockDTO> critical = new ConcurrentHashMap<>();
+
+	private volatile boolean ready;
+
+	public CriticalStockMonitor(
+		StockLevelSnapshot stockLevelSnapshot,
+		@Value("${stock.critical.enabled:true}") boolean enabled,
+		@Value("${stock.critical.sse.timeout:1800000}") long sseTimeout
+	) {
+		this.stockLevelSnapshot = stockLevelSnapshot;
+		this.enabled = enabled;
+		this.broadcaster = new SseBroadcaster("critical-stock", sseTimeout);
+	}
+
+	/**
+	 * Description and critical level of a medical.
+	 */
+	private record Threshold(String description, double minQuantity) {
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Critical stock monitor disabled.");
+			return;
+		}
+		reload();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		broadcaster.shutdown();
+	}
+
+	/**
+	 * Re-evaluate every medical with the critical levels and quantities saved in the database.
+	 */
+	@Scheduled(fixedDelayString = "${stock.critical.reload.interval:PT10M}", initialDelayString = "${stock.critical.reload.interval:PT10M}")
+	public void reload() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			Map<Integer, Double> quantities = new HashMap<>();
+			for (Object[] row : entityManager.createQuery(MEDICALS_JPQL, Object[].class).getResultList()) {
+				int code = (Integer) row[0];
+				thresholds.put(code, new Threshold((String) row[1], toDouble(row[2])));
+				quantities.put(code, toDouble(row[3]));
+			}
+			thresholds.keySet().retainAll(quantities.keySet());
+			critical.keySet().removeIf(code -> !quantities.containsKey(code));
+			quantities.forEach(this::evaluate);
+			ready = true;
+		} catch (RuntimeException exception) {
+			LOGGER.error("Unable to load the critical stock levels.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the critical items have been loaded
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @return the medicals below their critical level, by code
+	 */
+	public List<CriticalStockDTO> getCriticalItems() {
+		List<CriticalStockDTO> items = new ArrayList<>(critical.values());
+		items.sort(Comparator.comparingInt(CriticalStockDTO::getMedicalCode));
+		return items;
+	}
+
+	/**
+	 * Subscribe to the changes of the critical items. The current critical items are sent first.
+	 *
+	 * @return the emitter of the stream
+	 */
+	public SseEmitter subscribe() {
+		List<SseBroadcaster.Event> snapshot = getCriticalItems().stream()
+			.map(item -> new SseBroadcaster.Event(null, EVENT_NAME, item))
+			.toList();
+		return broadcaster.subscribe(snapshot);
+	}
+
+	/**
+	 * Re-evaluate the medicals of saved main store movements.
+	 *
+	 * @param movements the saved movements
+	 */
+	public void movementsSaved(Collection<Movement> movements) {
+		if (!ready) {
+			return;
+		}
+		Set<Integer> medicals = new LinkedHashSet<>();
+		for (Movement movement : movements) {
+			medicals.add(movement.getMedical().getCode());
+		}
+		for (Integer code : medicals) {
+			Double quantity = stockLevelSnapshot.getQuantity(code, null);
+			if (quantity == null) {
+				quantity = loadQuantity(code);
+			}
+			if (quantity != null) {
+				evaluate(code, quantity);
+			}
+		}
+	}
+
+	/**
+	 * Take into account a created or updated medical, whose critical level may have changed.
+	 *
+	 * @param medical the saved medical
+	 */
+	public void medicalSaved(Medical medical) {
+		if (!ready || medical == null) {
+			return;
+		}
+		thresholds.put(medical.getCode(), new Threshold(medical.getDescription(), medical.getMinqty()));
+		evaluate(medical.getCode(), quantity(medical.getCode(), medical.getInitialqty() + medical.getInqty() - medical.getOutqty()));
+	}
+
+	/**
+	 * Forget a deleted medical.
+	 *
+	 * @param code the medical code
+	 */
+	public void medicalDeleted(int code) {
+		thresholds.remove(code);
+		CriticalStockDTO removed = critical.remove(code);
+		if (removed != null) {
+			publish(new CriticalStockDTO(code, removed.getDescription(), removed.getQuantity(), removed.getMinQuantity(), false));
+		}
+	}
+
+	private void evaluate(int code, double quantity) {
+		Threshold threshold = thresholds.get(code);
+		if (threshold == null) {
+			return;
+		}
+		boolean isCritical = quantity < threshold.minQuantity();
+		CriticalStockDTO item = new CriticalStockDTO(code, threshold.description(), quantity, threshold.minQuantity(), isCritical);
+		CriticalStockDTO previous = isCritical ? critical.put(code, item) : critical.remove(code);
+		if (isCritical ? previous == null || previous.getQuantity() != quantity || previous.getMinQuantity() != threshold.minQuantity()
+			: previous != null) {
+			publish(item);
+		}
+	}
+
+	private Double loadQuantity(int code) {
+		List<Object[]> rows = entityManager.createQuery(MEDICALS_JPQL + " WHERE m.code = :code", Object[].class)
+			.setParameter("code", code)
+			.getResultList();
+		if (rows.isEmpty()) {
+			return null;
+		}
+		Object[] row = rows.get(0);
+		thresholds.put(code, new Threshold((String) row[1], toDouble(row[2])));
+		return quantity(code, row[3]);
+	}
+
+	/**
+	 * @param code the medical code
+	 * @param savedQuantity the quantity of the {@link Medical} columns
+	 * @return the quantity of the snapshot, the saved one if the snapshot does not know the medical
+	 */
+	private double quantity(int code, Object savedQuantity) {
+		Double quantity = stockLevelSnapshot.getQuantity(code, null);
+		return quantity != null ? quantity : toDouble(savedQuantity);
+	}
+
+	private void publish(CriticalStockDTO item) {
+		broadcaster.publish(new SseBroadcaster.Event(null, EVENT_NAME, item));
+	}
+
+	private static double toDouble(Object value) {
+		return value == null ? 0d : ((Number) value).doubleValue();
+	}
+}
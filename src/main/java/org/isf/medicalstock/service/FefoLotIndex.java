@@ -0,0 +1,253 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.medicalstock.dto.LotPickDTO;
+import org.isf.medicalstock.dto.LotRequestDTO;
+import org.isf.medicalstock.dto.LotSelectionDTO;
+import org.isf.medicalstock.model.Lot;
+import org.isf.medicalstock.model.Movement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * The lots of every medical ordered first expiring first out: by due date, then by preparation date.
+ * <p>
+ * Only the lots in stock are kept: they are loaded at startup from the movements and added as charging movements
+ * are saved; their quantities in the main store are read from the {@link StockLevelSnapshot} and a lot is dropped as
+ * soon as its quantity reaches 0. The lots are reloaded every {@code stock.fefo.reload.interval} to catch the lots
+ * charged by other clients. A selection walks the lots of a medical in order and takes from each of them until the
+ * requested quantity is reached.
+ */
+@Component
+public class FefoLotIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FefoLotIndex.class);
+
+	private static final String LOTS_JPQL = "SELECT mov.medical.code, l.code, l.dueDate, l.preparationDate FROM Movement mov JOIN mov.lot l";
+
+	private static final String IN_STOCK = " GROUP BY mov.medical.code, l.code, l.dueDate, l.preparationDate"
+		+ " HAVING SUM(CASE WHEN mov.type.type LIKE '+%' THEN mov.quantity ELSE -mov.quantity END) > 0";
+
+	private static final double TOLERANCE = 1e-6;
+
+	private static final Comparator<LotEntry> FEFO = Comparator
+		.comparing(LotEntry::dueDate, Comparator.nullsLast(Comparator.naturalOrder()))
+		.thenComparing(LotEntry::preparationDate, Comparator.nullsLast(Comparator.naturalOrder()))
+		.thenComparing(LotEntry::code);
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final StockLevelSnapshot stockLevelSnapshot;
+
+	private final boolean enabled;
+
+	private final Map<Integer, NavigableSet<LotEntry>> lots = new ConcurrentHashMap<>();
+
+	private volatile boolean ready;
+
+	public FefoLotIndex(StockLevelSnapshot stockLevelSnapshot, @Value("${stock.fefo.enabled:true}") boolean enabled) {
+		this.stockLevelSnapshot = stockLevelSnapshot;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * A lot of a medical.
+	 */
+	private record LotEntry(String code, LocalDate dueDate, LocalDate preparationDate) {
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadOnStartup() {
+		if (!enabled) {
+			LOGGER.info("FEFO lot index disabled.");
+			return;
+		}
+		reload();
+	}
+
+	/**
+	 * Add the lots in stock in the database, e.g. charged by other clients, and drop the depleted ones.
+	 */
+	@Scheduled(fixedDelayString = "${stock.fefo.reload.interval:PT15M}", initialDelayString = "${stock.fefo.reload.interval:PT15M}")
+	public void reload() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			load(null).forEach(row -> add((Integer) row[0], new LotEntry((String) row[1], toLocalDate(row[2]), toLocalDate(row[3]))));
+			for (Integer medical : lots.keySet()) {
+				dropDepleted(medical, null);
+			}
+			ready = true;
+			LOGGER.debug("FEFO lot index loaded: {} medicals in {} ms.", lots.size(), System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			LOGGER.error("Unable to load the FEFO lot index.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the lots and the stock level snapshot are loaded
+	 */
+	public boolean isReady() {
+		return ready && stockLevelSnapshot.isReady();
+	}
+
+	/**
+	 * Add the lots of saved charging movements.
+	 *
+	 * @param movements the saved movements
+	 */
+	public void movementsSaved(Collection<Movement> movements) {
+		if (!ready) {
+			return;
+		}
+		Set<Integer> withoutLot = new LinkedHashSet<>();
+		for (Movement movement : movements) {
+			int medical = movement.getMedical().getCode();
+			Lot lot = movement.getLot();
+			if (lot == null || lot.getCode() == null) {
+				withoutLot.add(medical);
+			} else {
+				add(medical, new LotEntry(lot.getCode(), toLocalDate(lot.getDueDate()), toLocalDate(lot.getPreparationDate())));
+			}
+		}
+		// lots generated while saving are not always set back on the movements
+		for (Integer medical : withoutLot) {
+			load(medical).forEach(row -> add(medical, new LotEntry((String) row[1], toLocalDate(row[2]), toLocalDate(row[3]))));
+		}
+	}
+
+	/**
+	 * Select the lots to take the requested quantities from, first expiring first.
+	 *
+	 * @param requests the medicals and quantities
+	 * @param includeExpired whether the lots whose due date is past can be selected
+	 * @return a selection for every request, in the same order
+	 */
+	public List<LotSelectionDTO> select(List<LotRequestDTO> requests, boolean includeExpired) {
+		LocalDate today = LocalDate.now();
+		List<LotSelectionDTO> selections = new ArrayList<>(requests.size());
+		for (LotRequestDTO request : requests) {
+			int medical = request.getMedicalCode();
+			int missing = request.getQuantity();
+			List<LotPickDTO> picks = new ArrayList<>();
+			for (LotEntry lot : lots.getOrDefault(medical, Collections.emptyNavigableSet())) {
+				if (missing <= 0) {
+					break;
+				}
+				if (!includeExpired && lot.dueDate() != null && lot.dueDate().isBefore(today)) {
+					continue;
+				}
+				Double available = stockLevelSnapshot.getLotQuantity(medical, lot.code());
+				if (available != null && available <= TOLERANCE) {
+					dropDepleted(medical, lot);
+					continue;
+				}
+				int quantity = available == null ? 0 : (int) Math.min(missing, Math.floor(available));
+				if (quantity > 0) {
+					picks.add(new LotPickDTO(lot.code(), lot.dueDate(), lot.preparationDate(), quantity));
+					missing -= quantity;
+				}
+			}
+			selections.add(new LotSelectionDTO(medical, request.getQuantity(), Math.max(0, missing), picks));
+		}
+		return selections;
+	}
+
+	private void add(int medical, LotEntry lot) {
+		lots.compute(medical, (code, medicalLots) -> {
+			NavigableSet<LotEntry> added = medicalLots == null ? new ConcurrentSkipListSet<>(FEFO) : medicalLots;
+			added.add(lot);
+			return added;
+		});
+	}
+
+	/**
+	 * Drop a lot, or every lot of a medical, whose quantity is 0 in the snapshot. The quantity is read again while
+	 * the lots of the medical cannot be added, so that a lot charged meanwhile is never dropped.
+	 *
+	 * @param lot the lot, {@code null} for every lot of the medical
+	 */
+	private void dropDepleted(int medical, LotEntry lot) {
+		lots.computeIfPresent(medical, (code, medicalLots) -> {
+			if (lot == null) {
+				medicalLots.removeIf(entry -> depleted(code, entry));
+			} else if (depleted(code, lot)) {
+				medicalLots.remove(lot);
+			}
+			return medicalLots.isEmpty() ? null : medicalLots;
+		});
+	}
+
+	private boolean depleted(int medical, LotEntry lot) {
+		Double available = stockLevelSnapshot.getLotQuantity(medical, lot.code());
+		return available != null && available <= TOLERANCE;
+	}
+
+	private List<Object[]> load(Integer medical) {
+		TypedQuery<Object[]> query = entityManager.createQuery(
+			(medical == null ? LOTS_JPQL : LOTS_JPQL + " WHERE mov.medical.code = :medical") + IN_STOCK, Object[].class);
+		if (medical != null) {
+			query.setParameter("medical", medical);
+		}
+		return query.getResultList();
+	}
+
+	private static LocalDate toLocalDate(Object value) {
+		if (value instanceof LocalDate date) {
+			return date;
+		}
+		if (value instanceof LocalDateTime dateTime) {
+			return dateTime.toLocalDate();
+		}
+		if (value instanceof java.sql.Date date) {
+			return date.toLocalDate();
+		}
+		return null;
+	}
+}
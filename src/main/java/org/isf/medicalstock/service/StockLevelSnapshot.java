@@ -0,0 +1,500 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.medicalstock.dto.StockLevelDTO;
+import org.isf.medicalstock.dto.StockLevelMismatchDTO;
+import org.isf.medicalstock.dto.StockLevelVerificationDTO;
+import org.isf.medicalstock.model.Movement;
+import org.isf.medicalstockward.model.MovementWard;
+import org.isf.utils.exception.OHServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory snapshot of the pharmacy stock levels, keyed by medical, location (the main store or a ward) and lot.
+ * <p>
+ * The snapshot is loaded at startup with three grouped queries and then updated by the stock movement endpoints,
+ * so that reading the quantity of a medical in a location is a single map lookup. The levels of a medical and its
+ * totals per location are always updated together under a lock chosen by the medical code among a fixed set of
+ * locks: movements of different medicals seldom wait for each other.
+ * <p>
+ * The movements are saved through {@link #write(Collection, Write)}, holding the locks of their medicals until they
+ * are applied, and the levels of a medical are recomputed from the database holding its lock too: a recompute
+ * never counts a movement that is applied afterwards, nor misses one applied before. The startup load holds every
+ * lock, so the movements saved meanwhile are applied once it is done.
+ * <p>
+ * Levels of medicals unknown to the snapshot, e.g. created after startup, are loaded from the database on their
+ * first movement. {@link #verify(boolean)} compares the whole snapshot with a recompute and can repair it; it runs
+ * every {@code stock.snapshot.reconcile.interval} to catch the movements saved by other clients.
+ */
+@Component
+public class StockLevelSnapshot {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(StockLevelSnapshot.class);
+
+	/** Location of the main store, lot of the quantities without lot. */
+	private static final String NONE = "";
+
+	private static final double TOLERANCE = 1e-6;
+
+	private static final String INITIAL_QUANTITIES_JPQL = "SELECT m.code, m.initialqty FROM Medical m";
+
+	private static final String MAIN_STORE_LEVELS_JPQL = "SELECT mov.medical.code, l.code,"
+		+ " SUM(CASE WHEN mov.type.type LIKE '+%' THEN mov.quantity ELSE -mov.quantity END)"
+		+ " FROM Movement mov LEFT JOIN mov.lot l";
+
+	private static final String MAIN_STORE_LEVELS_GROUP_BY = " GROUP BY mov.medical.code, l.code";
+
+	private static final String WARD_LEVELS_JPQL = "SELECT mw.id.medical.code, mw.id.ward.code, l.code, mw.in_quantity - mw.out_quantity"
+		+ " FROM MedicalWard mw LEFT JOIN mw.id.lot l";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean enabled;
+
+	private final ReentrantLock[] stripes;
+
+	private final Map<LevelKey, Double> levels = new ConcurrentHashMap<>();
+
+	private final Map<TotalKey, Double> totals = new ConcurrentHashMap<>();
+
+	private final Set<Integer> medicals = ConcurrentHashMap.newKeySet();
+
+	private volatile boolean ready;
+
+	public StockLevelSnapshot(
+		@Value("${stock.snapshot.enabled:true}") boolean enabled,
+		@Value("${stock.snapshot.lock.stripes:64}") int lockStripes
+	) {
+		this.enabled = enabled;
+		this.stripes = new ReentrantLock[Math.max(1, lockStripes)];
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Stock level of a medical in a location for a lot.
+	 */
+	private record LevelKey(int medical, String ward, String lot) {
+	}
+
+	/**
+	 * Total stock of a medical in a location.
+	 */
+	private record TotalKey(int medical, String ward) {
+	}
+
+	/**
+	 * Save of stock movements, see {@link #write(Collection, Write)}.
+	 */
+	@FunctionalInterface
+	public interface Write<T> {
+
+		T run() throws OHServiceException;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void loadOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Stock level snapshot disabled.");
+			return;
+		}
+		try {
+			long start = System.currentTimeMillis();
+			int[] all = new int[stripes.length];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			lock(all);
+			try {
+				Map<LevelKey, Double> loaded = load(null);
+				levels.clear();
+				totals.clear();
+				medicals.clear();
+				loaded.forEach(this::set);
+				ready = true;
+			} finally {
+				unlock(all);
+			}
+			LOGGER.info("Stock level snapshot loaded: {} medicals, {} levels in {} ms.", medicals.size(), levels.size(),
+				System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			LOGGER.error("Unable to load the stock level snapshot.", exception);
+		}
+	}
+
+	/**
+	 * Verify the snapshot against the database and repair the mismatching medicals, or load it if the startup load
+	 * failed.
+	 */
+	@Scheduled(fixedDelayString = "${stock.snapshot.reconcile.interval:PT15M}", initialDelayString = "${stock.snapshot.reconcile.interval:PT15M}")
+	public void reconcile() {
+		if (!enabled) {
+			return;
+		}
+		if (!ready) {
+			loadOnStartup();
+			return;
+		}
+		try {
+			verify(true);
+		} catch (RuntimeException exception) {
+			LOGGER.error("Unable to reconcile the stock level snapshot.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the snapshot has been loaded
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @param medicalCode the medical code
+	 * @param wardCode the ward code, {@code null} for the main store
+	 * @return the quantity in stock, {@code null} if the medical is unknown to the snapshot or never entered the ward
+	 */
+	public Double getQuantity(int medicalCode, String wardCode) {
+		if (!ready || !medicals.contains(medicalCode)) {
+			return null;
+		}
+		if (wardCode == null) {
+			return totals.getOrDefault(new TotalKey(medicalCode, NONE), 0d);
+		}
+		return totals.get(new TotalKey(medicalCode, wardCode));
+	}
+
+	/**
+	 * @param medicalCode the medical code
+	 * @param lotCode the lot code
+	 * @return the quantity of the lot in the main store, {@code null} if the medical is unknown to the snapshot
+	 */
+	public Double getLotQuantity(int medicalCode, String lotCode) {
+		if (!ready || !medicals.contains(medicalCode)) {
+			return null;
+		}
+		return levels.getOrDefault(new LevelKey(medicalCode, NONE, lotCode), 0d);
+	}
+
+	/**
+	 * @param medicalCode the medical code, {@code null} for every medical
+	 * @param wardCode the ward code, {@code null} for every location, empty for the main store
+	 * @return the non-zero stock levels, by medical, location and lot
+	 */
+	public List<StockLevelDTO> getLevels(Integer medicalCode, String wardCode) {
+		List<StockLevelDTO> found = new ArrayList<>();
+		levels.forEach((key, quantity) -> {
+			if ((medicalCode == null || key.medical() == medicalCode) && (wardCode == null || key.ward().equals(wardCode))
+				&& Math.abs(quantity) > TOLERANCE) {
+				found.add(toDTO(key, quantity));
+			}
+		});
+		found.sort(Comparator.comparingInt(StockLevelDTO::getMedicalCode)
+			.thenComparing(level -> Objects.toString(level.getWardCode(), NONE))
+			.thenComparing(level -> Objects.toString(level.getLotCode(), NONE)));
+		return found;
+	}
+
+	/**
+	 * Save stock movements holding the locks of their medicals: the movements must be applied to the snapshot by
+	 * the save itself, before the locks are released.
+	 *
+	 * @param medicalCodes the codes of the medicals moved
+	 * @param write the save of the movements
+	 * @return the result of the save
+	 * @throws OHServiceException When failed to save the movements
+	 */
+	public <T> T write(Collection<Integer> medicalCodes, Write<T> write) throws OHServiceException {
+		if (!enabled) {
+			return write.run();
+		}
+		int[] locked = medicalCodes.stream().mapToInt(this::stripe).distinct().sorted().toArray();
+		lock(locked);
+		try {
+			return write.run();
+		} finally {
+			unlock(locked);
+		}
+	}
+
+	/**
+	 * @param movements the movements
+	 * @return the codes of their medicals
+	 */
+	public static Set<Integer> medicalsOf(List<Movement> movements) {
+		return movements.stream()
+			.filter(movement -> movement.getMedical() != null)
+			.map(movement -> movement.getMedical().getCode())
+			.collect(Collectors.toSet());
+	}
+
+	/**
+	 * Apply saved charging or discharging movements of the main store. A discharge to a ward also charges the
+	 * ward stock.
+	 * <p>
+	 * The movements must be the ones returned by the stock manager: with automatic lots the movements sent by the
+	 * client have no lot, the manager generates the lots of the charges and splits the discharges among the lots.
+	 * The levels of a medical with a movement still without lot are reloaded from the database instead. Before the
+	 * snapshot is loaded the movements are ignored: the load waits for the writes in progress and reads them.
+	 *
+	 * @param movements the saved movements
+	 * @param charging {@code true} for charging movements, {@code false} for discharging ones
+	 */
+	public void applyMovements(List<Movement> movements, boolean charging) {
+		if (!ready) {
+			return;
+		}
+		Set<Integer> reloaded = new HashSet<>();
+		for (Movement movement : movements) {
+			int medical = movement.getMedical().getCode();
+			if (reloaded.contains(medical)) {
+				continue;
+			}
+			if (movement.getLot() == null || movement.getLot().getCode() == null) {
+				// the lots taken or generated are unknown here
+				reload(medical);
+				reloaded.add(medical);
+				continue;
+			}
+			if (reloadIfUnknown(medical)) {
+				// the reloaded levels already include every movement of the list
+				reloaded.add(medical);
+				continue;
+			}
+			String lot = movement.getLot().getCode();
+			double quantity = movement.getQuantity();
+			locked(medical, () -> {
+				add(new LevelKey(medical, NONE, lot), charging ? quantity : -quantity);
+				if (!charging && movement.getWard() != null) {
+					add(new LevelKey(medical, movement.getWard().getCode(), lot), quantity);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Apply a saved ward movement: the quantity leaves the ward and, if any, enters the destination ward.
+	 *
+	 * @param movement the saved movement
+	 */
+	public void applyWardMovement(MovementWard movement) {
+		if (!ready || movement.getMedical() == null || movement.getQuantity() == null) {
+			return;
+		}
+		int medical = movement.getMedical().getCode();
+		String lot = movement.getLot() == null ? NONE : Objects.toString(movement.getLot().getCode(), NONE);
+		double quantity = movement.getQuantity();
+		if (reloadIfUnknown(medical)) {
+			return;
+		}
+		locked(medical, () -> {
+			add(new LevelKey(medical, movement.getWard().getCode(), lot), -quantity);
+			if (movement.getWardTo() != null) {
+				add(new LevelKey(medical, movement.getWardTo().getCode(), lot), quantity);
+			}
+		});
+	}
+
+	/**
+	 * Compare the snapshot with the stock levels recomputed from the database.
+	 * <p>
+	 * The whole recompute reads the database without locks, so a movement saved meanwhile shows as a mismatch: the
+	 * mismatching medicals are recomputed again holding their lock before being reported or repaired.
+	 *
+	 * @param repair whether to replace the mismatching medicals with the recomputed levels
+	 * @return the number of levels compared and the mismatches
+	 */
+	public StockLevelVerificationDTO verify(boolean repair) {
+		Map<LevelKey, Double> recomputed = load(null);
+		Set<LevelKey> keys = new HashSet<>(recomputed.keySet());
+		keys.addAll(levels.keySet());
+		Set<Integer> suspects = new HashSet<>();
+		for (LevelKey key : keys) {
+			if (mismatch(levels.getOrDefault(key, 0d), recomputed.getOrDefault(key, 0d))) {
+				suspects.add(key.medical());
+			}
+		}
+		List<StockLevelMismatchDTO> mismatches = new ArrayList<>();
+		Set<Integer> mismatchingMedicals = new HashSet<>();
+		for (int medical : suspects) {
+			locked(medical, () -> {
+				Map<LevelKey, Double> loaded = load(medical);
+				Set<LevelKey> medicalKeys = new HashSet<>(loaded.keySet());
+				levels.keySet().stream().filter(key -> key.medical() == medical).forEach(medicalKeys::add);
+				for (LevelKey key : medicalKeys) {
+					double snapshot = levels.getOrDefault(key, 0d);
+					double expected = loaded.getOrDefault(key, 0d);
+					if (mismatch(snapshot, expected)) {
+						mismatches.add(new StockLevelMismatchDTO(key.medical(), nullIfNone(key.ward()), nullIfNone(key.lot()), snapshot, expected));
+						mismatchingMedicals.add(medical);
+					}
+				}
+				if (repair && mismatchingMedicals.contains(medical)) {
+					replace(medical, loaded);
+				}
+			});
+		}
+		if (!mismatches.isEmpty()) {
+			LOGGER.warn("Stock level snapshot verification: {} mismatching levels in {} medicals{}.", mismatches.size(),
+				mismatchingMedicals.size(), repair ? ", repaired" : "");
+		}
+		mismatches.sort(Comparator.comparingInt(StockLevelMismatchDTO::getMedicalCode));
+		return new StockLevelVerificationDTO(keys.size(), repair, mismatches);
+	}
+
+	/**
+	 * Replace the levels of a medical with the ones recomputed from the database.
+	 */
+	private void reload(int medical) {
+		locked(medical, () -> replace(medical, load(medical)));
+	}
+
+	/**
+	 * Recompute the stock levels from the database.
+	 *
+	 * @param medical the medical whose levels are loaded, {@code null} for every medical
+	 */
+	private Map<LevelKey, Double> load(Integer medical) {
+		Map<LevelKey, Double> loaded = new HashMap<>();
+		for (Object[] row : query(INITIAL_QUANTITIES_JPQL, " WHERE m.code = :medical", "", medical)) {
+			loaded.merge(new LevelKey((Integer) row[0], NONE, NONE), toDouble(row[1]), Double::sum);
+		}
+		for (Object[] row : query(MAIN_STORE_LEVELS_JPQL, " WHERE mov.medical.code = :medical", MAIN_STORE_LEVELS_GROUP_BY, medical)) {
+			loaded.merge(new LevelKey((Integer) row[0], NONE, Objects.toString(row[1], NONE)), toDouble(row[2]), Double::sum);
+		}
+		for (Object[] row : query(WARD_LEVELS_JPQL, " WHERE mw.id.medical.code = :medical", "", medical)) {
+			loaded.merge(new LevelKey((Integer) row[0], (String) row[1], Objects.toString(row[2], NONE)), toDouble(row[3]), Double::sum);
+		}
+		return loaded;
+	}
+
+	private List<Object[]> query(String jpql, String medicalFilter, String groupBy, Integer medical) {
+		TypedQuery<Object[]> query = entityManager.createQuery(jpql + (medical == null ? "" : medicalFilter) + groupBy, Object[].class);
+		if (medical != null) {
+			query.setParameter("medical", medical);
+		}
+		return query.getResultList();
+	}
+
+	/**
+	 * Load the levels of a medical created after the snapshot, on its first movement: the movement is already saved.
+	 *
+	 * @return {@code true} if the medical has been loaded
+	 */
+	private boolean reloadIfUnknown(int medical) {
+		if (medicals.contains(medical)) {
+			return false;
+		}
+		reload(medical);
+		return true;
+	}
+
+	private void locked(int medical, Runnable update) {
+		ReentrantLock stripe = stripes[stripe(medical)];
+		stripe.lock();
+		try {
+			update.run();
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	private int stripe(int medical) {
+		return Math.floorMod(medical, stripes.length);
+	}
+
+	/**
+	 * Lock stripes in ascending order, so that two writes never wait for each other.
+	 */
+	private void lock(int[] ascending) {
+		for (int stripe : ascending) {
+			stripes[stripe].lock();
+		}
+	}
+
+	private void unlock(int[] ascending) {
+		for (int i = ascending.length - 1; i >= 0; i--) {
+			stripes[ascending[i]].unlock();
+		}
+	}
+
+	private static boolean mismatch(double snapshot, double expected) {
+		return Math.abs(snapshot - expected) > TOLERANCE;
+	}
+
+	// called with the stripe of the medical held
+
+	private void replace(int medical, Map<LevelKey, Double> loaded) {
+		levels.keySet().removeIf(key -> key.medical() == medical);
+		totals.keySet().removeIf(key -> key.medical() == medical);
+		loaded.forEach(this::set);
+		medicals.add(medical);
+	}
+
+	private void set(LevelKey key, double quantity) {
+		medicals.add(key.medical());
+		add(key, quantity);
+	}
+
+	private void add(LevelKey key, double delta) {
+		levels.merge(key, delta, Double::sum);
+		totals.merge(new TotalKey(key.medical(), key.ward()), delta, Double::sum);
+	}
+
+	private static StockLevelDTO toDTO(LevelKey key, double quantity) {
+		return new StockLevelDTO(key.medical(), nullIfNone(key.ward()), nullIfNone(key.lot()), quantity);
+	}
+
+	private static String nullIfNone(String value) {
+		return NONE.equals(value) ? null : value;
+	}
+
+	private static double toDouble(Object value) {
+		return value == null ? 0d : ((Number) value).doubleValue();
+	}
+}
@@ -24,11 +24,13 @@ package org.isf.medicalstockward.rest;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Set;
 
 import jakarta.validation.Valid;
 
 import org.isf.medicals.manager.MedicalBrowsingManager;
 import org.isf.medicals.model.Medical;
+import org.isf.medicalstock.service.StockLevelSnapshot;
 import org.isf.medicalstockward.dto.MedicalWardDTO;
 import org.isf.medicalstockward.dto.MovementWardDTO;
 import org.isf.medicalstockward.manager.MovWardBrowserManager;
@@ -71,18 +73,22 @@ public class MedicalStockWardController {
 
 	private final WardBrowserManager wardManager;
 
+	private final StockLevelSnapshot stockLevelSnapshot;
+
 	public MedicalStockWardController(
 		MedicalWardMapper medicalWardMapper,
 		MovementWardMapper movementWardMapper,
 		MovWardBrowserManager movWardBrowserManager,
 		MedicalBrowsingManager medicalManager,
-		WardBrowserManager wardManager
+		WardBrowserManager wardManager,
+		StockLevelSnapshot stockLevelSnapshot
 	) {
 		this.medicalWardMapper = medicalWardMapper;
 		this.movementWardMapper = movementWardMapper;
 		this.movWardBrowserManager = movWardBrowserManager;
 		this.medicalManager = medicalManager;
 		this.wardManager = wardManager;
+		this.stockLevelSnapshot = stockLevelSnapshot;
 	}
 
 	/**
@@ -113,6 +119,10 @@ public class MedicalStockWardController {
 		@PathVariable("ward_code") String wardId,
 		@RequestParam("med_id") int medicalId
 	) throws OHServiceException {
+		Double quantity = stockLevelSnapshot.getQuantity(medicalId, wardId);
+		if (quantity != null) {
+			return quantity.intValue();
+		}
 		Medical medical = medicalManager.getMedical(medicalId);
 		if (medical == null) {
 			throw new OHAPIException(new OHExceptionMessage("Medical not found."), HttpStatus.NOT_FOUND);
@@ -185,7 +195,12 @@ public class MedicalStockWardController {
 		@Valid @RequestBody MovementWardDTO newMovementDTO
 	) throws OHServiceException {
 		MovementWard newMovement = movementWardMapper.map2Model(newMovementDTO);
-		movWardBrowserManager.newMovementWard(newMovement);
+		Set<Integer> medicals = newMovement.getMedical() == null ? Set.of() : Set.of(newMovement.getMedical().getCode());
+		stockLevelSnapshot.write(medicals, () -> {
+			movWardBrowserManager.newMovementWard(newMovement);
+			stockLevelSnapshot.applyWardMovement(newMovement);
+			return null;
+		});
 
 		return true;
 	}
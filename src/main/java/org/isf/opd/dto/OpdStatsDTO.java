@@ -0,0 +1,99 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.opd.dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "OPD counts of a date range grouped by the requested properties")
+public class OpdStatsDTO {
+
+	@Schema(description = "The first day of the range, inclusive")
+	private LocalDate dateFrom;
+
+	@Schema(description = "The last day of the range, inclusive")
+	private LocalDate dateTo;
+
+	@Schema(description = "The properties grouped by", example = "[\"WEEK\", \"DISEASE\"]")
+	private List<String> groupBy;
+
+	@Schema(description = "The number of OPDs matching the filters", example = "1250")
+	private long total;
+
+	@Schema(description = "The count of every group, ordered by period then count descending")
+	private List<OpdStatsRowDTO> rows;
+
+	public OpdStatsDTO() {
+	}
+
+	public OpdStatsDTO(LocalDate dateFrom, LocalDate dateTo, List<String> groupBy, List<OpdStatsRowDTO> rows) {
+		this.dateFrom = dateFrom;
+		this.dateTo = dateTo;
+		this.groupBy = groupBy;
+		this.rows = rows;
+		for (OpdStatsRowDTO row : rows) {
+			total += row.getCount();
+		}
+	}
+
+	public LocalDate getDateFrom() {
+		return dateFrom;
+	}
+
+	public void setDateFrom(LocalDate dateFrom) {
+		this.dateFrom = dateFrom;
+	}
+
+	public LocalDate getDateTo() {
+		return dateTo;
+	}
+
+	public void setDateTo(LocalDate dateTo) {
+		this.dateTo = dateTo;
+	}
+
+	public List<String> getGroupBy() {
+		return groupBy;
+	}
+
+	public void setGroupBy(List<String> groupBy) {
+		this.groupBy = groupBy;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public void setTotal(long total) {
+		this.total = total;
+	}
+
+	public List<OpdStatsRowDTO> getRows() {
+		return rows;
+	}
+
+	public void setRows(List<OpdStatsRowDTO> rows) {
+		this.rows = rows;
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.opd.dto;
+
+import java.time.LocalDate;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "OPD count of a group; the properties not grouped by are null")
+public class OpdStatsRowDTO {
+
+	@Schema(description = "The first day of the period (day, week or month)")
+	private LocalDate period;
+
+	@Schema(description = "The disease code", example = "1")
+	private String diseaseCode;
+
+	@Schema(description = "The disease type code", example = "NC")
+	private String diseaseTypeCode;
+
+	@Schema(description = "The age band", example = "5-14")
+	private String ageBand;
+
+	@Schema(description = "The sex", example = "F")
+	private String sex;
+
+	@Schema(description = "N for new patients, R for reattendances", example = "N")
+	private String newPatient;
+
+	@Schema(description = "The ward code", example = "OPD")
+	private String wardCode;
+
+	@Schema(description = "The number of OPDs", example = "42")
+	private long count;
+
+	public OpdStatsRowDTO() {
+	}
+
+	public OpdStatsRowDTO(LocalDate period, String diseaseCode, String diseaseTypeCode, String ageBand, String sex, String newPatient,
+		String wardCode, long count) {
+		this.period = period;
+		this.diseaseCode = diseaseCode;
+		this.diseaseTypeCode = diseaseTypeCode;
+		this.ageBand = ageBand;
+		this.sex = sex;
+		this.newPatient = newPatient;
+		this.wardCode = wardCode;
+		this.count = count;
+	}
+
+	public LocalDate getPeriod() {
+		return period;
+	}
+
+	public void setPeriod(LocalDate period) {
+		this.period = period;
+	}
+
+	public String getDiseaseCode() {
+		return diseaseCode;
+	}
+
+	public void setDiseaseCode(String diseaseCode) {
+		this.diseaseCode = diseaseCode;
+	}
+
+	public String getDiseaseTypeCode() {
+		return diseaseTypeCode;
+	}
+
+	public void setDiseaseTypeCode(String diseaseTypeCode) {
+		this.diseaseTypeCode = diseaseTypeCode;
+	}
+
+	public String getAgeBand() {
+		return ageBand;
+	}
+
+	public void setAgeBand(String ageBand) {
+		this.ageBand = ageBand;
+	}
+
+	public String getSex() {
+		return sex;
+	}
+
+	public void setSex(String sex) {
+		this.sex = sex;
+	}
+
+	public String getNewPatient() {
+		return newPatient;
+	}
+
+	public void setNewPatient(String newPatient) {
+		this.newPatient = newPatient;
+	}
+
+	public String getWardCode() {
+		return wardCode;
+	}
+
+	public void setWardCode(String wardCode) {
+		this.wardCode = wardCode;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public void setCount(long count) {
+		this.count = count;
+	}
+}
@@ -27,6 +27,8 @@ import java.util.stream.Collectors;
 import org.isf.opd.dto.OpdDTO;
 import org.isf.opd.model.Opd;
 import org.isf.shared.GenericMapper;
+import org.isf.shared.fields.FieldSelection;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -67,7 +69,8 @@ public class OpdMapper extends GenericMapper<Opd, OpdDTO> {
 	
 	@Override
 	public List<OpdDTO> map2DTOList(List<Opd> list) {
-		return list.stream().map(it -> map2DTO(it)).collect(Collectors.toList());
+		return FieldsMappingCondition.apply(FieldSelection.currentForList(),
+			() -> list.stream().map(it -> map2DTO(it)).collect(Collectors.toList()));
 	}
 
 	@Override
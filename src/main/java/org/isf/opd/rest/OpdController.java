@@ -22,17 +22,25 @@
 package org.isf.opd.rest;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import org.isf.generaldata.MessageBundle;
 import org.isf.opd.dto.OpdDTO;
+import org.isf.opd.dto.OpdStatsDTO;
 import org.isf.opd.dto.OpdWithOperationRowDTO;
 import org.isf.opd.manager.OpdBrowserManager;
 import org.isf.opd.mapper.OpdMapper;
 import org.isf.opd.model.Opd;
-import org.isf.operation.dto.OperationRowDTO;
+import org.isf.opd.service.OpdHistoryQuery;
+import org.isf.opd.service.OpdOperationRowWriter;
+import org.isf.opd.service.OpdStatsCube;
 import org.isf.operation.manager.OperationRowBrowserManager;
 import org.isf.operation.mapper.OperationRowMapper;
 import org.isf.operation.model.OperationRow;
@@ -40,6 +48,8 @@ import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.shared.pagination.Page;
+import org.isf.shared.pagination.PageInfoDTO;
+import org.isf.shared.progressive.ProgressiveAllocator;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
@@ -88,6 +98,14 @@ public class OpdController {
 
 	private final WardBrowserManager wardManager;
 
+	private final OpdOperationRowWriter opdOperationRowWriter;
+
+	private final OpdHistoryQuery opdHistoryQuery;
+
+	private final ProgressiveAllocator progressiveAllocator;
+
+	private final OpdStatsCube opdStatsCube;
+
 	public OpdController(
 		OpdBrowserManager opdManager,
 		OpdMapper opdmapper,
@@ -95,7 +113,11 @@ public class OpdController {
 		OperationRowBrowserManager
 			operationRowManager,
 		OperationRowMapper opRowMapper,
-		WardBrowserManager wardManager
+		WardBrowserManager wardManager,
+		OpdOperationRowWriter opdOperationRowWriter,
+		OpdHistoryQuery opdHistoryQuery,
+		ProgressiveAllocator progressiveAllocator,
+		OpdStatsCube opdStatsCube
 	) {
 		this.opdManager = opdManager;
 		this.mapper = opdmapper;
@@ -103,6 +125,10 @@ public class OpdController {
 		this.operationRowManager = operationRowManager;
 		this.opRowMapper = opRowMapper;
 		this.wardManager = wardManager;
+		this.opdOperationRowWriter = opdOperationRowWriter;
+		this.opdHistoryQuery = opdHistoryQuery;
+		this.progressiveAllocator = progressiveAllocator;
+		this.opdStatsCube = opdStatsCube;
 	}
 
 	/**
@@ -127,11 +153,13 @@ public class OpdController {
 
 		Opd opdToInsert = mapper.map2Model(opdDTO);
 		opdToInsert.setPatient(patient);
+		allocateProgYear(opdToInsert);
 		Opd isCreatedOpd = opdManager.newOpd(opdToInsert);
 
 		if (isCreatedOpd == null) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not created."));
 		}
+		opdStatsCube.opdsChanged(Collections.singletonList(isCreatedOpd.getDate()));
 
 		return mapper.map2DTO(isCreatedOpd);
 	}
@@ -162,21 +190,15 @@ public class OpdController {
 
 		Opd opdToInsert = mapper.map2Model(opdWithOperationRowDTO.getOpdDTO());
 		opdToInsert.setPatient(patient);
-		Opd isCreatedOpd = opdManager.newOpd(opdToInsert);
-		if (isCreatedOpd == null) {
+		allocateProgYear(opdToInsert);
+		OpdOperationRowWriter.Saved created = opdOperationRowWriter.create(opdToInsert,
+			opRowMapper.map2ModelList(opdWithOperationRowDTO.getOperationRows()));
+		if (created == null) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not created."));
 		}
-		OpdDTO opdDTO = mapper.map2DTO(isCreatedOpd);
-		opdWithOperationRow.setOpdDTO(opdDTO);
-		List<OperationRowDTO> listOp = new ArrayList<>();
-		if (!opdWithOperationRowDTO.getOperationRows().isEmpty()) {
-			for (OperationRowDTO operationRow : opdWithOperationRowDTO.getOperationRows()) {
-				operationRow.setOpd(opdDTO);
-				OperationRow createOpeRow = operationRowManager.newOperationRow(opRowMapper.map2Model(operationRow));
-				listOp.add(opRowMapper.map2DTO(createOpeRow));
-			}
-		}
-		opdWithOperationRow.setOperationRows(listOp);
+		opdStatsCube.opdsChanged(Collections.singletonList(created.opd().getDate()));
+		opdWithOperationRow.setOpdDTO(mapper.map2DTO(created.opd()));
+		opdWithOperationRow.setOperationRows(opRowMapper.map2DTOList(created.rows()));
 
 		return opdWithOperationRow;
 	}
@@ -190,9 +212,11 @@ public class OpdController {
 	@PutMapping("/opds/{code}")
 	public OpdDTO updateOpd(@PathVariable("code") int code, @RequestBody OpdDTO opdDTO) throws OHServiceException {
 		LOGGER.info("Update opds code: {}", opdDTO.getCode());
-		if (opdManager.getOpdById(code).isEmpty()) {
+		Optional<Opd> previous = opdManager.getOpdById(code);
+		if (previous.isEmpty()) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not found."), HttpStatus.NOT_FOUND);
 		}
+		LocalDateTime previousDate = previous.get().getDate();
 
 		if (opdDTO.getCode() != 0 && opdDTO.getCode() != code) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not found."), HttpStatus.NOT_FOUND);
@@ -209,6 +233,7 @@ public class OpdController {
 		if (updatedOpd == null) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not updated."));
 		}
+		opdStatsCube.opdsChanged(Arrays.asList(previousDate, updatedOpd.getDate()));
 
 		return mapper.map2DTO(updatedOpd);
 	}
@@ -226,9 +251,11 @@ public class OpdController {
 	) throws OHServiceException {
 		LOGGER.info("Update opds code: {}", code);
 		OpdWithOperationRowDTO opdWithOperatioRow = new OpdWithOperationRowDTO();
-		if (opdManager.getOpdById(code).isEmpty()) {
+		Optional<Opd> previous = opdManager.getOpdById(code);
+		if (previous.isEmpty()) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not found."), HttpStatus.NOT_FOUND);
 		}
+		LocalDateTime previousDate = previous.get().getDate();
 
 		if (opdWithOperationRowDTO.getOpdDTO().getCode() != 0 && opdWithOperationRowDTO.getOpdDTO().getCode() != code) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not found."), HttpStatus.NOT_FOUND);
@@ -241,27 +268,14 @@ public class OpdController {
 
 		Opd opdToUpdate = mapper.map2Model(opdWithOperationRowDTO.getOpdDTO());
 		opdToUpdate.setLock(opdWithOperationRowDTO.getOpdDTO().getLock());
-		Opd updatedOpd = opdManager.updateOpd(opdToUpdate);
-		if (updatedOpd == null) {
+		OpdOperationRowWriter.Saved updated = opdOperationRowWriter.update(opdToUpdate,
+			opRowMapper.map2ModelList(opdWithOperationRowDTO.getOperationRows()));
+		if (updated == null) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not updated."));
 		}
-		OpdDTO opdDTO = mapper.map2DTO(updatedOpd);
-		opdWithOperatioRow.setOpdDTO(opdDTO);
-		List<OperationRowDTO> listOpeRow = new ArrayList<>();
-		if (!opdWithOperationRowDTO.getOperationRows().isEmpty()) {
-			for (OperationRowDTO operationRow : opdWithOperationRowDTO.getOperationRows()) {
-				operationRow.setOpd(opdDTO);
-				OperationRow updateOpeRow;
-				if (operationRow.getId() == 0) {
-					updateOpeRow = operationRowManager.newOperationRow(opRowMapper.map2Model(operationRow));
-				} else {
-					updateOpeRow = operationRowManager.updateOperationRow(opRowMapper.map2Model(operationRow));
-				}
-
-				listOpeRow.add(opRowMapper.map2DTO(updateOpeRow));
-			}
-		}
-		opdWithOperatioRow.setOperationRows(listOpeRow);
+		opdStatsCube.opdsChanged(Arrays.asList(previousDate, updated.opd().getDate()));
+		opdWithOperatioRow.setOpdDTO(mapper.map2DTO(updated.opd()));
+		opdWithOperatioRow.setOperationRows(opRowMapper.map2DTOList(updated.rows()));
 
 		return opdWithOperatioRow;
 	}
@@ -345,6 +359,48 @@ public class OpdController {
 		return opdPageable;
 	}
 
+	/**
+	 * Count the {@link Opd}s within specified date range, grouped by any of {@code DAY}, {@code WEEK} or {@code MONTH},
+	 * {@code DISEASE}, {@code DISEASE_TYPE}, {@code AGE_BAND}, {@code SEX}, {@code NEW_PATIENT} and {@code WARD}.
+	 * @return the count of every group and the total.
+	 */
+	@GetMapping("/opds/stats")
+	public OpdStatsDTO getOpdStats(
+		@RequestParam(value = "dateFrom") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) @Schema(implementation = String.class) LocalDate dateFrom,
+		@RequestParam(value = "dateTo") @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) @Schema(implementation = String.class) LocalDate dateTo,
+		@RequestParam(value = "groupBy", required = false) List<String> groupBy,
+		@RequestParam(value = "diseaseTypeCode", required = false) String diseaseTypeCode,
+		@RequestParam(value = "diseaseCode", required = false) String diseaseCode,
+		@RequestParam(value = "sex", required = false, defaultValue = "A") char sex,
+		@RequestParam(value = "newPatient", required = false, defaultValue = "A") char newPatient,
+		@RequestParam(value = "wardCode", required = false) String wardCode
+	) {
+		LOGGER.info("Get opd statistics from {} to {} grouped by {}", dateFrom, dateTo, groupBy);
+		if (!opdStatsCube.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("OPD statistics are not computed yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		List<OpdStatsCube.Dimension> dimensions = new ArrayList<>();
+		int periods = 0;
+		for (String property : groupBy == null ? List.<String>of() : groupBy) {
+			OpdStatsCube.Dimension dimension;
+			try {
+				dimension = OpdStatsCube.Dimension.valueOf(property.trim().replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase());
+			} catch (IllegalArgumentException exception) {
+				throw new OHAPIException(new OHExceptionMessage("Unknown group by property: " + property + '.'));
+			}
+			if (dimension == OpdStatsCube.Dimension.DAY || dimension == OpdStatsCube.Dimension.WEEK || dimension == OpdStatsCube.Dimension.MONTH) {
+				periods++;
+			}
+			if (!dimensions.contains(dimension)) {
+				dimensions.add(dimension);
+			}
+		}
+		if (periods > 1) {
+			throw new OHAPIException(new OHExceptionMessage("Only one of DAY, WEEK and MONTH can be grouped by."));
+		}
+		return opdStatsCube.rollUp(dateFrom, dateTo, dimensions, new OpdStatsCube.Filter(diseaseCode, diseaseTypeCode, wardCode, sex, newPatient));
+	}
+
 	/**
 	 * Get all {@link OpdWithOperationRowDTO}s associated to specified patient CODE.
 	 * @return a {@link List} of {@link OpdWithOperationRowDTO} or NO_CONTENT if there is no data found.
@@ -355,29 +411,38 @@ public class OpdController {
 		LOGGER.info("Get opd associated to specified patient CODE: {}", pcode);
 
 		List<Opd> opds = opdManager.getOpdList(pcode);
-		List<OpdWithOperationRowDTO> opdWithOperations = new ArrayList<>();
-		if (!opds.isEmpty()) {
-			opdWithOperations = opds.stream().map(opd -> {
-				OpdWithOperationRowDTO opRows = new OpdWithOperationRowDTO();
-				opRows.setOpdDTO(mapper.map2DTO(opd));
-				List<OperationRow> listOp = new ArrayList<>();
-				try {
-					listOp = operationRowManager.getOperationRowByOpd(opd);
-				} catch (OHServiceException e) {
-					// TODO Auto-generated catch block
-					LOGGER.error("Unable to get the List of operation associate to this Opd");
-				}
-				if (!listOp.isEmpty()) {
-					opRows.setOperationRows(opRowMapper.map2DTOList(listOp));
-				} else {
-					opRows.setOperationRows(new ArrayList<>());
-				}
-
-				return opRows;
-			}).collect(Collectors.toList());
+		if (opds.isEmpty()) {
+			return new ArrayList<>();
+		}
+		return withOperationRows(opds);
+	}
 
+	/**
+	 * Get the {@link OpdWithOperationRowDTO}s associated to specified patient CODE, divided by pages, most recent first.
+	 * The operation rows of all the OPDs of the page are read with a single query.
+	 * @param pcode Patient code
+	 * @param page The page number
+	 * @param size The page size
+	 * @return the page of {@link OpdWithOperationRowDTO}s
+	 * @throws OHServiceException When the page or size is not valid
+	 */
+	@GetMapping("/opds/patient/{pcode}/history")
+	public Page<OpdWithOperationRowDTO> getOpdHistoryByPatient(
+		@PathVariable("pcode") int pcode,
+		@RequestParam(value = "page", required = false, defaultValue = "0") int page,
+		@RequestParam(value = "size", required = false, defaultValue = DEFAULT_PAGE_SIZE) int size
+	) throws OHServiceException {
+		LOGGER.info("Get opd history of patient CODE: {}, page: {}, size: {}", pcode, page, size);
+		if (page < 0 || size < 1) {
+			throw new OHAPIException(new OHExceptionMessage("Invalid page or size."));
 		}
-		return opdWithOperations;
+
+		List<Opd> opds = opdHistoryQuery.findOpds(pcode, page, size);
+		long total = page == 0 && opds.size() < size ? opds.size() : opdHistoryQuery.countOpds(pcode);
+		Page<OpdWithOperationRowDTO> result = new Page<>();
+		result.setData(withOperationRows(opds));
+		result.setPageInfo(PageInfoDTO.of(page, size, opds.size(), total));
+		return result;
 	}
 
 	/**
@@ -392,9 +457,11 @@ public class OpdController {
 
 		Opd toDelete = new Opd();
 		toDelete.setCode(code);
+		LocalDateTime previousDate = opdManager.getOpdById(code).map(Opd::getDate).orElse(null);
 
 		try {
 			opdManager.deleteOpd(toDelete);
+			opdStatsCube.opdsChanged(Collections.singletonList(previousDate));
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Opd not deleted."));
@@ -403,6 +470,7 @@ public class OpdController {
 
 	/**
 	 * Get the maximum progressive number within specified year or within current year if {@code 0}.
+	 * For the current year, the returned number precedes the number the next {@link Opd} will get.
 	 * @return the max progressive number
 	 * @throws OHServiceException When failed to get year progressive number
 	 */
@@ -410,9 +478,24 @@ public class OpdController {
 	public Integer getProgressiveYear(@PathVariable("year") int year) throws OHServiceException {
 		LOGGER.info("Get progressive number within specified year");
 
+		if (year == 0 || year == LocalDate.now().getYear()) {
+			return progressiveAllocator.peek(ProgressiveAllocator.Sequence.OPD, "", () -> opdManager.getProgYear(0)) - 1;
+		}
 		return opdManager.getProgYear(year);
 	}
 
+	/**
+	 * Give a new {@link Opd} of the current year the next progressive number, unless the allocator is unavailable.
+	 */
+	private void allocateProgYear(Opd opd) throws OHServiceException {
+		if (opd.getDate() == null || opd.getDate().getYear() == LocalDate.now().getYear()) {
+			Integer progYear = progressiveAllocator.next(ProgressiveAllocator.Sequence.OPD, "", () -> opdManager.getProgYear(0));
+			if (progYear != null) {
+				opd.setProgYear(progYear);
+			}
+		}
+	}
+
 	/**
 	 * Get the last {@link Opd} in time associated with specified patient ID.
 	 * @return last Opd associated with specified patient ID or {@code null}
@@ -440,4 +523,14 @@ public class OpdController {
 		LOGGER.info("check if progYear: {}  already exist for year : {}", opdNum, year);
 		return opdManager.isExistOpdNum(opdNum, year);
 	}
+
+	private List<OpdWithOperationRowDTO> withOperationRows(List<Opd> opds) {
+		Map<Integer, List<OperationRow>> rows = opdHistoryQuery.findOperationRows(opds);
+		return opds.stream().map(opd -> {
+			OpdWithOperationRowDTO opRows = new OpdWithOperationRowDTO();
+			opRows.setOpdDTO(mapper.map2DTO(opd));
+			opRows.setOperationRows(opRowMapper.map2DTOList(rows.getOrDefault(opd.getCode(), new ArrayList<>())));
+			return opRows;
+		}).collect(Collectors.toList());
+	}
 }
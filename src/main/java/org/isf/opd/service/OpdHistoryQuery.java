@@ -0,0 +1,94 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.opd.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.opd.model.Opd;
+import org.isf.operation.model.OperationRow;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the OPD history of a patient with a bounded number of queries: a page of OPDs, then the operation rows of all
+ * the OPDs of the page in one query, grouped by OPD in memory.
+ */
+@Component
+public class OpdHistoryQuery {
+
+	/** Upper bound of the values bound to an {@code IN} clause. */
+	private static final int IN_CLAUSE_SIZE = 1000;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * @param patientCode the patient
+	 * @return the number of OPDs of the patient
+	 */
+	public long countOpds(int patientCode) {
+		return entityManager.createQuery("SELECT COUNT(o) FROM Opd o WHERE o.patient.code = :patient", Long.class)
+			.setParameter("patient", patientCode)
+			.getSingleResult();
+	}
+
+	/**
+	 * Find a page of the OPDs of a patient, most recent first.
+	 *
+	 * @param patientCode the patient
+	 * @param page the page number, starting at 0
+	 * @param size the page size
+	 * @return the OPDs of the page
+	 */
+	public List<Opd> findOpds(int patientCode, int page, int size) {
+		return entityManager.createQuery("SELECT o FROM Opd o WHERE o.patient.code = :patient ORDER BY o.date DESC, o.code DESC", Opd.class)
+			.setParameter("patient", patientCode)
+			.setFirstResult(page * size)
+			.setMaxResults(size)
+			.getResultList();
+	}
+
+	/**
+	 * Find the operation rows of the given OPDs.
+	 *
+	 * @param opds the OPDs
+	 * @return the operation rows by OPD code; OPDs without rows are not in the map
+	 */
+	public Map<Integer, List<OperationRow>> findOperationRows(Collection<Opd> opds) {
+		List<Integer> codes = opds.stream().map(Opd::getCode).distinct().toList();
+		Map<Integer, List<OperationRow>> rows = new HashMap<>();
+		for (int from = 0; from < codes.size(); from += IN_CLAUSE_SIZE) {
+			entityManager.createQuery("SELECT r FROM OperationRow r JOIN FETCH r.operation WHERE r.opd.code IN :codes ORDER BY r.id",
+					OperationRow.class)
+				.setParameter("codes", codes.subList(from, Math.min(from + IN_CLAUSE_SIZE, codes.size())))
+				.getResultList()
+				.forEach(row -> rows.computeIfAbsent(row.getOpd().getCode(), code -> new ArrayList<>()).add(row));
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.opd.service;
+
+import java.util.List;
+
+import org.isf.opd.manager.OpdBrowserManager;
+import org.isf.opd.model.Opd;
+import org.isf.operation.model.OperationRow;
+import org.isf.operation.service.OperationRowWriter;
+import org.isf.utils.exception.OHServiceException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Saves an {@link Opd} together with its {@link OperationRow}s in a single transaction: either the OPD and all its
+ * rows are saved, or none of them.
+ * <p>
+ * The OPD still goes through the {@link OpdBrowserManager}, which joins the transaction, so that its validation and
+ * numbering apply. The rows are written by the {@link OperationRowWriter} and flushed once, letting Hibernate batch the
+ * statements; the generated ids are set on the given rows, which are not read back.
+ */
+@Component
+public class OpdOperationRowWriter {
+
+	private final OpdBrowserManager opdManager;
+
+	private final OperationRowWriter operationRowWriter;
+
+	public OpdOperationRowWriter(OpdBrowserManager opdManager, OperationRowWriter operationRowWriter) {
+		this.opdManager = opdManager;
+		this.operationRowWriter = operationRowWriter;
+	}
+
+	/**
+	 * The saved OPD and rows.
+	 *
+	 * @param opd the saved OPD
+	 * @param rows the saved rows, in the given order, with their ids
+	 */
+	public record Saved(Opd opd, List<OperationRow> rows) {
+	}
+
+	/**
+	 * Create an OPD and its rows.
+	 *
+	 * @param opd the OPD to create
+	 * @param rows the rows of the OPD
+	 * @return the saved OPD and rows, {@code null} if the OPD has not been created
+	 * @throws OHServiceException When the OPD is not valid or an updated row belongs to another OPD, nothing is saved then
+	 */
+	@Transactional(rollbackFor = OHServiceException.class)
+	public Saved create(Opd opd, List<OperationRow> rows) throws OHServiceException {
+		Opd created = opdManager.newOpd(opd);
+		if (created == null) {
+			return null;
+		}
+		return new Saved(created, write(created, rows));
+	}
+
+	/**
+	 * Update an OPD, create its new rows (id {@code 0}) and update the others.
+	 *
+	 * @param opd the OPD to update
+	 * @param rows the rows of the OPD
+	 * @return the saved OPD and rows, {@code null} if the OPD has not been updated
+	 * @throws OHServiceException When the OPD is not valid or an updated row belongs to another OPD, nothing is saved then
+	 */
+	@Transactional(rollbackFor = OHServiceException.class)
+	public Saved update(Opd opd, List<OperationRow> rows) throws OHServiceException {
+		Opd updated = opdManager.updateOpd(opd);
+		if (updated == null) {
+			return null;
+		}
+		return new Saved(updated, write(updated, rows));
+	}
+
+	private List<OperationRow> write(Opd opd, List<OperationRow> rows) throws OHServiceException {
+		rows.forEach(row -> row.setOpd(opd));
+		return operationRowWriter.saveAll(rows);
+	}
+}
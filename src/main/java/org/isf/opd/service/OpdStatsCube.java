@@ -0,0 +1,324 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.opd.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.opd.dto.OpdStatsDTO;
+import org.isf.opd.dto.OpdStatsRowDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Pre-aggregated OPD counts by day, disease, disease type, age band, sex, new patient or reattendance and ward.
+ * <p>
+ * The cube keeps, for every day, the count of every combination of the other properties. It is built by streaming
+ * all the OPDs once, and a day is recounted with a single query when {@link org.isf.opd.rest.OpdController} creates,
+ * updates or deletes one of its OPDs; a periodic rebuild catches the writes of other clients. Roll-ups read the days
+ * of the requested range only, never the OPD table.
+ */
+@Component
+public class OpdStatsCube {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(OpdStatsCube.class);
+
+	private static final String OPDS_JPQL = "SELECT o.date, d.code, t.code, o.age, o.sex, o.newPatient, w.code FROM Opd o"
+		+ " LEFT JOIN o.disease d LEFT JOIN d.diseaseType t LEFT JOIN o.ward w";
+
+	/**
+	 * The properties a roll-up can be grouped by; at most one of {@code DAY}, {@code WEEK} and {@code MONTH}.
+	 */
+	public enum Dimension {
+		DAY,
+		WEEK,
+		MONTH,
+		DISEASE,
+		DISEASE_TYPE,
+		AGE_BAND,
+		SEX,
+		NEW_PATIENT,
+		WARD
+	}
+
+	/**
+	 * Restrictions of a roll-up; {@code null} properties, and {@code 'A'} for sex and new patient, match everything.
+	 */
+	public record Filter(String diseaseCode, String diseaseTypeCode, String wardCode, char sex, char newPatient) {
+	}
+
+	/**
+	 * A combination of the properties of the OPDs of a day.
+	 */
+	private record Cell(String disease, String diseaseType, int ageBand, char sex, char newPatient, String ward) {
+	}
+
+	private record Group(LocalDate period, String disease, String diseaseType, String ageBand, String sex, String newPatient, String ward) {
+	}
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final boolean enabled;
+
+	private final int fetchSize;
+
+	private final int[] ageBands;
+
+	private final String[] ageBandLabels;
+
+	private volatile NavigableMap<LocalDate, Map<Cell, Integer>> days = new ConcurrentSkipListMap<>();
+
+	private volatile boolean ready;
+
+	// guarded by this
+
+	private Set<LocalDate> refreshedDuringRebuild;
+
+	public OpdStatsCube(
+		@Value("${opd.stats.enabled:true}") boolean enabled,
+		@Value("${opd.stats.fetch.size:1000}") int fetchSize,
+		@Value("${opd.stats.age.bands:0,1,5,15,25,45,65}") int[] ageBands
+	) {
+		this.enabled = enabled;
+		this.fetchSize = fetchSize;
+		int[] bands = Arrays.stream(ageBands).sorted().distinct().toArray();
+		this.ageBands = bands.length == 0 || bands[0] > 0 ? concat(0, bands) : bands;
+		this.ageBandLabels = new String[this.ageBands.length];
+		for (int i = 0; i < this.ageBands.length; i++) {
+			ageBandLabels[i] = i == this.ageBands.length - 1 ? this.ageBands[i] + "+" : this.ageBands[i] + "-" + (this.ageBands[i + 1] - 1);
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	@Transactional(readOnly = true)
+	public void buildOnStartup() {
+		if (!enabled) {
+			LOGGER.info("OPD statistics cube disabled.");
+			return;
+		}
+		rebuild();
+	}
+
+	/**
+	 * Rebuild the whole cube from the OPDs.
+	 */
+	@Scheduled(fixedDelayString = "${opd.stats.rebuild.interval:PT6H}", initialDelayString = "${opd.stats.rebuild.interval:PT6H}")
+	@Transactional(readOnly = true)
+	public void rebuild() {
+		if (!enabled) {
+			return;
+		}
+		synchronized (this) {
+			refreshedDuringRebuild = new HashSet<>();
+		}
+		try {
+			long start = System.currentTimeMillis();
+			Map<LocalDate, Map<Cell, Integer>> counts = new HashMap<>();
+			try (Stream<Object[]> rows = entityManager.createQuery(OPDS_JPQL, Object[].class)
+				.setHint("org.hibernate.fetchSize", fetchSize)
+				.setHint("org.hibernate.readOnly", true)
+				.getResultStream()) {
+				rows.forEach(row -> count(counts, row));
+			}
+			NavigableMap<LocalDate, Map<Cell, Integer>> built = new ConcurrentSkipListMap<>();
+			counts.forEach((day, cells) -> built.put(day, Map.copyOf(cells)));
+			Set<LocalDate> refreshed;
+			synchronized (this) {
+				days = built;
+				refreshed = refreshedDuringRebuild;
+				refreshedDuringRebuild = null;
+			}
+			ready = true;
+			// days written while building may have been read before their change
+			refreshDays(refreshed);
+			LOGGER.debug("OPD statistics cube built: {} days in {} ms.", built.size(), System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			synchronized (this) {
+				refreshedDuringRebuild = null;
+			}
+			LOGGER.error("Unable to build the OPD statistics cube.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the cube has been built
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Recount the days of OPDs created, updated or deleted.
+	 *
+	 * @param dates the dates of the OPDs, before and after the change
+	 */
+	public void opdsChanged(Collection<LocalDateTime> dates) {
+		if (!enabled) {
+			return;
+		}
+		Set<LocalDate> changed = new TreeSet<>();
+		for (LocalDateTime date : dates) {
+			if (date != null) {
+				changed.add(date.toLocalDate());
+			}
+		}
+		synchronized (this) {
+			if (refreshedDuringRebuild != null) {
+				refreshedDuringRebuild.addAll(changed);
+			}
+		}
+		refreshDays(changed);
+	}
+
+	/**
+	 * Roll the cube up over a date range.
+	 *
+	 * @param dateFrom the first day, inclusive
+	 * @param dateTo the last day, inclusive
+	 * @param groupBy the properties to group by, none for a grand total
+	 * @param filter the restrictions
+	 * @return the count of every group
+	 */
+	public OpdStatsDTO rollUp(LocalDate dateFrom, LocalDate dateTo, Collection<Dimension> groupBy, Filter filter) {
+		Set<Dimension> dimensions = groupBy.isEmpty() ? Set.of() : Set.copyOf(groupBy);
+		Map<Group, Long> groups = new HashMap<>();
+		if (!dateFrom.isAfter(dateTo)) {
+			for (Map.Entry<LocalDate, Map<Cell, Integer>> day : days.subMap(dateFrom, true, dateTo, true).entrySet()) {
+				LocalDate period = period(day.getKey(), dimensions);
+				day.getValue().forEach((cell, count) -> {
+					if (matches(cell, filter)) {
+						groups.merge(group(period, cell, dimensions), (long) count, Long::sum);
+					}
+				});
+			}
+		}
+		List<OpdStatsRowDTO> rows = new ArrayList<>(groups.size());
+		groups.forEach((group, count) -> rows.add(new OpdStatsRowDTO(group.period(), group.disease(), group.diseaseType(), group.ageBand(),
+			group.sex(), group.newPatient(), group.ward(), count)));
+		rows.sort(Comparator.comparing(OpdStatsRowDTO::getPeriod, Comparator.nullsFirst(Comparator.naturalOrder()))
+			.thenComparing(OpdStatsRowDTO::getCount, Comparator.reverseOrder()));
+		return new OpdStatsDTO(dateFrom, dateTo, groupBy.stream().map(Dimension::name).toList(), rows);
+	}
+
+	private void refreshDays(Collection<LocalDate> changed) {
+		for (LocalDate day : changed) {
+			try {
+				Map<LocalDate, Map<Cell, Integer>> counts = new HashMap<>();
+				for (Object[] row : entityManager.createQuery(OPDS_JPQL + " WHERE o.date >= :from AND o.date < :to", Object[].class)
+					.setParameter("from", day.atStartOfDay())
+					.setParameter("to", day.plusDays(1).atStartOfDay())
+					.getResultList()) {
+					count(counts, row);
+				}
+				Map<Cell, Integer> cells = counts.get(day);
+				if (cells == null) {
+					days.remove(day);
+				} else {
+					days.put(day, Map.copyOf(cells));
+				}
+			} catch (RuntimeException exception) {
+				LOGGER.warn("Unable to recount the OPDs of {}.", day, exception);
+			}
+		}
+	}
+
+	private void count(Map<LocalDate, Map<Cell, Integer>> counts, Object[] row) {
+		LocalDateTime date = (LocalDateTime) row[0];
+		if (date == null) {
+			return;
+		}
+		Cell cell = new Cell((String) row[1], (String) row[2], ageBand(row[3] == null ? 0 : ((Number) row[3]).intValue()),
+			row[4] == null ? ' ' : (Character) row[4], row[5] == null ? ' ' : (Character) row[5], (String) row[6]);
+		counts.computeIfAbsent(date.toLocalDate(), day -> new HashMap<>()).merge(cell, 1, Integer::sum);
+	}
+
+	private int ageBand(int age) {
+		int band = 0;
+		while (band + 1 < ageBands.length && age >= ageBands[band + 1]) {
+			band++;
+		}
+		return band;
+	}
+
+	private static int[] concat(int first, int[] others) {
+		int[] all = new int[others.length + 1];
+		all[0] = first;
+		System.arraycopy(others, 0, all, 1, others.length);
+		return all;
+	}
+
+	private static boolean matches(Cell cell, Filter filter) {
+		return (filter.diseaseCode() == null || filter.diseaseCode().equals(cell.disease()))
+			&& (filter.diseaseTypeCode() == null || filter.diseaseTypeCode().equals(cell.diseaseType()))
+			&& (filter.wardCode() == null || filter.wardCode().equals(cell.ward()))
+			&& (filter.sex() == 'A' || Character.toUpperCase(filter.sex()) == Character.toUpperCase(cell.sex()))
+			&& (filter.newPatient() == 'A' || Character.toUpperCase(filter.newPatient()) == Character.toUpperCase(cell.newPatient()));
+	}
+
+	private static LocalDate period(LocalDate day, Set<Dimension> dimensions) {
+		if (dimensions.contains(Dimension.DAY)) {
+			return day;
+		}
+		if (dimensions.contains(Dimension.WEEK)) {
+			return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+		}
+		if (dimensions.contains(Dimension.MONTH)) {
+			return day.withDayOfMonth(1);
+		}
+		return null;
+	}
+
+	private Group group(LocalDate period, Cell cell, Set<Dimension> dimensions) {
+		return new Group(period,
+			dimensions.contains(Dimension.DISEASE) ? cell.disease() : null,
+			dimensions.contains(Dimension.DISEASE_TYPE) ? cell.diseaseType() : null,
+			dimensions.contains(Dimension.AGE_BAND) ? ageBandLabels[cell.ageBand()] : null,
+			dimensions.contains(Dimension.SEX) ? String.valueOf(cell.sex()) : null,
+			dimensions.contains(Dimension.NEW_PATIENT) ? String.valueOf(cell.newPatient()) : null,
+			dimensions.contains(Dimension.WARD) ? cell.ward() : null);
+	}
+}
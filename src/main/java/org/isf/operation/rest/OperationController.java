@@ -35,6 +35,7 @@ import org.isf.operation.mapper.OperationMapper;
 import org.isf.operation.mapper.OperationRowMapper;
 import org.isf.operation.model.Operation;
 import org.isf.operation.model.OperationRow;
+import org.isf.operation.service.OperationRowWriter;
 import org.isf.opetype.model.OperationType;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
@@ -81,13 +82,16 @@ public class OperationController {
 
 	private final OperationRowMapper opRowMapper;
 
+	private final OperationRowWriter operationRowWriter;
+
 	public OperationController(
 		OperationBrowserManager operationManager,
 		AdmissionBrowserManager admissionManager,
 		OperationRowBrowserManager operationRowManager,
 		PatientBrowserManager patientBrowserManager,
 		OperationMapper mapper, OpdMapper opdMapper,
-		OperationRowMapper opRowMapper
+		OperationRowMapper opRowMapper,
+		OperationRowWriter operationRowWriter
 	) {
 		this.operationManager = operationManager;
 		this.admissionManager = admissionManager;
@@ -96,6 +100,7 @@ public class OperationController {
 		this.mapper = mapper;
 		this.opdMapper = opdMapper;
 		this.opRowMapper = opRowMapper;
+		this.operationRowWriter = operationRowWriter;
 	}
 	/**
 	 * Create a new {@link Operation}.
@@ -223,36 +228,49 @@ public class OperationController {
 	 * Create a new {@link OperationRow}.
 	 *
 	 * @param operationRowDTO Operation Row payload
-	 * @return {@code true} if the operation has been stored, {@code false} otherwise.
+	 * @return the stored operation row, with its id
 	 * @throws OHServiceException When failed to save operation row
 	 */
 	@PostMapping("/operations/rows")
 	@ResponseStatus(HttpStatus.CREATED)
 	public OperationRowDTO newOperationRow(@RequestBody OperationRowDTO operationRowDTO) throws OHServiceException {
-		int code = operationRowDTO.getAdmission().getId();
-		LOGGER.info("Create operation: {}.", code);
-
 		if (operationRowDTO.getAdmission() == null && operationRowDTO.getOpd() == null) {
 			throw new OHAPIException(new OHExceptionMessage("At least one field between admission and Opd is required."));
 		}
+		LOGGER.info("Create operation row for admission: {}.", operationRowDTO.getAdmission() == null ? null : operationRowDTO.getAdmission().getId());
 		OperationRow opRow = opRowMapper.map2Model(operationRowDTO);
 
 		OperationRow createOpeRow = operationRowManager.newOperationRow(opRow);
-		List<OperationRow> opRowFounds = operationRowManager.getOperationRowByAdmission(opRow.getAdmission())
-			.stream()
-			.filter(op -> op.getAdmission().getId() == code)
-			.toList();
-
-		OperationRow opCreated = null;
-		if (!opRowFounds.isEmpty()) {
-			opCreated = opRowFounds.get(0);
+		if (createOpeRow == null) {
+			throw new OHAPIException(new OHExceptionMessage("Operation row not created."));
 		}
 
-		if (createOpeRow == null || opCreated == null) {
-			throw new OHAPIException(new OHExceptionMessage("Operation row not created."));
+		return opRowMapper.map2DTO(createOpeRow);
+	}
+
+	/**
+	 * Create or update a list of {@link OperationRow}s, e.g. a theatre list, in a single transaction: the rows with id
+	 * {@code 0} are created, the others updated.
+	 *
+	 * @param operationRowDTOs Operation Row payloads
+	 * @return the stored operation rows, in the same order, with their ids
+	 * @throws OHServiceException When a row has neither admission nor Opd, or an updated row does not exist or belongs
+	 * to another admission or Opd
+	 */
+	@PostMapping("/operations/rows/batch")
+	@ResponseStatus(HttpStatus.CREATED)
+	public List<OperationRowDTO> saveOperationRows(@RequestBody List<OperationRowDTO> operationRowDTOs) throws OHServiceException {
+		LOGGER.info("Save {} operation rows.", operationRowDTOs.size());
+		if (operationRowDTOs.isEmpty()) {
+			throw new OHAPIException(new OHExceptionMessage("No operation row to save."));
+		}
+		for (OperationRowDTO operationRowDTO : operationRowDTOs) {
+			if (operationRowDTO.getAdmission() == null && operationRowDTO.getOpd() == null) {
+				throw new OHAPIException(new OHExceptionMessage("At least one field between admission and Opd is required."));
+			}
 		}
 
-		return opRowMapper.map2DTO(opCreated);
+		return opRowMapper.map2DTOList(operationRowWriter.saveAll(opRowMapper.map2ModelList(operationRowDTOs)));
 	}
 
 	/**
@@ -270,12 +288,8 @@ public class OperationController {
 		}
 		OperationRow opRow = opRowMapper.map2Model(operationRowDTO);
 
-		List<OperationRow> opRowFounds = operationRowManager.getOperationRowByAdmission(opRow.getAdmission())
-			.stream()
-			.filter(op -> op.getId() == opRow.getId())
-			.toList();
-
-		if (opRowFounds.isEmpty()) {
+		Integer admissionId = opRow.getAdmission() == null ? null : opRow.getAdmission().getId();
+		if (!operationRowWriter.exists(opRow.getId(), admissionId)) {
 			throw new OHAPIException(new OHExceptionMessage("Operation row not found."), HttpStatus.NOT_FOUND);
 		}
 		OperationRow updateOpeRow = operationRowManager.updateOperationRow(opRow);
@@ -0,0 +1,125 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.operation.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.operation.model.OperationRow;
+import org.isf.shared.exceptions.OHAPIException;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Writes {@link OperationRow}s and returns them as persisted, without reading back the other rows of their admission
+ * or OPD. Existence checks are primary key lookups.
+ */
+@Component
+public class OperationRowWriter {
+
+	/** Upper bound of the values bound to an {@code IN} clause. */
+	private static final int IN_CLAUSE_SIZE = 1000;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Create the new rows (id {@code 0}) and update the others, in a single transaction flushed once. Every updated row
+	 * must exist and belong to the admission, or else the OPD, it is saved with.
+	 *
+	 * @param rows the rows
+	 * @return the saved rows, in the given order, the new ones with their generated id
+	 * @throws OHServiceException When an updated row does not exist or belongs to another admission or OPD, nothing is
+	 * saved then
+	 */
+	@Transactional(rollbackFor = OHServiceException.class)
+	public List<OperationRow> saveAll(List<OperationRow> rows) throws OHServiceException {
+		checkOwners(rows);
+		List<OperationRow> saved = rows.stream().map(row -> {
+			if (row.getId() == 0) {
+				entityManager.persist(row);
+				return row;
+			}
+			return entityManager.merge(row);
+		}).toList();
+		entityManager.flush();
+		return saved;
+	}
+
+	/**
+	 * Check that a row exists, and belongs to the given admission if any.
+	 *
+	 * @param id the row id
+	 * @param admissionId the admission of the row, not checked if {@code null}
+	 * @return {@code true} if the row exists
+	 */
+	public boolean exists(int id, Integer admissionId) {
+		String jpql = "SELECT r.id FROM OperationRow r WHERE r.id = :id" + (admissionId == null ? "" : " AND r.admission.id = :admission");
+		TypedQuery<Integer> query = entityManager.createQuery(jpql, Integer.class).setParameter("id", id);
+		if (admissionId != null) {
+			query.setParameter("admission", admissionId);
+		}
+		return !query.getResultList().isEmpty();
+	}
+
+	private void checkOwners(List<OperationRow> rows) throws OHServiceException {
+		List<Integer> ids = rows.stream().map(OperationRow::getId).filter(id -> id != 0).distinct().toList();
+		if (ids.isEmpty()) {
+			return;
+		}
+		// id -> {admission id, OPD code} of the stored rows
+		Map<Integer, Object[]> owners = new HashMap<>();
+		for (int from = 0; from < ids.size(); from += IN_CLAUSE_SIZE) {
+			entityManager.createQuery("SELECT r.id, a.id, o.code FROM OperationRow r LEFT JOIN r.admission a LEFT JOIN r.opd o"
+					+ " WHERE r.id IN :ids", Object[].class)
+				.setParameter("ids", ids.subList(from, Math.min(from + IN_CLAUSE_SIZE, ids.size())))
+				.getResultList()
+				.forEach(owner -> owners.put((Integer) owner[0], owner));
+		}
+		List<Integer> notFound = rows.stream()
+			.filter(row -> row.getId() != 0 && !isOwner(row, owners.get(row.getId())))
+			.map(OperationRow::getId)
+			.toList();
+		if (!notFound.isEmpty()) {
+			throw new OHAPIException(new OHExceptionMessage("Operation rows not found: " + notFound + "."), HttpStatus.NOT_FOUND);
+		}
+	}
+
+	private static boolean isOwner(OperationRow row, Object[] owner) {
+		if (owner == null) {
+			return false;
+		}
+		if (row.getAdmission() != null) {
+			return Objects.equals(owner[1], row.getAdmission().getId());
+		}
+		return row.getOpd() == null || Objects.equals(owner[2], row.getOpd().getCode());
+	}
+}
@@ -25,6 +25,8 @@ import java.time.LocalDate;
 
 import jakarta.validation.constraints.NotNull;
 
+import org.isf.shared.fields.HeavyProperty;
+
 import com.drew.lang.annotations.Nullable;
 
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -107,6 +109,7 @@ public class PatientDTO {
 	@Schema(description = "Lock", example = "0")
 	private int lock;
 
+	@HeavyProperty
 	@Schema(description = "BlobPhoto", example = "")
 	private byte[] blobPhoto;
 
@@ -0,0 +1,107 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.dto;
+
+import java.time.LocalDate;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Pair of patients that are likely to be the same person")
+public class PatientDuplicateDTO {
+
+	@Schema(description = "Code of the first patient", example = "1")
+	private int code;
+
+	@Schema(description = "Name of the first patient", example = "Mario Rossi")
+	private String name;
+
+	@Schema(description = "Birth date of the first patient", example = "1979-05-01", type = "string")
+	private LocalDate birthDate;
+
+	@Schema(description = "Code of the second patient", example = "2")
+	private int duplicateCode;
+
+	@Schema(description = "Name of the second patient", example = "Mario Rosi")
+	private String duplicateName;
+
+	@Schema(description = "Birth date of the second patient", example = "1979-05-01", type = "string")
+	private LocalDate duplicateBirthDate;
+
+	@Schema(description = "Similarity score, from 0 to 1", example = "0.93")
+	private double score;
+
+	public int getCode() {
+		return code;
+	}
+
+	public void setCode(int code) {
+		this.code = code;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public LocalDate getBirthDate() {
+		return birthDate;
+	}
+
+	public void setBirthDate(LocalDate birthDate) {
+		this.birthDate = birthDate;
+	}
+
+	public int getDuplicateCode() {
+		return duplicateCode;
+	}
+
+	public void setDuplicateCode(int duplicateCode) {
+		this.duplicateCode = duplicateCode;
+	}
+
+	public String getDuplicateName() {
+		return duplicateName;
+	}
+
+	public void setDuplicateName(String duplicateName) {
+		this.duplicateName = duplicateName;
+	}
+
+	public LocalDate getDuplicateBirthDate() {
+		return duplicateBirthDate;
+	}
+
+	public void setDuplicateBirthDate(LocalDate duplicateBirthDate) {
+		this.duplicateBirthDate = duplicateBirthDate;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public void setScore(double score) {
+		this.score = score;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Patient suggested by the typeahead search")
+public class PatientTypeaheadDTO {
+
+	@Schema(description = "Code of the Patient", example = "1")
+	private int code;
+
+	@Schema(description = "First name of the patient", example = "Mario")
+	private String firstName;
+
+	@Schema(description = "Last name of the patient", example = "Rossi")
+	private String secondName;
+
+	@Schema(description = "Address", example = "Via Roma, 12")
+	private String address;
+
+	@Schema(description = "City", example = "Verona")
+	private String city;
+
+	@Schema(description = "Tax code", example = "RSSMRA79E01L781N")
+	private String taxCode;
+
+	@Schema(description = "Relevance of the suggestion, higher is better", example = "8")
+	private int score;
+
+	public PatientTypeaheadDTO() {
+	}
+
+	public PatientTypeaheadDTO(int code, String firstName, String secondName, String address, String city, String taxCode, int score) {
+		this.code = code;
+		this.firstName = firstName;
+		this.secondName = secondName;
+		this.address = address;
+		this.city = city;
+		this.taxCode = taxCode;
+		this.score = score;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public void setCode(int code) {
+		this.code = code;
+	}
+
+	public String getFirstName() {
+		return firstName;
+	}
+
+	public void setFirstName(String firstName) {
+		this.firstName = firstName;
+	}
+
+	public String getSecondName() {
+		return secondName;
+	}
+
+	public void setSecondName(String secondName) {
+		this.secondName = secondName;
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	public void setAddress(String address) {
+		this.address = address;
+	}
+
+	public String getCity() {
+		return city;
+	}
+
+	public void setCity(String city) {
+		this.city = city;
+	}
+
+	public String getTaxCode() {
+		return taxCode;
+	}
+
+	public void setTaxCode(String taxCode) {
+		this.taxCode = taxCode;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	public void setScore(int score) {
+		this.score = score;
+	}
+}
@@ -29,6 +29,8 @@ import jakarta.annotation.PostConstruct;
 import org.isf.patient.dto.PatientDTO;
 import org.isf.patient.model.Patient;
 import org.isf.shared.GenericMapper;
+import org.isf.shared.fields.FieldSelection;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.isf.shared.mapper.mappings.PatientMapping;
 import org.springframework.stereotype.Component;
 
@@ -45,7 +47,8 @@ public class PatientMapper extends GenericMapper<Patient, PatientDTO> {
 
 	@Override
 	public List<PatientDTO> map2DTOList(List<Patient> list) {
-		return list.stream().map(it -> map2DTO(it)).collect(Collectors.toList());
+		return FieldsMappingCondition.apply(FieldSelection.currentForList(),
+			() -> list.stream().map(it -> map2DTO(it)).collect(Collectors.toList()));
 	}
 
 	@Override
@@ -21,30 +21,43 @@
  */
 package org.isf.patient.rest;
 
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import org.isf.admission.manager.AdmissionBrowserManager;
 import org.isf.admission.model.Admission;
 import org.isf.patconsensus.manager.PatientConsensusBrowserManager;
 import org.isf.patconsensus.model.PatientConsensus;
 import org.isf.patient.dto.PatientDTO;
+import org.isf.patient.dto.PatientTypeaheadDTO;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.mapper.PatientMapper;
 import org.isf.patient.model.Patient;
+import org.isf.patient.service.PatientCityDictionary;
+import org.isf.patient.service.PatientPhotoService;
+import org.isf.patient.service.PatientTypeaheadIndex;
 import org.isf.shared.exceptions.OHAPIException;
+import org.isf.shared.fields.FieldSelection;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.isf.shared.pagination.Page;
+import org.isf.shared.text.SearchText;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -56,6 +69,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -71,6 +85,10 @@ public class PatientController {
 	// TODO: to centralize
 	protected static final String DEFAULT_PAGE_SIZE = "80";
 
+	private static final int MAX_TYPEAHEAD_LIMIT = 100;
+
+	private static final String DEFAULT_CITIES_LIMIT = "1000";
+
 	private final PatientBrowserManager patientManager;
 
 	private final AdmissionBrowserManager admissionManager;
@@ -79,16 +97,28 @@ public class PatientController {
 
 	private final PatientMapper patientMapper;
 
+	private final PatientPhotoService patientPhotoService;
+
+	private final PatientTypeaheadIndex patientTypeaheadIndex;
+
+	private final PatientCityDictionary patientCityDictionary;
+
 	public PatientController(
 		PatientBrowserManager patientManager,
 		AdmissionBrowserManager admissionManager,
 		PatientMapper patientMapper,
-		PatientConsensusBrowserManager patientConsensusManager
+		PatientConsensusBrowserManager patientConsensusManager,
+		PatientPhotoService patientPhotoService,
+		PatientTypeaheadIndex patientTypeaheadIndex,
+		PatientCityDictionary patientCityDictionary
 	) {
 		this.patientManager = patientManager;
 		this.admissionManager = admissionManager;
 		this.patientMapper = patientMapper;
 		this.patientConsensusManager = patientConsensusManager;
+		this.patientPhotoService = patientPhotoService;
+		this.patientTypeaheadIndex = patientTypeaheadIndex;
+		this.patientCityDictionary = patientCityDictionary;
 	}
 
 	/**
@@ -115,6 +145,8 @@ public class PatientController {
 		if (patient == null) {
 			throw new OHAPIException(new OHExceptionMessage("Patient not created."));
 		}
+		patientTypeaheadIndex.put(patient);
+		patientCityDictionary.put(patient);
 
 		return patientMapper.map2DTO(patient);
 	}
@@ -145,6 +177,8 @@ public class PatientController {
 		if (patient == null) {
 			throw new OHAPIException(new OHExceptionMessage("Patient not updated."));
 		}
+		patientTypeaheadIndex.put(patient);
+		patientCityDictionary.put(patient);
 
 		return patientMapper.map2DTO(patient);
 	}
@@ -182,6 +216,48 @@ public class PatientController {
 		return patientMapper.map2DTOWS(patient, status);
 	}
 
+	/**
+	 * Get the profile photo of a {@link Patient}, or one of its thumbnails.
+	 * <p>
+	 * The response carries an ETag bound to the patient version; when the version is passed as {@code v}
+	 * (the {@code lock} of the patient) the response is cacheable forever, since a new photo produces a new version.
+	 *
+	 * @param code the patient code
+	 * @param size the thumbnail size, omit for the original picture
+	 * @param version the patient version the client expects
+	 * @param request the current request
+	 * @return the picture
+	 * @throws OHServiceException When the patient or the photo cannot be found
+	 */
+	@GetMapping(value = "/patients/{code}/photo", produces = MediaType.ALL_VALUE)
+	public ResponseEntity<Resource> getPatientPhoto(
+		@PathVariable int code,
+		@RequestParam(value = "size", required = false) Integer size,
+		@RequestParam(value = "v", required = false) Integer version,
+		WebRequest request
+	) throws OHServiceException {
+		LOGGER.info("Get photo of patient code: '{}', size: {}.", code, size);
+		Patient patient = patientManager.getPatientById(code);
+		if (patient == null) {
+			throw new OHAPIException(new OHExceptionMessage("Patient not found."), HttpStatus.NOT_FOUND);
+		}
+
+		String eTag = "\"" + code + '-' + patient.getLock() + '-' + (size == null ? "original" : size) + '"';
+		CacheControl cacheControl = version != null && version == patient.getLock()
+			? CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable()
+			: CacheControl.noCache().cachePrivate();
+		if (request.checkNotModified(eTag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(cacheControl).build();
+		}
+
+		Path photo = patientPhotoService.getPhoto(patient, size);
+		return ResponseEntity.ok()
+			.eTag(eTag)
+			.cacheControl(cacheControl)
+			.contentType(patientPhotoService.getMediaType(photo))
+			.body(new FileSystemResource(photo));
+	}
+
 	@GetMapping(value = "/patients/search")
 	public List<PatientDTO> searchPatient(
 		@RequestParam(value = "firstName", defaultValue = "", required = false) String firstName,
@@ -212,11 +288,32 @@ public class PatientController {
 			patientList = patientManager.getPatients(params);
 		}
 
-		return patientList.stream().map(patient -> {
+		List<Patient> patients = patientList;
+		return FieldsMappingCondition.apply(FieldSelection.currentForList(), () -> patients.stream().map(patient -> {
 			Admission admission = admissionManager.getCurrentAdmission(patient);
 			Boolean status = admission != null;
 			return patientMapper.map2DTOWS(patient, status);
-		}).toList();
+		}).toList());
+	}
+
+	/**
+	 * Typeahead search of patients by name, tax code, city or address, served from an in-memory index.
+	 *
+	 * @param query the text typed by the user, each word matching the beginning of a word
+	 * @param limit the maximum number of suggestions
+	 * @return the suggestions, best first
+	 * @throws OHServiceException When the index is still being built
+	 */
+	@GetMapping(value = "/patients/typeahead")
+	public List<PatientTypeaheadDTO> typeaheadPatient(
+		@RequestParam(value = "q") String query,
+		@RequestParam(value = "limit", required = false, defaultValue = "10") int limit
+	) throws OHServiceException {
+		LOGGER.debug("Typeahead search of patients: '{}'.", query);
+		if (!patientTypeaheadIndex.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Patient search index is not ready yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		return patientTypeaheadIndex.search(query, Math.min(limit, MAX_TYPEAHEAD_LIMIT));
 	}
 
 	@GetMapping(value = "/patients/all")
@@ -247,6 +344,9 @@ public class PatientController {
 
 		try {
 			patientManager.deletePatient(patient);
+			patientPhotoService.evict(code);
+			patientTypeaheadIndex.remove(code);
+			patientCityDictionary.remove(code);
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Patient not deleted."));
@@ -264,16 +364,43 @@ public class PatientController {
 
 		try {
 			patientManager.mergePatient(mergedPatient, patient2);
-			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Patients not merged."));
 		}
+		patientTypeaheadIndex.remove(code2);
+		patientCityDictionary.remove(code2);
+		Patient merged = patientManager.getPatientById(mergedcode);
+		if (merged != null) {
+			patientTypeaheadIndex.put(merged);
+			patientCityDictionary.put(merged);
+		}
+		return true;
 	}
 
+	/**
+	 * Get the cities of the patients, sorted alphabetically.
+	 *
+	 * @param prefix the beginning of the cities, compared regardless of case and accents
+	 * @param limit the maximum number of cities
+	 * @return the cities
+	 * @throws OHServiceException When failed to read the cities
+	 */
 	@GetMapping(value = "/patients/cities")
-	public List<String> getPatientCities() throws OHServiceException {
-		LOGGER.info("Get all cities of the patients.");
-
-		return patientManager.getCities();
+	public List<String> getPatientCities(
+		@RequestParam(value = "prefix", required = false, defaultValue = "") String prefix,
+		@RequestParam(value = "limit", required = false, defaultValue = DEFAULT_CITIES_LIMIT) int limit
+	) throws OHServiceException {
+		LOGGER.info("Get the cities of the patients starting with '{}'.", prefix);
+		if (limit <= 0) {
+			throw new OHAPIException(new OHExceptionMessage("Invalid limit."));
+		}
+		if (patientCityDictionary.isReady()) {
+			return patientCityDictionary.lookup(prefix, limit);
+		}
+		String normalizedPrefix = SearchText.normalize(prefix);
+		return patientManager.getCities().stream()
+			.filter(city -> SearchText.normalize(city).startsWith(normalizedPrefix))
+			.limit(limit)
+			.toList();
 	}
 }
@@ -0,0 +1,118 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.rest;
+
+import java.util.List;
+
+import org.isf.patient.dto.PatientDuplicateDTO;
+import org.isf.patient.service.PatientDuplicateDetector;
+import org.isf.patient.service.PatientDuplicateDetector.Candidate;
+import org.isf.shared.exceptions.OHAPIException;
+import org.isf.shared.pagination.Page;
+import org.isf.shared.pagination.PageInfoDTO;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@Tag(name = "Patients")
+@SecurityRequirement(name = "bearerAuth")
+@RequestMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+public class PatientDuplicateController {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientDuplicateController.class);
+
+	private final PatientDuplicateDetector patientDuplicateDetector;
+
+	public PatientDuplicateController(PatientDuplicateDetector patientDuplicateDetector) {
+		this.patientDuplicateDetector = patientDuplicateDetector;
+	}
+
+	/**
+	 * Get the pairs of patients found by the last duplicates detection run, best matches first.
+	 *
+	 * @param page the page index
+	 * @param size the page size
+	 * @param minScore the minimum similarity score, between 0 and 1
+	 * @return the page of candidate pairs
+	 * @throws OHServiceException When the first detection run is not completed yet
+	 */
+	@GetMapping(value = "/patients/duplicates")
+	public Page<PatientDuplicateDTO> getDuplicates(
+		@RequestParam(value = "page", required = false, defaultValue = "0") int page,
+		@RequestParam(value = "size", required = false, defaultValue = PatientController.DEFAULT_PAGE_SIZE) int size,
+		@RequestParam(value = "minScore", required = false, defaultValue = "0") double minScore
+	) throws OHServiceException {
+		LOGGER.info("Get patient duplicates page: {}  size: {}  minScore: {}.", page, size, minScore);
+		if (page < 0 || size <= 0) {
+			throw new OHAPIException(new OHExceptionMessage("Invalid page or size."));
+		}
+		if (!patientDuplicateDetector.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Patient duplicates detection is not completed yet."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		List<Candidate> candidates = patientDuplicateDetector.getCandidates(minScore);
+		int from = (int) Math.min((long) page * size, candidates.size());
+		int to = (int) Math.min((long) from + size, candidates.size());
+		List<PatientDuplicateDTO> duplicates = candidates.subList(from, to).stream().map(PatientDuplicateController::toDTO).toList();
+
+		Page<PatientDuplicateDTO> duplicatesPageable = new Page<>();
+		duplicatesPageable.setData(duplicates);
+		duplicatesPageable.setPageInfo(PageInfoDTO.of(page, size, duplicates.size(), candidates.size()));
+		return duplicatesPageable;
+	}
+
+	/**
+	 * Start a duplicates detection run in background, checking the patients changed since the last run.
+	 *
+	 * @return {@code 202 Accepted} if a run has been started, {@code 409 Conflict} if one is already running
+	 */
+	@PostMapping(value = "/patients/duplicates/refresh")
+	public ResponseEntity<Boolean> refreshDuplicates() {
+		LOGGER.info("Refresh patient duplicates.");
+		boolean started = patientDuplicateDetector.refreshInBackground();
+		return ResponseEntity.status(started ? HttpStatus.ACCEPTED : HttpStatus.CONFLICT).body(started);
+	}
+
+	private static PatientDuplicateDTO toDTO(Candidate candidate) {
+		PatientDuplicateDTO duplicate = new PatientDuplicateDTO();
+		duplicate.setCode(candidate.code());
+		duplicate.setName(candidate.name());
+		duplicate.setBirthDate(candidate.birthDate());
+		duplicate.setDuplicateCode(candidate.duplicateCode());
+		duplicate.setDuplicateName(candidate.duplicateName());
+		duplicate.setDuplicateBirthDate(candidate.duplicateBirthDate());
+		duplicate.setScore(candidate.score());
+		return duplicate;
+	}
+}
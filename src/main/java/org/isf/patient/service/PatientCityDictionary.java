@@ -0,0 +1,241 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.isf.patient.model.Patient;
+import org.isf.shared.text.SearchText;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * In-memory dictionary of the cities of the patients, with the number of patients living in each of them.
+ * <p>
+ * Cities are sorted by their normalized form (see {@link SearchText#normalize(String)}), so that a prefix
+ * lookup is a range of the sorted map, regardless of case and accents. The city of every patient is kept
+ * to maintain the reference counts when a patient moves or is deleted: a city disappears with its last
+ * patient.
+ * <p>
+ * The dictionary is built at startup from a {@link PatientScanner} scan, kept up to date by
+ * {@link org.isf.patient.rest.PatientController} and periodically rebuilt to catch the changes made by
+ * other clients writing to the same database.
+ */
+@Component
+public class PatientCityDictionary {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientCityDictionary.class);
+
+	/** Separates the normalized form from the city in the keys, sorting before any other character. */
+	private static final char KEY_SEPARATOR = '\u0000';
+
+	private final PatientScanner patientScanner;
+
+	private final boolean enabled;
+
+	private final int scanChunkSize;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private Map<Integer, String> cityByPatient = new HashMap<>();
+
+	/** Reference count of every city, keyed by normalized form and city. */
+	private NavigableMap<String, Integer> cities = new TreeMap<>();
+
+	/** Updates received while a rebuild is running, replayed on the rebuilt dictionary ({@code null} values are removals). */
+	private Map<Integer, String> pendingUpdates;
+
+	private volatile boolean ready;
+
+	public PatientCityDictionary(
+		PatientScanner patientScanner,
+		@Value("${patient.cities.enabled:true}") boolean enabled,
+		@Value("${patient.cities.scan.chunk.size:5000}") int scanChunkSize
+	) {
+		this.patientScanner = patientScanner;
+		this.enabled = enabled;
+		this.scanChunkSize = scanChunkSize;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void buildOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Patient cities dictionary disabled.");
+			return;
+		}
+		Thread builder = new Thread(this::reconcile, "patient-cities");
+		builder.setDaemon(true);
+		builder.start();
+	}
+
+	/**
+	 * Rebuild the dictionary from the database, to include the changes made by other clients.
+	 */
+	@Scheduled(fixedDelayString = "${patient.cities.reconcile.interval:PT15M}", initialDelayString = "${patient.cities.reconcile.interval:PT15M}")
+	public void reconcile() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			rebuild();
+		} catch (RuntimeException exception) {
+			LOGGER.error("Unable to build the patient cities dictionary.", exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the dictionary has been built
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Build the dictionary from scratch, without blocking the lookups on the current one.
+	 */
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		lock.writeLock().lock();
+		try {
+			pendingUpdates = new HashMap<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		Map<Integer, String> newCityByPatient = new HashMap<>();
+		NavigableMap<String, Integer> newCities = new TreeMap<>();
+		try {
+			patientScanner.scan(scanChunkSize, row -> {
+				String key = key(row.city());
+				if (key != null) {
+					// share a single key instance between the patients of a city
+					newCityByPatient.put(row.code(), newCities.containsKey(key) ? newCities.ceilingKey(key) : key);
+					newCities.merge(key, 1, Integer::sum);
+				}
+			});
+		} catch (RuntimeException exception) {
+			lock.writeLock().lock();
+			try {
+				pendingUpdates = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			throw exception;
+		}
+
+		lock.writeLock().lock();
+		try {
+			cityByPatient = newCityByPatient;
+			cities = newCities;
+			pendingUpdates.forEach(this::apply);
+			pendingUpdates = null;
+			ready = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		LOGGER.debug("Patient cities dictionary built: {} cities in {} ms.", newCities.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Count the city of a created or updated patient, uncounting its previous one.
+	 *
+	 * @param patient the saved patient
+	 */
+	public void put(Patient patient) {
+		update(patient.getCode(), key(patient.getCity()));
+	}
+
+	/**
+	 * Uncount the city of a deleted patient.
+	 *
+	 * @param code the patient code
+	 */
+	public void remove(int code) {
+		update(code, null);
+	}
+
+	/**
+	 * @param prefix the beginning of the city, compared regardless of case and accents; all the cities if empty
+	 * @param limit the maximum number of cities returned
+	 * @return the cities sorted alphabetically
+	 */
+	public List<String> lookup(String prefix, int limit) {
+		String normalized = SearchText.normalize(prefix);
+		List<String> found = new ArrayList<>(Math.min(limit, 64));
+		lock.readLock().lock();
+		try {
+			NavigableMap<String, Integer> range = normalized.isEmpty() ? cities
+				: cities.subMap(normalized, true, normalized + Character.MAX_VALUE, false);
+			for (String key : range.keySet()) {
+				if (found.size() >= limit) {
+					break;
+				}
+				found.add(key.substring(key.indexOf(KEY_SEPARATOR) + 1));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return found;
+	}
+
+	private void update(int code, String key) {
+		lock.writeLock().lock();
+		try {
+			if (pendingUpdates != null) {
+				pendingUpdates.put(code, key);
+			}
+			apply(code, key);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void apply(int code, String key) {
+		String previous = key == null ? cityByPatient.remove(code) : cityByPatient.put(code, key);
+		if (previous != null) {
+			cities.computeIfPresent(previous, (city, count) -> count > 1 ? count - 1 : null);
+		}
+		if (key != null) {
+			cities.merge(key, 1, Integer::sum);
+		}
+	}
+
+	private static String key(String city) {
+		if (!StringUtils.hasText(city)) {
+			return null;
+		}
+		String trimmed = city.trim();
+		return SearchText.normalize(trimmed) + KEY_SEPARATOR + trimmed;
+	}
+}
@@ -0,0 +1,430 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jakarta.annotation.PreDestroy;
+
+import org.isf.patient.service.PatientScanner.PatientRow;
+import org.isf.shared.text.SearchText;
+import org.isf.shared.text.StringSimilarity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background detection of patients registered more than once, feeding the merge workflow.
+ * <p>
+ * Patients are grouped in blocks sharing a key (same normalized name, same Soundex codes and birth year,
+ * same Soundex code of one name and same birth date, same tax code) and only the pairs inside a block are
+ * scored, in parallel fork-join tasks. The first run scans every patient; the following runs re-check only
+ * the patients created, updated or deleted since the previous run, comparing them with the members of
+ * their blocks.
+ */
+@Component
+public class PatientDuplicateDetector {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientDuplicateDetector.class);
+
+	/** Number of comparisons handled by a fork-join leaf task. */
+	private static final int LEAF_SIZE = 32;
+
+	/** Pairs whose names are less similar than this are not scored further. */
+	private static final double MIN_NAME_SIMILARITY = 0.8;
+
+	private final PatientScanner patientScanner;
+
+	private final boolean enabled;
+
+	private final double minScore;
+
+	private final int maxBlockSize;
+
+	private final int scanChunkSize;
+
+	private final long overlapMinutes;
+
+	private final ForkJoinPool pool;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	// the following state is only accessed by refresh(), one run at a time
+
+	private final Map<Integer, Profile> profiles = new HashMap<>();
+
+	private final Map<String, List<Profile>> blocks = new HashMap<>();
+
+	private final Map<Long, Candidate> candidates = new HashMap<>();
+
+	private volatile LocalDateTime lastRun;
+
+	private volatile List<Candidate> ranked = List.of();
+
+	public PatientDuplicateDetector(
+		PatientScanner patientScanner,
+		@Value("${patient.duplicates.enabled:true}") boolean enabled,
+		@Value("${patient.duplicates.min.score:0.85}") double minScore,
+		@Value("${patient.duplicates.max.block.size:1000}") int maxBlockSize,
+		@Value("${patient.duplicates.scan.chunk.size:5000}") int scanChunkSize,
+		@Value("${patient.duplicates.overlap.minutes:5}") long overlapMinutes,
+		@Value("${patient.duplicates.parallelism:0}") int parallelism
+	) {
+		this.patientScanner = patientScanner;
+		this.enabled = enabled;
+		this.minScore = minScore;
+		this.maxBlockSize = maxBlockSize;
+		this.scanChunkSize = scanChunkSize;
+		this.overlapMinutes = overlapMinutes;
+		this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * A pair of likely duplicates, the lower patient code first.
+	 */
+	public record Candidate(int code, String name, LocalDate birthDate, int duplicateCode, String duplicateName, LocalDate duplicateBirthDate,
+		double score) {
+
+		private long pairKey() {
+			return pairKey(code, duplicateCode);
+		}
+
+		private static long pairKey(int first, int second) {
+			return ((long) Math.min(first, second) << 32) | Math.max(first, second);
+		}
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void detectOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Patient duplicates detection disabled.");
+			return;
+		}
+		refreshInBackground();
+	}
+
+	@Scheduled(fixedDelayString = "${patient.duplicates.refresh.interval:PT1H}", initialDelayString = "${patient.duplicates.refresh.interval:PT1H}")
+	public void scheduledRefresh() {
+		if (enabled && lastRun != null) {
+			runGuarded();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Start a run in a background thread, unless one is already running.
+	 *
+	 * @return {@code true} if a run has been started
+	 */
+	public boolean refreshInBackground() {
+		if (running.get()) {
+			return false;
+		}
+		Thread detector = new Thread(this::runGuarded, "patient-duplicates");
+		detector.setDaemon(true);
+		detector.start();
+		return true;
+	}
+
+	/**
+	 * @return {@code true} once the first run has completed
+	 */
+	public boolean isReady() {
+		return lastRun != null;
+	}
+
+	/**
+	 * @return the time of the last completed run, {@code null} before the first one
+	 */
+	public LocalDateTime getLastRun() {
+		return lastRun;
+	}
+
+	/**
+	 * @param minScore the minimum score of the returned pairs
+	 * @return the candidate pairs found by the last run, best first
+	 */
+	public List<Candidate> getCandidates(double minScore) {
+		return ranked.stream().filter(candidate -> candidate.score() >= minScore).toList();
+	}
+
+	private void runGuarded() {
+		if (!running.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			refresh();
+		} catch (RuntimeException exception) {
+			LOGGER.error("Patient duplicates detection failed.", exception);
+		} finally {
+			running.set(false);
+		}
+	}
+
+	private void refresh() {
+		long start = System.currentTimeMillis();
+		LocalDateTime runStart = LocalDateTime.now().minusMinutes(overlapMinutes);
+		List<Comparison> comparisons = lastRun == null ? loadAll() : loadChangedSince(lastRun);
+		List<Candidate> found = comparisons.isEmpty() ? List.of() : pool.invoke(new ComparisonTask(comparisons, 0, comparisons.size()));
+		for (Candidate candidate : found) {
+			candidates.merge(candidate.pairKey(), candidate, (current, other) -> current.score() >= other.score() ? current : other);
+		}
+		ranked = candidates.values().stream()
+			.sorted(Comparator.comparingDouble(Candidate::score).reversed().thenComparingInt(Candidate::code))
+			.toList();
+		lastRun = runStart;
+		LOGGER.info("Patient duplicates detection: {} comparisons, {} candidate pairs in {} ms.", comparisons.size(), ranked.size(),
+			System.currentTimeMillis() - start);
+	}
+
+	private List<Comparison> loadAll() {
+		profiles.clear();
+		blocks.clear();
+		candidates.clear();
+		patientScanner.scan(scanChunkSize, row -> add(new Profile(row)));
+		List<Comparison> comparisons = new ArrayList<>();
+		for (List<Profile> block : blocks.values()) {
+			if (block.size() > 1 && block.size() <= maxBlockSize) {
+				comparisons.add(new Comparison(block, null));
+			}
+		}
+		return comparisons;
+	}
+
+	private List<Comparison> loadChangedSince(LocalDateTime since) {
+		Map<Integer, PatientRow> changed = new LinkedHashMap<>();
+		patientScanner.scanModifiedSince(since, scanChunkSize, row -> changed.put(row.code(), row));
+		if (changed.isEmpty()) {
+			return List.of();
+		}
+		for (Integer code : changed.keySet()) {
+			Profile previous = profiles.remove(code);
+			if (previous != null) {
+				for (String key : previous.keys) {
+					List<Profile> block = blocks.get(key);
+					block.remove(previous);
+					if (block.isEmpty()) {
+						blocks.remove(key);
+					}
+				}
+			}
+		}
+		candidates.values().removeIf(candidate -> changed.containsKey(candidate.code()) || changed.containsKey(candidate.duplicateCode()));
+
+		List<Comparison> comparisons = new ArrayList<>();
+		for (PatientRow row : changed.values()) {
+			if (!row.deleted()) {
+				Profile profile = new Profile(row);
+				add(profile);
+				for (String key : profile.keys) {
+					List<Profile> block = blocks.get(key);
+					if (block.size() > 1 && block.size() <= maxBlockSize) {
+						comparisons.add(new Comparison(block, profile));
+					}
+				}
+			}
+		}
+		return comparisons;
+	}
+
+	private void add(Profile profile) {
+		profiles.put(profile.code, profile);
+		for (String key : profile.keys) {
+			blocks.computeIfAbsent(key, k -> new ArrayList<>(2)).add(profile);
+		}
+	}
+
+	private Candidate compare(Profile first, Profile second) {
+		double score = score(first, second);
+		if (score < minScore) {
+			return null;
+		}
+		Profile low = first.code < second.code ? first : second;
+		Profile high = low == first ? second : first;
+		return new Candidate(low.code, low.displayName, low.birthDate, high.code, high.displayName, high.birthDate, Math.round(score * 1000) / 1000d);
+	}
+
+	private static double score(Profile first, Profile second) {
+		if (!first.taxCode.isEmpty() && first.taxCode.equals(second.taxCode)) {
+			return 1d;
+		}
+		double name = Math.max(StringSimilarity.jaroWinkler(first.name, second.name),
+			StringSimilarity.jaroWinkler(first.sortedName, second.sortedName));
+		if (name < MIN_NAME_SIMILARITY) {
+			return 0d;
+		}
+		double birth;
+		if (first.birthDate == null || second.birthDate == null) {
+			birth = 0.5;
+		} else if (first.birthDate.equals(second.birthDate)) {
+			birth = 1d;
+		} else {
+			birth = first.birthDate.getYear() == second.birthDate.getYear() ? 0.6 : 0d;
+		}
+		double sex = first.sex == second.sex ? 1d : 0d;
+		double city = first.city.isEmpty() || second.city.isEmpty() ? 0.5 : first.city.equals(second.city) ? 1d : 0d;
+		return 0.6 * name + 0.25 * birth + 0.1 * sex + 0.05 * city;
+	}
+
+	/**
+	 * Normalized view of a patient with its blocking keys.
+	 */
+	private static final class Profile {
+
+		private final int code;
+
+		private final String displayName;
+
+		private final String name;
+
+		private final String sortedName;
+
+		private final LocalDate birthDate;
+
+		private final char sex;
+
+		private final String city;
+
+		private final String taxCode;
+
+		private final List<String> keys = new ArrayList<>(5);
+
+		private Profile(PatientRow row) {
+			this.code = row.code();
+			String firstName = SearchText.normalize(row.firstName());
+			String secondName = SearchText.normalize(row.secondName());
+			this.displayName = (nullToEmpty(row.firstName()) + ' ' + nullToEmpty(row.secondName())).trim();
+			this.name = (firstName + ' ' + secondName).trim();
+			String[] tokens = SearchText.tokens(name);
+			Arrays.sort(tokens);
+			this.sortedName = String.join(" ", tokens);
+			this.birthDate = row.birthDate();
+			this.sex = Character.toUpperCase(row.sex());
+			this.city = SearchText.normalize(row.city());
+			this.taxCode = SearchText.normalize(row.taxCode()).replace(" ", "");
+
+			if (!sortedName.isEmpty()) {
+				keys.add("n|" + sortedName);
+			}
+			String first = SearchText.soundex(firstName);
+			String second = SearchText.soundex(secondName);
+			if (birthDate != null) {
+				if (!first.isEmpty() || !second.isEmpty()) {
+					keys.add("p|" + (first.compareTo(second) <= 0 ? first + second : second + first) + '|' + birthDate.getYear());
+				}
+				if (!first.isEmpty()) {
+					keys.add("f|" + first + '|' + birthDate);
+				}
+				if (!second.isEmpty()) {
+					keys.add("s|" + second + '|' + birthDate);
+				}
+			}
+			if (!taxCode.isEmpty()) {
+				keys.add("t|" + taxCode);
+			}
+		}
+
+		private static String nullToEmpty(String value) {
+			return value == null ? "" : value;
+		}
+	}
+
+	/**
+	 * The pairs of a block to score: all of them, or only those including the pivot.
+	 */
+	private record Comparison(List<Profile> block, Profile pivot) {
+	}
+
+	private final class ComparisonTask extends RecursiveTask<List<Candidate>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient List<Comparison> comparisons;
+
+		private final int from;
+
+		private final int to;
+
+		private ComparisonTask(List<Comparison> comparisons, int from, int to) {
+			this.comparisons = comparisons;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected List<Candidate> compute() {
+			if (to - from > LEAF_SIZE) {
+				int middle = (from + to) >>> 1;
+				ComparisonTask left = new ComparisonTask(comparisons, from, middle);
+				left.fork();
+				List<Candidate> found = new ArrayList<>(new ComparisonTask(comparisons, middle, to).compute());
+				found.addAll(left.join());
+				return found;
+			}
+			List<Candidate> found = new ArrayList<>();
+			for (int i = from; i < to; i++) {
+				Comparison comparison = comparisons.get(i);
+				List<Profile> block = comparison.block();
+				if (comparison.pivot() == null) {
+					for (int first = 0; first < block.size(); first++) {
+						for (int second = first + 1; second < block.size(); second++) {
+							addIfDuplicate(found, block.get(first), block.get(second));
+						}
+					}
+				} else {
+					for (Profile other : block) {
+						if (other != comparison.pivot()) {
+							addIfDuplicate(found, comparison.pivot(), other);
+						}
+					}
+				}
+			}
+			return found;
+		}
+
+		private void addIfDuplicate(List<Candidate> found, Profile first, Profile second) {
+			Candidate candidate = compare(first, second);
+			if (candidate != null) {
+				found.add(candidate);
+			}
+		}
+	}
+}
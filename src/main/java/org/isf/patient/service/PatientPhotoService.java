@@ -0,0 +1,243 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.shared.exceptions.OHAPIException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+/**
+ * Serves patient profile photos from a disk cache.
+ * <p>
+ * The original picture and its thumbnails are written once per patient version ({@link Patient#getLock()}),
+ * so a cached file never changes and can be served with immutable caching headers.
+ * Files of older versions are removed when a new version is cached, except the temporary files still being written
+ * by concurrent requests.
+ */
+@Service
+public class PatientPhotoService {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientPhotoService.class);
+
+	private static final String THUMBNAIL_FORMAT = "jpg";
+
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+
+	/** Age after which a temporary file is left over by a failed write, rather than being written. */
+	private static final Duration TEMPORARY_FILE_TTL = Duration.ofHours(1);
+
+	private final Path cacheDirectory;
+
+	private final int[] thumbnailSizes;
+
+	public PatientPhotoService(
+		@Value("${patient.photo.cache.dir:${java.io.tmpdir}/oh-api/patient-photos}") String cacheDirectory,
+		@Value("${patient.photo.thumbnail.sizes:64,128,256}") int[] thumbnailSizes
+	) {
+		this.cacheDirectory = Paths.get(cacheDirectory);
+		this.thumbnailSizes = thumbnailSizes.clone();
+		Arrays.sort(this.thumbnailSizes);
+	}
+
+	/**
+	 * @return the supported thumbnail sizes, in pixels of the longest side
+	 */
+	public int[] getThumbnailSizes() {
+		return thumbnailSizes.clone();
+	}
+
+	/**
+	 * Return the cached file holding the photo of the patient, creating it if needed.
+	 *
+	 * @param patient the patient
+	 * @param size the thumbnail size, {@code null} for the original picture
+	 * @return the file
+	 * @throws OHAPIException if the patient has no photo or the size is not supported
+	 */
+	public Path getPhoto(Patient patient, Integer size) throws OHAPIException {
+		if (size != null && Arrays.binarySearch(thumbnailSizes, size) < 0) {
+			throw new OHAPIException(new OHExceptionMessage("Unsupported thumbnail size, allowed sizes are " + Arrays.toString(thumbnailSizes) + '.'));
+		}
+		Path patientDirectory = cacheDirectory.resolve(String.valueOf(patient.getCode()));
+		Path original = patientDirectory.resolve(patient.getLock() + "-original");
+		try {
+			if (!Files.exists(original)) {
+				storeOriginal(patient, patientDirectory, original);
+			}
+			if (size == null) {
+				return original;
+			}
+			Path thumbnail = patientDirectory.resolve(patient.getLock() + "-" + size + '.' + THUMBNAIL_FORMAT);
+			if (!Files.exists(thumbnail)) {
+				storeThumbnail(original, thumbnail, size);
+			}
+			return thumbnail;
+		} catch (IOException | SQLException exception) {
+			LOGGER.error("Unable to cache the photo of patient {}.", patient.getCode(), exception);
+			throw new OHAPIException(new OHExceptionMessage("Unable to read the patient photo."), HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	/**
+	 * @param photo a file returned by {@link #getPhoto(Patient, Integer)}
+	 * @return the media type of the picture
+	 */
+	public MediaType getMediaType(Path photo) {
+		if (photo.getFileName().toString().endsWith('.' + THUMBNAIL_FORMAT)) {
+			return MediaType.IMAGE_JPEG;
+		}
+		try (InputStream input = new BufferedInputStream(Files.newInputStream(photo))) {
+			String contentType = URLConnection.guessContentTypeFromStream(input);
+			return contentType == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(contentType);
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to detect the type of {}.", photo, exception);
+			return MediaType.APPLICATION_OCTET_STREAM;
+		}
+	}
+
+	/**
+	 * Drop the cached files of a patient, e.g. after the patient has been deleted.
+	 *
+	 * @param code the patient code
+	 */
+	public void evict(int code) {
+		deleteOtherVersions(cacheDirectory.resolve(String.valueOf(code)), null);
+	}
+
+	private void storeOriginal(Patient patient, Path patientDirectory, Path original) throws IOException, SQLException, OHAPIException {
+		PatientProfilePhoto profilePhoto = patient.getPatientProfilePhoto();
+		Object photo = profilePhoto == null ? null : profilePhoto.getPhoto();
+		try (InputStream input = openStream(photo)) {
+			if (input == null) {
+				throw new OHAPIException(new OHExceptionMessage("Patient has no photo."), HttpStatus.NOT_FOUND);
+			}
+			Files.createDirectories(patientDirectory);
+			deleteOtherVersions(patientDirectory, patient.getLock() + "-");
+			write(input, original);
+		}
+	}
+
+	private static InputStream openStream(Object photo) throws SQLException {
+		if (photo instanceof Blob blob) {
+			return blob.length() == 0 ? null : blob.getBinaryStream();
+		}
+		if (photo instanceof byte[] bytes) {
+			return bytes.length == 0 ? null : new ByteArrayInputStream(bytes);
+		}
+		return null;
+	}
+
+	private static void storeThumbnail(Path original, Path thumbnail, int size) throws IOException {
+		BufferedImage image = ImageIO.read(original.toFile());
+		if (image == null) {
+			throw new IOException("Unsupported image format in " + original);
+		}
+		double scale = Math.min(1d, (double) size / Math.max(image.getWidth(), image.getHeight()));
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = scaled.createGraphics();
+		try {
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(image, 0, 0, width, height, null);
+		} finally {
+			graphics.dispose();
+		}
+		Path temporary = Files.createTempFile(thumbnail.getParent(), "thumb", TEMPORARY_SUFFIX);
+		try {
+			ImageIO.write(scaled, THUMBNAIL_FORMAT, temporary.toFile());
+			Files.move(temporary, thumbnail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static void write(InputStream input, Path target) throws IOException {
+		Path temporary = Files.createTempFile(target.getParent(), "photo", TEMPORARY_SUFFIX);
+		try {
+			Files.copy(input, temporary, StandardCopyOption.REPLACE_EXISTING);
+			Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private static boolean isBeingWritten(Path file) {
+		if (!file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+			return false;
+		}
+		try {
+			return Files.getLastModifiedTime(file).toInstant().isAfter(Instant.now().minus(TEMPORARY_FILE_TTL));
+		} catch (IOException exception) {
+			// already moved or deleted
+			return true;
+		}
+	}
+
+	private static void deleteOtherVersions(Path patientDirectory, String keptPrefix) {
+		if (!Files.isDirectory(patientDirectory)) {
+			return;
+		}
+		try (Stream<Path> files = Files.list(patientDirectory)) {
+			files.filter(file -> keptPrefix == null || !file.getFileName().toString().startsWith(keptPrefix))
+				.filter(file -> !isBeingWritten(file))
+				.forEach(file -> {
+					try {
+						Files.deleteIfExists(file);
+					} catch (IOException exception) {
+						LOGGER.warn("Unable to delete cached photo {}.", file, exception);
+					}
+				});
+		} catch (IOException exception) {
+			LOGGER.warn("Unable to clean cached photos in {}.", patientDirectory, exception);
+		}
+	}
+}
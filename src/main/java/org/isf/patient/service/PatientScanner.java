@@ -0,0 +1,113 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Reads the searchable columns of the patients in chunks ordered by code (keyset pagination),
+ * so that in-memory structures can be built without loading full {@link org.isf.patient.model.Patient} entities.
+ */
+@Component
+public class PatientScanner {
+
+	private static final String SELECT = "SELECT p.code, p.firstName, p.secondName, p.address, p.city, p.taxCode, p.deleted, p.birthDate, p.sex"
+		+ " FROM Patient p WHERE p.code > :lastCode";
+
+	private static final String ORDER_BY = " ORDER BY p.code";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Light view of a patient row.
+	 */
+	public record PatientRow(int code, String firstName, String secondName, String address, String city, String taxCode,
+		LocalDate birthDate, char sex, boolean deleted) {
+	}
+
+	/**
+	 * Scan all the patients that are not logically deleted.
+	 *
+	 * @param chunkSize the number of rows fetched per query
+	 * @param consumer the consumer of each row
+	 */
+	public void scan(int chunkSize, Consumer<PatientRow> consumer) {
+		scan(SELECT + ORDER_BY, null, chunkSize, row -> {
+			if (!row.deleted()) {
+				consumer.accept(row);
+			}
+		});
+	}
+
+	/**
+	 * Scan the patients created, updated or logically deleted after the given time.
+	 *
+	 * @param since the time of the previous scan
+	 * @param chunkSize the number of rows fetched per query
+	 * @param consumer the consumer of each row, deleted ones included
+	 */
+	public void scanModifiedSince(LocalDateTime since, int chunkSize, Consumer<PatientRow> consumer) {
+		scan(SELECT + " AND (p.lastModifiedDate >= :since OR p.createdDate >= :since)" + ORDER_BY, since, chunkSize, consumer);
+	}
+
+	private void scan(String jpql, LocalDateTime since, int chunkSize, Consumer<PatientRow> consumer) {
+		int lastCode = 0;
+		List<Object[]> chunk;
+		do {
+			TypedQuery<Object[]> query = entityManager.createQuery(jpql, Object[].class)
+				.setParameter("lastCode", lastCode)
+				.setMaxResults(chunkSize);
+			if (since != null) {
+				query.setParameter("since", since);
+			}
+			chunk = query.getResultList();
+			for (Object[] row : chunk) {
+				lastCode = (Integer) row[0];
+				consumer.accept(new PatientRow(lastCode, (String) row[1], (String) row[2], (String) row[3], (String) row[4], (String) row[5],
+					toLocalDate(row[7]), row[8] instanceof Character sex ? sex : ' ', "Y".equalsIgnoreCase(String.valueOf(row[6]))));
+			}
+		} while (chunk.size() == chunkSize);
+	}
+
+	private static LocalDate toLocalDate(Object value) {
+		if (value instanceof LocalDate date) {
+			return date;
+		}
+		if (value instanceof LocalDateTime dateTime) {
+			return dateTime.toLocalDate();
+		}
+		if (value instanceof java.sql.Date date) {
+			return date.toLocalDate();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,416 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.isf.patient.dto.PatientTypeaheadDTO;
+import org.isf.patient.model.Patient;
+import org.isf.shared.text.SearchText;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory trigram index of patient names, tax codes, cities and addresses used by the typeahead search.
+ * <p>
+ * Every word is indexed with a two spaces prefix, so that the trigrams of a query token are found only at
+ * the beginning of a word and tokens of one or two characters can be searched as well. A query reads the
+ * shortest posting list among the trigrams of its tokens and verifies the candidates against the indexed
+ * text, which also gives the score of each suggestion.
+ * <p>
+ * The index is built at startup from a {@link PatientScanner} scan and kept up to date by
+ * {@link org.isf.patient.rest.PatientController}. Updates do not touch existing posting lists: stale
+ * postings are filtered out by the verification and dropped when they outnumber the live ones.
+ */
+@Component
+public class PatientTypeaheadIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PatientTypeaheadIndex.class);
+
+	private static final int GRAM_LENGTH = 3;
+
+	private static final String WORD_START = "  ";
+
+	/** Weights of the indexed fields: name, tax code, city, address. */
+	private static final int[] FIELD_WEIGHTS = { 4, 3, 2, 1 };
+
+	private static final int MIN_STALE_POSTINGS_FOR_COMPACTION = 100_000;
+
+	private final PatientScanner patientScanner;
+
+	private final boolean enabled;
+
+	private final int scanChunkSize;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private Map<Integer, Entry> entries = new HashMap<>();
+
+	private Map<String, IntList> postings = new HashMap<>();
+
+	private long livePostings;
+
+	private long stalePostings;
+
+	/** Updates received while a rebuild is running, replayed on the rebuilt index ({@code null} values are removals). */
+	private Map<Integer, Entry> pendingUpdates;
+
+	private volatile boolean ready;
+
+	public PatientTypeaheadIndex(
+		PatientScanner patientScanner,
+		@Value("${patient.typeahead.enabled:true}") boolean enabled,
+		@Value("${patient.typeahead.scan.chunk.size:5000}") int scanChunkSize
+	) {
+		this.patientScanner = patientScanner;
+		this.enabled = enabled;
+		this.scanChunkSize = scanChunkSize;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void buildOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Patient typeahead index disabled.");
+			return;
+		}
+		Thread builder = new Thread(() -> {
+			try {
+				rebuild();
+			} catch (RuntimeException exception) {
+				LOGGER.error("Unable to build the patient typeahead index.", exception);
+			}
+		}, "patient-typeahead-index");
+		builder.setDaemon(true);
+		builder.start();
+	}
+
+	/**
+	 * @return {@code true} once the index has been built
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Build the index from scratch, without blocking the searches on the current one.
+	 */
+	public void rebuild() {
+		long start = System.currentTimeMillis();
+		lock.writeLock().lock();
+		try {
+			pendingUpdates = new HashMap<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		Map<Integer, Entry> newEntries = new HashMap<>();
+		Map<String, IntList> newPostings = new HashMap<>();
+		long[] count = new long[1];
+		try {
+			patientScanner.scan(scanChunkSize, row -> {
+				Entry entry = new Entry(row.code(), row.firstName(), row.secondName(), row.address(), row.city(), row.taxCode());
+				newEntries.put(entry.code, entry);
+				count[0] += addPostings(newPostings, entry);
+			});
+		} catch (RuntimeException exception) {
+			lock.writeLock().lock();
+			try {
+				pendingUpdates = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			throw exception;
+		}
+
+		lock.writeLock().lock();
+		try {
+			entries = newEntries;
+			postings = newPostings;
+			livePostings = count[0];
+			stalePostings = 0;
+			pendingUpdates.forEach(this::apply);
+			pendingUpdates = null;
+			ready = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		LOGGER.info("Patient typeahead index built: {} patients, {} trigrams in {} ms.", newEntries.size(), newPostings.size(),
+			System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Index a created or updated patient.
+	 *
+	 * @param patient the saved patient
+	 */
+	public void put(Patient patient) {
+		update(patient.getCode(), new Entry(patient.getCode(), patient.getFirstName(), patient.getSecondName(), patient.getAddress(),
+			patient.getCity(), patient.getTaxCode()));
+	}
+
+	/**
+	 * Remove a deleted patient from the index.
+	 *
+	 * @param code the patient code
+	 */
+	public void remove(int code) {
+		update(code, null);
+	}
+
+	/**
+	 * Search the patients matching every word of the query, as the beginning of a word of their name,
+	 * tax code, city or address.
+	 *
+	 * @param query the text typed by the user
+	 * @param limit the maximum number of suggestions
+	 * @return the suggestions, best first
+	 */
+	public List<PatientTypeaheadDTO> search(String query, int limit) {
+		String[] tokens = SearchText.tokens(SearchText.normalize(query));
+		if (tokens.length == 0 || limit <= 0) {
+			return new ArrayList<>();
+		}
+		Comparator<Scored> worstFirst = Comparator.<Scored> comparingInt(Scored::score).thenComparingInt(scored -> scored.entry().code);
+		PriorityQueue<Scored> best = new PriorityQueue<>(limit + 1, worstFirst);
+
+		lock.readLock().lock();
+		try {
+			IntList candidates = null;
+			for (String token : tokens) {
+				for (String gram : grams(token)) {
+					IntList posting = postings.get(gram);
+					if (posting == null) {
+						return new ArrayList<>();
+					}
+					if (candidates == null || posting.size < candidates.size) {
+						candidates = posting;
+					}
+				}
+			}
+			BitSet seen = new BitSet();
+			for (int i = 0; i < candidates.size; i++) {
+				int code = candidates.values[i];
+				if (seen.get(code)) {
+					continue;
+				}
+				seen.set(code);
+				Entry entry = entries.get(code);
+				int score = entry == null ? 0 : entry.score(tokens);
+				if (score > 0) {
+					best.offer(new Scored(entry, score));
+					if (best.size() > limit) {
+						best.poll();
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		List<PatientTypeaheadDTO> suggestions = new ArrayList<>(best.size());
+		while (!best.isEmpty()) {
+			Scored scored = best.poll();
+			Entry entry = scored.entry();
+			suggestions.add(new PatientTypeaheadDTO(entry.code, entry.firstName, entry.secondName, entry.address, entry.city, entry.taxCode,
+				scored.score()));
+		}
+		Collections.reverse(suggestions);
+		return suggestions;
+	}
+
+	private void update(int code, Entry entry) {
+		lock.writeLock().lock();
+		try {
+			if (pendingUpdates != null) {
+				pendingUpdates.put(code, entry);
+			}
+			apply(code, entry);
+			if (stalePostings > MIN_STALE_POSTINGS_FOR_COMPACTION && stalePostings > livePostings) {
+				compact();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void apply(int code, Entry entry) {
+		Entry previous = entry == null ? entries.remove(code) : entries.put(code, entry);
+		if (previous != null) {
+			int count = previous.grams().size();
+			livePostings -= count;
+			stalePostings += count;
+		}
+		if (entry != null) {
+			livePostings += addPostings(postings, entry);
+		}
+	}
+
+	private void compact() {
+		long start = System.currentTimeMillis();
+		Map<String, IntList> compacted = new HashMap<>();
+		long count = 0;
+		for (Entry entry : entries.values()) {
+			count += addPostings(compacted, entry);
+		}
+		postings = compacted;
+		livePostings = count;
+		stalePostings = 0;
+		LOGGER.debug("Patient typeahead index compacted in {} ms.", System.currentTimeMillis() - start);
+	}
+
+	private static int addPostings(Map<String, IntList> target, Entry entry) {
+		Set<String> grams = entry.grams();
+		for (String gram : grams) {
+			target.computeIfAbsent(gram, key -> new IntList()).add(entry.code);
+		}
+		return grams.size();
+	}
+
+	private static List<String> grams(String word) {
+		String padded = WORD_START + word;
+		List<String> grams = new ArrayList<>(padded.length() - GRAM_LENGTH + 1);
+		for (int i = 0; i + GRAM_LENGTH <= padded.length(); i++) {
+			grams.add(padded.substring(i, i + GRAM_LENGTH));
+		}
+		return grams;
+	}
+
+	private static final class Entry {
+
+		private final int code;
+
+		private final String firstName;
+
+		private final String secondName;
+
+		private final String address;
+
+		private final String city;
+
+		private final String taxCode;
+
+		/** Normalized name, tax code, city and address, in the order of {@link #FIELD_WEIGHTS}. */
+		private final String[] keys;
+
+		private Entry(int code, String firstName, String secondName, String address, String city, String taxCode) {
+			this.code = code;
+			this.firstName = firstName;
+			this.secondName = secondName;
+			this.address = address;
+			this.city = city;
+			this.taxCode = taxCode;
+			this.keys = new String[] {
+				SearchText.normalize(Objects.toString(firstName, "") + ' ' + Objects.toString(secondName, "")),
+				SearchText.normalize(taxCode),
+				SearchText.normalize(city),
+				SearchText.normalize(address)
+			};
+		}
+
+		private Set<String> grams() {
+			Set<String> grams = new HashSet<>();
+			for (String key : keys) {
+				for (String word : SearchText.tokens(key)) {
+					grams.addAll(PatientTypeaheadIndex.grams(word));
+				}
+			}
+			return grams;
+		}
+
+		/**
+		 * @return 0 if a token does not match, otherwise the sum over the tokens of the best field weight,
+		 * doubled when the token is a whole word
+		 */
+		private int score(String[] tokens) {
+			int total = 0;
+			for (String token : tokens) {
+				int best = 0;
+				for (int field = 0; field < keys.length; field++) {
+					best = Math.max(best, FIELD_WEIGHTS[field] * match(keys[field], token));
+				}
+				if (best == 0) {
+					return 0;
+				}
+				total += best;
+			}
+			return total;
+		}
+
+		/**
+		 * @return 0 if no word of the key starts with the token, 2 if a word equals the token, 1 otherwise
+		 */
+		private static int match(String key, String token) {
+			int match = 0;
+			for (int index = key.indexOf(token); index >= 0; index = key.indexOf(token, index + 1)) {
+				if (index == 0 || key.charAt(index - 1) == ' ') {
+					int end = index + token.length();
+					if (end == key.length() || key.charAt(end) == ' ') {
+						return 2;
+					}
+					match = 1;
+				}
+			}
+			return match;
+		}
+
+		@Override
+		public String toString() {
+			return code + " " + Arrays.toString(keys);
+		}
+	}
+
+	private record Scored(Entry entry, int score) {
+	}
+
+	/**
+	 * Growable list of primitive ints.
+	 */
+	private static final class IntList {
+
+		private int[] values = new int[4];
+
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size + (size >> 1) + 1);
+			}
+			values[size++] = value;
+		}
+	}
+}
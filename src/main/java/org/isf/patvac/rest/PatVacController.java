@@ -29,6 +29,7 @@ import org.isf.patvac.manager.PatVacManager;
 import org.isf.patvac.mapper.PatVacMapper;
 import org.isf.patvac.model.PatientVaccine;
 import org.isf.shared.exceptions.OHAPIException;
+import org.isf.shared.progressive.ProgressiveAllocator;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.slf4j.Logger;
@@ -61,9 +62,12 @@ public class PatVacController {
 
 	private final PatVacMapper mapper;
 
-	public PatVacController(PatVacManager patVacManager, PatVacMapper patientVaccineMapper) {
+	private final ProgressiveAllocator progressiveAllocator;
+
+	public PatVacController(PatVacManager patVacManager, PatVacMapper patientVaccineMapper, ProgressiveAllocator progressiveAllocator) {
 		this.patVacManager = patVacManager;
 		this.mapper = patientVaccineMapper;
+		this.progressiveAllocator = progressiveAllocator;
 	}
 
 	/**
@@ -77,8 +81,10 @@ public class PatVacController {
 	public PatientVaccineDTO newPatientVaccine(@RequestBody PatientVaccineDTO patientVaccineDTO) throws OHServiceException {
 		LOGGER.info("Create patient vaccine {}", patientVaccineDTO.getCode());
 
+		PatientVaccine patientVaccine = mapper.map2Model(patientVaccineDTO);
+		allocateProgr(patientVaccine);
 		try {
-			return mapper.map2DTO(patVacManager.newPatientVaccine(mapper.map2Model(patientVaccineDTO)));
+			return mapper.map2DTO(patVacManager.newPatientVaccine(patientVaccine));
 		} catch (OHServiceException serviceException) {
 			LOGGER.error("Patient vaccine not created.");
 			throw new OHAPIException(new OHExceptionMessage("Patient vaccine not created."));
@@ -147,6 +153,7 @@ public class PatVacController {
 
 	/**
 	 * Get the maximum progressive number within specified year or within current year if {@code 0}.
+	 * For the current year, the returned number precedes the number the next {@link PatientVaccine} will get.
 	 * @return {@code int} - the progressive number in the year
 	 * @throws OHServiceException When failed to get the progressive number
 	 */
@@ -154,9 +161,25 @@ public class PatVacController {
 	public Integer getProgYear(@PathVariable int year) throws OHServiceException {
 		LOGGER.info("Get progressive number within specified year");
 
+		if (year == 0 || year == LocalDate.now().getYear()) {
+			return progressiveAllocator.peek(ProgressiveAllocator.Sequence.VACCINE, "", () -> patVacManager.getProgYear(0)) - 1;
+		}
 		return patVacManager.getProgYear(year);
 	}
 
+	/**
+	 * Give a new {@link PatientVaccine} of the current year the next progressive number, unless the allocator is
+	 * unavailable.
+	 */
+	private void allocateProgr(PatientVaccine patientVaccine) throws OHServiceException {
+		if (patientVaccine.getVaccineDate() == null || patientVaccine.getVaccineDate().getYear() == LocalDate.now().getYear()) {
+			Integer progr = progressiveAllocator.next(ProgressiveAllocator.Sequence.VACCINE, "", () -> patVacManager.getProgYear(0));
+			if (progr != null) {
+				patientVaccine.setProgr(progr);
+			}
+		}
+	}
+
 	/**
 	 * Delete {@link PatientVaccine} for specified code.
 	 * @param code Patient vaccine code
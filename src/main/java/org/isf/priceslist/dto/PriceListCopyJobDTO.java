@@ -0,0 +1,176 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.dto;
+
+import java.time.LocalDateTime;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Progress and outcome of a price list duplication job")
+public class PriceListCopyJobDTO {
+
+	public enum Status {
+		QUEUED,
+		RUNNING,
+		COMPLETED,
+		FAILED
+	}
+
+	@Schema(description = "The job id", example = "5f0c2b7e-8d1a-4a53-9c1e-2d7d0b1f9a11")
+	private String jobId;
+
+	@Schema(description = "The id of the duplicated price list", example = "1")
+	private int sourceListId;
+
+	@Schema(description = "The id of the new price list, once created", example = "2")
+	private Integer newListId;
+
+	@Schema(description = "The factor applied to the prices", example = "1.1")
+	private double factor;
+
+	@Schema(description = "The rounding step of the new prices, 0 for no rounding", example = "0.5")
+	private double step;
+
+	@Schema(description = "The status of the job", example = "RUNNING")
+	private Status status;
+
+	@Schema(description = "The number of prices to copy", example = "25000")
+	private int totalPrices;
+
+	@Schema(description = "The number of prices copied so far", example = "12500")
+	private int copiedPrices;
+
+	@Schema(description = "The reason of the failure, if any")
+	private String message;
+
+	@Schema(description = "When the job was submitted")
+	private LocalDateTime submitted;
+
+	@Schema(description = "When the job ended, if it did")
+	private LocalDateTime finished;
+
+	public PriceListCopyJobDTO() {
+	}
+
+	public PriceListCopyJobDTO(String jobId, int sourceListId, Integer newListId, double factor, double step, Status status, int totalPrices,
+		int copiedPrices, String message, LocalDateTime submitted, LocalDateTime finished) {
+		this.jobId = jobId;
+		this.sourceListId = sourceListId;
+		this.newListId = newListId;
+		this.factor = factor;
+		this.step = step;
+		this.status = status;
+		this.totalPrices = totalPrices;
+		this.copiedPrices = copiedPrices;
+		this.message = message;
+		this.submitted = submitted;
+		this.finished = finished;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public int getSourceListId() {
+		return sourceListId;
+	}
+
+	public void setSourceListId(int sourceListId) {
+		this.sourceListId = sourceListId;
+	}
+
+	public Integer getNewListId() {
+		return newListId;
+	}
+
+	public void setNewListId(Integer newListId) {
+		this.newListId = newListId;
+	}
+
+	public double getFactor() {
+		return factor;
+	}
+
+	public void setFactor(double factor) {
+		this.factor = factor;
+	}
+
+	public double getStep() {
+		return step;
+	}
+
+	public void setStep(double step) {
+		this.step = step;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public int getTotalPrices() {
+		return totalPrices;
+	}
+
+	public void setTotalPrices(int totalPrices) {
+		this.totalPrices = totalPrices;
+	}
+
+	public int getCopiedPrices() {
+		return copiedPrices;
+	}
+
+	public void setCopiedPrices(int copiedPrices) {
+		this.copiedPrices = copiedPrices;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public LocalDateTime getSubmitted() {
+		return submitted;
+	}
+
+	public void setSubmitted(LocalDateTime submitted) {
+		this.submitted = submitted;
+	}
+
+	public LocalDateTime getFinished() {
+		return finished;
+	}
+
+	public void setFinished(LocalDateTime finished) {
+		this.finished = finished;
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "A cart priced with a price list")
+public class PriceQuoteDTO {
+
+	@Schema(description = "The price list id", example = "1")
+	private int listId;
+
+	@Schema(description = "The price list name", example = "Basic")
+	private String listName;
+
+	@Schema(description = "The price list currency", example = "USD")
+	private String currency;
+
+	@Schema(description = "The priced items, in the cart order")
+	private List<PriceQuoteLineDTO> lines;
+
+	@Schema(description = "The sum of the amounts", example = "4500")
+	private double total;
+
+	@Schema(description = "The number of items not in the price list", example = "0")
+	private int missing;
+
+	public PriceQuoteDTO() {
+	}
+
+	public PriceQuoteDTO(int listId, String listName, String currency, List<PriceQuoteLineDTO> lines) {
+		this.listId = listId;
+		this.listName = listName;
+		this.currency = currency;
+		this.lines = lines;
+		this.total = lines.stream().mapToDouble(PriceQuoteLineDTO::getAmount).sum();
+		this.missing = (int) lines.stream().filter(line -> line.getUnitPrice() == null).count();
+	}
+
+	public int getListId() {
+		return listId;
+	}
+
+	public void setListId(int listId) {
+		this.listId = listId;
+	}
+
+	public String getListName() {
+		return listName;
+	}
+
+	public void setListName(String listName) {
+		this.listName = listName;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public List<PriceQuoteLineDTO> getLines() {
+		return lines;
+	}
+
+	public void setLines(List<PriceQuoteLineDTO> lines) {
+		this.lines = lines;
+	}
+
+	public double getTotal() {
+		return total;
+	}
+
+	public void setTotal(double total) {
+		this.total = total;
+	}
+
+	public int getMissing() {
+		return missing;
+	}
+
+	public void setMissing(int missing) {
+		this.missing = missing;
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "An item of a cart to price")
+public class PriceQuoteItemDTO {
+
+	@NotBlank
+	@Schema(description = "The group of the item: EXA, OPE, MED or OTH", example = "EXA")
+	private String group;
+
+	@NotBlank
+	@Schema(description = "The item code, as in the price list", example = "01.01")
+	private String item;
+
+	@Positive
+	@Schema(description = "The quantity", example = "2")
+	private double quantity = 1;
+
+	public PriceQuoteItemDTO() {
+	}
+
+	public PriceQuoteItemDTO(String group, String item, double quantity) {
+		this.group = group;
+		this.item = item;
+		this.quantity = quantity;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	public String getItem() {
+		return item;
+	}
+
+	public void setItem(String item) {
+		this.item = item;
+	}
+
+	public double getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(double quantity) {
+		this.quantity = quantity;
+	}
+}
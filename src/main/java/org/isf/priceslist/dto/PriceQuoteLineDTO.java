@@ -0,0 +1,106 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "A priced item of a cart")
+public class PriceQuoteLineDTO {
+
+	@Schema(description = "The group of the item", example = "EXA")
+	private String group;
+
+	@Schema(description = "The item code", example = "01.01")
+	private String item;
+
+	@Schema(description = "The item description in the price list", example = "HAEMOGLOBIN")
+	private String description;
+
+	@Schema(description = "The quantity", example = "2")
+	private double quantity;
+
+	@Schema(description = "The unit price, empty if the item is not in the price list", example = "1500")
+	private Double unitPrice;
+
+	@Schema(description = "The price of the quantity, 0 if the item is not in the price list", example = "3000")
+	private double amount;
+
+	public PriceQuoteLineDTO() {
+	}
+
+	public PriceQuoteLineDTO(String group, String item, String description, double quantity, Double unitPrice, double amount) {
+		this.group = group;
+		this.item = item;
+		this.description = description;
+		this.quantity = quantity;
+		this.unitPrice = unitPrice;
+		this.amount = amount;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	public void setGroup(String group) {
+		this.group = group;
+	}
+
+	public String getItem() {
+		return item;
+	}
+
+	public void setItem(String item) {
+		this.item = item;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public double getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(double quantity) {
+		this.quantity = quantity;
+	}
+
+	public Double getUnitPrice() {
+		return unitPrice;
+	}
+
+	public void setUnitPrice(Double unitPrice) {
+		this.unitPrice = unitPrice;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public void setAmount(double amount) {
+		this.amount = amount;
+	}
+}
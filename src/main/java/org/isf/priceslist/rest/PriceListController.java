@@ -23,13 +23,20 @@ package org.isf.priceslist.rest;
 
 import java.util.List;
 
+import jakarta.validation.Valid;
+
 import org.isf.priceslist.dto.PriceDTO;
+import org.isf.priceslist.dto.PriceListCopyJobDTO;
 import org.isf.priceslist.dto.PriceListDTO;
+import org.isf.priceslist.dto.PriceQuoteDTO;
+import org.isf.priceslist.dto.PriceQuoteItemDTO;
 import org.isf.priceslist.manager.PriceListManager;
 import org.isf.priceslist.mapper.PriceListMapper;
 import org.isf.priceslist.mapper.PriceMapper;
 import org.isf.priceslist.model.Price;
 import org.isf.priceslist.model.PriceList;
+import org.isf.priceslist.service.PriceListCopyJobs;
+import org.isf.priceslist.service.PriceMatrix;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
@@ -65,10 +72,17 @@ public class PriceListController {
 
 	private final PriceMapper priceMapper;
 
-	public PriceListController(PriceListManager priceListManager, PriceListMapper priceListmapper, PriceMapper priceMapper) {
+	private final PriceMatrix priceMatrix;
+
+	private final PriceListCopyJobs priceListCopyJobs;
+
+	public PriceListController(PriceListManager priceListManager, PriceListMapper priceListmapper, PriceMapper priceMapper, PriceMatrix priceMatrix,
+		PriceListCopyJobs priceListCopyJobs) {
 		this.priceListManager = priceListManager;
 		this.mapper = priceListmapper;
 		this.priceMapper = priceMapper;
+		this.priceMatrix = priceMatrix;
+		this.priceListCopyJobs = priceListCopyJobs;
 	}
 
 	/**
@@ -82,7 +96,9 @@ public class PriceListController {
 	public PriceListDTO newPriceList(@RequestBody PriceListDTO priceListDTO) throws OHServiceException {
 		LOGGER.info("Create price list {}.", priceListDTO.getCode());
 		try {
-			return mapper.map2DTO(priceListManager.newList(mapper.map2Model(priceListDTO)));
+			PriceList created = priceListManager.newList(mapper.map2Model(priceListDTO));
+			priceMatrix.rebuildList(created.getId());
+			return mapper.map2DTO(created);
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not created."));
 		}
@@ -101,7 +117,9 @@ public class PriceListController {
 		LOGGER.info("Update price list code: {}.", priceListDTO.getCode());
 		PriceList priceList = mapper.map2Model(priceListDTO);
 		try {
-			return mapper.map2DTO(priceListManager.updateList(priceList));
+			PriceList updated = priceListManager.updateList(priceList);
+			priceMatrix.rebuildList(updated.getId());
+			return mapper.map2DTO(updated);
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not updated."));
 		}
@@ -131,6 +149,26 @@ public class PriceListController {
 		return priceMapper.map2DTOList(priceListManager.getPrices());
 	}
 
+	/**
+	 * Price a cart with the specified {@link PriceList}, without reading the database.
+	 * Items not priced in the list are returned without unit price and counted in {@code missing}.
+	 * @param id Price list ID
+	 * @param items the items of the cart
+	 * @return the priced lines and the total.
+	 */
+	@PostMapping("/pricelists/{id}/quote")
+	public PriceQuoteDTO quote(@PathVariable int id, @Valid @RequestBody List<PriceQuoteItemDTO> items) {
+		LOGGER.info("Quote {} items with price list id: {}.", items.size(), id);
+		if (!priceMatrix.isReady()) {
+			throw new OHAPIException(new OHExceptionMessage("Price lists are not loaded."), HttpStatus.SERVICE_UNAVAILABLE);
+		}
+		PriceList priceList = priceMatrix.getList(id);
+		if (priceList == null) {
+			throw new OHAPIException(new OHExceptionMessage("Price list not found."), HttpStatus.NOT_FOUND);
+		}
+		return priceMatrix.quote(priceList, items);
+	}
+
 	/**
 	 * Delete {@link PriceList} for specified code.
 	 * @param id Price list ID
@@ -140,13 +178,13 @@ public class PriceListController {
 	@DeleteMapping("/pricelists/{id}")
 	public boolean deletePriceList(@PathVariable int id) throws OHServiceException {
 		LOGGER.info("Delete price list id: {}.", id);
-		List<PriceList> priceLists = priceListManager.getLists();
-		List<PriceList> priceListFounds = priceLists.stream().filter(pl -> pl.getId() == id).toList();
-		if (priceListFounds.isEmpty()) {
+		PriceList priceList = findList(id);
+		if (priceList == null) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not found."), HttpStatus.NOT_FOUND);
 		}
 		try {
-			priceListManager.deleteList(priceListFounds.get(0));
+			priceListManager.deleteList(priceList);
+			priceMatrix.rebuildList(priceList.getId());
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not deleted."));
@@ -161,14 +199,14 @@ public class PriceListController {
 	@GetMapping("/pricelists/duplicate/{id}")
 	public boolean copyList(@PathVariable Long id) throws OHServiceException {
 		LOGGER.info("Duplicate list for price list id: {}.", id);
-		List<PriceList> priceLists = priceListManager.getLists();
-		List<PriceList> priceListFounds = priceLists.stream().filter(pl -> pl.getId() == id).toList();
-		if (priceListFounds.isEmpty()) {
+		PriceList priceList = findList(id);
+		if (priceList == null) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not found."), HttpStatus.NOT_FOUND);
 		}
 
 		try {
-			priceListManager.copyList(priceListFounds.get(0));
+			priceListManager.copyList(priceList);
+			rebuildNewLists();
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not duplicated."));
@@ -185,17 +223,77 @@ public class PriceListController {
 		@PathVariable Long id, @RequestParam double factor, @RequestParam double step
 	) throws OHServiceException {
 		LOGGER.info("Duplicate list for price list id: {}.", id);
-		List<PriceList> priceLists = priceListManager.getLists();
-		List<PriceList> priceListFounds = priceLists.stream().filter(pl -> pl.getId() == id).toList();
-		if (priceListFounds.isEmpty()) {
+		PriceList priceList = findList(id);
+		if (priceList == null) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not found."), HttpStatus.NOT_FOUND);
 		}
 
 		try {
-			priceListManager.copyList(priceListFounds.get(0), factor, step);
+			priceListManager.copyList(priceList, factor, step);
+			rebuildNewLists();
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Price list not duplicated."));
 		}
 	}
+
+	/**
+	 * Start the duplication of the specified {@link PriceList} in background, multiplying the prices by {@code factor}
+	 * and rounding them by {@code step}.
+	 * @param id Price list ID
+	 * @return the job, whose progress is read with {@code GET /pricelists/duplicate/jobs/{jobId}}.
+	 * @throws OHServiceException When failed to read the price lists
+	 */
+	@PostMapping("/pricelists/{id}/duplicate")
+	@ResponseStatus(HttpStatus.ACCEPTED)
+	public PriceListCopyJobDTO submitCopy(
+		@PathVariable int id, @RequestParam(defaultValue = "1") double factor, @RequestParam(defaultValue = "0") double step
+	) throws OHServiceException {
+		LOGGER.info("Queue duplication of price list id: {}.", id);
+		if (factor <= 0 || step < 0) {
+			throw new OHAPIException(new OHExceptionMessage("The factor must be positive and the step not negative."));
+		}
+		PriceList priceList = findList(id);
+		if (priceList == null) {
+			throw new OHAPIException(new OHExceptionMessage("Price list not found."), HttpStatus.NOT_FOUND);
+		}
+		return priceListCopyJobs.submit(priceList, factor, step);
+	}
+
+	/**
+	 * Get the progress of a {@link PriceList} duplication job.
+	 * @param jobId the job id
+	 * @return the progress of the job.
+	 */
+	@GetMapping("/pricelists/duplicate/jobs/{jobId}")
+	public PriceListCopyJobDTO getCopyJob(@PathVariable String jobId) {
+		LOGGER.info("Get price list duplication job: {}.", jobId);
+		PriceListCopyJobDTO job = priceListCopyJobs.getReport(jobId);
+		if (job == null) {
+			throw new OHAPIException(new OHExceptionMessage("Duplication job not found."), HttpStatus.NOT_FOUND);
+		}
+		return job;
+	}
+
+	/**
+	 * Find a price list in the compiled {@link PriceMatrix}, reading all the lists only when the matrix does not know it.
+	 */
+	private PriceList findList(long id) throws OHServiceException {
+		PriceList priceList = priceMatrix.getList((int) id);
+		if (priceList != null) {
+			return priceList;
+		}
+		return priceListManager.getLists().stream().filter(pl -> pl.getId() == id).findFirst().orElse(null);
+	}
+
+	/**
+	 * Add to the {@link PriceMatrix} the lists created by a duplication, whose id is not returned by the manager.
+	 */
+	private void rebuildNewLists() throws OHServiceException {
+		for (PriceList list : priceListManager.getLists()) {
+			if (priceMatrix.getList(list.getId()) == null) {
+				priceMatrix.rebuildList(list.getId());
+			}
+		}
+	}
 }
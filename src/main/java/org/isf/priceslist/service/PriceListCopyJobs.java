@@ -0,0 +1,281 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.priceslist.dto.PriceListCopyJobDTO;
+import org.isf.priceslist.manager.PriceListManager;
+import org.isf.priceslist.model.Price;
+import org.isf.priceslist.model.PriceList;
+import org.isf.utils.exception.OHServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Background duplication of price lists.
+ * <p>
+ * A job creates the new list, then reads the prices of the source list in batches of {@code pricelist.copy.batch.size}
+ * ordered by id, computes the new prices of the whole batch and persists them, flushing and clearing the persistence
+ * context after every batch so that the inserts are sent as JDBC batches and memory stays flat. The whole copy runs in
+ * one transaction: a failed job leaves no partial list behind. Jobs run one at a time, in submission order, and are
+ * kept for {@code pricelist.copy.jobs.ttl} after they end.
+ */
+@Component
+public class PriceListCopyJobs {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PriceListCopyJobs.class);
+
+	private final PriceListManager priceListManager;
+
+	private final PriceMatrix priceMatrix;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final int batchSize;
+
+	private final Duration jobsTtl;
+
+	private final ExecutorService worker;
+
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	public PriceListCopyJobs(
+		PriceListManager priceListManager,
+		PriceMatrix priceMatrix,
+		PlatformTransactionManager transactionManager,
+		@Value("${pricelist.copy.batch.size:500}") int batchSize,
+		@Value("${pricelist.copy.jobs.ttl:PT24H}") Duration jobsTtl
+	) {
+		this.priceListManager = priceListManager;
+		this.priceMatrix = priceMatrix;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+		this.jobsTtl = jobsTtl;
+		this.worker = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "pricelist-copy");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * A duplication job and its progress.
+	 */
+	private static final class Job {
+
+		private final String id = UUID.randomUUID().toString();
+
+		private final PriceList source;
+
+		private final double factor;
+
+		private final double step;
+
+		private final LocalDateTime submitted = LocalDateTime.now();
+
+		private PriceListCopyJobDTO.Status status = PriceListCopyJobDTO.Status.QUEUED;
+
+		private Integer newListId;
+
+		private int totalPrices;
+
+		private int copiedPrices;
+
+		private String message;
+
+		private LocalDateTime finished;
+
+		private Job(PriceList source, double factor, double step) {
+			this.source = source;
+			this.factor = factor;
+			this.step = step;
+		}
+
+		private synchronized void finish(PriceListCopyJobDTO.Status status, String message) {
+			this.status = status;
+			this.message = message;
+			this.finished = LocalDateTime.now();
+		}
+
+		private synchronized boolean isFinished() {
+			return finished != null;
+		}
+
+		private synchronized PriceListCopyJobDTO report() {
+			return new PriceListCopyJobDTO(id, source.getId(), newListId, factor, step, status, totalPrices, copiedPrices, message, submitted, finished);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		worker.shutdownNow();
+	}
+
+	/**
+	 * Queue the duplication of a price list.
+	 *
+	 * @param source the price list to duplicate
+	 * @param factor the factor applied to the prices
+	 * @param step the rounding step of the new prices, {@code 0} for no rounding
+	 * @return the progress of the queued job
+	 */
+	public PriceListCopyJobDTO submit(PriceList source, double factor, double step) {
+		Job job = new Job(source, factor, step);
+		jobs.put(job.id, job);
+		worker.execute(() -> run(job));
+		LOGGER.info("Price list {} duplication queued as job {}.", source.getId(), job.id);
+		return job.report();
+	}
+
+	/**
+	 * @param jobId the id of a job
+	 * @return the progress of the job, {@code null} if the id is unknown or the job has expired
+	 */
+	public PriceListCopyJobDTO getReport(String jobId) {
+		Job job = jobs.get(jobId);
+		return job == null ? null : job.report();
+	}
+
+	@Scheduled(fixedDelayString = "PT1H")
+	public void purgeExpiredJobs() {
+		LocalDateTime expiry = LocalDateTime.now().minus(jobsTtl);
+		jobs.values().removeIf(job -> {
+			synchronized (job) {
+				return job.finished != null && job.finished.isBefore(expiry);
+			}
+		});
+	}
+
+	private void run(Job job) {
+		if (job.isFinished()) {
+			return;
+		}
+		synchronized (job) {
+			job.status = PriceListCopyJobDTO.Status.RUNNING;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			transactionTemplate.executeWithoutResult(status -> copy(job));
+			priceMatrix.rebuildList(job.newListId);
+			job.finish(PriceListCopyJobDTO.Status.COMPLETED, null);
+			LOGGER.info("Price list {} duplicated by job {}: {} prices in {} ms.", job.source.getId(), job.id, job.totalPrices,
+				System.currentTimeMillis() - start);
+		} catch (RuntimeException exception) {
+			LOGGER.error("Price list {} duplication job {} failed.", job.source.getId(), job.id, exception);
+			synchronized (job) {
+				job.newListId = null;
+				job.copiedPrices = 0;
+			}
+			job.finish(PriceListCopyJobDTO.Status.FAILED, exception.getMessage());
+		}
+	}
+
+	private void copy(Job job) {
+		int sourceId = job.source.getId();
+		int total = entityManager.createQuery("select count(p) from Price p where p.list.id = :list", Long.class)
+			.setParameter("list", sourceId)
+			.getSingleResult()
+			.intValue();
+		PriceList newList;
+		try {
+			newList = priceListManager.newList(newList(job.source));
+		} catch (OHServiceException exception) {
+			throw new IllegalStateException("Price list not created.", exception);
+		}
+		synchronized (job) {
+			job.totalPrices = total;
+			job.newListId = newList.getId();
+		}
+
+		int lastId = 0;
+		List<Price> batch;
+		do {
+			batch = entityManager.createQuery("select p from Price p where p.list.id = :list and p.id > :after order by p.id", Price.class)
+				.setParameter("list", sourceId)
+				.setParameter("after", lastId)
+				.setMaxResults(batchSize)
+				.getResultList();
+			if (batch.isEmpty()) {
+				break;
+			}
+			lastId = batch.get(batch.size() - 1).getId();
+			PriceList target = entityManager.getReference(PriceList.class, newList.getId());
+			for (Price copy : copies(batch, target, job.factor, job.step)) {
+				entityManager.persist(copy);
+			}
+			entityManager.flush();
+			entityManager.clear();
+			synchronized (job) {
+				job.copiedPrices += batch.size();
+			}
+		} while (batch.size() == batchSize && !Thread.currentThread().isInterrupted());
+		if (Thread.currentThread().isInterrupted()) {
+			throw new IllegalStateException("Price list duplication interrupted.");
+		}
+	}
+
+	/**
+	 * Compute the prices of a whole batch: each price is multiplied by the factor and, when a step is given,
+	 * rounded to the nearest multiple of the step.
+	 */
+	static List<Price> copies(List<Price> batch, PriceList target, double factor, double step) {
+		List<Price> copies = new ArrayList<>(batch.size());
+		for (Price price : batch) {
+			Double value = price.getPrice();
+			if (value != null) {
+				value = step == 0 ? value * factor : Math.round(value * factor / step) * step;
+			}
+			copies.add(new Price(target, price.getGroup(), price.getItem(), price.getDescription(), value));
+		}
+		return copies;
+	}
+
+	private static PriceList newList(PriceList source) {
+		PriceList list = new PriceList();
+		list.setCode(source.getCode());
+		list.setName(source.getName() + "(copy)");
+		list.setDescription(source.getDescription());
+		list.setCurrency(source.getCurrency());
+		return list;
+	}
+}
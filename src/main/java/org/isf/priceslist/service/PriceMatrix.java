@@ -0,0 +1,251 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.priceslist.dto.PriceQuoteDTO;
+import org.isf.priceslist.dto.PriceQuoteItemDTO;
+import org.isf.priceslist.dto.PriceQuoteLineDTO;
+import org.isf.priceslist.manager.PriceListManager;
+import org.isf.priceslist.model.Price;
+import org.isf.priceslist.model.PriceList;
+import org.isf.utils.exception.OHServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * The price lists and their prices compiled in memory, keyed by price list id, item group and item code.
+ * <p>
+ * The matrix is compiled from the price lists and prices read with two queries, then swapped in at once: readers
+ * always see a complete matrix. After a write through the price list and other prices endpoints only the prices of the
+ * list, or of the group of the other prices, are read again; the whole matrix is recompiled periodically, to catch the
+ * writes of other clients. A matrix that failed to be updated is stale: it is not used until the next successful
+ * compilation.
+ */
+@Component
+public class PriceMatrix {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PriceMatrix.class);
+
+	/** The item group of the other prices. */
+	public static final String OTHERS_GROUP = "OTH";
+
+	private static final String LIST_PRICES_JPQL = "select p from Price p where p.list.id = :list";
+
+	private static final String GROUP_PRICES_JPQL = "select p from Price p where p.group = :group";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final PriceListManager priceListManager;
+
+	private volatile Compiled compiled;
+
+	private volatile boolean stale;
+
+	public PriceMatrix(PriceListManager priceListManager) {
+		this.priceListManager = priceListManager;
+	}
+
+	/**
+	 * A price of a list.
+	 */
+	private record Entry(String description, Double price) {
+	}
+
+	/**
+	 * An immutable compilation of the price lists.
+	 */
+	private record Compiled(Map<Integer, PriceList> listsById, Map<String, PriceList> listsByName, Map<Integer, Map<String, Entry>> prices) {
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void compileOnStartup() {
+		rebuild();
+	}
+
+	/**
+	 * Recompile the matrix from the database.
+	 */
+	@Scheduled(fixedDelayString = "${pricelist.matrix.refresh.interval:PT10M}", initialDelayString = "${pricelist.matrix.refresh.interval:PT10M}")
+	public synchronized void rebuild() {
+		try {
+			long start = System.currentTimeMillis();
+			Map<Integer, PriceList> listsById = new HashMap<>();
+			for (PriceList list : priceListManager.getLists()) {
+				listsById.put(list.getId(), list);
+			}
+			Map<Integer, Map<String, Entry>> prices = new HashMap<>();
+			for (Price price : priceListManager.getPrices()) {
+				if (price.getList() != null) {
+					add(prices.computeIfAbsent(price.getList().getId(), id -> new HashMap<>()), price);
+				}
+			}
+			swap(listsById, prices);
+			LOGGER.debug("Price matrix compiled: {} lists in {} ms.", listsById.size(), System.currentTimeMillis() - start);
+		} catch (OHServiceException | RuntimeException exception) {
+			stale = true;
+			LOGGER.error("Unable to compile the price matrix.", exception);
+		}
+	}
+
+	/**
+	 * Read again a price list and its prices after a write, the whole matrix if it is not compiled or stale.
+	 *
+	 * @param id the id of the price list created, updated or deleted
+	 */
+	public synchronized void rebuildList(int id) {
+		Compiled current = compiled;
+		if (current == null || stale) {
+			rebuild();
+			return;
+		}
+		try {
+			Map<Integer, PriceList> listsById = new HashMap<>(current.listsById());
+			Map<Integer, Map<String, Entry>> prices = new HashMap<>(current.prices());
+			PriceList list = entityManager.find(PriceList.class, id);
+			listsById.remove(id);
+			prices.remove(id);
+			if (list != null) {
+				Map<String, Entry> listPrices = new HashMap<>();
+				for (Price price : entityManager.createQuery(LIST_PRICES_JPQL, Price.class).setParameter("list", id).getResultList()) {
+					add(listPrices, price);
+				}
+				listsById.put(id, list);
+				prices.put(id, listPrices);
+			}
+			swap(listsById, prices);
+		} catch (RuntimeException exception) {
+			stale = true;
+			LOGGER.error("Unable to update the price list {} in the price matrix.", id, exception);
+		}
+	}
+
+	/**
+	 * Read again the prices of an item group in every list after a write, the whole matrix if it is not compiled or
+	 * stale.
+	 *
+	 * @param group the item group (e.g. {@code OTH} for the other prices)
+	 */
+	public synchronized void rebuildGroup(String group) {
+		Compiled current = compiled;
+		if (current == null || stale) {
+			rebuild();
+			return;
+		}
+		try {
+			String prefix = key(group, "");
+			Map<Integer, Map<String, Entry>> prices = new HashMap<>();
+			current.prices().forEach((id, listPrices) -> {
+				Map<String, Entry> kept = new HashMap<>(listPrices);
+				kept.keySet().removeIf(key -> key.startsWith(prefix));
+				prices.put(id, kept);
+			});
+			for (Price price : entityManager.createQuery(GROUP_PRICES_JPQL, Price.class).setParameter("group", group).getResultList()) {
+				if (price.getList() != null && current.listsById().containsKey(price.getList().getId())) {
+					add(prices.computeIfAbsent(price.getList().getId(), id -> new HashMap<>()), price);
+				}
+			}
+			swap(new HashMap<>(current.listsById()), prices);
+		} catch (RuntimeException exception) {
+			stale = true;
+			LOGGER.error("Unable to update the {} prices in the price matrix.", group, exception);
+		}
+	}
+
+	/**
+	 * @return {@code true} once the matrix has been compiled, and as long as it is not stale
+	 */
+	public boolean isReady() {
+		return compiled != null && !stale;
+	}
+
+	/**
+	 * @param id the price list id
+	 * @return the price list, {@code null} if unknown or the matrix is not ready
+	 */
+	public PriceList getList(int id) {
+		Compiled current = compiled;
+		return current == null || stale ? null : current.listsById().get(id);
+	}
+
+	/**
+	 * @param name the price list name
+	 * @return the price list, {@code null} if unknown or the matrix is not ready
+	 */
+	public PriceList findListByName(String name) {
+		Compiled current = compiled;
+		return current == null || stale || name == null ? null : current.listsByName().get(name);
+	}
+
+	/**
+	 * Price a cart with a price list.
+	 *
+	 * @param list the price list
+	 * @param items the items of the cart
+	 * @return the priced items and the total
+	 */
+	public PriceQuoteDTO quote(PriceList list, List<PriceQuoteItemDTO> items) {
+		Compiled current = compiled;
+		Map<String, Entry> prices = current == null ? Map.of() : current.prices().getOrDefault(list.getId(), Map.of());
+		List<PriceQuoteLineDTO> lines = new ArrayList<>(items.size());
+		for (PriceQuoteItemDTO item : items) {
+			Entry entry = prices.get(key(item.getGroup(), item.getItem()));
+			Double unitPrice = entry == null ? null : entry.price();
+			lines.add(new PriceQuoteLineDTO(item.getGroup(), item.getItem(), entry == null ? null : entry.description(), item.getQuantity(),
+				unitPrice, unitPrice == null ? 0 : unitPrice * item.getQuantity()));
+		}
+		return new PriceQuoteDTO(list.getId(), list.getName(), list.getCurrency(), lines);
+	}
+
+	/**
+	 * Swap in a new compilation, the lists with the same name being found by the lowest id.
+	 */
+	private void swap(Map<Integer, PriceList> listsById, Map<Integer, Map<String, Entry>> prices) {
+		Map<String, PriceList> listsByName = new HashMap<>();
+		new TreeMap<>(listsById).values().forEach(list -> listsByName.putIfAbsent(list.getName(), list));
+		Map<Integer, Map<String, Entry>> compiledPrices = new HashMap<>();
+		prices.forEach((id, listPrices) -> compiledPrices.put(id, Map.copyOf(listPrices)));
+		compiled = new Compiled(Map.copyOf(listsById), Map.copyOf(listsByName), Map.copyOf(compiledPrices));
+		stale = false;
+	}
+
+	private static void add(Map<String, Entry> listPrices, Price price) {
+		listPrices.put(key(price.getGroup(), price.getItem()), new Entry(price.getDescription(), price.getPrice()));
+	}
+
+	private static String key(String group, String item) {
+		return group + '\0' + item;
+	}
+}
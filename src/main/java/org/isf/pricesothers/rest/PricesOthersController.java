@@ -27,6 +27,7 @@ import org.isf.pricesothers.dto.PricesOthersDTO;
 import org.isf.pricesothers.manager.PricesOthersManager;
 import org.isf.pricesothers.mapper.PricesOthersMapper;
 import org.isf.pricesothers.model.PricesOthers;
+import org.isf.priceslist.service.PriceMatrix;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
@@ -59,9 +60,12 @@ public class PricesOthersController {
 
 	private final PricesOthersMapper mapper;
 
-	public PricesOthersController(PricesOthersManager pricesOthersManager, PricesOthersMapper pricesOthersmapper) {
+	private final PriceMatrix priceMatrix;
+
+	public PricesOthersController(PricesOthersManager pricesOthersManager, PricesOthersMapper pricesOthersmapper, PriceMatrix priceMatrix) {
 		this.pricesOthersManager = pricesOthersManager;
 		this.mapper = pricesOthersmapper;
+		this.priceMatrix = priceMatrix;
 	}
 
 	/**
@@ -75,7 +79,9 @@ public class PricesOthersController {
 	public PricesOthersDTO newPricesOthers(@RequestBody PricesOthersDTO pricesOthersDTO) throws OHServiceException {
 		LOGGER.info("Create prices others {}", pricesOthersDTO.getCode());
 		try {
-			return mapper.map2DTO(pricesOthersManager.newOther(mapper.map2Model(pricesOthersDTO)));
+			PricesOthersDTO created = mapper.map2DTO(pricesOthersManager.newOther(mapper.map2Model(pricesOthersDTO)));
+			priceMatrix.rebuildGroup(PriceMatrix.OTHERS_GROUP);
+			return created;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Prices Others not created."));
 		}
@@ -104,7 +110,9 @@ public class PricesOthersController {
 		}
 
 		try {
-			return mapper.map2DTO(pricesOthersManager.updateOther(pricesOthers));
+			PricesOthersDTO updated = mapper.map2DTO(pricesOthersManager.updateOther(pricesOthers));
+			priceMatrix.rebuildGroup(PriceMatrix.OTHERS_GROUP);
+			return updated;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Prices Others not updated."));
 		}
@@ -141,6 +149,7 @@ public class PricesOthersController {
 
 		try {
 			pricesOthersManager.deleteOther(pricesOthersFounds.get(0));
+			priceMatrix.rebuildGroup(PriceMatrix.OTHERS_GROUP);
 			return true;
 		} catch (OHServiceException serviceException) {
 			throw new OHAPIException(new OHExceptionMessage("Prices Others not deleted."));
@@ -28,6 +28,8 @@ import java.util.stream.Collectors;
 import org.isf.patient.dto.PatientDTO;
 import org.isf.patient.dto.PatientSTATUS;
 import org.isf.patient.model.Patient;
+import org.isf.shared.fields.FieldSelection;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.isf.shared.pagination.PageInfoDTO;
 import org.isf.utils.pagination.PageInfo;
 import org.modelmapper.ModelMapper;
@@ -45,9 +47,13 @@ public class GenericMapper<SourceType, DestType> implements Mapper<SourceType, D
 		this.destClass = destClass;
 	}
 
+	/**
+	 * Map the model to its DTO. During a GET request with a {@code fields} parameter only the requested
+	 * properties are mapped (see {@link FieldSelection}).
+	 */
 	@Override
 	public DestType map2DTO(SourceType fromObj) {
-		return modelMapper.map(fromObj, destClass);
+		return FieldsMappingCondition.apply(FieldSelection.current(), () -> modelMapper.map(fromObj, destClass));
 	}
 
 	@Override
@@ -55,9 +61,16 @@ public class GenericMapper<SourceType, DestType> implements Mapper<SourceType, D
 		return modelMapper.map(toObj, sourceClass);
 	}
 
+	/**
+	 * Map a list of models; {@link org.isf.shared.fields.HeavyProperty heavy} properties are left out
+	 * unless they are requested with the {@code fields} parameter.
+	 */
 	@Override
 	public List<DestType> map2DTOList(List<SourceType> list) {
-		return (List<DestType>) list.stream().map(it -> modelMapper.map(it, destClass)).collect(Collectors.toList());
+		FieldSelection selection = FieldSelection.currentForList();
+		return (List<DestType>) list.stream()
+			.map(it -> FieldsMappingCondition.apply(selection, () -> modelMapper.<DestType> map(it, destClass)))
+			.collect(Collectors.toList());
 	}
 
 	@Override
@@ -72,7 +85,7 @@ public class GenericMapper<SourceType, DestType> implements Mapper<SourceType, D
 
 	public PatientDTO map2DTOWS(Patient fromObj, Boolean status) {
 		
-		PatientDTO patientDTO = modelMapper.map(fromObj, destClass);
+		PatientDTO patientDTO = FieldsMappingCondition.apply(FieldSelection.current(), () -> modelMapper.<PatientDTO> map(fromObj, destClass));
 
 		if (status) {
 			patientDTO.setStatus(PatientSTATUS.I);
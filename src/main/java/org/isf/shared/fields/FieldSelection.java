@@ -0,0 +1,185 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.fields;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.util.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * The set of properties requested by a client with the {@code fields} query parameter of a GET request,
+ * e.g. {@code ?fields=code,firstName,ward.description}.
+ * <p>
+ * A property is selected when it is requested, when it leads to a requested nested property or when one
+ * of its ancestors is requested. Properties annotated with {@link HeavyProperty} are only selected when
+ * they are requested by their full path.
+ * <p>
+ * List payloads use {@link #currentForList()}: without a {@code fields} parameter every property but the
+ * heavy ones is selected.
+ */
+public final class FieldSelection {
+
+	public static final String PARAMETER = "fields";
+
+	private static final String REQUEST_ATTRIBUTE = FieldSelection.class.getName();
+
+	private static final FieldSelection NONE = new FieldSelection(Collections.emptySet(), false);
+
+	private static final FieldSelection ALL_BUT_HEAVY = new FieldSelection(Collections.emptySet(), true);
+
+	private final Set<String> paths;
+
+	private final boolean all;
+
+	private final Set<String> ancestors;
+
+	private FieldSelection(Set<String> paths, boolean all) {
+		this.paths = paths;
+		this.all = all;
+		this.ancestors = new HashSet<>();
+		for (String path : paths) {
+			int dot = path.indexOf('.');
+			while (dot > 0) {
+				ancestors.add(path.substring(0, dot));
+				dot = path.indexOf('.', dot + 1);
+			}
+		}
+	}
+
+	/**
+	 * Parse the value of the {@code fields} query parameter.
+	 *
+	 * @param fields comma separated list of property paths
+	 * @return the selection or {@code null} if no property was requested
+	 */
+	public static FieldSelection parse(String fields) {
+		if (!StringUtils.hasText(fields)) {
+			return null;
+		}
+		Set<String> paths = new HashSet<>();
+		for (String field : StringUtils.commaDelimitedListToStringArray(fields)) {
+			String path = field.trim();
+			if (!path.isEmpty()) {
+				paths.add(path);
+			}
+		}
+		return paths.isEmpty() ? null : new FieldSelection(paths, false);
+	}
+
+	/**
+	 * Return the selection of the given request, parsing it only once per request.
+	 *
+	 * @param request the current request
+	 * @return the selection or {@code null} if the request is not a GET or has no {@code fields} parameter
+	 */
+	public static FieldSelection of(HttpServletRequest request) {
+		if (!HttpMethod.GET.matches(request.getMethod())) {
+			return null;
+		}
+		FieldSelection selection = (FieldSelection) request.getAttribute(REQUEST_ATTRIBUTE);
+		if (selection == null) {
+			selection = parse(request.getParameter(PARAMETER));
+			request.setAttribute(REQUEST_ATTRIBUTE, selection == null ? NONE : selection);
+		}
+		return selection == NONE ? null : selection;
+	}
+
+	/**
+	 * Return the selection of the request bound to the current thread.
+	 *
+	 * @return the selection or {@code null} if there is none
+	 */
+	public static FieldSelection current() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (attributes instanceof ServletRequestAttributes servletAttributes) {
+			return of(servletAttributes.getRequest());
+		}
+		return null;
+	}
+
+	/**
+	 * Return the selection to use when mapping a list of DTOs: the one of the current request if any,
+	 * otherwise a selection of every property but the {@link HeavyProperty heavy} ones.
+	 *
+	 * @return the selection, never {@code null}
+	 */
+	public static FieldSelection currentForList() {
+		FieldSelection selection = current();
+		return selection == null ? ALL_BUT_HEAVY : selection;
+	}
+
+	/**
+	 * Move this selection under the given property, keeping the other properties listed as they are.
+	 * Used for wrappers like {@link org.isf.shared.pagination.Page} where the selection applies to the
+	 * elements of {@code data}.
+	 *
+	 * @param property the wrapping property
+	 * @param alwaysIncluded wrapper properties always serialized
+	 * @return the nested selection
+	 */
+	public FieldSelection nestedUnder(String property, String... alwaysIncluded) {
+		Set<String> nested = new HashSet<>();
+		for (String path : paths) {
+			nested.add(property + '.' + path);
+		}
+		Collections.addAll(nested, alwaysIncluded);
+		return new FieldSelection(nested, false);
+	}
+
+	/**
+	 * @param path dotted path of the property, relative to the root object
+	 * @param heavy whether the property is annotated with {@link HeavyProperty}
+	 * @return {@code true} if the property has to be mapped and serialized
+	 */
+	public boolean includes(String path, boolean heavy) {
+		if (all) {
+			return !heavy;
+		}
+		if (paths.contains(path) || ancestors.contains(path)) {
+			return true;
+		}
+		if (heavy) {
+			return false;
+		}
+		int dot = path.lastIndexOf('.');
+		while (dot > 0) {
+			if (paths.contains(path.substring(0, dot))) {
+				return true;
+			}
+			dot = path.lastIndexOf('.', dot - 1);
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return all ? "*" : String.join(",", paths);
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.fields;
+
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+
+/**
+ * Assigns the {@link FieldsPropertyFilter} to every Open Hospital class, so that DTOs do not need
+ * to be annotated with {@code @JsonFilter} one by one.
+ */
+public class FieldsAnnotationIntrospector extends NopAnnotationIntrospector {
+
+	public static final String FILTER_ID = "ohFieldsFilter";
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Object findFilterId(Annotated annotated) {
+		if (annotated instanceof AnnotatedClass annotatedClass && annotatedClass.getRawType().getName().startsWith("org.isf.")) {
+			return FILTER_ID;
+		}
+		return null;
+	}
+}
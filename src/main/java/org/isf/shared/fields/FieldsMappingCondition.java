@@ -0,0 +1,112 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.fields;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.modelmapper.Condition;
+import org.modelmapper.spi.Mapping;
+import org.modelmapper.spi.MappingContext;
+import org.modelmapper.spi.PropertyInfo;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * ModelMapper property condition skipping the destination properties that are not part of the
+ * {@link FieldSelection} active on the current thread, so that unwanted properties (and their converters,
+ * e.g. blob reads) are not evaluated at all.
+ * <p>
+ * Registered as the global property condition in {@link org.isf.shared.mapper.converter.ModelMapperConfig};
+ * it applies only while {@link #apply(FieldSelection, Supplier)} is running.
+ */
+public class FieldsMappingCondition implements Condition<Object, Object> {
+
+	private static final ThreadLocal<FieldSelection> ACTIVE = new ThreadLocal<>();
+
+	private static final Map<Member, Boolean> HEAVY_PROPERTIES = new ConcurrentHashMap<>();
+
+	/**
+	 * Run a mapping restricted to the given selection.
+	 *
+	 * @param selection the requested properties, {@code null} to map everything
+	 * @param mapping the mapping to run
+	 * @return the mapping result
+	 */
+	public static <T> T apply(FieldSelection selection, Supplier<T> mapping) {
+		if (selection == null) {
+			return mapping.get();
+		}
+		FieldSelection previous = ACTIVE.get();
+		ACTIVE.set(selection);
+		try {
+			return mapping.get();
+		} finally {
+			if (previous == null) {
+				ACTIVE.remove();
+			} else {
+				ACTIVE.set(previous);
+			}
+		}
+	}
+
+	@Override
+	public boolean applies(MappingContext<Object, Object> context) {
+		FieldSelection selection = ACTIVE.get();
+		if (selection == null || context.getMapping() == null) {
+			return true;
+		}
+		return selection.includes(destinationPath(context), isHeavy(context.getMapping().getLastDestinationProperty()));
+	}
+
+	private static String destinationPath(MappingContext<?, ?> context) {
+		Deque<String> segments = new ArrayDeque<>();
+		Mapping previous = null;
+		for (MappingContext<?, ?> current = context; current != null; current = current.getParent()) {
+			Mapping mapping = current.getMapping();
+			if (mapping != null && mapping != previous) {
+				List<? extends PropertyInfo> properties = mapping.getDestinationProperties();
+				for (int i = properties.size() - 1; i >= 0; i--) {
+					segments.push(properties.get(i).getName());
+				}
+				previous = mapping;
+			}
+		}
+		return String.join(".", segments);
+	}
+
+	private static boolean isHeavy(PropertyInfo property) {
+		Member member = property.getMember();
+		if (member == null) {
+			return false;
+		}
+		return HEAVY_PROPERTIES.computeIfAbsent(member, m -> {
+			Field field = ReflectionUtils.findField(m.getDeclaringClass(), property.getName());
+			return field != null && field.isAnnotationPresent(HeavyProperty.class);
+		});
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.fields;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+
+/**
+ * Jackson filter writing only the properties of a {@link FieldSelection}.
+ * The path of each property is taken from the generator output context, so nested objects and
+ * elements of collections are filtered as well.
+ */
+public class FieldsPropertyFilter extends SimpleBeanPropertyFilter {
+
+	private final FieldSelection selection;
+
+	public FieldsPropertyFilter(FieldSelection selection) {
+		this.selection = selection;
+	}
+
+	/**
+	 * @return the provider used when no {@code fields} parameter is given: every property is written
+	 */
+	public static FilterProvider defaultProvider() {
+		return new SimpleFilterProvider().setDefaultFilter(SimpleBeanPropertyFilter.serializeAll());
+	}
+
+	/**
+	 * @param selection the requested properties
+	 * @return the provider restricting the output to the selection
+	 */
+	public static FilterProvider provider(FieldSelection selection) {
+		return new SimpleFilterProvider()
+			.setDefaultFilter(SimpleBeanPropertyFilter.serializeAll())
+			.addFilter(FieldsAnnotationIntrospector.FILTER_ID, new FieldsPropertyFilter(selection));
+	}
+
+	@Override
+	public void serializeAsField(Object pojo, JsonGenerator jgen, SerializerProvider provider, PropertyWriter writer) throws Exception {
+		String path = pathOf(jgen.getOutputContext(), writer.getName());
+		if (selection.includes(path, writer.getAnnotation(HeavyProperty.class) != null)) {
+			writer.serializeAsField(pojo, jgen, provider);
+		} else if (!jgen.canOmitFields()) {
+			writer.serializeAsOmittedField(pojo, jgen, provider);
+		}
+	}
+
+	private static String pathOf(JsonStreamContext context, String name) {
+		Deque<String> segments = new ArrayDeque<>();
+		segments.push(name);
+		for (JsonStreamContext parent = context.getParent(); parent != null; parent = parent.getParent()) {
+			if (parent.inObject() && parent.getCurrentName() != null) {
+				segments.push(parent.getCurrentName());
+			}
+		}
+		return String.join(".", segments);
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.fields;
+
+import org.isf.shared.exceptions.OHAPIError;
+import org.isf.shared.pagination.Page;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJacksonValue;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.AbstractMappingJacksonResponseBodyAdvice;
+
+/**
+ * Restricts the JSON output of GET endpoints to the properties listed in the {@code fields} query parameter.
+ * For {@link Page} responses the selection applies to the elements of {@code data} and {@code pageInfo}
+ * is always written.
+ */
+@RestControllerAdvice
+public class FieldsResponseBodyAdvice extends AbstractMappingJacksonResponseBodyAdvice {
+
+	@Override
+	protected void beforeBodyWriteInternal(MappingJacksonValue bodyContainer, MediaType contentType, MethodParameter returnType,
+		ServerHttpRequest request, ServerHttpResponse response) {
+		if (!(request instanceof ServletServerHttpRequest servletRequest) || bodyContainer.getValue() instanceof OHAPIError) {
+			return;
+		}
+		FieldSelection selection = FieldSelection.of(servletRequest.getServletRequest());
+		if (selection == null) {
+			return;
+		}
+		if (bodyContainer.getValue() instanceof Page<?>) {
+			selection = selection.nestedUnder("data", "pageInfo");
+		}
+		bodyContainer.setFilters(FieldsPropertyFilter.provider(selection));
+	}
+}
@@ -21,6 +21,7 @@
  */
 package org.isf.shared.mapper.converter;
 
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.modelmapper.ModelMapper;
 import org.modelmapper.module.jsr310.Jsr310Module;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,6 +43,7 @@ public class ModelMapperConfig {
 		modelMapper.addConverter(blobToByteArrayConverter);
 		modelMapper.addConverter(byteArrayToBlobConverter);
 		modelMapper.registerModule(new Jsr310Module());
+		modelMapper.getConfiguration().setPropertyCondition(new FieldsMappingCondition());
 		return modelMapper;
 	}
 }
\ No newline at end of file
@@ -34,6 +34,27 @@ public class PageInfoDTO {
 	public PageInfoDTO() {
 	}
 
+	/**
+	 * Build the page information of a page of results paged by the API itself.
+	 *
+	 * @param page the page index, starting from 0
+	 * @param size the page size
+	 * @param nbOfElements the number of elements in the page
+	 * @param totalNbOfElements the number of elements in all the pages
+	 * @return the page information
+	 */
+	public static PageInfoDTO of(int page, int size, int nbOfElements, long totalNbOfElements) {
+		PageInfoDTO pageInfoDTO = new PageInfoDTO();
+		pageInfoDTO.setPage(page);
+		pageInfoDTO.setSize(size);
+		pageInfoDTO.setNbOfElements(nbOfElements);
+		pageInfoDTO.setTotalNbOfElements(totalNbOfElements);
+		pageInfoDTO.setTotalPages(size > 0 ? (totalNbOfElements + size - 1) / size : 0);
+		pageInfoDTO.setHasPreviousPage(page > 0);
+		pageInfoDTO.setHasNextPage((long) (page + 1) * size < totalNbOfElements);
+		return pageInfoDTO;
+	}
+
 	public int getSize() {
 		return size;
 	}
@@ -0,0 +1,248 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.progressive;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.utils.exception.OHServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Allocator of the progressive numbers restarting every year (OPD and vaccination progressives, admission
+ * progressives of a ward), safe across several API instances.
+ * <p>
+ * Numbers are handed out when a record is saved, with {@link #next}; {@link #peek} only tells the number the next
+ * record should get. They are reserved in blocks of {@code progressive.block.size} from a counter row per sequence,
+ * scope and year, with a single atomic {@code UPDATE}: every instance gets disjoint blocks and hands their numbers out
+ * from memory. The highest number already stored is only read to reserve a block: the counter row is created
+ * starting after it and every block starts after it, so that the numbers already taken by clients still computing
+ * {@code MAX + 1} are skipped. Numbers of a block not handed out before a restart are lost: progressives may have
+ * gaps.
+ * <p>
+ * The counter table is part of the schema ({@code sql/oh_api_progressives.sql}); the allocator is disabled, and
+ * callers keep the numbers sent by the clients, while the table is missing. The table is looked for again every
+ * few minutes, so that it can be created without a restart.
+ */
+@Component
+public class ProgressiveAllocator {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ProgressiveAllocator.class);
+
+	/** Delay before looking again for a missing table. */
+	private static final Duration TABLE_CHECK_INTERVAL = Duration.ofMinutes(5);
+
+	private static final String CHECK_TABLE_SQL = "SELECT COUNT(*) FROM OH_API_PROGRESSIVES WHERE PRG_YEAR < 0";
+
+	private static final String RESERVE_SQL = "UPDATE OH_API_PROGRESSIVES SET PRG_NEXT = LAST_INSERT_ID(GREATEST(PRG_NEXT, :floor) + :block)"
+		+ " WHERE PRG_SEQUENCE = :sequence AND PRG_SCOPE = :scope AND PRG_YEAR = :year";
+
+	private static final String SEED_SQL = "INSERT IGNORE INTO OH_API_PROGRESSIVES (PRG_SEQUENCE, PRG_SCOPE, PRG_YEAR, PRG_NEXT)"
+		+ " VALUES (:sequence, :scope, :year, :floor)";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final boolean enabled;
+
+	private final int blockSize;
+
+	private final Map<Key, Block> blocks = new ConcurrentHashMap<>();
+
+	private volatile boolean tableExists;
+
+	private volatile Instant tableChecked;
+
+	private volatile int currentYear;
+
+	private Clock clock = Clock.systemDefaultZone();
+
+	public ProgressiveAllocator(
+		PlatformTransactionManager transactionManager,
+		@Value("${progressive.allocator.enabled:true}") boolean enabled,
+		@Value("${progressive.block.size:20}") int blockSize
+	) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		this.enabled = enabled;
+		this.blockSize = Math.max(1, blockSize);
+	}
+
+	/**
+	 * The numbered sequences.
+	 */
+	public enum Sequence {
+		OPD,
+		VACCINE,
+		ADMISSION
+	}
+
+	/**
+	 * The highest number already stored for a sequence and year, read from the domain table.
+	 */
+	@FunctionalInterface
+	public interface Floor {
+
+		int get() throws OHServiceException;
+	}
+
+	private record Key(Sequence sequence, String scope, int year) {
+	}
+
+	/**
+	 * A reserved block of numbers, from {@code next} to {@code end} excluded.
+	 */
+	private static final class Block {
+
+		private long next;
+
+		private long end;
+	}
+
+	/**
+	 * Tell the number the next record of a sequence in the current year should get, without handing it out.
+	 *
+	 * @param sequence the sequence
+	 * @param scope the scope of the sequence (e.g. the ward of the admissions), {@code ""} if none
+	 * @param highest the highest number already stored in the current year, read only if no block is in progress
+	 * @return the number
+	 * @throws OHServiceException When failed to read the highest stored number
+	 */
+	public int peek(Sequence sequence, String scope, Floor highest) throws OHServiceException {
+		Block block = enabled ? blocks.get(new Key(sequence, scope, LocalDate.now(clock).getYear())) : null;
+		if (block != null) {
+			synchronized (block) {
+				if (block.next < block.end) {
+					return (int) block.next;
+				}
+			}
+		}
+		return highest.get() + 1;
+	}
+
+	/**
+	 * Hand out the next number of a sequence in the current year, for a record being saved.
+	 *
+	 * @param sequence the sequence
+	 * @param scope the scope of the sequence (e.g. the ward of the admissions), {@code ""} if none
+	 * @param highest the highest number already stored in the current year, read only to reserve a block
+	 * @return the number, {@code null} if the allocator is disabled or unavailable
+	 * @throws OHServiceException When failed to read the highest stored number
+	 */
+	public Integer next(Sequence sequence, String scope, Floor highest) throws OHServiceException {
+		if (!enabled || !tableExists()) {
+			return null;
+		}
+		int year = LocalDate.now(clock).getYear();
+		if (year != currentYear) {
+			// year rollover: the blocks of the previous year are not needed anymore
+			currentYear = year;
+			blocks.keySet().removeIf(key -> key.year() != year);
+		}
+		Block block = blocks.computeIfAbsent(new Key(sequence, scope, year), key -> new Block());
+		synchronized (block) {
+			if (block.next >= block.end) {
+				// skip the numbers stored meanwhile by clients computing MAX + 1
+				long floor = highest.get() + 1L;
+				long end;
+				try {
+					end = reserve(sequence, scope, year, floor);
+				} catch (RuntimeException exception) {
+					LOGGER.error("Unable to reserve {} progressive numbers for {} {} {}.", blockSize, sequence, scope, year, exception);
+					return null;
+				}
+				block.next = Math.max(end - blockSize, floor);
+				block.end = end;
+			}
+			return (int) block.next++;
+		}
+	}
+
+	/**
+	 * Reserve a block with one atomic update of the counter row, creating the row the first time.
+	 *
+	 * @return the end of the reserved block, excluded
+	 */
+	private long reserve(Sequence sequence, String scope, int year, long floor) {
+		Long end = transactionTemplate.execute(status -> {
+			if (update(sequence, scope, year, floor) == 0) {
+				entityManager.createNativeQuery(SEED_SQL)
+					.setParameter("sequence", sequence.name())
+					.setParameter("scope", scope)
+					.setParameter("year", year)
+					.setParameter("floor", floor)
+					.executeUpdate();
+				update(sequence, scope, year, floor);
+			}
+			return ((Number) entityManager.createNativeQuery("SELECT LAST_INSERT_ID()").getSingleResult()).longValue();
+		});
+		return end;
+	}
+
+	private int update(Sequence sequence, String scope, int year, long floor) {
+		return entityManager.createNativeQuery(RESERVE_SQL)
+			.setParameter("floor", floor)
+			.setParameter("block", blockSize)
+			.setParameter("sequence", sequence.name())
+			.setParameter("scope", scope)
+			.setParameter("year", year)
+			.executeUpdate();
+	}
+
+	/**
+	 * Check that the counter table exists, again every {@link #TABLE_CHECK_INTERVAL} while it is missing.
+	 */
+	private boolean tableExists() {
+		Instant checked = tableChecked;
+		if (tableExists || checked != null && checked.plus(TABLE_CHECK_INTERVAL).isAfter(Instant.now(clock))) {
+			return tableExists;
+		}
+		synchronized (this) {
+			if (tableChecked == checked) {
+				try {
+					transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(CHECK_TABLE_SQL).getSingleResult());
+					tableExists = true;
+				} catch (RuntimeException exception) {
+					LOGGER.warn("Table OH_API_PROGRESSIVES not found (see sql/oh_api_progressives.sql), progressives are not allocated: {}",
+						exception.getMessage());
+				}
+				tableChecked = Instant.now(clock);
+			}
+		}
+		return tableExists;
+	}
+}
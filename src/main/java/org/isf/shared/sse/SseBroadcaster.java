@@ -0,0 +1,172 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.sse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-sent events stream shared by any number of subscribers.
+ * <p>
+ * Events are sent by a single background thread, in the order they are published, so that publishing never
+ * waits for a slow client. Subscribers are dropped when their connection fails or times out; clients are
+ * expected to reconnect, as {@code EventSource} does. A subscriber may restrict the published events it receives
+ * with a filter.
+ */
+public class SseBroadcaster {
+
+	/**
+	 * An event of the stream.
+	 *
+	 * @param id the event id, sent back by reconnecting clients in the {@code Last-Event-ID} header; may be {@code null}
+	 * @param name the event name
+	 * @param data the event payload, serialized as JSON
+	 */
+	public record Event(String id, String name, Object data) {
+	}
+
+	private record Subscriber(SseEmitter emitter, Predicate<Event> filter) {
+	}
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SseBroadcaster.class);
+
+	private final String name;
+
+	private final long timeout;
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+	private final ExecutorService sender;
+
+	/**
+	 * @param name the name of the stream, used for the sender thread and the logs
+	 * @param timeout the time after which a subscription is closed, in milliseconds
+	 */
+	public SseBroadcaster(String name, long timeout) {
+		this.name = name;
+		this.timeout = timeout;
+		this.sender = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, name + "-sse");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Register a new subscriber.
+	 *
+	 * @param initialEvents events sent to the new subscriber only, before any later published event
+	 * @return the emitter to return from the controller
+	 */
+	public SseEmitter subscribe(List<Event> initialEvents) {
+		return subscribe(initialEvents, event -> true);
+	}
+
+	/**
+	 * Register a new subscriber receiving only the published events accepted by the given filter.
+	 *
+	 * @param initialEvents events sent to the new subscriber only, before any later published event
+	 * @param filter the published events to send to the subscriber
+	 * @return the emitter to return from the controller
+	 */
+	public SseEmitter subscribe(List<Event> initialEvents, Predicate<Event> filter) {
+		SseEmitter emitter = new SseEmitter(timeout);
+		Subscriber subscriber = new Subscriber(emitter, filter);
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(error -> subscribers.remove(subscriber));
+		try {
+			sender.execute(() -> {
+				for (Event event : initialEvents) {
+					if (!send(subscriber, event)) {
+						return;
+					}
+				}
+				subscribers.add(subscriber);
+			});
+		} catch (RejectedExecutionException exception) {
+			emitter.complete();
+		}
+		return emitter;
+	}
+
+	/**
+	 * Send an event to every subscriber.
+	 * <p>
+	 * The event is always queued, even without subscriber: a subscription whose initial events are still queued is
+	 * registered by then, so it receives every event published after {@link #subscribe(List, Predicate)} returned.
+	 *
+	 * @param event the event
+	 */
+	public void publish(Event event) {
+		try {
+			sender.execute(() -> subscribers.stream()
+				.filter(subscriber -> subscriber.filter().test(event))
+				.forEach(subscriber -> send(subscriber, event)));
+		} catch (RejectedExecutionException exception) {
+			LOGGER.debug("Event not sent, {} stream is closed.", name);
+		}
+	}
+
+	/**
+	 * @return the number of subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	/**
+	 * Close every subscription and stop the sender thread.
+	 */
+	public void shutdown() {
+		sender.shutdownNow();
+		subscribers.forEach(subscriber -> subscriber.emitter().complete());
+		subscribers.clear();
+	}
+
+	private boolean send(Subscriber subscriber, Event event) {
+		SseEmitter emitter = subscriber.emitter();
+		try {
+			SseEmitter.SseEventBuilder builder = SseEmitter.event().name(event.name()).data(event.data(), MediaType.APPLICATION_JSON);
+			if (event.id() != null) {
+				builder.id(event.id());
+			}
+			emitter.send(builder);
+			return true;
+		} catch (IOException | IllegalStateException exception) {
+			LOGGER.debug("Subscriber of {} stream disconnected: {}", name, exception.getMessage());
+			subscribers.remove(subscriber);
+			emitter.completeWithError(exception);
+			return false;
+		}
+	}
+}
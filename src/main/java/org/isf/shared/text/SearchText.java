@@ -0,0 +1,110 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.text;
+
+import java.text.Normalizer;
+
+/**
+ * Text normalization shared by the in-memory search structures: lower case, no diacritics,
+ * and every run of non alphanumeric characters collapsed to a single space.
+ */
+public final class SearchText {
+
+	private static final String[] NO_TOKENS = new String[0];
+
+	/** Soundex digit of each letter from 'a' to 'z', '0' for the ignored ones. */
+	private static final String SOUNDEX_DIGITS = "01230120022455012623010202";
+
+	private SearchText() {
+	}
+
+	/**
+	 * @param text any text, possibly {@code null}
+	 * @return the normalized text, never {@code null}
+	 */
+	public static String normalize(String text) {
+		if (text == null || text.isEmpty()) {
+			return "";
+		}
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+		StringBuilder normalized = new StringBuilder(decomposed.length());
+		boolean pendingSpace = false;
+		for (int i = 0; i < decomposed.length(); i++) {
+			char c = decomposed.charAt(i);
+			if (Character.getType(c) == Character.NON_SPACING_MARK) {
+				continue;
+			}
+			if (Character.isLetterOrDigit(c)) {
+				if (pendingSpace && normalized.length() > 0) {
+					normalized.append(' ');
+				}
+				pendingSpace = false;
+				normalized.append(Character.toLowerCase(c));
+			} else {
+				pendingSpace = true;
+			}
+		}
+		return normalized.toString();
+	}
+
+	/**
+	 * American Soundex code of a text, ignoring spaces and digits.
+	 *
+	 * @param normalized a text returned by {@link #normalize(String)}
+	 * @return the four characters code, or an empty string if the text has no latin letter
+	 */
+	public static String soundex(String normalized) {
+		StringBuilder code = new StringBuilder(4);
+		char previous = 0;
+		for (int i = 0; i < normalized.length() && code.length() < 4; i++) {
+			char c = normalized.charAt(i);
+			if (c < 'a' || c > 'z') {
+				continue;
+			}
+			char digit = SOUNDEX_DIGITS.charAt(c - 'a');
+			if (code.length() == 0) {
+				code.append(Character.toUpperCase(c));
+			} else if (digit != '0' && digit != previous) {
+				code.append(digit);
+			}
+			// 'h' and 'w' do not separate letters with the same code, vowels do
+			if (c != 'h' && c != 'w') {
+				previous = digit;
+			}
+		}
+		if (code.length() == 0) {
+			return "";
+		}
+		while (code.length() < 4) {
+			code.append('0');
+		}
+		return code.toString();
+	}
+
+	/**
+	 * @param normalized a text returned by {@link #normalize(String)}
+	 * @return its words
+	 */
+	public static String[] tokens(String normalized) {
+		return normalized.isEmpty() ? NO_TOKENS : normalized.split(" ");
+	}
+}
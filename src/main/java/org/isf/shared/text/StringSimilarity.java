@@ -0,0 +1,90 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.text;
+
+/**
+ * String similarity measures.
+ */
+public final class StringSimilarity {
+
+	private static final double WINKLER_SCALING = 0.1;
+
+	private static final int WINKLER_MAX_PREFIX = 4;
+
+	private StringSimilarity() {
+	}
+
+	/**
+	 * Jaro-Winkler similarity, suited to short strings like person names.
+	 *
+	 * @param first a string
+	 * @param second another string
+	 * @return the similarity, from 0 (nothing in common) to 1 (equal)
+	 */
+	public static double jaroWinkler(String first, String second) {
+		if (first.equals(second)) {
+			return 1d;
+		}
+		if (first.isEmpty() || second.isEmpty()) {
+			return 0d;
+		}
+		int window = Math.max(0, Math.max(first.length(), second.length()) / 2 - 1);
+		boolean[] firstMatched = new boolean[first.length()];
+		boolean[] secondMatched = new boolean[second.length()];
+		int matches = 0;
+		for (int i = 0; i < first.length(); i++) {
+			int from = Math.max(0, i - window);
+			int to = Math.min(second.length(), i + window + 1);
+			for (int j = from; j < to; j++) {
+				if (!secondMatched[j] && first.charAt(i) == second.charAt(j)) {
+					firstMatched[i] = true;
+					secondMatched[j] = true;
+					matches++;
+					break;
+				}
+			}
+		}
+		if (matches == 0) {
+			return 0d;
+		}
+		int transpositions = 0;
+		for (int i = 0, j = 0; i < first.length(); i++) {
+			if (firstMatched[i]) {
+				while (!secondMatched[j]) {
+					j++;
+				}
+				if (first.charAt(i) != second.charAt(j)) {
+					transpositions++;
+				}
+				j++;
+			}
+		}
+		double m = matches;
+		double jaro = (m / first.length() + m / second.length() + (m - transpositions / 2d) / m) / 3d;
+		int prefix = 0;
+		int maxPrefix = Math.min(WINKLER_MAX_PREFIX, Math.min(first.length(), second.length()));
+		while (prefix < maxPrefix && first.charAt(prefix) == second.charAt(prefix)) {
+			prefix++;
+		}
+		return jaro + prefix * WINKLER_SCALING * (1d - jaro);
+	}
+}
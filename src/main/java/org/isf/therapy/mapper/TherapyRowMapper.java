@@ -29,6 +29,8 @@ import org.isf.patient.dto.PatientDTO;
 import org.isf.patient.mapper.PatientMapper;
 import org.isf.patient.model.Patient;
 import org.isf.shared.GenericMapper;
+import org.isf.shared.fields.FieldSelection;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.isf.therapy.dto.TherapyRowDTO;
 import org.isf.therapy.model.TherapyRow;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -70,7 +72,8 @@ public class TherapyRowMapper extends GenericMapper<TherapyRow, TherapyRowDTO> {
 
 	@Override
 	public List<TherapyRowDTO> map2DTOList(List<TherapyRow> list) {
-		return list.stream().map(it -> map2DTO(it)).collect(Collectors.toList());
+		return FieldsMappingCondition.apply(FieldSelection.currentForList(),
+			() -> list.stream().map(it -> map2DTO(it)).collect(Collectors.toList()));
 	}
 
 	@Override
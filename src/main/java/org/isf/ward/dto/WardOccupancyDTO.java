@@ -0,0 +1,70 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.ward.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Current bed occupancy of a ward")
+public class WardOccupancyDTO {
+
+	@Schema(description = "The ward code", example = "M")
+	private String code;
+
+	@Schema(description = "The number of beds of the ward", example = "20")
+	private Integer beds;
+
+	@Schema(description = "The number of patients currently admitted in the ward", example = "12")
+	private int occupied;
+
+	public WardOccupancyDTO() {
+	}
+
+	public WardOccupancyDTO(String code, Integer beds, int occupied) {
+		this.code = code;
+		this.beds = beds;
+		this.occupied = occupied;
+	}
+
+	public String getCode() {
+		return code;
+	}
+
+	public void setCode(String code) {
+		this.code = code;
+	}
+
+	public Integer getBeds() {
+		return beds;
+	}
+
+	public void setBeds(Integer beds) {
+		this.beds = beds;
+	}
+
+	public int getOccupied() {
+		return occupied;
+	}
+
+	public void setOccupied(int occupied) {
+		this.occupied = occupied;
+	}
+}
@@ -27,9 +27,11 @@ import org.isf.shared.exceptions.OHAPIException;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.ward.dto.WardDTO;
+import org.isf.ward.dto.WardOccupancyDTO;
 import org.isf.ward.manager.WardBrowserManager;
 import org.isf.ward.mapper.WardMapper;
 import org.isf.ward.model.Ward;
+import org.isf.ward.service.WardOccupancyTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -43,6 +45,7 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -59,9 +62,12 @@ public class WardController {
 
     private final WardMapper mapper;
 
-    public WardController(WardBrowserManager wardManager, WardMapper wardMapper) {
+    private final WardOccupancyTracker wardOccupancyTracker;
+
+    public WardController(WardBrowserManager wardManager, WardMapper wardMapper, WardOccupancyTracker wardOccupancyTracker) {
         this.wardManager = wardManager;
         this.mapper =  wardMapper;
+        this.wardOccupancyTracker = wardOccupancyTracker;
     }
 
     /**
@@ -100,11 +106,44 @@ public class WardController {
     @GetMapping(value = "/wards/occupation/{code}")
     public Integer getCurrentOccupation(@PathVariable String code) throws OHServiceException {
         LOGGER.info("Get current occupation ward code: {}", code);
+        Integer occupation = wardOccupancyTracker.isReady() ? wardOccupancyTracker.getOccupation(code) : null;
+        if (occupation != null) {
+            return occupation;
+        }
         Ward ward = wardManager.findWard(code);
 
         return wardManager.getCurrentOccupation(ward);
     }
 
+    /**
+     * Get the current occupancy of every {@link Ward}.
+     *
+     * @return the number of beds and of admitted patients of every ward
+     * @throws OHServiceException When the occupancy counters are not seeded yet
+     */
+    @GetMapping(value = "/wards/occupation")
+    public List<WardOccupancyDTO> getOccupancies() throws OHServiceException {
+        LOGGER.info("Get current occupation of the wards");
+        if (!wardOccupancyTracker.isReady()) {
+            throw new OHAPIException(new OHExceptionMessage("Ward occupancy is not available yet."), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        return wardOccupancyTracker.getOccupancies();
+    }
+
+    /**
+     * Stream the occupancy changes of the {@link Ward}s as server-sent {@code occupancy} events.
+     * The current occupancy of every ward is sent first, once the counters are seeded.
+     *
+     * @return the event stream
+     */
+    @GetMapping(value = "/wards/occupation/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamOccupancies() {
+        LOGGER.info("Subscribe to the occupation of the wards");
+
+        return wardOccupancyTracker.subscribe();
+    }
+
     /**
      * Create a new {@link Ward}.
      *
@@ -0,0 +1,243 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.ward.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import org.isf.admission.model.Admission;
+import org.isf.shared.sse.SseBroadcaster;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.ward.dto.WardOccupancyDTO;
+import org.isf.ward.manager.WardBrowserManager;
+import org.isf.ward.model.Ward;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * In-memory count of the patients currently admitted in every ward.
+ * <p>
+ * The counters are seeded at startup with a single grouped query, updated by
+ * {@link org.isf.admission.rest.AdmissionController} when a patient is admitted, discharged, moved or when an
+ * admission is deleted, and periodically reconciled with the database to fix the drift caused by other
+ * clients. The moves reported while the database is recounted are replayed on the recount, so that they are not
+ * overwritten by a count read before them. Every change is pushed to the subscribers of the occupancy stream.
+ */
+@Component
+public class WardOccupancyTracker {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(WardOccupancyTracker.class);
+
+	private static final String EVENT_NAME = "occupancy";
+
+	private static final String COUNT_ADMITTED_JPQL = "SELECT a.ward.code, COUNT(a) FROM Admission a"
+		+ " WHERE a.admitted = 1 AND a.deleted = 'N' GROUP BY a.ward.code";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final WardBrowserManager wardManager;
+
+	private final boolean enabled;
+
+	private final SseBroadcaster broadcaster;
+
+	private final Map<String, AtomicInteger> occupied = new ConcurrentHashMap<>();
+
+	private volatile Map<String, Integer> beds = Map.of();
+
+	private volatile boolean ready;
+
+	/** The moves reported during the recount in progress by ward, {@code null} if none; guarded by {@code this}. */
+	private Map<String, Integer> recountMoves;
+
+	public WardOccupancyTracker(
+		WardBrowserManager wardManager,
+		@Value("${ward.occupancy.enabled:true}") boolean enabled,
+		@Value("${ward.occupancy.sse.timeout:1800000}") long sseTimeout
+	) {
+		this.wardManager = wardManager;
+		this.enabled = enabled;
+		this.broadcaster = new SseBroadcaster("ward-occupancy", sseTimeout);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void seedOnStartup() {
+		if (!enabled) {
+			LOGGER.info("Ward occupancy tracking disabled.");
+			return;
+		}
+		reconcile();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		broadcaster.shutdown();
+	}
+
+	/**
+	 * Recount the admitted patients of every ward and publish the counters that changed.
+	 */
+	@Scheduled(fixedDelayString = "${ward.occupancy.reconcile.interval:PT5M}", initialDelayString = "${ward.occupancy.reconcile.interval:PT5M}")
+	public void reconcile() {
+		if (!enabled) {
+			return;
+		}
+		try {
+			Map<String, Integer> wardBeds = new HashMap<>();
+			for (Ward ward : wardManager.getWards()) {
+				wardBeds.put(ward.getCode(), ward.getBeds());
+			}
+			synchronized (this) {
+				recountMoves = new HashMap<>();
+			}
+			Map<String, Integer> counts = new HashMap<>();
+			for (Object[] row : entityManager.createQuery(COUNT_ADMITTED_JPQL, Object[].class).getResultList()) {
+				counts.put((String) row[0], ((Number) row[1]).intValue());
+			}
+
+			int drifted = 0;
+			synchronized (this) {
+				beds = wardBeds;
+				for (String code : wardBeds.keySet()) {
+					int count = Math.max(0, counts.getOrDefault(code, 0) + recountMoves.getOrDefault(code, 0));
+					int previous = occupied.computeIfAbsent(code, c -> new AtomicInteger()).getAndSet(count);
+					if (previous != count) {
+						drifted++;
+						publish(code, count);
+					}
+				}
+				occupied.keySet().retainAll(wardBeds.keySet());
+			}
+			if (ready && drifted > 0) {
+				LOGGER.info("Ward occupancy reconciled: {} wards corrected.", drifted);
+			}
+			ready = true;
+		} catch (OHServiceException | RuntimeException exception) {
+			LOGGER.error("Unable to count the patients admitted in the wards.", exception);
+		} finally {
+			synchronized (this) {
+				recountMoves = null;
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} once the counters have been seeded
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @param code the ward code
+	 * @return the number of patients admitted in the ward, {@code null} if the ward is unknown
+	 */
+	public Integer getOccupation(String code) {
+		AtomicInteger count = occupied.get(code);
+		return count == null ? null : count.get();
+	}
+
+	/**
+	 * @return the occupancy of every ward
+	 */
+	public List<WardOccupancyDTO> getOccupancies() {
+		List<WardOccupancyDTO> occupancies = new ArrayList<>(occupied.size());
+		occupied.forEach((code, count) -> occupancies.add(new WardOccupancyDTO(code, beds.get(code), count.get())));
+		occupancies.sort((first, second) -> first.getCode().compareTo(second.getCode()));
+		return occupancies;
+	}
+
+	/**
+	 * Subscribe to the occupancy changes. The occupancy of every ward is sent first.
+	 *
+	 * @return the emitter of the stream
+	 */
+	public SseEmitter subscribe() {
+		List<SseBroadcaster.Event> snapshot = getOccupancies().stream()
+			.map(occupancy -> new SseBroadcaster.Event(null, EVENT_NAME, occupancy))
+			.toList();
+		return broadcaster.subscribe(snapshot);
+	}
+
+	/**
+	 * Account for a patient leaving a ward and/or entering another one.
+	 *
+	 * @param fromWard the ward the patient was admitted in, {@code null} if none
+	 * @param toWard the ward the patient is now admitted in, {@code null} if none
+	 */
+	public void moved(String fromWard, String toWard) {
+		if (!ready || (fromWard == null ? toWard == null : fromWard.equals(toWard))) {
+			return;
+		}
+		synchronized (this) {
+			if (fromWard != null) {
+				add(fromWard, -1);
+			}
+			if (toWard != null) {
+				add(toWard, 1);
+			}
+		}
+	}
+
+	/**
+	 * @param admission an admission, possibly {@code null}
+	 * @return the ward code of the admission if the patient is currently admitted, {@code null} otherwise
+	 */
+	public static String occupiedWard(Admission admission) {
+		if (admission == null || admission.getAdmitted() != 1 || "Y".equals(admission.getDeleted()) || admission.getWard() == null) {
+			return null;
+		}
+		return admission.getWard().getCode();
+	}
+
+	private void add(String code, int delta) {
+		if (recountMoves != null) {
+			recountMoves.merge(code, delta, Integer::sum);
+		}
+		AtomicInteger count = occupied.get(code);
+		if (count == null) {
+			// ward created after the last reconcile, counted by the next one
+			return;
+		}
+		int updated = count.updateAndGet(value -> Math.max(0, value + delta));
+		publish(code, updated);
+	}
+
+	private void publish(String code, int count) {
+		broadcaster.publish(new SseBroadcaster.Event(null, EVENT_NAME, new WardOccupancyDTO(code, beds.get(code), count)));
+	}
+}
@@ -55,7 +55,11 @@ import org.isf.accounting.data.FullBillDTOHelper;
 import org.isf.accounting.dto.BillDTO;
 import org.isf.accounting.dto.BillItemsDTO;
 import org.isf.accounting.dto.BillPaymentsDTO;
+import org.isf.accounting.dto.CashDeskRowDTO;
+import org.isf.accounting.dto.CashDeskSummaryDTO;
+import org.isf.accounting.dto.BillBalanceDTO;
 import org.isf.accounting.dto.FullBillDTO;
+import org.isf.accounting.dto.PendingBillsSummaryDTO;
 import org.isf.accounting.manager.BillBrowserManager;
 import org.isf.accounting.mapper.BillItemsMapper;
 import org.isf.accounting.mapper.BillMapper;
@@ -63,12 +67,16 @@ import org.isf.accounting.mapper.BillPaymentsMapper;
 import org.isf.accounting.model.Bill;
 import org.isf.accounting.model.BillItems;
 import org.isf.accounting.model.BillPayments;
+import org.isf.accounting.service.BillBalanceLedger;
+import org.isf.accounting.service.BillItemIndex;
+import org.isf.accounting.service.CashDeskAggregator;
 import org.isf.patient.TestPatient;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.mapper.PatientMapper;
 import org.isf.patient.model.Patient;
 import org.isf.priceslist.manager.PriceListManager;
 import org.isf.priceslist.model.PriceList;
+import org.isf.priceslist.service.PriceMatrix;
 import org.isf.shared.Constants;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
@@ -109,6 +117,18 @@ class BillControllerTest extends ControllerBaseTest {
 	@Mock
 	private PatientBrowserManager patientManagerMock;
 
+	@Mock
+	private PriceMatrix priceMatrixMock;
+
+	@Mock
+	private BillBalanceLedger billBalanceLedgerMock;
+
+	@Mock
+	private CashDeskAggregator cashDeskAggregatorMock;
+
+	@Mock
+	private BillItemIndex billItemIndexMock;
+
 	private final BillMapper billMapper = new BillMapper();
 
 	private final BillItemsMapper billItemsMapper = new BillItemsMapper();
@@ -125,7 +145,8 @@ class BillControllerTest extends ControllerBaseTest {
 	void setup() {
 		closeable = MockitoAnnotations.openMocks(this);
 		this.mockMvc = MockMvcBuilders
-			.standaloneSetup(new BillController(billManagerMock, priceListManagerMock, patientManagerMock, billMapper, billItemsMapper, billPaymentsMapper))
+			.standaloneSetup(new BillController(billManagerMock, priceListManagerMock, patientManagerMock, billMapper, billItemsMapper, billPaymentsMapper, priceMatrixMock,
+				billBalanceLedgerMock, cashDeskAggregatorMock, billItemIndexMock))
 			.setControllerAdvice(new OHResponseEntityExceptionHandler())
 			.build();
 
@@ -460,6 +481,99 @@ class BillControllerTest extends ControllerBaseTest {
 			.andReturn();
 	}
 
+	@Test
+	void when_get_pendingBills_summary_with_patient_code_then_response_totals_and_OK() throws Exception {
+		int code = 123;
+		String request = "/bills/pending/summary?patient_code={code}";
+
+		PendingBillsSummaryDTO summary = new PendingBillsSummaryDTO(code, List.of(
+			new BillBalanceDTO(2, code, "Patient", LocalDateTime.now(), "Basic", 100.0, 40.0),
+			new BillBalanceDTO(1, code, "Patient", LocalDateTime.now().minusDays(1), "Basic", 50.0, 50.0)));
+
+		when(billBalanceLedgerMock.summary(code)).thenReturn(summary);
+
+		this.mockMvc
+			.perform(
+				get(request, code)
+					.contentType(MediaType.APPLICATION_JSON)
+			)
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().string(containsString("\"bills\":2")))
+			.andExpect(content().string(containsString("\"amount\":150.0")))
+			.andExpect(content().string(containsString("\"balance\":60.0")))
+			.andReturn();
+	}
+
+	@Test
+	void when_get_payments_summary_with_valid_dates_then_response_totals_and_OK() throws Exception {
+		String request = "/bills/payments/summary?datefrom={dateFrom}&dateto={dateTo}";
+		LocalDateTime from = LocalDateTime.of(2024, 3, 1, 0, 0);
+		LocalDateTime to = LocalDateTime.of(2024, 3, 31, 23, 59, 59);
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern(Constants.DATE_FORMAT_YYYY_MM_DD_T_HH_MM_SS_SSS_Z);
+
+		CashDeskSummaryDTO summary = new CashDeskSummaryDTO(from, to, List.of(
+			new CashDeskRowDTO(from.toLocalDate(), "admin", "Basic", 3, 75.0),
+			new CashDeskRowDTO(from.toLocalDate().plusDays(1), "cashier", "Basic", 1, 25.0)));
+
+		when(cashDeskAggregatorMock.aggregate(from, to)).thenReturn(summary);
+
+		this.mockMvc
+			.perform(
+				get(request, from.format(formatter), to.format(formatter))
+					.contentType(MediaType.APPLICATION_JSON)
+			)
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().string(containsString("\"payments\":4")))
+			.andExpect(content().string(containsString("\"amount\":100.0")))
+			.andExpect(content().string(containsString("\"user\":\"cashier\"")))
+			.andReturn();
+	}
+
+	@Test
+	void when_get_searchBillsByItems_with_indexed_items_then_response_List_of_BillDTO_and_OK() throws Exception {
+		String request = "/bills/search/by/items?datefrom={dateFrom}&dateto={dateTo}&item={first}&item={second}";
+		LocalDateTime from = LocalDateTime.of(2024, 3, 1, 0, 0);
+		LocalDateTime to = LocalDateTime.of(2024, 3, 31, 23, 59, 59);
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern(Constants.DATE_FORMAT_YYYY_MM_DD_T_HH_MM_SS_SSS_Z);
+
+		List<Bill> billList = BillHelper.genList(2);
+		BillDTO expectedBillDTO1 = billMapper.map2DTO(billList.get(0));
+		List<Integer> ids = List.of(1, 2);
+
+		when(billItemIndexMock.isReady()).thenReturn(true);
+		when(billItemIndexMock.findBillIds(from, to, List.of("X-Ray", "Visit"))).thenReturn(ids);
+		when(billItemIndexMock.loadBills(ids)).thenReturn(billList);
+
+		this.mockMvc
+			.perform(
+				get(request, from.format(formatter), to.format(formatter), "X-Ray", "Visit")
+					.contentType(MediaType.APPLICATION_JSON)
+			)
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().string(containsString(BillDTOHelper.asJsonString(expectedBillDTO1))))
+			.andReturn();
+	}
+
+	@Test
+	void when_get_searchBillsByItems_before_indexing_then_ServiceUnavailable() throws Exception {
+		String request = "/bills/search/by/items?datefrom={dateFrom}&dateto={dateTo}&item={item}";
+		String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern(Constants.DATE_FORMAT_YYYY_MM_DD_T_HH_MM_SS_SSS_Z));
+
+		when(billItemIndexMock.isReady()).thenReturn(false);
+
+		this.mockMvc
+			.perform(
+				get(request, date, date, "X-Ray")
+					.contentType(MediaType.APPLICATION_JSON)
+			)
+			.andDo(log())
+			.andExpect(status().isServiceUnavailable())
+			.andReturn();
+	}
+
 	@Test
 	void when_post_searchBillsByItem_with_valid_dates_and_billItemsDTO_content_and_PatientBrowserManager_getBills_returns_billList_then_OK()
 		throws Exception {
@@ -0,0 +1,204 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.accounting.dto.BillBalanceDTO;
+import org.isf.accounting.dto.PendingBillsSummaryDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class BillBalanceLedgerTest {
+
+	/** The bills in the database by id: patient code, patient name, date, price list name and status. */
+	private final Map<Integer, Object[]> bills = new TreeMap<>();
+
+	/** The amounts of the items and of the payments in the database, by bill id. */
+	private final Map<Integer, List<Double>> items = new HashMap<>();
+
+	private final Map<Integer, List<Double>> payments = new HashMap<>();
+
+	/** Run once when all the open bills are read, after the rows have been read. */
+	private Runnable duringLoad;
+
+	private int queries;
+
+	private BillBalanceLedger ledger;
+
+	@BeforeEach
+	void setup() {
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> query(invocation.getArgument(0)));
+		ledger = new BillBalanceLedger(true);
+		ReflectionTestUtils.setField(ledger, "entityManager", entityManager);
+
+		bill(1, 10, "2024-03-01", "O", 100, 30);
+		bill(2, 10, "2024-03-02", "O", 50);
+		bill(3, 20, "2024-03-03", "O", 80, 80);
+		bill(4, 20, "2024-03-04", "C", 70, 70);
+	}
+
+	@Test
+	void testSummary_beforeTheFirstLoadReadsTheDatabase() {
+		PendingBillsSummaryDTO all = ledger.summary(null);
+		bill(5, 10, "2024-03-05", "O", 5);
+		PendingBillsSummaryDTO patient = ledger.summary(10);
+
+		assertThat(all.getDetails()).extracting(BillBalanceDTO::getId).containsExactly(3, 2, 1);
+		assertThat(all.getAmount()).isEqualTo(230.0);
+		assertThat(all.getPaid()).isEqualTo(110.0);
+		assertThat(patient.getDetails()).extracting(BillBalanceDTO::getId, BillBalanceDTO::getBalance)
+			.containsExactly(tuple(5, 5.0), tuple(2, 50.0), tuple(1, 70.0));
+		assertThat(queries).isEqualTo(6);
+	}
+
+	@Test
+	void testReload() {
+		ledger.reload();
+		int loadQueries = queries;
+		// written by another client
+		bill(5, 10, "2024-03-05", "O", 5);
+
+		PendingBillsSummaryDTO cached = ledger.summary(10);
+
+		assertThat(cached.getDetails()).extracting(BillBalanceDTO::getId).containsExactly(2, 1);
+		assertThat(cached.getBalance()).isEqualTo(120.0);
+		assertThat(queries).isEqualTo(loadQueries);
+
+		ledger.reload();
+
+		assertThat(ledger.summary(10).getDetails()).extracting(BillBalanceDTO::getId).containsExactly(5, 2, 1);
+		assertThat(ledger.summary(20).getDetails()).extracting(BillBalanceDTO::getId, BillBalanceDTO::getPatientName,
+			BillBalanceDTO::getListName).containsExactly(tuple(3, "PATIENT 20", "Basic"));
+	}
+
+	@Test
+	void testBillChanged() {
+		ledger.reload();
+
+		// paid, closed, moved to another patient, created
+		payments.get(2).add(20.0);
+		ledger.billChanged(2);
+		bills.get(1)[4] = "C";
+		ledger.billChanged(1);
+		bills.get(3)[0] = 30;
+		ledger.billChanged(3);
+		bill(5, 20, "2024-03-05", "O", 5);
+		ledger.billChanged(5);
+
+		assertThat(ledger.summary(10).getDetails()).extracting(BillBalanceDTO::getId, BillBalanceDTO::getPaid).containsExactly(tuple(2, 20.0));
+		assertThat(ledger.summary(20).getDetails()).extracting(BillBalanceDTO::getId).containsExactly(5);
+		assertThat(ledger.summary(30).getDetails()).extracting(BillBalanceDTO::getId).containsExactly(3);
+		assertThat(ledger.summary(null).getBills()).isEqualTo(3);
+	}
+
+	@Test
+	void testBillChangedDuringReload() {
+		ledger.reload();
+		// paid after the reload read the payments, before it swapped the totals in
+		duringLoad = () -> {
+			payments.get(1).add(70.0);
+			ledger.billChanged(1);
+		};
+
+		ledger.reload();
+
+		assertThat(ledger.summary(10).getDetails()).extracting(BillBalanceDTO::getId, BillBalanceDTO::getBalance)
+			.containsExactly(tuple(2, 50.0), tuple(1, 0.0));
+	}
+
+	@Test
+	void testDisabled() {
+		BillBalanceLedger disabled = new BillBalanceLedger(false);
+		ReflectionTestUtils.setField(disabled, "entityManager", ReflectionTestUtils.getField(ledger, "entityManager"));
+
+		disabled.loadOnStartup();
+		disabled.billChanged(1);
+
+		assertThat(queries).isZero();
+		// read from the database
+		assertThat(disabled.summary(20).getDetails()).extracting(BillBalanceDTO::getId).containsExactly(3);
+		assertThat(queries).isEqualTo(3);
+	}
+
+	private void bill(int id, int patientCode, String date, String status, double amount, double... paid) {
+		bills.put(id, new Object[] { patientCode, "PATIENT " + patientCode, LocalDate.parse(date).atTime(9, 0), "Basic", status });
+		items.put(id, new ArrayList<>(List.of(amount)));
+		List<Double> billPayments = new ArrayList<>();
+		for (double payment : paid) {
+			billPayments.add(payment);
+		}
+		payments.put(id, billPayments);
+	}
+
+	private TypedQuery<Object[]> query(String jpql) {
+		queries++;
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		Map<String, Object> parameters = new HashMap<>();
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		when(query.getResultList()).thenAnswer(invocation -> {
+			List<Object[]> rows = new ArrayList<>();
+			bills.forEach((id, bill) -> {
+				if ("O".equals(bill[4]) && (!parameters.containsKey("patient") || parameters.get("patient").equals(bill[0]))
+					&& (!parameters.containsKey("bill") || parameters.get("bill").equals(id))) {
+					if (jpql.startsWith("SELECT b.id")) {
+						rows.add(new Object[] { id, bill[0], bill[1], bill[2], bill[3] });
+					} else if (jpql.startsWith("SELECT i.bill.id")) {
+						rows.add(new Object[] { id, items.get(id).stream().mapToDouble(Double::doubleValue).sum() });
+					} else if (!payments.get(id).isEmpty()) {
+						rows.add(new Object[] { id, payments.get(id).stream().mapToDouble(Double::doubleValue).sum() });
+					}
+				}
+			});
+			if (jpql.startsWith("SELECT b.id") && !parameters.containsKey("bill") && duringLoad != null) {
+				Runnable hook = duringLoad;
+				duringLoad = null;
+				hook.run();
+			}
+			return rows;
+		});
+		return query;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.accounting.model.Bill;
+import org.isf.accounting.model.BillItems;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class BillItemIndexTest {
+
+	private static final LocalDateTime FROM = LocalDate.parse("2024-03-01").atStartOfDay();
+
+	private static final LocalDateTime TO = LocalDate.parse("2024-03-31").atTime(23, 59, 59);
+
+	/** The bills in the database by id, with their date. */
+	private final Map<Integer, LocalDateTime> bills = new TreeMap<>();
+
+	/** The bill items in the database: bill id, description, display code and item id. */
+	private final List<Object[]> items = new ArrayList<>();
+
+	private BillItemIndex index;
+
+	@BeforeEach
+	void setup() {
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> query(invocation.getArgument(0)));
+		when(entityManager.createQuery(anyString(), eq(Bill.class))).thenAnswer(invocation -> billsQuery());
+		index = new BillItemIndex(true, 100);
+		ReflectionTestUtils.setField(index, "entityManager", entityManager);
+
+		bill(1, "2024-03-01", "X-RAY", "HAEMOGLOBIN");
+		bill(2, "2024-03-05", "X-RAY", "CONSULTATION");
+		bill(3, "2024-03-10", "X-RAY", "CONSULTATION", "BANDAGE");
+		bill(4, "2024-03-15", "CONSULTATION");
+		bill(5, "2024-04-02", "X-RAY", "BANDAGE");
+	}
+
+	@Test
+	void testFindBillIds_intersectsThePostings() {
+		index.rebuild();
+
+		assertThat(index.isReady()).isTrue();
+		assertThat(index.findBillIds(FROM, TO, List.of("X-RAY"))).containsExactly(1, 2, 3);
+		assertThat(index.findBillIds(FROM, TO, List.of("X-RAY", "CONSULTATION"))).containsExactly(2, 3);
+		assertThat(index.findBillIds(FROM, TO, List.of("CONSULTATION", "BANDAGE", "X-RAY"))).containsExactly(3);
+		assertThat(index.findBillIds(FROM, TO.plusMonths(1), List.of("BANDAGE", "BANDAGE"))).containsExactly(3, 5);
+	}
+
+	@Test
+	void testFindBillIds_noMatch() {
+		index.rebuild();
+
+		assertThat(index.findBillIds(FROM, TO, List.of("X-RAY", "UNKNOWN"))).isEmpty();
+		assertThat(index.findBillIds(FROM, TO, List.of())).isEmpty();
+		assertThat(index.findBillIds(FROM.minusYears(1), TO.minusYears(1), List.of("X-RAY"))).isEmpty();
+	}
+
+	@Test
+	void testFindBillIds_periodBounds() {
+		index.rebuild();
+
+		assertThat(index.findBillIds(LocalDate.parse("2024-03-05").atStartOfDay(), LocalDate.parse("2024-03-10").atTime(9, 0),
+			List.of("X-RAY"))).containsExactly(2, 3);
+		assertThat(index.findBillIds(LocalDate.parse("2024-03-05").atTime(9, 1), LocalDate.parse("2024-03-10").atTime(8, 59),
+			List.of("X-RAY"))).isEmpty();
+	}
+
+	@Test
+	void testBillChanged_reindexesTheBill() {
+		index.rebuild();
+
+		// items replaced, bill created before the highest id, bill moved to another date
+		items.removeIf(row -> row[0].equals(3));
+		bill(3, "2024-03-10", "CONSULTATION", "SUTURE");
+		index.billChanged(3);
+		bill(4, "2024-03-15", "X-RAY");
+		index.billChanged(4);
+		bills.put(1, LocalDate.parse("2024-02-28").atTime(9, 0));
+		index.billChanged(1);
+
+		assertThat(index.findBillIds(FROM, TO.plusMonths(1), List.of("X-RAY"))).containsExactly(2, 4, 5);
+		assertThat(index.findBillIds(FROM, TO, List.of("CONSULTATION"))).containsExactly(2, 3, 4);
+		assertThat(index.findBillIds(FROM, TO, List.of("SUTURE"))).containsExactly(3);
+		assertThat(index.findBillIds(FROM.minusMonths(1), TO, List.of("HAEMOGLOBIN"))).containsExactly(1);
+		assertThat(index.getDistinctItems()).extracting(BillItems::getItemDescription).contains("SUTURE");
+	}
+
+	@Test
+	void testBillChanged_lastBillOfAnItemRemoved() {
+		index.rebuild();
+		assertThat(index.getDistinctItems()).extracting(BillItems::getItemDescription)
+			.containsExactly("BANDAGE", "CONSULTATION", "HAEMOGLOBIN", "X-RAY");
+
+		// bill 1 deleted, bill 3 updated without the bandage, bill 5 deleted
+		bills.remove(1);
+		items.removeIf(row -> row[0].equals(1) || row[0].equals(5) || "BANDAGE".equals(row[1]));
+		bills.remove(5);
+		index.billChanged(1);
+		index.billChanged(3);
+		index.billChanged(5);
+
+		assertThat(index.getDistinctItems()).extracting(BillItems::getItemDescription).containsExactly("CONSULTATION", "X-RAY");
+		assertThat(index.findBillIds(FROM, TO.plusMonths(1), List.of("BANDAGE"))).isEmpty();
+		assertThat(index.findBillIds(FROM, TO.plusMonths(1), List.of("X-RAY"))).containsExactly(2, 3);
+	}
+
+	@Test
+	void testGetDistinctItems() {
+		index.rebuild();
+
+		BillItems xRay = index.getDistinctItems().get(3);
+
+		assertThat(xRay.getItemDescription()).isEqualTo("X-RAY");
+		assertThat(xRay.getItemDisplayCode()).isEqualTo("X-RAY-CODE");
+		assertThat(xRay.getItemId()).isEqualTo("X-RAY-ID");
+	}
+
+	@Test
+	void testLoadBills_inTheOrderOfTheIds() {
+		List<Bill> loaded = index.loadBills(List.of(3, 9, 1));
+
+		assertThat(loaded).extracting(Bill::getId).containsExactly(3, 1);
+	}
+
+	private void bill(int id, String date, String... descriptions) {
+		bills.put(id, LocalDate.parse(date).atTime(9, 0));
+		for (String description : descriptions) {
+			items.add(new Object[] { id, description, description + "-CODE", description + "-ID" });
+		}
+	}
+
+	private TypedQuery<Object[]> query(String jpql) {
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		Map<String, Object> parameters = new HashMap<>();
+		when(query.setHint(anyString(), any())).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		boolean ofBills = jpql.startsWith("SELECT b.id");
+		when(query.getResultStream()).thenAnswer(invocation -> rows(ofBills).stream());
+		when(query.getResultList()).thenAnswer(invocation -> rows(ofBills).stream()
+			.filter(row -> row[0].equals(parameters.get("bill")))
+			.toList());
+		return query;
+	}
+
+	private List<Object[]> rows(boolean ofBills) {
+		List<Object[]> rows = new ArrayList<>();
+		if (ofBills) {
+			bills.forEach((id, date) -> rows.add(new Object[] { id, date }));
+		} else {
+			items.stream().sorted((first, second) -> Integer.compare((Integer) first[0], (Integer) second[0])).forEach(rows::add);
+		}
+		return rows;
+	}
+
+	private TypedQuery<Bill> billsQuery() {
+		@SuppressWarnings("unchecked")
+		TypedQuery<Bill> query = mock(TypedQuery.class);
+		List<Integer> ids = new ArrayList<>();
+		when(query.setParameter(eq("ids"), any())).thenAnswer(invocation -> {
+			ids.addAll(invocation.getArgument(1));
+			return query;
+		});
+		when(query.getResultList()).thenAnswer(invocation -> ids.stream()
+			.filter(bills::containsKey)
+			.sorted()
+			.map(id -> {
+				Bill bill = new Bill();
+				bill.setId(id);
+				return bill;
+			})
+			.toList());
+		return query;
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.accounting.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.assertj.core.api.InstanceOfAssertFactories.MAP;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.accounting.dto.CashDeskRowDTO;
+import org.isf.accounting.dto.CashDeskSummaryDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class CashDeskAggregatorTest {
+
+	/** A closed day, well before today. */
+	private static final LocalDate DAY = LocalDate.now().minusDays(10);
+
+	/** The payments of the bills not deleted: date, user, price list name and amount. */
+	private final List<Object[]> payments = new ArrayList<>();
+
+	/** The periods read from the database, as {@code [from, to]} or {@code [from, to)}. */
+	private final List<String> queries = new ArrayList<>();
+
+	private EntityManager entityManager;
+
+	@BeforeEach
+	void setup() {
+		entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class)))
+			.thenAnswer(invocation -> paymentsQuery(invocation.getArgument(0, String.class).endsWith("<= :to")));
+	}
+
+	@Test
+	void testAggregate_wholeDaysRolledUp() {
+		CashDeskAggregator aggregator = newAggregator(true);
+		pay(DAY.atTime(9, 0), "cashier1", "Basic", 100);
+		pay(DAY.atTime(10, 0), "cashier1", "Basic", 50);
+		pay(DAY.atTime(11, 0), "cashier2", "Basic", 20);
+		pay(DAY.plusDays(1).atTime(9, 0), "cashier1", null, 10);
+
+		CashDeskSummaryDTO summary = aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+
+		assertThat(summary.getRows())
+			.extracting(CashDeskRowDTO::getDay, CashDeskRowDTO::getUser, CashDeskRowDTO::getListName, CashDeskRowDTO::getPayments,
+				CashDeskRowDTO::getAmount)
+			.containsExactly(
+				tuple(DAY, "cashier1", "Basic", 2L, 150.0),
+				tuple(DAY, "cashier2", "Basic", 1L, 20.0),
+				tuple(DAY.plusDays(1), "cashier1", null, 1L, 10.0));
+		// one query for the run of days, then the rollups
+		assertThat(queries).containsExactly(range(DAY.atStartOfDay(), DAY.plusDays(2).atStartOfDay(), false));
+
+		pay(DAY.atTime(12, 0), "cashier2", "Basic", 5);
+		CashDeskSummaryDTO again = aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+
+		assertThat(again.getRows()).extracting(CashDeskRowDTO::getAmount).containsExactly(150.0, 20.0, 10.0);
+		assertThat(queries).hasSize(1);
+	}
+
+	@Test
+	void testAggregate_partialFirstAndLastDays() {
+		CashDeskAggregator aggregator = newAggregator(true);
+		pay(DAY.atTime(8, 0), "cashier1", "Basic", 1);
+		pay(DAY.atTime(13, 0), "cashier1", "Basic", 10);
+		pay(DAY.plusDays(1).atTime(9, 0), "cashier1", "Basic", 100);
+		pay(DAY.plusDays(2).atTime(9, 0), "cashier1", "Basic", 1000);
+		pay(DAY.plusDays(2).atTime(11, 0), "cashier1", "Basic", 10000);
+
+		CashDeskSummaryDTO summary = aggregator.aggregate(DAY.atTime(12, 0), DAY.plusDays(2).atTime(10, 0));
+
+		assertThat(summary.getRows()).extracting(CashDeskRowDTO::getDay, CashDeskRowDTO::getAmount)
+			.containsExactly(tuple(DAY, 10.0), tuple(DAY.plusDays(1), 100.0), tuple(DAY.plusDays(2), 1000.0));
+		assertThat(queries).containsExactly(
+			range(DAY.atTime(12, 0), DAY.plusDays(1).atStartOfDay(), false),
+			range(DAY.plusDays(1).atStartOfDay(), DAY.plusDays(2).atStartOfDay(), false),
+			range(DAY.plusDays(2).atStartOfDay(), DAY.plusDays(2).atTime(10, 0), true));
+	}
+
+	@Test
+	void testAggregate_withinADay() {
+		CashDeskAggregator aggregator = newAggregator(true);
+		pay(DAY.atTime(9, 0), "cashier1", "Basic", 100);
+		pay(DAY.atTime(11, 0), "cashier1", "Basic", 10);
+
+		CashDeskSummaryDTO summary = aggregator.aggregate(DAY.atTime(8, 0), DAY.atTime(10, 0));
+
+		assertThat(summary.getRows()).extracting(CashDeskRowDTO::getAmount).containsExactly(100.0);
+		assertThat(queries).containsExactly(range(DAY.atTime(8, 0), DAY.atTime(10, 0), true));
+	}
+
+	@Test
+	void testAggregate_todayNotRolledUp() {
+		CashDeskAggregator aggregator = newAggregator(true);
+		LocalDate today = LocalDate.now();
+		LocalDate yesterday = today.minusDays(1);
+		pay(yesterday.atTime(9, 0), "cashier1", "Basic", 100);
+		pay(today.atStartOfDay(), "cashier1", "Basic", 10);
+
+		aggregator.aggregate(yesterday.atStartOfDay(), today.atTime(LocalTime.MAX));
+		pay(today.atStartOfDay(), "cashier1", "Basic", 1);
+		CashDeskSummaryDTO summary = aggregator.aggregate(yesterday.atStartOfDay(), today.atTime(LocalTime.MAX));
+
+		assertThat(summary.getRows()).extracting(CashDeskRowDTO::getDay, CashDeskRowDTO::getAmount)
+			.containsExactly(tuple(yesterday, 100.0), tuple(today, 11.0));
+		assertThat(queries).containsExactly(
+			range(yesterday.atStartOfDay(), today.atStartOfDay(), false),
+			range(today.atStartOfDay(), today.atTime(LocalTime.MAX), true),
+			range(today.atStartOfDay(), today.atTime(LocalTime.MAX), true));
+	}
+
+	@Test
+	void testAggregate_missingRollupsComputedByRun() {
+		CashDeskAggregator aggregator = newAggregator(true);
+		pay(DAY.atTime(9, 0), "cashier1", "Basic", 1);
+		pay(DAY.plusDays(1).atTime(9, 0), "cashier1", "Basic", 10);
+		pay(DAY.plusDays(2).atTime(9, 0), "cashier1", "Basic", 100);
+		aggregator.aggregate(DAY.plusDays(1).atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+		queries.clear();
+
+		CashDeskSummaryDTO summary = aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(2).atTime(LocalTime.MAX));
+
+		assertThat(summary.getAmount()).isEqualTo(111.0);
+		assertThat(queries).containsExactly(
+			range(DAY.atStartOfDay(), DAY.plusDays(1).atStartOfDay(), false),
+			range(DAY.plusDays(2).atStartOfDay(), DAY.plusDays(3).atStartOfDay(), false));
+	}
+
+	@Test
+	void testPaymentsChanged_dropsTheRollupsOfTheDays() {
+		CashDeskAggregator aggregator = newAggregator(true);
+		pay(DAY.atTime(9, 0), "cashier1", "Basic", 100);
+		pay(DAY.plusDays(1).atTime(9, 0), "cashier1", "Basic", 10);
+		aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+		queries.clear();
+
+		pay(DAY.atTime(15, 0), "cashier1", "Basic", 5);
+		List<LocalDateTime> dates = new ArrayList<>();
+		dates.add(DAY.atTime(15, 0));
+		dates.add(null);
+		aggregator.paymentsChanged(dates);
+		CashDeskSummaryDTO summary = aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+
+		assertThat(summary.getRows()).extracting(CashDeskRowDTO::getDay, CashDeskRowDTO::getPayments, CashDeskRowDTO::getAmount)
+			.containsExactly(tuple(DAY, 2L, 105.0), tuple(DAY.plusDays(1), 1L, 10.0));
+		assertThat(queries).containsExactly(range(DAY.atStartOfDay(), DAY.plusDays(1).atStartOfDay(), false));
+	}
+
+	@Test
+	void testPurgeExpiredRollups() {
+		CashDeskAggregator aggregator = new CashDeskAggregator(true, Duration.ofHours(-1), 100);
+		ReflectionTestUtils.setField(aggregator, "entityManager", entityManager);
+		pay(DAY.atTime(9, 0), "cashier1", "Basic", 100);
+		aggregator.aggregate(DAY.atStartOfDay(), DAY.atTime(LocalTime.MAX));
+
+		aggregator.purgeExpiredRollups();
+
+		assertThat(ReflectionTestUtils.getField(aggregator, "rollups")).asInstanceOf(MAP).isEmpty();
+	}
+
+	@Test
+	void testAggregate_rollupsDisabled() {
+		CashDeskAggregator aggregator = newAggregator(false);
+		pay(DAY.atTime(9, 0), "cashier1", "Basic", 100);
+
+		aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+		CashDeskSummaryDTO summary = aggregator.aggregate(DAY.atStartOfDay(), DAY.plusDays(1).atTime(LocalTime.MAX));
+
+		assertThat(summary.getAmount()).isEqualTo(100.0);
+		assertThat(queries).hasSize(2).allMatch(query -> query.endsWith("]"));
+	}
+
+	@Test
+	void testAggregate_emptyPeriod() {
+		CashDeskSummaryDTO summary = newAggregator(true).aggregate(DAY.atTime(10, 0), DAY.atTime(9, 0));
+
+		assertThat(summary.getRows()).isEmpty();
+		assertThat(queries).isEmpty();
+	}
+
+	private CashDeskAggregator newAggregator(boolean rollupEnabled) {
+		CashDeskAggregator aggregator = new CashDeskAggregator(rollupEnabled, Duration.ofHours(6), 100);
+		ReflectionTestUtils.setField(aggregator, "entityManager", entityManager);
+		return aggregator;
+	}
+
+	private void pay(LocalDateTime date, String user, String listName, double amount) {
+		payments.add(new Object[] { date, user, listName, amount });
+	}
+
+	private static String range(LocalDateTime from, LocalDateTime to, boolean toInclusive) {
+		return "[" + from + ", " + to + (toInclusive ? "]" : ")");
+	}
+
+	private TypedQuery<Object[]> paymentsQuery(boolean toInclusive) {
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		Map<String, LocalDateTime> parameters = new HashMap<>();
+		when(query.setHint(anyString(), any())).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		when(query.getResultStream()).thenAnswer(invocation -> {
+			LocalDateTime from = parameters.get("from");
+			LocalDateTime to = parameters.get("to");
+			queries.add(range(from, to, toInclusive));
+			return new ArrayList<>(payments).stream().filter(row -> {
+				LocalDateTime date = (LocalDateTime) row[0];
+				return !date.isBefore(from) && (toInclusive ? !date.isAfter(to) : date.isBefore(to));
+			});
+		});
+		return query;
+	}
+}
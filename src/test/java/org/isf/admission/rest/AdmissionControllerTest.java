@@ -21,8 +21,12 @@
  */
 package org.isf.admission.rest;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -30,19 +34,25 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Objects;
 
 import org.isf.admission.data.AdmissionHelper;
+import org.isf.admission.dto.AdmissionCensusDTO;
 import org.isf.admission.dto.AdmissionDTO;
+import org.isf.admission.dto.CensusDayDTO;
+import org.isf.admission.dto.LengthOfStayDTO;
 import org.isf.admission.manager.AdmissionBrowserManager;
 import org.isf.admission.mapper.AdmissionMapper;
 import org.isf.admission.mapper.AdmittedPatientMapper;
 import org.isf.admission.model.Admission;
 import org.isf.admission.model.AdmittedPatient;
+import org.isf.admission.service.AdmissionCensusIndex;
 import org.isf.admtype.data.AdmissionTypeDTOHelper;
 import org.isf.admtype.model.AdmissionType;
 import org.isf.disctype.data.DischargeTypeHelper;
@@ -59,19 +69,26 @@ import org.isf.operation.model.Operation;
 import org.isf.patient.data.PatientHelper;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientProfilePhoto;
 import org.isf.pregtreattype.data.PregnantTreatmentTypeHelper;
 import org.isf.pregtreattype.manager.PregnantTreatmentTypeBrowserManager;
 import org.isf.pregtreattype.model.PregnantTreatmentType;
 import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.isf.shared.mapper.converter.BlobToByteArrayConverter;
 import org.isf.shared.mapper.converter.ByteArrayToBlobConverter;
 import org.isf.shared.mapper.mappings.PatientMapping;
+import org.isf.shared.progressive.ProgressiveAllocator;
+import org.isf.testing.rest.FieldsTestHelper;
+import org.isf.utils.pagination.PagedResponse;
 import org.isf.ward.data.WardHelper;
 import org.isf.ward.manager.WardBrowserManager;
 import org.isf.ward.model.Ward;
+import org.isf.ward.service.WardOccupancyTracker;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.modelmapper.ModelMapper;
@@ -114,6 +131,15 @@ class AdmissionControllerTest {
 	@Mock
 	private DischargeTypeBrowserManager dischargeTypeManagerMock;
 
+	@Mock
+	private WardOccupancyTracker wardOccupancyTrackerMock;
+
+	@Mock
+	private ProgressiveAllocator progressiveAllocatorMock;
+
+	@Mock
+	private AdmissionCensusIndex admissionCensusIndexMock;
+
 	private final AdmissionMapper admissionMapper;
 
 	private final AdmittedPatientMapper admittedMapper;
@@ -134,7 +160,8 @@ class AdmissionControllerTest {
 			.standaloneSetup(new AdmissionController(admissionManagerMock, patientManagerMock, wardManagerMock,
 				diseaseManagerMock, pregnancyTreatmentTypeManagerMock,
 				deliveryTypeManager, deliveryResultTypeManagerMock, admissionMapper,
-				admittedMapper, dischargeTypeManagerMock)
+				admittedMapper, dischargeTypeManagerMock, wardOccupancyTrackerMock, progressiveAllocatorMock,
+				admissionCensusIndexMock)
 			)
 			.setControllerAdvice(new OHResponseEntityExceptionHandler())
 			.build();
@@ -142,9 +169,13 @@ class AdmissionControllerTest {
 		ModelMapper modelMapper = new ModelMapper();
 		modelMapper.addConverter(new BlobToByteArrayConverter());
 		modelMapper.addConverter(new ByteArrayToBlobConverter());
+		modelMapper.getConfiguration().setPropertyCondition(new FieldsMappingCondition());
 		PatientMapping.addMapping(modelMapper);
 		ReflectionTestUtils.setField(admissionMapper, "modelMapper", modelMapper);
 		ReflectionTestUtils.setField(admittedMapper, "modelMapper", modelMapper);
+
+		when(progressiveAllocatorMock.next(any(), any(), any()))
+			.thenReturn(null);
 	}
 
 	@AfterEach
@@ -264,6 +295,41 @@ class AdmissionControllerTest {
 		LOGGER.debug("result: {}", result);
 	}
 
+	@Test
+	void testGetAdmissions_fields_200() throws Exception {
+		Admission admission = AdmissionHelper.setup();
+		PatientProfilePhoto profilePhoto = new PatientProfilePhoto();
+		profilePhoto.setPhoto(new byte[] { 1, 2, 3 });
+		admission.getPatient().setPatientProfilePhoto(profilePhoto);
+		PagedResponse<Admission> admissions = new PagedResponse<>();
+		admissions.setData(List.of(admission));
+		admissions.setPageInfo(PatientHelper.setParameterPage());
+		when(admissionManagerMock.getAdmissionsPageable(any(), any(), anyInt(), anyInt()))
+			.thenReturn(admissions);
+
+		MockMvc fieldsMockMvc = FieldsTestHelper.mockMvc(new AdmissionController(admissionManagerMock, patientManagerMock, wardManagerMock,
+			diseaseManagerMock, pregnancyTreatmentTypeManagerMock,
+			deliveryTypeManager, deliveryResultTypeManagerMock, admissionMapper,
+			admittedMapper, dischargeTypeManagerMock, wardOccupancyTrackerMock, progressiveAllocatorMock,
+			admissionCensusIndexMock));
+
+		fieldsMockMvc
+			.perform(get("/admissions")
+				.param("admissionrange", "2024-01-01T00:00:00", "2024-12-31T00:00:00")
+				.param("paged", "true")
+				.param("fields", "id,ward.code,patient,unknownField"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].id").value(admission.getId()))
+			.andExpect(jsonPath("$.data[0].ward.code").value(admission.getWard().getCode()))
+			.andExpect(jsonPath("$.data[0].ward.description").doesNotExist())
+			.andExpect(jsonPath("$.data[0].patient.firstName").value(admission.getPatient().getFirstName()))
+			.andExpect(jsonPath("$.data[0].patient.blobPhoto").doesNotExist())
+			.andExpect(jsonPath("$.data[0].admDate").doesNotExist())
+			.andExpect(jsonPath("$.data[0].unknownField").doesNotExist())
+			.andExpect(jsonPath("$.pageInfo.page").value(0));
+	}
+
 	@Test
 	void testGetNextYProgressiveId_200() throws Exception {
 		String request = "/admissions/getNextProgressiveIdInYear";
@@ -275,6 +341,8 @@ class AdmissionControllerTest {
 		Integer nextYProgressiveId = 1;
 		when(admissionManagerMock.getNextYProg(wardCode))
 			.thenReturn(nextYProgressiveId);
+		when(progressiveAllocatorMock.peek(eq(ProgressiveAllocator.Sequence.ADMISSION), eq(wardCode), any()))
+			.thenAnswer(invocation -> invocation.getArgument(2, ProgressiveAllocator.Floor.class).get() + 1);
 
 		MvcResult result = this.mockMvc
 			.perform(
@@ -423,6 +491,51 @@ class AdmissionControllerTest {
 		LOGGER.debug("result: {}", result);
 	}
 
+	@Test
+	void testNewAdmissions_allocatedYProg_201() throws Exception {
+		String request = "/admissions";
+
+		AdmissionDTO body = AdmissionHelper.setup(admissionMapper);
+		Integer code = 10;
+		body.getPatient().setCode(code);
+		body.setAdmDate(LocalDateTime.now());
+
+		List<Ward> wardList = WardHelper.setupWardList(2);
+		when(wardManagerMock.getWards())
+			.thenReturn(wardList);
+
+		List<AdmissionType> admissionTypeList = AdmissionTypeDTOHelper.setupAdmissionTypeList(3);
+		when(admissionManagerMock.getAdmissionType())
+			.thenReturn(admissionTypeList);
+
+		Patient patient = PatientHelper.setup();
+		patient.setCode(code);
+		when(patientManagerMock.getPatientById(body.getPatient().getCode()))
+			.thenReturn(patient);
+
+		List<Disease> diseaseList = DiseaseHelper.setupDiseaseList(3);
+		when(diseaseManagerMock.getDiseaseAll())
+			.thenReturn(diseaseList);
+
+		Integer yProg = 42;
+		when(progressiveAllocatorMock.next(eq(ProgressiveAllocator.Sequence.ADMISSION), eq(body.getWard().getCode()), any()))
+			.thenReturn(yProg);
+
+		MvcResult result = this.mockMvc
+			.perform(post(request)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(Objects.requireNonNull(AdmissionHelper.asJsonString(body))))
+			.andDo(log())
+			.andExpect(status().isCreated())
+			.andReturn();
+
+		ArgumentCaptor<Admission> saved = ArgumentCaptor.forClass(Admission.class);
+		verify(admissionManagerMock).newAdmissionReturnKey(saved.capture());
+		assertThat(saved.getValue().getYProg()).isEqualTo(yProg);
+
+		LOGGER.debug("result: {}", result);
+	}
+
 	@Test
 	void testUpdateAdmissions() throws Exception {
 		String request = "/admissions";
@@ -484,4 +597,35 @@ class AdmissionControllerTest {
 		LOGGER.debug("result: {}", result);
 	}
 
+	@Test
+	void testGetCensus_200() throws Exception {
+		LocalDate from = LocalDate.of(2024, 3, 1);
+		LocalDate to = LocalDate.of(2024, 3, 2);
+		AdmissionCensusDTO census = new AdmissionCensusDTO("M", from, to, List.of(
+			new CensusDayDTO(from, 12, 3, 1),
+			new CensusDayDTO(to, 10, 0, 2)), new LengthOfStayDTO(3, 4.0, 3, 5, 5, 5, 5));
+
+		when(admissionCensusIndexMock.isReady()).thenReturn(true);
+		when(admissionCensusIndexMock.census(from, to, "M")).thenReturn(census);
+
+		this.mockMvc
+			.perform(get("/admissions/census")
+				.param("dateFrom", "2024-03-01")
+				.param("dateTo", "2024-03-02")
+				.param("wardCode", "M"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.days[1].present").value(10))
+			.andExpect(jsonPath("$.lengthOfStay.p75").value(5));
+	}
+
+	@Test
+	void testGetCensus_notReady_503() throws Exception {
+		when(admissionCensusIndexMock.isReady()).thenReturn(false);
+
+		this.mockMvc
+			.perform(get("/admissions/census")
+				.param("dateFrom", "2024-03-01")
+				.param("dateTo", "2024-03-02"))
+			.andExpect(status().isServiceUnavailable());
+	}
 }
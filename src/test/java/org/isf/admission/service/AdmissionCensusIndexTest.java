@@ -0,0 +1,247 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.admission.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.admission.dto.AdmissionCensusDTO;
+import org.isf.admission.dto.CensusDayDTO;
+import org.isf.admission.dto.LengthOfStayDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class AdmissionCensusIndexTest {
+
+	/** The admissions not deleted in the database: id, ward, admission date and discharge date. */
+	private final Map<Integer, Object[]> admissions = new TreeMap<>();
+
+	private AdmissionCensusIndex index;
+
+	@BeforeEach
+	void setup() {
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> staysQuery());
+		index = new AdmissionCensusIndex(true, 100);
+		ReflectionTestUtils.setField(index, "entityManager", entityManager);
+	}
+
+	@Test
+	void testCensus() {
+		admit(1, "M", "2024-03-01", "2024-03-04");
+		admit(2, "M", "2024-03-02", null);
+		admit(3, "M", "2024-03-03", "2024-03-03");
+		admit(4, "S", "2024-02-20", "2024-03-02");
+		index.reload();
+
+		AdmissionCensusDTO census = index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-04"), null);
+
+		assertThat(index.isReady()).isTrue();
+		assertThat(census.getDays())
+			.extracting(CensusDayDTO::getDate, CensusDayDTO::getPresent, CensusDayDTO::getAdmissions, CensusDayDTO::getDischarges)
+			.containsExactly(
+				tuple(LocalDate.parse("2024-03-01"), 2, 1, 0),
+				tuple(LocalDate.parse("2024-03-02"), 2, 1, 1),
+				tuple(LocalDate.parse("2024-03-03"), 2, 1, 1),
+				tuple(LocalDate.parse("2024-03-04"), 1, 0, 1));
+		assertThat(census.getLengthOfStay().getDischarges()).isEqualTo(3);
+		assertThat(census.getLengthOfStay().getMean()).isEqualTo(14 / 3.0);
+		assertThat(census.getLengthOfStay().getMax()).isEqualTo(11);
+	}
+
+	@Test
+	void testCensus_ofAWard() {
+		admit(1, "M", "2024-03-01", "2024-03-04");
+		admit(4, "S", "2024-02-20", "2024-03-02");
+		index.reload();
+
+		AdmissionCensusDTO census = index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-04"), "M");
+		AdmissionCensusDTO unknown = index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-02"), "X");
+
+		assertThat(census.getWardCode()).isEqualTo("M");
+		assertThat(census.getDays()).extracting(CensusDayDTO::getPresent).containsExactly(1, 1, 1, 0);
+		assertThat(census.getLengthOfStay().getDischarges()).isEqualTo(1);
+		assertThat(census.getLengthOfStay().getP50()).isEqualTo(3);
+		assertThat(unknown.getDays()).extracting(CensusDayDTO::getPresent).containsExactly(0, 0);
+		assertThat(unknown.getLengthOfStay().getDischarges()).isZero();
+	}
+
+	@Test
+	void testCensus_beforeTheFirstAndAfterTheLastDay() {
+		admit(1, "M", "2024-03-01", "2024-03-04");
+		admit(2, "M", "2024-03-02", null);
+		index.reload();
+
+		assertThat(index.census(LocalDate.parse("2023-01-01"), LocalDate.parse("2023-01-02"), null).getDays())
+			.extracting(CensusDayDTO::getPresent).containsExactly(0, 0);
+		assertThat(index.census(LocalDate.parse("2024-02-29"), LocalDate.parse("2024-03-02"), null).getDays())
+			.extracting(CensusDayDTO::getPresent).containsExactly(0, 1, 2);
+		// the patient still admitted is present after the last recorded day
+		assertThat(index.census(LocalDate.parse("2030-06-01"), LocalDate.parse("2030-06-01"), null).getDays())
+			.extracting(CensusDayDTO::getPresent).containsExactly(1);
+	}
+
+	@Test
+	void testCensus_emptyPeriod() {
+		admit(1, "M", "2024-03-01", "2024-03-04");
+		index.reload();
+
+		AdmissionCensusDTO census = index.census(LocalDate.parse("2024-03-04"), LocalDate.parse("2024-03-01"), null);
+
+		assertThat(census.getDays()).isEmpty();
+		assertThat(census.getLengthOfStay().getDischarges()).isZero();
+	}
+
+	@Test
+	void testDayCountsGrowBelowAndAboveTheFirstDays() {
+		admit(1, "M", "2024-03-01", null);
+		index.reload();
+
+		// far outside the days covered so far
+		admit(2, "M", "2019-06-01", "2019-06-10");
+		index.admissionChanged(2);
+		admit(3, "M", "2031-01-01", null);
+		index.admissionChanged(3);
+
+		assertThat(index.census(LocalDate.parse("2019-05-31"), LocalDate.parse("2019-06-01"), null).getDays())
+			.extracting(CensusDayDTO::getPresent).containsExactly(0, 1);
+		assertThat(index.census(LocalDate.parse("2019-06-10"), LocalDate.parse("2019-06-10"), null).getDays())
+			.extracting(CensusDayDTO::getPresent, CensusDayDTO::getDischarges).containsExactly(tuple(0, 1));
+		assertThat(index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-01"), null).getDays())
+			.extracting(CensusDayDTO::getPresent, CensusDayDTO::getAdmissions).containsExactly(tuple(1, 1));
+		assertThat(index.census(LocalDate.parse("2031-01-01"), LocalDate.parse("2031-01-02"), null).getDays())
+			.extracting(CensusDayDTO::getPresent).containsExactly(2, 2);
+	}
+
+	@Test
+	void testSameDayDischarges() {
+		admit(1, "M", "2024-03-01", null);
+		admit(2, "M", "2024-03-01T08:00", "2024-03-01T18:00");
+		index.reload();
+
+		// a discharge recorded before the admission is counted on the admission day
+		admit(1, "M", "2024-03-01", "2024-02-28");
+		index.admissionChanged(1);
+
+		AdmissionCensusDTO census = index.census(LocalDate.parse("2024-02-28"), LocalDate.parse("2024-03-01"), null);
+
+		assertThat(census.getDays())
+			.extracting(CensusDayDTO::getPresent, CensusDayDTO::getAdmissions, CensusDayDTO::getDischarges)
+			.containsExactly(tuple(0, 0, 0), tuple(0, 0, 0), tuple(0, 2, 2));
+		assertThat(census.getLengthOfStay().getDischarges()).isEqualTo(2);
+		assertThat(census.getLengthOfStay().getMax()).isZero();
+	}
+
+	@Test
+	void testAdmissionChanged() {
+		admit(1, "M", "2024-03-01", null);
+		admit(2, "M", "2024-03-01", null);
+		index.reload();
+
+		// discharged, moved to another ward, deleted
+		admit(1, "M", "2024-03-01", "2024-03-03");
+		index.admissionChanged(1);
+		admit(2, "S", "2024-03-01", null);
+		index.admissionChanged(2);
+		admissions.remove(2);
+		index.admissionChanged(2);
+
+		AdmissionCensusDTO census = index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-03"), null);
+
+		assertThat(census.getDays()).extracting(CensusDayDTO::getPresent).containsExactly(1, 1, 0);
+		assertThat(index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-01"), "S").getDays())
+			.extracting(CensusDayDTO::getPresent).containsExactly(0);
+		assertThat(census.getLengthOfStay().getDischarges()).isEqualTo(1);
+		assertThat(census.getLengthOfStay().getP95()).isEqualTo(2);
+	}
+
+	@Test
+	void testLengthOfStayPercentiles() {
+		for (int length = 1; length <= 10; length++) {
+			admit(length, "M", LocalDate.parse("2024-03-20").minusDays(length).toString(), "2024-03-20");
+		}
+		index.reload();
+
+		LengthOfStayDTO lengthOfStay = index.census(LocalDate.parse("2024-03-20"), LocalDate.parse("2024-03-20"), null).getLengthOfStay();
+
+		// nearest rank: the smallest length with at least p% of the stays not longer
+		assertThat(lengthOfStay.getDischarges()).isEqualTo(10);
+		assertThat(lengthOfStay.getMean()).isEqualTo(5.5);
+		assertThat(lengthOfStay.getP50()).isEqualTo(5);
+		assertThat(lengthOfStay.getP75()).isEqualTo(8);
+		assertThat(lengthOfStay.getP90()).isEqualTo(9);
+		assertThat(lengthOfStay.getP95()).isEqualTo(10);
+		assertThat(lengthOfStay.getMax()).isEqualTo(10);
+	}
+
+	@Test
+	void testLengthOfStayPercentiles_singleStay() {
+		admit(1, "M", "2024-03-01", "2024-03-08");
+		index.reload();
+
+		LengthOfStayDTO lengthOfStay = index.census(LocalDate.parse("2024-03-01"), LocalDate.parse("2024-03-31"), null).getLengthOfStay();
+
+		assertThat(lengthOfStay.getP50()).isEqualTo(7);
+		assertThat(lengthOfStay.getP95()).isEqualTo(7);
+		assertThat(lengthOfStay.getMax()).isEqualTo(7);
+	}
+
+	private void admit(int id, String ward, String admDate, String disDate) {
+		admissions.put(id, new Object[] { id, ward, dateTime(admDate), disDate == null ? null : dateTime(disDate) });
+	}
+
+	private static LocalDateTime dateTime(String date) {
+		return date.contains("T") ? LocalDateTime.parse(date) : LocalDate.parse(date).atTime(10, 0);
+	}
+
+	private TypedQuery<Object[]> staysQuery() {
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		List<Object> id = new ArrayList<>();
+		when(query.setHint(anyString(), any())).thenReturn(query);
+		when(query.setParameter(eq("id"), any())).thenAnswer(invocation -> {
+			id.add(invocation.getArgument(1));
+			return query;
+		});
+		when(query.getResultStream()).thenAnswer(invocation -> new ArrayList<>(admissions.values()).stream());
+		when(query.getResultList()).thenAnswer(invocation -> admissions.values().stream()
+			.filter(row -> id.contains(row[0]))
+			.toList());
+		return query;
+	}
+}
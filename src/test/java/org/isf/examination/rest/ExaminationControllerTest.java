@@ -24,12 +24,15 @@ package org.isf.examination.rest;
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.List;
@@ -37,9 +40,12 @@ import java.util.List;
 import org.isf.OpenHospitalApiApplication;
 import org.isf.examination.TestPatientExamination;
 import org.isf.examination.dto.PatientExaminationDTO;
+import org.isf.examination.dto.VitalSeriesDTO;
+import org.isf.examination.dto.VitalSignsSeriesDTO;
 import org.isf.examination.manager.ExaminationBrowserManager;
 import org.isf.examination.mapper.PatientExaminationMapper;
 import org.isf.examination.model.PatientExamination;
+import org.isf.examination.service.VitalSignsSeries;
 import org.isf.patient.data.PatientHelper;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
@@ -74,6 +80,9 @@ class ExaminationControllerTest {
 	@MockBean
 	private PatientBrowserManager patientBrowserManager;
 
+	@MockBean
+	private VitalSignsSeries vitalSignsSeries;
+
 	@Autowired
 	private ObjectMapper objectMapper;
 
@@ -249,4 +258,41 @@ class ExaminationControllerTest {
 			.andExpect(status().isOk())
 			.andExpect(content().string(containsString(objectMapper.writeValueAsString(patientExaminationDTO))));
 	}
+
+	@Test
+	@WithMockUser(username = "admin", authorities = {"examinations.read"})
+	@DisplayName("Should get the vital signs series of a patient")
+	void testGetVitalSignsSeries() throws Exception {
+		Patient patient = PatientHelper.setup();
+		VitalSignsSeriesDTO series = new VitalSignsSeriesDTO(1, null, null, 100, List.of(
+			new VitalSeriesDTO("HR", 2, new long[] { 1710424680000L, 1710428280000L }, new double[] { 72, 80 })));
+
+		when(patientBrowserManager.getPatientById(anyInt())).thenReturn(patient);
+		when(vitalSignsSeries.getMaxPoints()).thenReturn(5000);
+		when(vitalSignsSeries.series(eq(1), eq(List.of(VitalSignsSeries.Vital.HR)), isNull(), isNull(), eq(100))).thenReturn(series);
+
+		mvc.perform(get("/examinations/patient/{patId}/series", "1")
+				.param("vitals", "hr")
+				.param("points", "100")
+				.contentType(MediaType.APPLICATION_JSON)
+			)
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.series[0].vital").value("HR"))
+			.andExpect(jsonPath("$.series[0].values[1]").value(80.0));
+	}
+
+	@Test
+	@WithMockUser(username = "admin", authorities = {"examinations.read"})
+	@DisplayName("Should fail to get the series of an unknown vital sign")
+	void testGetVitalSignsSeriesWithUnknownVital() throws Exception {
+		when(vitalSignsSeries.getMaxPoints()).thenReturn(5000);
+
+		mvc.perform(get("/examinations/patient/{patId}/series", "1")
+				.param("vitals", "glucose")
+				.contentType(MediaType.APPLICATION_JSON)
+			)
+			.andDo(log())
+			.andExpect(status().isBadRequest());
+	}
 }
@@ -0,0 +1,75 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.examination.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class VitalSignsSeriesTest {
+
+	@Test
+	void testLargestTriangleThreeBuckets_keepsFirstAndLast() {
+		int size = 100;
+		long[] x = new long[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++) {
+			x[i] = i * 60_000L;
+			y[i] = Math.sin(i / 5.0);
+		}
+
+		int[] kept = VitalSignsSeries.largestTriangleThreeBuckets(x, y, size, 10);
+
+		assertThat(kept).hasSize(10);
+		assertThat(kept[0]).isZero();
+		assertThat(kept[kept.length - 1]).isEqualTo(size - 1);
+		for (int i = 1; i < kept.length; i++) {
+			assertThat(kept[i]).isGreaterThan(kept[i - 1]);
+		}
+	}
+
+	@Test
+	void testLargestTriangleThreeBuckets_belowThreshold() {
+		long[] x = { 1L, 2L, 3L, 4L };
+		double[] y = { 36.5, 37.0, 38.2, 36.9 };
+
+		assertThat(VitalSignsSeries.largestTriangleThreeBuckets(x, y, 4, 4)).containsExactly(0, 1, 2, 3);
+		assertThat(VitalSignsSeries.largestTriangleThreeBuckets(x, y, 4, 500)).containsExactly(0, 1, 2, 3);
+	}
+
+	@Test
+	void testLargestTriangleThreeBuckets_keepsPeaks() {
+		int size = 1000;
+		long[] x = new long[size];
+		double[] y = new double[size];
+		for (int i = 0; i < size; i++) {
+			x[i] = i * 60_000L;
+			y[i] = 37.0;
+		}
+		y[250] = 40.5;
+		y[700] = 34.0;
+
+		int[] kept = VitalSignsSeries.largestTriangleThreeBuckets(x, y, size, 20);
+
+		assertThat(kept).hasSize(20).contains(250, 700);
+	}
+}
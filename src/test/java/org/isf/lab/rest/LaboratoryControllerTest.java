@@ -24,12 +24,15 @@ package org.isf.lab.rest;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.ArrayList;
@@ -40,6 +43,8 @@ import java.util.Optional;
 
 import org.isf.exa.manager.ExamBrowsingManager;
 import org.isf.lab.data.LaboratoryHelper;
+import org.isf.lab.dto.LabImportItemDTO;
+import org.isf.lab.dto.LabImportReportDTO;
 import org.isf.lab.dto.LabWithRowsDTO;
 import org.isf.lab.dto.LaboratoryDTO;
 import org.isf.lab.manager.LabManager;
@@ -47,6 +52,9 @@ import org.isf.lab.mapper.LaboratoryMapper;
 import org.isf.lab.mapper.LaboratoryRowMapper;
 import org.isf.lab.model.Laboratory;
 import org.isf.lab.model.LaboratoryStatus;
+import org.isf.lab.service.LabBulkImport;
+import org.isf.lab.service.LabExamRequestFeed;
+import org.isf.lab.service.LabExamRequestQuery;
 import org.isf.patient.data.PatientHelper;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.model.Patient;
@@ -66,6 +74,10 @@ import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 class LaboratoryControllerTest {
 
@@ -80,6 +92,15 @@ class LaboratoryControllerTest {
 	@Mock
 	private PatientBrowserManager patientBrowserManager;
 
+	@Mock
+	private LabExamRequestFeed labExamRequestFeed;
+
+	@Mock
+	private LabExamRequestQuery labExamRequestQuery;
+
+	@Mock
+	private LabBulkImport labBulkImport;
+
 	protected LaboratoryMapper laboratoryMapper = new LaboratoryMapper();
 
 	protected LaboratoryRowMapper laboratoryRowMapper = new LaboratoryRowMapper();
@@ -92,7 +113,8 @@ class LaboratoryControllerTest {
 	void setup() {
 		closeable = MockitoAnnotations.openMocks(this);
 		this.mockMvc = MockMvcBuilders
-			.standaloneSetup(new LaboratoryController(laboratoryManager, patientBrowserManager, examManager, laboratoryMapper, laboratoryRowMapper))
+			.standaloneSetup(new LaboratoryController(laboratoryManager, patientBrowserManager, examManager, laboratoryMapper, laboratoryRowMapper,
+				labExamRequestFeed, labExamRequestQuery, labBulkImport))
 			.setControllerAdvice(new OHResponseEntityExceptionHandler())
 			.build();
 		ModelMapper modelMapper = new ModelMapper();
@@ -218,4 +240,85 @@ class LaboratoryControllerTest {
 		LOGGER.debug("result: {}", result);
 	}
 
+	@Test
+	void testNewLaboratory_publishesCreation() throws Exception {
+		LabWithRowsDTO labWithRowsDTO = new LabWithRowsDTO();
+		Laboratory lab = LaboratoryHelper.setup();
+		Patient patient = PatientHelper.setup();
+		lab.setPatient(patient);
+		labWithRowsDTO.setLaboratoryDTO(laboratoryMapper.map2DTO(lab));
+
+		when(patientBrowserManager.getPatientById(anyInt())).thenReturn(patient);
+		when(examManager.getExams()).thenReturn(Collections.singletonList(lab.getExam()));
+
+		this.mockMvc
+			.perform(post("/laboratories")
+				.content(Objects.requireNonNull(LaboratoryHelper.asJsonString(labWithRowsDTO)))
+				.contentType(MediaType.APPLICATION_JSON))
+			.andExpect(status().isCreated());
+
+		verify(labExamRequestFeed).created(any(Laboratory.class));
+	}
+
+	@Test
+	void testStreamExamRequests_resumesFromLastEventId() throws Exception {
+		when(labExamRequestFeed.subscribe("M", null, "abc-12")).thenReturn(new SseEmitter());
+
+		this.mockMvc
+			.perform(get("/laboratories/examRequest/stream")
+				.param("wardCode", "M")
+				.header("Last-Event-ID", "abc-12"))
+			.andExpect(status().isOk())
+			.andExpect(request().asyncStarted());
+
+		verify(labExamRequestFeed).subscribe(eq("M"), eq(null), eq("abc-12"));
+	}
+
+	@Test
+	void testSearchExamRequests_200() throws Exception {
+		Laboratory lab = LaboratoryHelper.setup();
+		lab.setCode(12);
+		lab.setStatus(LaboratoryStatus.open.toString());
+		lab.setInOutPatient("O");
+
+		when(labExamRequestQuery.find(any(LabExamRequestQuery.Filter.class), eq(1), eq(10))).thenReturn(Collections.singletonList(lab));
+		when(labExamRequestQuery.count(any(LabExamRequestQuery.Filter.class))).thenReturn(11L);
+
+		this.mockMvc
+			.perform(get("/laboratories/examRequest/search")
+				.param("status", "OPEN")
+				.param("page", "1")
+				.param("size", "10"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].code").value(12))
+			.andExpect(jsonPath("$.pageInfo.totalNbOfElements").value(11))
+			.andExpect(jsonPath("$.pageInfo.hasPreviousPage").value(true));
+	}
+
+	@Test
+	void testSearchExamRequests_invalidStatus_400() throws Exception {
+		this.mockMvc
+			.perform(get("/laboratories/examRequest/search").param("status", "unknown"))
+			.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void testImportLaboratories_207() throws Exception {
+		LabWithRowsDTO labWithRowsDTO = new LabWithRowsDTO();
+		labWithRowsDTO.setLaboratoryDTO(laboratoryMapper.map2DTO(LaboratoryHelper.setup()));
+		List<LabWithRowsDTO> body = List.of(labWithRowsDTO, labWithRowsDTO);
+
+		when(labBulkImport.getMaxItems()).thenReturn(10);
+		when(labBulkImport.importAll(anyList(), eq(0))).thenReturn(new LabImportReportDTO(List.of(
+			new LabImportItemDTO(0, 1, "01.01", LabImportItemDTO.Status.IMPORTED, null),
+			new LabImportItemDTO(1, 2, "01.01", LabImportItemDTO.Status.FAILED, "Patient not found."))));
+
+		this.mockMvc
+			.perform(post("/laboratories/import")
+				.content(new ObjectMapper().registerModule(new JavaTimeModule()).writeValueAsString(body))
+				.contentType(MediaType.APPLICATION_JSON))
+			.andExpect(status().isMultiStatus())
+			.andExpect(jsonPath("$.imported").value(1))
+			.andExpect(jsonPath("$.items[1].error").value("Patient not found."));
+	}
 }
@@ -0,0 +1,321 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.rest;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+import jakarta.validation.Validation;
+
+import org.isf.medicals.manager.MedicalBrowsingManager;
+import org.isf.medicalstock.dto.StockLevelDTO;
+import org.isf.medicalstock.dto.StockLevelMismatchDTO;
+import org.isf.medicalstock.dto.StockLevelVerificationDTO;
+import org.isf.medicalstock.manager.MovBrowserManager;
+import org.isf.medicalstock.manager.MovStockInsertingManager;
+import org.isf.medicalstock.mapper.LotMapper;
+import org.isf.medicalstock.mapper.MovementMapper;
+import org.isf.medicalstock.model.Movement;
+import org.isf.medicalstock.service.BulkMovementIngestion;
+import org.isf.medicalstock.service.CriticalStockMonitor;
+import org.isf.medicalstock.service.FefoLotIndex;
+import org.isf.medicalstock.service.StockLevelSnapshot;
+import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class MedicalStockMovementControllerTest {
+
+	private static final String KEY = "3f6c2a1e-delivery-42";
+
+	@Mock
+	private MovementMapper movMapperMock;
+
+	@Mock
+	private LotMapper lotMapperMock;
+
+	@Mock
+	private MovBrowserManager movManagerMock;
+
+	@Mock
+	private MovStockInsertingManager movInsertingManagerMock;
+
+	@Mock
+	private MedicalBrowsingManager medicalManagerMock;
+
+	@Mock
+	private StockLevelSnapshot stockLevelSnapshotMock;
+
+	@Mock
+	private CriticalStockMonitor criticalStockMonitorMock;
+
+	@Mock
+	private FefoLotIndex fefoLotIndexMock;
+
+	@Mock
+	private PlatformTransactionManager transactionManagerMock;
+
+	private MockMvc mockMvc;
+
+	private AutoCloseable closeable;
+
+	@BeforeEach
+	void setup() {
+		closeable = MockitoAnnotations.openMocks(this);
+		BulkMovementIngestion bulkMovementIngestion = new BulkMovementIngestion(movInsertingManagerMock, movMapperMock, stockLevelSnapshotMock,
+			criticalStockMonitorMock, fefoLotIndexMock, new ObjectMapper().findAndRegisterModules(),
+			Validation.buildDefaultValidatorFactory().getValidator(), transactionManagerMock, 200, 2000, Duration.ofHours(24));
+		this.mockMvc = MockMvcBuilders
+			.standaloneSetup(new MedicalStockMovementController(movMapperMock, lotMapperMock, movManagerMock, movInsertingManagerMock,
+				medicalManagerMock, stockLevelSnapshotMock, criticalStockMonitorMock, fefoLotIndexMock, bulkMovementIngestion))
+			.setControllerAdvice(new OHResponseEntityExceptionHandler())
+			.build();
+		when(movMapperMock.map2ModelList(anyList())).thenAnswer(invocation -> {
+			List<Movement> movements = new ArrayList<>();
+			for (Object ignored : invocation.getArgument(0, List.class)) {
+				movements.add(new Movement());
+			}
+			return movements;
+		});
+		when(stockLevelSnapshotMock.write(any(), any()))
+			.thenAnswer(invocation -> invocation.getArgument(1, StockLevelSnapshot.Write.class).run());
+	}
+
+	@AfterEach
+	void closeService() throws Exception {
+		closeable.close();
+	}
+
+	@Test
+	void testNewBulkMovements_201() throws Exception {
+		bulk(null, 10, 20, 30)
+			.andExpect(status().isCreated())
+			.andExpect(jsonPath("$.status").value("COMPLETED"))
+			.andExpect(jsonPath("$.committedLines").value(3))
+			.andExpect(jsonPath("$.chunks[0].referenceNumber").value("REF"))
+			.andExpect(jsonPath("$.chunks[1].referenceNumber").value("REF-2"))
+			.andExpect(jsonPath("$.chunks[1].status").value("COMMITTED"));
+
+		verify(movInsertingManagerMock).newMultipleChargingMovements(anyList(), eq("REF"));
+		verify(movInsertingManagerMock).newMultipleChargingMovements(anyList(), eq("REF-2"));
+	}
+
+	@Test
+	void testNewBulkMovements_invalidLine_422() throws Exception {
+		String body = "[" + movement(10) + ", {\"type\": {\"code\": \"+\"}, \"date\": \"2024-05-02\", \"quantity\": 5, \"refNo\": \"REF\"}]";
+
+		bulk(KEY, body)
+			.andExpect(status().isUnprocessableEntity())
+			.andExpect(jsonPath("$.chunks[0].status").value("FAILED"))
+			.andExpect(jsonPath("$.chunks[0].error").value("Line 1: The medical is required"));
+
+		verify(movInsertingManagerMock, never()).newMultipleChargingMovements(anyList(), eq("REF"));
+	}
+
+	@Test
+	void testNewBulkMovements_retryResumesAfterSavedChunks() throws Exception {
+		when(movInsertingManagerMock.newMultipleChargingMovements(anyList(), eq("REF-2")))
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Lot missing.")))
+			.thenReturn(List.of());
+
+		bulk(KEY, 10, 20, 30)
+			.andExpect(status().isUnprocessableEntity())
+			.andExpect(jsonPath("$.status").value("FAILED"))
+			.andExpect(jsonPath("$.chunks[0].status").value("COMMITTED"))
+			.andExpect(jsonPath("$.chunks[1].status").value("FAILED"));
+
+		bulk(KEY, 10, 20, 30)
+			.andExpect(status().isCreated())
+			.andExpect(jsonPath("$.chunks[0].status").value("SKIPPED"))
+			.andExpect(jsonPath("$.chunks[1].status").value("COMMITTED"))
+			.andExpect(jsonPath("$.committedLines").value(3));
+
+		verify(movInsertingManagerMock, times(1)).newMultipleChargingMovements(anyList(), eq("REF"));
+		verify(movInsertingManagerMock, times(2)).newMultipleChargingMovements(anyList(), eq("REF-2"));
+	}
+
+	@Test
+	void testNewBulkMovements_completedRequestNotSavedTwice() throws Exception {
+		bulk(KEY, 10, 20, 30).andExpect(status().isCreated());
+		bulk(KEY, 10, 20, 30)
+			.andExpect(status().isCreated())
+			.andExpect(jsonPath("$.committedLines").value(3));
+
+		verify(movInsertingManagerMock, times(1)).newMultipleChargingMovements(anyList(), eq("REF"));
+		verify(movInsertingManagerMock, times(1)).newMultipleChargingMovements(anyList(), eq("REF-2"));
+	}
+
+	@Test
+	void testNewBulkMovements_cacheFailureKeepsChunkCommitted() throws Exception {
+		doThrow(new IllegalStateException("snapshot")).when(stockLevelSnapshotMock).applyMovements(anyList(), anyBoolean());
+		when(movInsertingManagerMock.newMultipleChargingMovements(anyList(), eq("REF-2")))
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Lot missing.")))
+			.thenReturn(List.of());
+
+		bulk(KEY, 10, 20, 30)
+			.andExpect(status().isUnprocessableEntity())
+			.andExpect(jsonPath("$.chunks[0].status").value("COMMITTED"));
+
+		bulk(KEY, 10, 20, 30)
+			.andExpect(status().isCreated())
+			.andExpect(jsonPath("$.chunks[0].status").value("SKIPPED"));
+
+		verify(movInsertingManagerMock, times(1)).newMultipleChargingMovements(anyList(), eq("REF"));
+	}
+
+	@Test
+	void testNewBulkMovements_retryWithDifferentChunk_422() throws Exception {
+		when(movInsertingManagerMock.newMultipleChargingMovements(anyList(), eq("REF-2")))
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Lot missing.")));
+
+		bulk(KEY, 10, 20, 30).andExpect(status().isUnprocessableEntity());
+
+		bulk(KEY, 11, 20, 30)
+			.andExpect(status().isUnprocessableEntity())
+			.andExpect(jsonPath("$.chunks[0].status").value("FAILED"))
+			.andExpect(jsonPath("$.chunks[0].error").value("The chunk differs from the one already saved with the same idempotency key."));
+
+		verify(movInsertingManagerMock, times(1)).newMultipleChargingMovements(anyList(), eq("REF"));
+	}
+
+	@Test
+	void testGetStockLevels_notReady_503() throws Exception {
+		this.mockMvc
+			.perform(get("/medicalstockmovements/levels"))
+			.andDo(log())
+			.andExpect(status().isServiceUnavailable());
+
+		verify(stockLevelSnapshotMock, never()).getLevels(any(), any());
+	}
+
+	@Test
+	void testGetStockLevels_200() throws Exception {
+		when(stockLevelSnapshotMock.isReady()).thenReturn(true);
+		when(stockLevelSnapshotMock.getLevels(1, "W")).thenReturn(List.of(new StockLevelDTO(1, "W", "A", 2)));
+
+		this.mockMvc
+			.perform(get("/medicalstockmovements/levels").param("med_code", "1").param("ward_id", "W"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$[0].medicalCode").value(1))
+			.andExpect(jsonPath("$[0].wardCode").value("W"))
+			.andExpect(jsonPath("$[0].lotCode").value("A"))
+			.andExpect(jsonPath("$[0].quantity").value(2.0));
+	}
+
+	@Test
+	void testVerifyStockLevels_200() throws Exception {
+		when(stockLevelSnapshotMock.isReady()).thenReturn(true);
+		when(stockLevelSnapshotMock.verify(false))
+			.thenReturn(new StockLevelVerificationDTO(3, false, List.of(new StockLevelMismatchDTO(1, null, "B", 5, 1))));
+
+		this.mockMvc
+			.perform(get("/medicalstockmovements/levels/verify"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.checked").value(3))
+			.andExpect(jsonPath("$.repaired").value(false))
+			.andExpect(jsonPath("$.mismatches[0].lotCode").value("B"))
+			.andExpect(jsonPath("$.mismatches[0].recomputedQuantity").value(1.0));
+
+		verify(stockLevelSnapshotMock, never()).verify(true);
+	}
+
+	@Test
+	void testRepairStockLevels_200() throws Exception {
+		when(stockLevelSnapshotMock.isReady()).thenReturn(true);
+		when(stockLevelSnapshotMock.verify(true)).thenReturn(new StockLevelVerificationDTO(3, true, List.of()));
+
+		this.mockMvc
+			.perform(post("/medicalstockmovements/levels/repair"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.repaired").value(true))
+			.andExpect(jsonPath("$.mismatches").isEmpty());
+	}
+
+	@Test
+	void testRepairStockLevels_notReady_503() throws Exception {
+		this.mockMvc
+			.perform(post("/medicalstockmovements/levels/repair"))
+			.andDo(log())
+			.andExpect(status().isServiceUnavailable());
+
+		verify(stockLevelSnapshotMock, never()).verify(anyBoolean());
+	}
+
+	private ResultActions bulk(String idempotencyKey, int... quantities) throws Exception {
+		StringJoiner body = new StringJoiner(",", "[", "]");
+		for (int quantity : quantities) {
+			body.add(movement(quantity));
+		}
+		return bulk(idempotencyKey, body.toString());
+	}
+
+	private ResultActions bulk(String idempotencyKey, String body) throws Exception {
+		MockHttpServletRequestBuilder request = post("/medicalstockmovements/bulk")
+			.param("type", "charge")
+			.param("ref", "REF")
+			.param("chunk_size", "2")
+			.contentType(MediaType.APPLICATION_JSON)
+			.content(body);
+		if (idempotencyKey != null) {
+			request.header("Idempotency-Key", idempotencyKey);
+		}
+		return this.mockMvc.perform(request).andDo(log());
+	}
+
+	private static String movement(int quantity) {
+		return "{\"medical\": {\"code\": 1}, \"type\": {\"code\": \"+\"}, \"date\": \"2024-05-02\", \"quantity\": " + quantity
+			+ ", \"refNo\": \"REF\"}";
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.Query;
+import jakarta.validation.Validation;
+
+import org.isf.medicalstock.dto.BulkMovementChunkDTO;
+import org.isf.medicalstock.dto.BulkMovementReportDTO;
+import org.isf.medicalstock.manager.MovStockInsertingManager;
+import org.isf.medicalstock.mapper.MovementMapper;
+import org.isf.medicalstock.model.Movement;
+import org.isf.shared.exceptions.OHAPIException;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class BulkMovementIngestionTest {
+
+	private static final String KEY = "3f6c2a1e-delivery-42";
+
+	/** Rows of OH_API_BULK_CHUNKS: key, index, type, reference number, digest, lines, creation. */
+	private final List<Object[]> storedChunks = new ArrayList<>();
+
+	private boolean tableExists = true;
+
+	private MovStockInsertingManager movInsertingManager;
+
+	private MovementMapper movMapper;
+
+	private StockLevelSnapshot stockLevelSnapshot;
+
+	private PlatformTransactionManager transactionManager;
+
+	@BeforeEach
+	void setup() {
+		movInsertingManager = mock(MovStockInsertingManager.class);
+		movMapper = mock(MovementMapper.class);
+		when(movMapper.map2ModelList(anyList())).thenAnswer(invocation -> {
+			List<Movement> movements = new ArrayList<>();
+			for (Object ignored : invocation.getArgument(0, List.class)) {
+				movements.add(new Movement());
+			}
+			return movements;
+		});
+		stockLevelSnapshot = mock(StockLevelSnapshot.class);
+		when(stockLevelSnapshot.write(any(), any())).thenAnswer(invocation -> invocation.getArgument(1, StockLevelSnapshot.Write.class).run());
+		transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+	}
+
+	@Test
+	void testRetryAfterRestartSkipsTheStoredChunks() throws Exception {
+		when(movInsertingManager.newMultipleChargingMovements(anyList(), eq("REF-2")))
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Lot missing.")))
+			.thenReturn(List.of());
+
+		BulkMovementReportDTO failed = ingest(newIngestion(), "REF", 10, 20, 30);
+
+		assertThat(failed.getStatus()).isEqualTo(BulkMovementReportDTO.Status.FAILED);
+		assertThat(failed.getChunks()).extracting(BulkMovementChunkDTO::getStatus)
+			.containsExactly(BulkMovementChunkDTO.Status.COMMITTED, BulkMovementChunkDTO.Status.FAILED);
+		assertThat(storedChunks).hasSize(1);
+
+		// another node, or the same one after a restart
+		BulkMovementReportDTO retried = ingest(newIngestion(), "REF", 10, 20, 30);
+
+		assertThat(retried.getStatus()).isEqualTo(BulkMovementReportDTO.Status.COMPLETED);
+		assertThat(retried.getCommittedLines()).isEqualTo(3);
+		assertThat(retried.getChunks()).extracting(BulkMovementChunkDTO::getStatus)
+			.containsExactly(BulkMovementChunkDTO.Status.SKIPPED, BulkMovementChunkDTO.Status.COMMITTED);
+		assertThat(storedChunks).extracting(row -> row[1]).containsExactly(0, 1);
+		verify(movInsertingManager, times(1)).newMultipleChargingMovements(anyList(), eq("REF"));
+		verify(movInsertingManager, times(2)).newMultipleChargingMovements(anyList(), eq("REF-2"));
+	}
+
+	@Test
+	void testStoredKeyUsedForAnotherRequest_422() throws Exception {
+		ingest(newIngestion(), "REF", 10, 20, 30);
+
+		assertThatThrownBy(() -> ingest(newIngestion(), "OTHER", 10, 20, 30))
+			.isInstanceOf(OHAPIException.class)
+			.extracting("status").isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY);
+	}
+
+	@Test
+	void testRejectedChunkNotStored() throws Exception {
+		when(movInsertingManager.newMultipleChargingMovements(anyList(), eq("REF")))
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Lot missing.")));
+
+		BulkMovementReportDTO report = ingest(newIngestion(), "REF", 10, 20, 30);
+
+		assertThat(report.getStatus()).isEqualTo(BulkMovementReportDTO.Status.FAILED);
+		assertThat(report.getChunks()).extracting(BulkMovementChunkDTO::getStatus).containsExactly(BulkMovementChunkDTO.Status.FAILED);
+		assertThat(storedChunks).isEmpty();
+	}
+
+	@Test
+	void testWithoutTableKeysKeptInMemory() throws Exception {
+		tableExists = false;
+		when(movInsertingManager.newMultipleChargingMovements(anyList(), eq("REF-2")))
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Lot missing.")))
+			.thenReturn(List.of());
+		BulkMovementIngestion ingestion = newIngestion();
+
+		ingest(ingestion, "REF", 10, 20, 30);
+		BulkMovementReportDTO retried = ingest(ingestion, "REF", 10, 20, 30);
+
+		assertThat(retried.getChunks()).extracting(BulkMovementChunkDTO::getStatus)
+			.containsExactly(BulkMovementChunkDTO.Status.SKIPPED, BulkMovementChunkDTO.Status.COMMITTED);
+		assertThat(storedChunks).isEmpty();
+		verify(movInsertingManager, times(1)).newMultipleChargingMovements(anyList(), eq("REF"));
+	}
+
+	@Test
+	void testPurgeDeletesTheExpiredChunks() throws Exception {
+		ingest(newIngestion(), "REF", 10, 20, 30);
+		storedChunks.get(0)[6] = LocalDateTime.now().minusDays(2);
+
+		newIngestion().purgeExpiredKeys();
+
+		assertThat(storedChunks).extracting(row -> row[1]).containsExactly(1);
+	}
+
+	private BulkMovementIngestion newIngestion() {
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createNativeQuery(anyString())).thenAnswer(invocation -> nativeQuery(invocation.getArgument(0)));
+		BulkMovementIngestion ingestion = new BulkMovementIngestion(movInsertingManager, movMapper, stockLevelSnapshot,
+			mock(CriticalStockMonitor.class), mock(FefoLotIndex.class), new ObjectMapper().findAndRegisterModules(),
+			Validation.buildDefaultValidatorFactory().getValidator(), transactionManager, 200, 2000, Duration.ofHours(24));
+		ReflectionTestUtils.setField(ingestion, "entityManager", entityManager);
+		return ingestion;
+	}
+
+	private static BulkMovementReportDTO ingest(BulkMovementIngestion ingestion, String referenceNumber, int... quantities)
+		throws OHServiceException {
+		StringJoiner body = new StringJoiner(",", "[", "]");
+		for (int quantity : quantities) {
+			body.add("{\"medical\": {\"code\": 1}, \"type\": {\"code\": \"+\"}, \"date\": \"2024-05-02\", \"quantity\": " + quantity
+				+ ", \"refNo\": \"REF\"}");
+		}
+		return ingestion.ingest(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)), true, referenceNumber, KEY, 2);
+	}
+
+	private Query nativeQuery(String sql) {
+		Query query = mock(Query.class);
+		Map<String, Object> parameters = new HashMap<>();
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		when(query.getSingleResult()).thenAnswer(invocation -> {
+			if (!tableExists) {
+				throw new PersistenceException("Table 'oh.OH_API_BULK_CHUNKS' doesn't exist");
+			}
+			return 0L;
+		});
+		when(query.getResultList()).thenAnswer(invocation -> storedChunks.stream()
+			.filter(row -> row[0].equals(parameters.get("key")))
+			.map(row -> new Object[] { row[1], row[2], row[3], row[4], row[5] })
+			.toList());
+		when(query.executeUpdate()).thenAnswer(invocation -> {
+			if (sql.startsWith("INSERT")) {
+				storedChunks.add(new Object[] { parameters.get("key"), parameters.get("index"), parameters.get("type"), parameters.get("ref"),
+					parameters.get("digest"), parameters.get("lines"), parameters.get("created") });
+				return 1;
+			}
+			LocalDateTime expiry = (LocalDateTime) parameters.get("expiry");
+			int before = storedChunks.size();
+			storedChunks.removeIf(row -> ((LocalDateTime) row[6]).isBefore(expiry));
+			return before - storedChunks.size();
+		});
+		return query;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.medicals.model.Medical;
+import org.isf.medicalstock.dto.CriticalStockDTO;
+import org.isf.medicalstock.model.Movement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class CriticalStockMonitorTest {
+
+	/** {code, description, critical level, quantity of the Medical columns} of the saved medicals. */
+	private final List<Object[]> medicals = new ArrayList<>();
+
+	private StockLevelSnapshot stockLevelSnapshot;
+
+	private CriticalStockMonitor monitor;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setup() {
+		EntityManager entityManager = mock(EntityManager.class);
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenReturn(query);
+		when(query.getResultList()).thenAnswer(invocation -> new ArrayList<>(medicals));
+		stockLevelSnapshot = mock(StockLevelSnapshot.class);
+
+		monitor = new CriticalStockMonitor(stockLevelSnapshot, true, 60_000L);
+		ReflectionTestUtils.setField(monitor, "entityManager", entityManager);
+	}
+
+	@AfterEach
+	void shutdown() {
+		monitor.shutdown();
+	}
+
+	@Test
+	void testReload_readsTheDatabase() {
+		medicals.add(new Object[] { 1, "AMOXICILLIN", 10.0, 5.0 });
+		// a snapshot not reconciled yet with a discharge of another client
+		when(stockLevelSnapshot.getQuantity(1, null)).thenReturn(100.0);
+
+		monitor.reload();
+
+		assertThat(monitor.isReady()).isTrue();
+		assertThat(monitor.getCriticalItems()).extracting(CriticalStockDTO::getMedicalCode, CriticalStockDTO::getQuantity)
+			.containsExactly(tuple(1, 5.0));
+	}
+
+	@Test
+	void testReload_medicalUnknownToTheSnapshot() {
+		medicals.add(new Object[] { 1, "AMOXICILLIN", 10.0, 5.0 });
+		medicals.add(new Object[] { 2, "PARACETAMOL", 10.0, 50.0 });
+
+		monitor.reload();
+
+		assertThat(monitor.getCriticalItems()).extracting(CriticalStockDTO::getMedicalCode).containsExactly(1);
+	}
+
+	@Test
+	void testMovementsSaved_readsTheSnapshot() {
+		medicals.add(new Object[] { 1, "AMOXICILLIN", 10.0, 50.0 });
+		monitor.reload();
+		assertThat(monitor.getCriticalItems()).isEmpty();
+
+		when(stockLevelSnapshot.getQuantity(1, null)).thenReturn(8.0);
+		monitor.movementsSaved(List.of(movement(1)));
+		List<CriticalStockDTO> afterMovement = monitor.getCriticalItems();
+		// the discharge is saved in the Medical columns too
+		medicals.set(0, new Object[] { 1, "AMOXICILLIN", 10.0, 8.0 });
+		monitor.reload();
+
+		assertThat(afterMovement).extracting(CriticalStockDTO::getQuantity).containsExactly(8.0);
+		assertThat(monitor.getCriticalItems()).extracting(CriticalStockDTO::getQuantity).containsExactly(8.0);
+	}
+
+	@Test
+	void testMovementsSaved_newMedical() {
+		monitor.reload();
+		medicals.add(new Object[] { 3, "IBUPROFEN", 20.0, 12.0 });
+
+		monitor.movementsSaved(List.of(movement(3)));
+
+		assertThat(monitor.getCriticalItems()).extracting(CriticalStockDTO::getMedicalCode, CriticalStockDTO::getQuantity)
+			.containsExactly(tuple(3, 12.0));
+	}
+
+	@Test
+	void testMovementsSaved_notReady() {
+		when(stockLevelSnapshot.getQuantity(1, null)).thenReturn(0.0);
+
+		monitor.movementsSaved(List.of(movement(1)));
+
+		assertThat(monitor.isReady()).isFalse();
+		assertThat(monitor.getCriticalItems()).isEmpty();
+	}
+
+	@Test
+	void testMedicalSavedAndDeleted() {
+		medicals.add(new Object[] { 1, "AMOXICILLIN", 10.0, 100.0 });
+		when(stockLevelSnapshot.getQuantity(1, null)).thenReturn(30.0);
+		monitor.reload();
+
+		Medical medical = new Medical();
+		medical.setCode(1);
+		medical.setDescription("AMOXICILLIN");
+		medical.setMinqty(40.0);
+		medical.setInitialqty(100.0);
+		monitor.medicalSaved(medical);
+
+		assertThat(monitor.getCriticalItems()).extracting(CriticalStockDTO::getQuantity, CriticalStockDTO::getMinQuantity)
+			.containsExactly(tuple(30.0, 40.0));
+
+		monitor.medicalDeleted(1);
+
+		assertThat(monitor.getCriticalItems()).isEmpty();
+	}
+
+	private static Movement movement(int medicalCode) {
+		Medical medical = new Medical();
+		medical.setCode(medicalCode);
+		Movement movement = new Movement();
+		movement.setMedical(medical);
+		return movement;
+	}
+}
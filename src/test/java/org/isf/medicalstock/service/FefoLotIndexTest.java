@@ -0,0 +1,215 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.medicalstock.dto.LotPickDTO;
+import org.isf.medicalstock.dto.LotRequestDTO;
+import org.isf.medicalstock.dto.LotSelectionDTO;
+import org.isf.medicalstock.model.Lot;
+import org.isf.medicalstock.model.Movement;
+import org.isf.medicals.model.Medical;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class FefoLotIndexTest {
+
+	private static final int MEDICAL = 1;
+
+	/** Quantity of every lot in the main store, as saved in the database. */
+	private final Map<String, Double> savedLevels = new LinkedHashMap<>();
+
+	/** Due date of every lot, the preparation dates are one year earlier. */
+	private final Map<String, LocalDate> dueDates = new LinkedHashMap<>();
+
+	private StockLevelSnapshot snapshot;
+
+	private FefoLotIndex index;
+
+	@BeforeEach
+	void setup() {
+		savedLevels.put("A", 10d);
+		savedLevels.put("B", 10d);
+		LocalDate today = LocalDate.now();
+		dueDates.put("A", today.plusMonths(1));
+		dueDates.put("B", today.plusMonths(6));
+		dueDates.put("C", today.plusMonths(3));
+
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> query(invocation.getArgument(0)));
+
+		snapshot = new StockLevelSnapshot(true, 4);
+		ReflectionTestUtils.setField(snapshot, "entityManager", entityManager);
+		snapshot.loadOnStartup();
+		index = new FefoLotIndex(snapshot, true);
+		ReflectionTestUtils.setField(index, "entityManager", entityManager);
+		index.loadOnStartup();
+	}
+
+	@Test
+	void testSelectAfterDischargeWithoutLot() {
+		// the manager picked the quantity from the first expiring lot but did not set it back on the movement
+		savedLevels.put("A", 2d);
+		snapshot.applyMovements(List.of(discharge(null, 8)), false);
+
+		List<LotPickDTO> picks = select(5);
+
+		assertThat(picks).extracting(LotPickDTO::getLotCode).containsExactly("A", "B");
+		assertThat(picks).extracting(LotPickDTO::getQuantity).containsExactly(2, 3);
+	}
+
+	@Test
+	void testSelectAfterDischargeFromLot() {
+		snapshot.applyMovements(List.of(discharge("A", 8)), false);
+
+		List<LotPickDTO> picks = select(5);
+
+		assertThat(picks).extracting(LotPickDTO::getLotCode).containsExactly("A", "B");
+		assertThat(picks).extracting(LotPickDTO::getQuantity).containsExactly(2, 3);
+	}
+
+	@Test
+	void testSelectSkipsExhaustedLot() {
+		savedLevels.put("A", 0d);
+		snapshot.applyMovements(List.of(discharge(null, 10)), false);
+
+		List<LotSelectionDTO> selections = index.select(List.of(new LotRequestDTO(MEDICAL, 12)), false);
+
+		assertThat(selections.get(0).getLots()).extracting(LotPickDTO::getLotCode).containsExactly("B");
+		assertThat(selections.get(0).getShortage()).isEqualTo(2);
+	}
+
+	@Test
+	void testDepletedLotDroppedAndChargedAgain() {
+		savedLevels.put("A", 0d);
+		snapshot.applyMovements(List.of(discharge("A", 10)), false);
+
+		assertThat(select(5)).extracting(LotPickDTO::getLotCode).containsExactly("B");
+		assertThat(indexedLots()).containsExactly("B");
+
+		savedLevels.put("A", 3d);
+		List<Movement> charges = List.of(charge("A", 3));
+		snapshot.applyMovements(charges, true);
+		index.movementsSaved(charges);
+
+		List<LotPickDTO> picks = select(5);
+		assertThat(picks).extracting(LotPickDTO::getLotCode).containsExactly("A", "B");
+		assertThat(picks).extracting(LotPickDTO::getQuantity).containsExactly(3, 2);
+	}
+
+	@Test
+	void testReloadAddsLotsChargedByOtherClients() {
+		savedLevels.put("C", 5d);
+		snapshot.reconcile();
+
+		index.reload();
+
+		List<LotPickDTO> picks = select(25);
+		assertThat(picks).extracting(LotPickDTO::getLotCode).containsExactly("A", "C", "B");
+		assertThat(picks).extracting(LotPickDTO::getQuantity).containsExactly(10, 5, 10);
+	}
+
+	@Test
+	void testReloadDropsLotsDepletedByOtherClients() {
+		savedLevels.put("B", 0d);
+		snapshot.reconcile();
+
+		index.reload();
+
+		assertThat(indexedLots()).containsExactly("A");
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> indexedLots() {
+		Map<Integer, Collection<Object>> lots = (Map<Integer, Collection<Object>>) ReflectionTestUtils.getField(index, "lots");
+		return lots.getOrDefault(MEDICAL, List.of()).stream().map(lot -> ReflectionTestUtils.<String> invokeMethod(lot, "code")).toList();
+	}
+
+	private List<LotPickDTO> select(int quantity) {
+		List<LotSelectionDTO> selections = index.select(List.of(new LotRequestDTO(MEDICAL, quantity)), false);
+		assertThat(selections).hasSize(1);
+		assertThat(selections.get(0).getShortage()).isZero();
+		return selections.get(0).getLots();
+	}
+
+	private Movement charge(String lotCode, int quantity) {
+		Movement movement = discharge(lotCode, quantity);
+		movement.getLot().setDueDate(dueDates.get(lotCode).atStartOfDay());
+		movement.getLot().setPreparationDate(dueDates.get(lotCode).minusYears(1).atStartOfDay());
+		return movement;
+	}
+
+	private static Movement discharge(String lotCode, int quantity) {
+		Medical medical = new Medical();
+		medical.setCode(MEDICAL);
+		Movement movement = new Movement();
+		movement.setMedical(medical);
+		movement.setQuantity(quantity);
+		if (lotCode != null) {
+			Lot lot = new Lot();
+			lot.setCode(lotCode);
+			movement.setLot(lot);
+		}
+		return movement;
+	}
+
+	@SuppressWarnings("unchecked")
+	private TypedQuery<Object[]> query(String jpql) {
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		when(query.setParameter(anyString(), any())).thenReturn(query);
+		when(query.getResultList()).thenAnswer(invocation -> rows(jpql));
+		return query;
+	}
+
+	private List<Object[]> rows(String jpql) {
+		List<Object[]> rows = new ArrayList<>();
+		if (jpql.startsWith("SELECT m.code, m.initialqty")) {
+			rows.add(new Object[] { MEDICAL, 0d });
+		} else if (jpql.startsWith("SELECT mov.medical.code, l.code, SUM")) {
+			savedLevels.forEach((lot, quantity) -> rows.add(new Object[] { MEDICAL, lot, quantity }));
+		} else if (jpql.startsWith("SELECT mov.medical.code, l.code, l.dueDate")) {
+			savedLevels.forEach((lot, quantity) -> {
+				if (quantity > 0) {
+					rows.add(new Object[] { MEDICAL, lot, dueDates.get(lot), dueDates.get(lot).minusYears(1) });
+				}
+			});
+		}
+		return rows;
+	}
+}
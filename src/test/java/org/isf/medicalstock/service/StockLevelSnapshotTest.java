@@ -0,0 +1,320 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.medicalstock.service;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.medicals.model.Medical;
+import org.isf.medicalstock.dto.StockLevelMismatchDTO;
+import org.isf.medicalstock.dto.StockLevelVerificationDTO;
+import org.isf.medicalstock.model.Lot;
+import org.isf.medicalstock.model.Movement;
+import org.isf.medicalstockward.model.MovementWard;
+import org.isf.ward.model.Ward;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class StockLevelSnapshotTest {
+
+	private static final int MEDICAL = 1;
+
+	/**
+	 * Stock of a medical in a location and lot, as saved in the database: no ward for the main store.
+	 */
+	private record Level(int medical, String ward, String lot) {
+	}
+
+	private final Map<Integer, Double> initialQuantities = new HashMap<>();
+
+	private final Map<Level, Double> savedLevels = new HashMap<>();
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	private StockLevelSnapshot snapshot;
+
+	@BeforeEach
+	void setup() {
+		initialQuantities.put(MEDICAL, 0d);
+		save(MEDICAL, null, "A", 10);
+		save(MEDICAL, null, "B", 5);
+		save(MEDICAL, "W", "A", 2);
+
+		snapshot = newSnapshot();
+		snapshot.loadOnStartup();
+	}
+
+	@AfterEach
+	void closeExecutor() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void testLoad() {
+		assertThat(snapshot.isReady()).isTrue();
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(15d);
+		assertThat(snapshot.getQuantity(MEDICAL, "W")).isEqualTo(2d);
+		assertThat(snapshot.getQuantity(MEDICAL, "X")).isNull();
+		assertThat(snapshot.getLotQuantity(MEDICAL, "A")).isEqualTo(10d);
+		assertThat(snapshot.getQuantity(2, null)).isNull();
+		assertThat(snapshot.getLevels(MEDICAL, null)).hasSize(3);
+	}
+
+	@Test
+	void testCharge() {
+		save(MEDICAL, null, "A", 4);
+		snapshot.applyMovements(List.of(movement(MEDICAL, "A", 4, null)), true);
+
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(19d);
+		assertThat(snapshot.getLotQuantity(MEDICAL, "A")).isEqualTo(14d);
+		assertThat(snapshot.verify(false).getMismatches()).isEmpty();
+	}
+
+	@Test
+	void testDischargeToWard() {
+		save(MEDICAL, null, "A", -3);
+		save(MEDICAL, "W", "A", 3);
+		snapshot.applyMovements(List.of(movement(MEDICAL, "A", 3, "W")), false);
+
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(12d);
+		assertThat(snapshot.getLotQuantity(MEDICAL, "A")).isEqualTo(7d);
+		assertThat(snapshot.getQuantity(MEDICAL, "W")).isEqualTo(5d);
+		assertThat(snapshot.verify(false).getMismatches()).isEmpty();
+	}
+
+	@Test
+	void testWardToWardMovement() {
+		save(MEDICAL, "W", "A", -1);
+		save(MEDICAL, "W2", "A", 1);
+		snapshot.applyWardMovement(wardMovement("W", "W2", "A", 1));
+
+		assertThat(snapshot.getQuantity(MEDICAL, "W")).isEqualTo(1d);
+		assertThat(snapshot.getQuantity(MEDICAL, "W2")).isEqualTo(1d);
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(15d);
+		assertThat(snapshot.verify(false).getMismatches()).isEmpty();
+	}
+
+	@Test
+	void testDischargeWithoutLotReloadsTheMedical() {
+		// the manager took the quantity from lot A but did not set it back on the movement
+		save(MEDICAL, null, "A", -4);
+		snapshot.applyMovements(List.of(movement(MEDICAL, null, 4, null)), false);
+
+		assertThat(snapshot.getLotQuantity(MEDICAL, "A")).isEqualTo(6d);
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(11d);
+	}
+
+	@Test
+	void testUnknownMedicalLoadedOnFirstMovement() {
+		initialQuantities.put(2, 0d);
+		save(2, null, "C", 7);
+		snapshot.applyMovements(List.of(movement(2, "C", 7, null)), true);
+
+		assertThat(snapshot.getQuantity(2, null)).isEqualTo(7d);
+		assertThat(snapshot.getLotQuantity(2, "C")).isEqualTo(7d);
+	}
+
+	@Test
+	void testVerifyAndRepair() {
+		// a discharge saved by another client
+		save(MEDICAL, null, "B", -4);
+
+		StockLevelVerificationDTO verification = snapshot.verify(false);
+
+		assertThat(verification.isRepaired()).isFalse();
+		assertThat(verification.getMismatches()).singleElement().satisfies(mismatch -> {
+			assertThat(mismatch.getMedicalCode()).isEqualTo(MEDICAL);
+			assertThat(mismatch.getWardCode()).isNull();
+			assertThat(mismatch.getLotCode()).isEqualTo("B");
+			assertThat(mismatch.getSnapshotQuantity()).isEqualTo(5d);
+			assertThat(mismatch.getRecomputedQuantity()).isEqualTo(1d);
+		});
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(15d);
+
+		assertThat(snapshot.verify(true).getMismatches()).extracting(StockLevelMismatchDTO::getLotCode).containsExactly("B");
+		assertThat(snapshot.getQuantity(MEDICAL, null)).isEqualTo(11d);
+		assertThat(snapshot.verify(false).getMismatches()).isEmpty();
+	}
+
+	@Test
+	void testReconcileRepairsTheMovementsOfOtherClients() {
+		save(MEDICAL, "W", "A", -2);
+
+		snapshot.reconcile();
+
+		assertThat(snapshot.getQuantity(MEDICAL, "W")).isZero();
+		assertThat(snapshot.verify(false).getMismatches()).isEmpty();
+	}
+
+	@Test
+	void testReconcileLoadsTheSnapshotNotLoadedAtStartup() {
+		StockLevelSnapshot notLoaded = newSnapshot();
+		assertThat(notLoaded.getQuantity(MEDICAL, null)).isNull();
+
+		notLoaded.reconcile();
+
+		assertThat(notLoaded.isReady()).isTrue();
+		assertThat(notLoaded.getQuantity(MEDICAL, null)).isEqualTo(15d);
+	}
+
+	@Test
+	void testRepairWaitsForTheWriteInProgress() throws Exception {
+		CountDownLatch saved = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Future<?> write = executor.submit(() -> snapshot.write(Set.of(MEDICAL), () -> {
+			save(MEDICAL, null, "A", 4);
+			saved.countDown();
+			await(release);
+			snapshot.applyMovements(List.of(movement(MEDICAL, "A", 4, null)), true);
+			return null;
+		}));
+		assertThat(saved.await(5, SECONDS)).isTrue();
+
+		// the recompute already reads the saved movement, the medical is checked again once it is applied
+		Future<StockLevelVerificationDTO> repair = executor.submit(() -> snapshot.verify(true));
+		assertThatThrownBy(() -> repair.get(200, MILLISECONDS)).isInstanceOf(TimeoutException.class);
+		release.countDown();
+		write.get(5, SECONDS);
+
+		assertThat(repair.get(5, SECONDS).getMismatches()).isEmpty();
+		assertThat(snapshot.getLotQuantity(MEDICAL, "A")).isEqualTo(14d);
+	}
+
+	private StockLevelSnapshot newSnapshot() {
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> query(invocation.getArgument(0)));
+		StockLevelSnapshot stockLevelSnapshot = new StockLevelSnapshot(true, 4);
+		ReflectionTestUtils.setField(stockLevelSnapshot, "entityManager", entityManager);
+		return stockLevelSnapshot;
+	}
+
+	private synchronized void save(int medical, String ward, String lot, double delta) {
+		savedLevels.merge(new Level(medical, ward, lot), delta, Double::sum);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			assertThat(latch.await(5, SECONDS)).isTrue();
+		} catch (InterruptedException exception) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(exception);
+		}
+	}
+
+	private static Movement movement(int medicalCode, String lotCode, int quantity, String wardCode) {
+		Movement movement = new Movement();
+		movement.setMedical(medical(medicalCode));
+		movement.setQuantity(quantity);
+		movement.setLot(lot(lotCode));
+		movement.setWard(ward(wardCode));
+		return movement;
+	}
+
+	private static MovementWard wardMovement(String wardCode, String wardToCode, String lotCode, double quantity) {
+		MovementWard movement = new MovementWard();
+		movement.setMedical(medical(MEDICAL));
+		movement.setWard(ward(wardCode));
+		movement.setWardTo(ward(wardToCode));
+		movement.setLot(lot(lotCode));
+		movement.setQuantity(quantity);
+		return movement;
+	}
+
+	private static Medical medical(int code) {
+		Medical medical = new Medical();
+		medical.setCode(code);
+		return medical;
+	}
+
+	private static Lot lot(String code) {
+		if (code == null) {
+			return null;
+		}
+		Lot lot = new Lot();
+		lot.setCode(code);
+		return lot;
+	}
+
+	private static Ward ward(String code) {
+		if (code == null) {
+			return null;
+		}
+		Ward ward = new Ward();
+		ward.setCode(code);
+		return ward;
+	}
+
+	@SuppressWarnings("unchecked")
+	private TypedQuery<Object[]> query(String jpql) {
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		Integer[] medical = new Integer[1];
+		when(query.setParameter(eq("medical"), any())).thenAnswer(invocation -> {
+			medical[0] = invocation.getArgument(1);
+			return query;
+		});
+		when(query.getResultList()).thenAnswer(invocation -> rows(jpql, medical[0]));
+		return query;
+	}
+
+	private synchronized List<Object[]> rows(String jpql, Integer medical) {
+		List<Object[]> rows = new ArrayList<>();
+		if (jpql.startsWith("SELECT m.code, m.initialqty")) {
+			initialQuantities.forEach((code, quantity) -> {
+				if (medical == null || medical.equals(code)) {
+					rows.add(new Object[] { code, quantity });
+				}
+			});
+			return rows;
+		}
+		boolean mainStore = jpql.startsWith("SELECT mov.medical.code");
+		savedLevels.forEach((level, quantity) -> {
+			if ((medical == null || medical == level.medical()) && mainStore == (level.ward() == null)) {
+				rows.add(mainStore ? new Object[] { level.medical(), level.lot(), quantity }
+					: new Object[] { level.medical(), level.ward(), level.lot(), quantity });
+			}
+		});
+		return rows;
+	}
+}
@@ -21,18 +21,37 @@
  */
 package org.isf.opd.rest;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 import org.isf.opd.data.OpdHelper;
 import org.isf.opd.dto.OpdDTO;
+import org.isf.opd.dto.OpdStatsDTO;
+import org.isf.opd.dto.OpdStatsRowDTO;
+import org.isf.opd.dto.OpdWithOperationRowDTO;
 import org.isf.opd.manager.OpdBrowserManager;
 import org.isf.opd.mapper.OpdMapper;
 import org.isf.opd.model.Opd;
+import org.isf.opd.service.OpdHistoryQuery;
+import org.isf.opd.service.OpdOperationRowWriter;
+import org.isf.opd.service.OpdStatsCube;
 import org.isf.operation.manager.OperationRowBrowserManager;
 import org.isf.operation.mapper.OperationRowMapper;
 import org.isf.patient.data.PatientHelper;
@@ -41,10 +60,12 @@ import org.isf.patient.model.Patient;
 import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
 import org.isf.shared.mapper.converter.BlobToByteArrayConverter;
 import org.isf.shared.mapper.converter.ByteArrayToBlobConverter;
+import org.isf.shared.progressive.ProgressiveAllocator;
 import org.isf.ward.manager.WardBrowserManager;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.modelmapper.ModelMapper;
@@ -76,6 +97,18 @@ class OpdControllerTest {
 	@Mock
 	protected WardBrowserManager wardBrowserManager;
 
+	@Mock
+	protected OpdOperationRowWriter opdOperationRowWriter;
+
+	@Mock
+	protected OpdHistoryQuery opdHistoryQuery;
+
+	@Mock
+	protected ProgressiveAllocator progressiveAllocator;
+
+	@Mock
+	protected OpdStatsCube opdStatsCube;
+
 	private MockMvc mockMvc;
 
 	private AutoCloseable closeable;
@@ -85,13 +118,16 @@ class OpdControllerTest {
 		closeable = MockitoAnnotations.openMocks(this);
 		this.mockMvc = MockMvcBuilders
 			.standaloneSetup(new OpdController(opdBrowserManagerMock, opdMapper, patientBrowserManagerMock, operationRowBrowserManagerMock,
-				opRowMapper, wardBrowserManager))
+				opRowMapper, wardBrowserManager, opdOperationRowWriter, opdHistoryQuery, progressiveAllocator,
+				opdStatsCube))
 			.setControllerAdvice(new OHResponseEntityExceptionHandler())
 			.build();
 		ModelMapper modelMapper = new ModelMapper();
 		modelMapper.addConverter(new BlobToByteArrayConverter());
 		modelMapper.addConverter(new ByteArrayToBlobConverter());
 		ReflectionTestUtils.setField(opdMapper, "modelMapper", modelMapper);
+
+		when(progressiveAllocator.next(any(), any(), any())).thenReturn(null);
 	}
 
 	@AfterEach
@@ -127,4 +163,146 @@ class OpdControllerTest {
 		LOGGER.debug("result: {}", result);
 	}
 
+	@Test
+	void testNewOpdWithOperationRow_201() throws Exception {
+		Patient patient = PatientHelper.setup();
+		patient.setCode(1);
+		Opd opd = OpdHelper.setup();
+		opd.setPatient(patient);
+
+		OpdWithOperationRowDTO body = new OpdWithOperationRowDTO();
+		body.setOpdDTO(opdMapper.map2DTO(opd));
+		body.setOperationRows(new ArrayList<>());
+
+		when(patientBrowserManagerMock.getPatientById(1)).thenReturn(patient);
+		when(opdOperationRowWriter.create(any(Opd.class), anyList())).thenReturn(new OpdOperationRowWriter.Saved(opd, List.of()));
+
+		this.mockMvc
+			.perform(post("/opds/rows")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(OpdHelper.getObjectMapper().writeValueAsString(body)))
+			.andExpect(status().isCreated())
+			.andExpect(jsonPath("$.operationRows").isEmpty());
+	}
+
+	@Test
+	void testNewOpdWithOperationRow_allocatedProgYear_201() throws Exception {
+		Patient patient = PatientHelper.setup();
+		patient.setCode(1);
+		Opd opd = OpdHelper.setup();
+		opd.setPatient(patient);
+		opd.setDate(LocalDateTime.now());
+
+		OpdWithOperationRowDTO body = new OpdWithOperationRowDTO();
+		body.setOpdDTO(opdMapper.map2DTO(opd));
+		body.setOperationRows(new ArrayList<>());
+
+		when(patientBrowserManagerMock.getPatientById(1)).thenReturn(patient);
+		when(progressiveAllocator.next(eq(ProgressiveAllocator.Sequence.OPD), eq(""), any())).thenReturn(42);
+		when(opdOperationRowWriter.create(any(Opd.class), anyList())).thenReturn(new OpdOperationRowWriter.Saved(opd, List.of()));
+
+		this.mockMvc
+			.perform(post("/opds/rows")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(OpdHelper.getObjectMapper().writeValueAsString(body)))
+			.andExpect(status().isCreated());
+
+		ArgumentCaptor<Opd> saved = ArgumentCaptor.forClass(Opd.class);
+		verify(opdOperationRowWriter).create(saved.capture(), anyList());
+		assertThat(saved.getValue().getProgYear()).isEqualTo(42);
+	}
+
+	@Test
+	void testGetProgressiveYear_doesNotAllocate_200() throws Exception {
+		when(opdBrowserManagerMock.getProgYear(0)).thenReturn(41);
+		when(progressiveAllocator.peek(eq(ProgressiveAllocator.Sequence.OPD), eq(""), any()))
+			.thenAnswer(invocation -> invocation.getArgument(2, ProgressiveAllocator.Floor.class).get() + 1);
+
+		this.mockMvc
+			.perform(get("/opds/ProgYear/{year}", 0))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$").value(41));
+
+		verify(progressiveAllocator, never()).next(any(), any(), any());
+	}
+
+	@Test
+	void testNewOpdWithOperationRow_notCreated_400() throws Exception {
+		Patient patient = PatientHelper.setup();
+		patient.setCode(1);
+		Opd opd = OpdHelper.setup();
+		opd.setPatient(patient);
+
+		OpdWithOperationRowDTO body = new OpdWithOperationRowDTO();
+		body.setOpdDTO(opdMapper.map2DTO(opd));
+		body.setOperationRows(new ArrayList<>());
+
+		when(patientBrowserManagerMock.getPatientById(1)).thenReturn(patient);
+		when(opdOperationRowWriter.create(any(Opd.class), anyList())).thenReturn(null);
+
+		this.mockMvc
+			.perform(post("/opds/rows")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(OpdHelper.getObjectMapper().writeValueAsString(body)))
+			.andExpect(status().isBadRequest());
+	}
+
+	@Test
+	void testGetOpdHistoryByPatient_200() throws Exception {
+		Patient patient = PatientHelper.setup();
+		patient.setCode(1);
+		Opd opd = OpdHelper.setup();
+		opd.setPatient(patient);
+		opd.setCode(7);
+
+		when(opdHistoryQuery.findOpds(1, 2, 5)).thenReturn(List.of(opd));
+		when(opdHistoryQuery.countOpds(1)).thenReturn(11L);
+		when(opdHistoryQuery.findOperationRows(anyList())).thenReturn(Map.of());
+
+		this.mockMvc
+			.perform(get("/opds/patient/{pcode}/history", 1)
+				.param("page", "2")
+				.param("size", "5"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].opdDTO.code").value(7))
+			.andExpect(jsonPath("$.data[0].operationRows").isEmpty())
+			.andExpect(jsonPath("$.pageInfo.totalNbOfElements").value(11))
+			.andExpect(jsonPath("$.pageInfo.hasNextPage").value(false));
+
+		verify(operationRowBrowserManagerMock, never()).getOperationRowByOpd(any(Opd.class));
+	}
+
+	@Test
+	void testGetOpdStats_200() throws Exception {
+		LocalDate from = LocalDate.of(2024, 1, 1);
+		LocalDate to = LocalDate.of(2024, 1, 31);
+		OpdStatsDTO stats = new OpdStatsDTO(from, to, List.of("WEEK", "SEX"), List.of(
+			new OpdStatsRowDTO(from, null, null, null, "F", null, null, 12),
+			new OpdStatsRowDTO(from, null, null, null, "M", null, null, 9)));
+
+		when(opdStatsCube.isReady()).thenReturn(true);
+		when(opdStatsCube.rollUp(eq(from), eq(to), eq(List.of(OpdStatsCube.Dimension.WEEK, OpdStatsCube.Dimension.SEX)), any()))
+			.thenReturn(stats);
+
+		this.mockMvc
+			.perform(get("/opds/stats")
+				.param("dateFrom", "2024-01-01")
+				.param("dateTo", "2024-01-31")
+				.param("groupBy", "week,sex"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.total").value(21))
+			.andExpect(jsonPath("$.rows[0].sex").value("F"));
+	}
+
+	@Test
+	void testGetOpdStats_unknownGroupBy_400() throws Exception {
+		when(opdStatsCube.isReady()).thenReturn(true);
+
+		this.mockMvc
+			.perform(get("/opds/stats")
+				.param("dateFrom", "2024-01-01")
+				.param("dateTo", "2024-01-31")
+				.param("groupBy", "patient"))
+			.andExpect(status().isBadRequest());
+	}
 }
@@ -0,0 +1,265 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.opd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.opd.dto.OpdStatsDTO;
+import org.isf.opd.dto.OpdStatsRowDTO;
+import org.isf.opd.service.OpdStatsCube.Dimension;
+import org.isf.opd.service.OpdStatsCube.Filter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class OpdStatsCubeTest {
+
+	private static final Filter ALL = new Filter(null, null, null, 'A', 'A');
+
+	private static final LocalDate FROM = LocalDate.parse("2024-03-01");
+
+	private static final LocalDate TO = LocalDate.parse("2024-03-31");
+
+	/** The OPDs in the database: date, disease, disease type, age, sex, new patient or reattendance and ward. */
+	private final List<Object[]> opds = new ArrayList<>();
+
+	private EntityManager entityManager;
+
+	private OpdStatsCube cube;
+
+	@BeforeEach
+	void setup() {
+		entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> opdsQuery());
+		cube = newCube(0, 1, 5, 15, 25, 45, 65);
+	}
+
+	@Test
+	void testRollUp_grandTotal() {
+		opd("2024-02-29", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-15", "D2", "T1", 40, 'F', 'R', "OPD");
+		opd("2024-03-31", "D2", "T1", 40, 'F', 'R', null);
+		opd("2024-04-01", "D2", "T1", 40, 'F', 'R', null);
+		cube.rebuild();
+
+		OpdStatsDTO stats = cube.rollUp(FROM, TO, List.of(), ALL);
+
+		assertThat(cube.isReady()).isTrue();
+		assertThat(stats.getGroupBy()).isEmpty();
+		assertThat(stats.getRows()).extracting(OpdStatsRowDTO::getPeriod, OpdStatsRowDTO::getCount).containsExactly(tuple(null, 3L));
+		assertThat(stats.getTotal()).isEqualTo(3);
+	}
+
+	@Test
+	void testRollUp_byDiseaseAndSex() {
+		opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-02", "D1", "T1", 31, 'M', 'R', "OPD");
+		opd("2024-03-02", "D1", "T1", 32, 'F', 'N', "OPD");
+		opd("2024-03-03", "D2", "T2", 40, 'F', 'N', "OPD");
+		cube.rebuild();
+
+		OpdStatsDTO stats = cube.rollUp(FROM, TO, List.of(Dimension.DISEASE, Dimension.SEX), ALL);
+
+		assertThat(stats.getGroupBy()).containsExactly("DISEASE", "SEX");
+		assertThat(stats.getRows())
+			.extracting(OpdStatsRowDTO::getDiseaseCode, OpdStatsRowDTO::getSex, OpdStatsRowDTO::getDiseaseTypeCode, OpdStatsRowDTO::getCount)
+			.containsExactlyInAnyOrder(tuple("D1", "M", null, 2L), tuple("D1", "F", null, 1L), tuple("D2", "F", null, 1L));
+		// the largest groups first
+		assertThat(stats.getRows().get(0).getCount()).isEqualTo(2);
+	}
+
+	@Test
+	void testRollUp_ageBands() {
+		opd("2024-03-01", "D1", "T1", 0, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", null, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 4, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 5, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 64, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 65, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 99, 'M', 'N', "OPD");
+		cube.rebuild();
+
+		assertThat(ageBands(cube)).containsOnly(Map.entry("0-0", 2L), Map.entry("1-4", 1L), Map.entry("5-14", 1L), Map.entry("45-64", 1L),
+			Map.entry("65+", 2L));
+	}
+
+	@Test
+	void testRollUp_ageBandsWithoutZero() {
+		OpdStatsCube bands = newCube(18, 5, 18);
+		opd("2024-03-01", "D1", "T1", 3, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 5, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 17, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 18, 'M', 'N', "OPD");
+		bands.rebuild();
+
+		assertThat(ageBands(bands)).containsOnly(Map.entry("0-4", 1L), Map.entry("5-17", 2L), Map.entry("18+", 1L));
+	}
+
+	@Test
+	void testRollUp_byDayWeekAndMonth() {
+		// a Sunday, a Monday and the first day of the next month
+		opd("2024-03-03", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-04", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-04", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-04-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		cube.rebuild();
+		LocalDate to = LocalDate.parse("2024-04-30");
+
+		assertThat(cube.rollUp(FROM, to, List.of(Dimension.DAY), ALL).getRows())
+			.extracting(OpdStatsRowDTO::getPeriod, OpdStatsRowDTO::getCount)
+			.containsExactly(tuple(LocalDate.parse("2024-03-03"), 1L), tuple(LocalDate.parse("2024-03-04"), 2L),
+				tuple(LocalDate.parse("2024-04-01"), 1L));
+		assertThat(cube.rollUp(FROM, to, List.of(Dimension.WEEK), ALL).getRows())
+			.extracting(OpdStatsRowDTO::getPeriod, OpdStatsRowDTO::getCount)
+			.containsExactly(tuple(LocalDate.parse("2024-02-26"), 1L), tuple(LocalDate.parse("2024-03-04"), 2L),
+				tuple(LocalDate.parse("2024-04-01"), 1L));
+		assertThat(cube.rollUp(FROM, to, List.of(Dimension.MONTH), ALL).getRows())
+			.extracting(OpdStatsRowDTO::getPeriod, OpdStatsRowDTO::getCount)
+			.containsExactly(tuple(LocalDate.parse("2024-03-01"), 3L), tuple(LocalDate.parse("2024-04-01"), 1L));
+	}
+
+	@Test
+	void testRollUp_filters() {
+		opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 30, 'F', 'N', "OPD");
+		opd("2024-03-01", "D1", "T1", 30, 'F', 'R', "OPD");
+		opd("2024-03-01", "D2", "T2", 30, 'F', 'N', "ICU");
+		opd("2024-03-01", "D3", "T2", 30, 'F', 'N', null);
+		cube.rebuild();
+
+		assertThat(cube.rollUp(FROM, TO, List.of(), new Filter("D1", null, null, 'A', 'A')).getTotal()).isEqualTo(3);
+		assertThat(cube.rollUp(FROM, TO, List.of(), new Filter(null, "T2", null, 'A', 'A')).getTotal()).isEqualTo(2);
+		assertThat(cube.rollUp(FROM, TO, List.of(), new Filter(null, null, "ICU", 'A', 'A')).getTotal()).isEqualTo(1);
+		assertThat(cube.rollUp(FROM, TO, List.of(), new Filter(null, null, null, 'f', 'A')).getTotal()).isEqualTo(4);
+		assertThat(cube.rollUp(FROM, TO, List.of(), new Filter("D1", null, null, 'F', 'n')).getTotal()).isEqualTo(1);
+	}
+
+	@Test
+	void testRollUp_emptyRange() {
+		opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		cube.rebuild();
+
+		assertThat(cube.rollUp(TO, FROM, List.of(), ALL).getRows()).isEmpty();
+	}
+
+	@Test
+	void testOpdsChanged_recountsTheDay() {
+		opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		cube.rebuild();
+
+		Object[] created = opd("2024-03-01", "D2", "T1", 30, 'M', 'N', "OPD");
+		cube.opdsChanged(List.of((LocalDateTime) created[0]));
+
+		assertThat(cube.rollUp(FROM, TO, List.of(Dimension.DISEASE), ALL).getRows())
+			.extracting(OpdStatsRowDTO::getDiseaseCode, OpdStatsRowDTO::getCount)
+			.containsExactlyInAnyOrder(tuple("D1", 1L), tuple("D2", 1L));
+
+		opds.remove(created);
+		cube.opdsChanged(List.of((LocalDateTime) created[0]));
+
+		assertThat(cube.rollUp(FROM, TO, List.of(), ALL).getTotal()).isEqualTo(1);
+	}
+
+	@Test
+	void testOpdsChanged_opdMovedToAnotherDay() {
+		Object[] moved = opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+		opd("2024-03-02", "D1", "T1", 30, 'M', 'N', "OPD");
+		cube.rebuild();
+		LocalDateTime before = (LocalDateTime) moved[0];
+
+		moved[0] = LocalDate.parse("2024-03-02").atTime(11, 0);
+		List<LocalDateTime> dates = new ArrayList<>();
+		dates.add(before);
+		dates.add((LocalDateTime) moved[0]);
+		dates.add(null);
+		cube.opdsChanged(dates);
+
+		assertThat(cube.rollUp(FROM, TO, List.of(Dimension.DAY), ALL).getRows())
+			.extracting(OpdStatsRowDTO::getPeriod, OpdStatsRowDTO::getCount)
+			.containsExactly(tuple(LocalDate.parse("2024-03-02"), 2L));
+	}
+
+	@Test
+	void testDisabled() {
+		OpdStatsCube disabled = new OpdStatsCube(false, 100, new int[] { 0 });
+		ReflectionTestUtils.setField(disabled, "entityManager", entityManager);
+		opd("2024-03-01", "D1", "T1", 30, 'M', 'N', "OPD");
+
+		disabled.buildOnStartup();
+
+		assertThat(disabled.isReady()).isFalse();
+		assertThat(disabled.rollUp(FROM, TO, List.of(), ALL).getRows()).isEmpty();
+	}
+
+	private OpdStatsCube newCube(int... ageBands) {
+		OpdStatsCube opdStatsCube = new OpdStatsCube(true, 100, ageBands);
+		ReflectionTestUtils.setField(opdStatsCube, "entityManager", entityManager);
+		return opdStatsCube;
+	}
+
+	private Object[] opd(String date, String disease, String diseaseType, Integer age, char sex, char newPatient, String ward) {
+		Object[] row = { LocalDate.parse(date).atTime(9, 30), disease, diseaseType, age, sex, newPatient, ward };
+		opds.add(row);
+		return row;
+	}
+
+	private static Map<String, Long> ageBands(OpdStatsCube opdStatsCube) {
+		Map<String, Long> counts = new HashMap<>();
+		opdStatsCube.rollUp(FROM, TO, List.of(Dimension.AGE_BAND), ALL).getRows()
+			.forEach(row -> counts.put(row.getAgeBand(), row.getCount()));
+		return counts;
+	}
+
+	private TypedQuery<Object[]> opdsQuery() {
+		@SuppressWarnings("unchecked")
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		Map<String, Object> parameters = new HashMap<>();
+		when(query.setHint(anyString(), any())).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		when(query.getResultStream()).thenAnswer(invocation -> new ArrayList<>(opds).stream());
+		when(query.getResultList()).thenAnswer(invocation -> opds.stream()
+			.filter(row -> !((LocalDateTime) row[0]).isBefore((LocalDateTime) parameters.get("from")))
+			.filter(row -> ((LocalDateTime) row[0]).isBefore((LocalDateTime) parameters.get("to")))
+			.toList());
+		return query;
+	}
+}
@@ -22,6 +22,10 @@
 package org.isf.operation.rest;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -29,24 +33,32 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.util.List;
 import java.util.Objects;
 
+import org.isf.admission.dto.AdmissionDTO;
 import org.isf.admission.manager.AdmissionBrowserManager;
+import org.isf.admission.model.Admission;
 import org.isf.opd.mapper.OpdMapper;
 import org.isf.operation.data.OperationHelper;
 import org.isf.operation.dto.OperationDTO;
+import org.isf.operation.dto.OperationRowDTO;
 import org.isf.operation.manager.OperationBrowserManager;
 import org.isf.operation.manager.OperationRowBrowserManager;
 import org.isf.operation.mapper.OperationMapper;
 import org.isf.operation.mapper.OperationRowMapper;
 import org.isf.operation.model.Operation;
+import org.isf.operation.model.OperationRow;
+import org.isf.operation.service.OperationRowWriter;
 import org.isf.patient.manager.PatientBrowserManager;
+import org.isf.shared.exceptions.OHAPIException;
 import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
 import org.isf.shared.mapper.converter.BlobToByteArrayConverter;
 import org.isf.shared.mapper.converter.ByteArrayToBlobConverter;
+import org.isf.utils.exception.model.OHExceptionMessage;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -55,6 +67,7 @@ import org.mockito.MockitoAnnotations;
 import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
@@ -62,6 +75,7 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
 class OperationControllerTest {
 
@@ -85,6 +99,9 @@ class OperationControllerTest {
 	@Mock
 	protected OperationRowMapper operationRowMapper;
 
+	@Mock
+	protected OperationRowWriter operationRowWriter;
+
 	protected OperationMapper operationMapper = new OperationMapper();
 
 	private MockMvc mockMvc;
@@ -102,7 +119,8 @@ class OperationControllerTest {
 				patientBrowserManager,
 				operationMapper,
 				opdMapper,
-				operationRowMapper
+				operationRowMapper,
+				operationRowWriter
 			))
 			.setControllerAdvice(new OHResponseEntityExceptionHandler())
 			.build();
@@ -217,4 +235,69 @@ class OperationControllerTest {
 
 		LOGGER.debug("result: {}", result);
 	}
+
+	@Test
+	void testNewOperationRow_returnsCreatedRow() throws Exception {
+		AdmissionDTO admission = new AdmissionDTO();
+		admission.setId(3);
+		OperationRowDTO body = new OperationRowDTO();
+		body.setAdmission(admission);
+		OperationRow opRow = new OperationRow();
+		OperationRowDTO created = new OperationRowDTO();
+		created.setId(42);
+
+		when(operationRowMapper.map2Model(any(OperationRowDTO.class))).thenReturn(opRow);
+		when(operationRowBrowserManager.newOperationRow(opRow)).thenReturn(opRow);
+		when(operationRowMapper.map2DTO(opRow)).thenReturn(created);
+
+		this.mockMvc
+			.perform(post("/operations/rows")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().registerModule(new JavaTimeModule()).writeValueAsString(body)))
+			.andExpect(status().isCreated())
+			.andExpect(jsonPath("$.id").value(42));
+
+		verify(operationRowBrowserManager, never()).getOperationRowByAdmission(any(Admission.class));
+	}
+
+	@Test
+	void testUpdateOperationRow_notFound_404() throws Exception {
+		AdmissionDTO admission = new AdmissionDTO();
+		admission.setId(3);
+		OperationRowDTO body = new OperationRowDTO();
+		body.setId(42);
+		body.setAdmission(admission);
+		OperationRow opRow = new OperationRow();
+		opRow.setId(42);
+
+		when(operationRowMapper.map2Model(any(OperationRowDTO.class))).thenReturn(opRow);
+		when(operationRowWriter.exists(42, null)).thenReturn(false);
+
+		this.mockMvc
+			.perform(put("/operations/rows")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().registerModule(new JavaTimeModule()).writeValueAsString(body)))
+			.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void testSaveOperationRows_missingRow_404() throws Exception {
+		AdmissionDTO admission = new AdmissionDTO();
+		admission.setId(3);
+		OperationRowDTO newRow = new OperationRowDTO();
+		newRow.setAdmission(admission);
+		OperationRowDTO updatedRow = new OperationRowDTO();
+		updatedRow.setId(42);
+		updatedRow.setAdmission(admission);
+
+		when(operationRowWriter.saveAll(anyList()))
+			.thenThrow(new OHAPIException(new OHExceptionMessage("Operation rows not found: [42]."), HttpStatus.NOT_FOUND));
+
+		this.mockMvc
+			.perform(post("/operations/rows/batch")
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().registerModule(new JavaTimeModule()).writeValueAsString(List.of(newRow, updatedRow))))
+			.andExpect(status().isNotFound())
+			.andExpect(content().string(containsString("Operation rows not found: [42].")));
+	}
 }
@@ -0,0 +1,138 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.operation.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.admission.model.Admission;
+import org.isf.opd.model.Opd;
+import org.isf.operation.model.OperationRow;
+import org.isf.shared.exceptions.OHAPIException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class OperationRowWriterTest {
+
+	/** {id, admission id, OPD code} of the stored rows. */
+	private final List<Object[]> stored = new ArrayList<>();
+
+	private EntityManager entityManager;
+
+	private OperationRowWriter writer;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setup() {
+		entityManager = mock(EntityManager.class);
+		TypedQuery<Object[]> query = mock(TypedQuery.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenReturn(query);
+		when(query.getResultList()).thenReturn(stored);
+		when(entityManager.merge(any(OperationRow.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+		writer = new OperationRowWriter();
+		ReflectionTestUtils.setField(writer, "entityManager", entityManager);
+	}
+
+	@Test
+	void testSaveAll_updatesRowOfSameAdmission() throws Exception {
+		stored.add(new Object[] { 42, 3, null });
+		OperationRow updated = row(42, admission(3), null);
+		OperationRow created = row(0, admission(3), null);
+
+		List<OperationRow> saved = writer.saveAll(List.of(updated, created));
+
+		assertThat(saved).containsExactly(updated, created);
+		verify(entityManager).merge(updated);
+		verify(entityManager).persist(created);
+	}
+
+	@Test
+	void testSaveAll_rowOfAnotherAdmission() {
+		stored.add(new Object[] { 42, 7, null });
+		OperationRow created = row(0, admission(3), null);
+		OperationRow updated = row(42, admission(3), null);
+
+		assertThatThrownBy(() -> writer.saveAll(List.of(created, updated)))
+			.isInstanceOf(OHAPIException.class)
+			.extracting("status").isEqualTo(HttpStatus.NOT_FOUND);
+		verify(entityManager, never()).persist(any());
+		verify(entityManager, never()).merge(any());
+	}
+
+	@Test
+	void testSaveAll_rowOfAnotherOpd() {
+		stored.add(new Object[] { 42, null, 5 });
+		OperationRow updated = row(42, null, opd(6));
+
+		assertThatThrownBy(() -> writer.saveAll(List.of(updated)))
+			.isInstanceOf(OHAPIException.class)
+			.extracting("status").isEqualTo(HttpStatus.NOT_FOUND);
+		verify(entityManager, never()).merge(any());
+	}
+
+	@Test
+	void testSaveAll_missingRow() {
+		OperationRow updated = row(42, admission(3), null);
+
+		assertThatThrownBy(() -> writer.saveAll(List.of(updated)))
+			.isInstanceOf(OHAPIException.class)
+			.extracting("status").isEqualTo(HttpStatus.NOT_FOUND);
+		verify(entityManager, never()).merge(any());
+	}
+
+	private static OperationRow row(int id, Admission admission, Opd opd) {
+		OperationRow row = new OperationRow();
+		row.setId(id);
+		row.setAdmission(admission);
+		row.setOpd(opd);
+		return row;
+	}
+
+	private static Admission admission(int id) {
+		Admission admission = new Admission();
+		admission.setId(id);
+		return admission;
+	}
+
+	private static Opd opd(int code) {
+		Opd opd = new Opd();
+		opd.setCode(code);
+		return opd;
+	}
+}
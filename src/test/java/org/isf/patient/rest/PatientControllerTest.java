@@ -25,9 +25,13 @@ import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyMap;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -36,8 +40,13 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.log;
 import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
@@ -50,21 +59,29 @@ import org.isf.patconsensus.model.PatientConsensus;
 import org.isf.patient.data.PatientHelper;
 import org.isf.patient.dto.PatientDTO;
 import org.isf.patient.dto.PatientSTATUS;
+import org.isf.patient.dto.PatientTypeaheadDTO;
 import org.isf.patient.manager.PatientBrowserManager;
 import org.isf.patient.mapper.PatientMapper;
 import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientProfilePhoto;
+import org.isf.patient.service.PatientCityDictionary;
+import org.isf.patient.service.PatientPhotoService;
+import org.isf.patient.service.PatientTypeaheadIndex;
 import org.isf.shared.exceptions.OHAPIException;
 import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
+import org.isf.shared.fields.FieldsMappingCondition;
 import org.isf.shared.mapper.converter.BlobToByteArrayConverter;
 import org.isf.shared.mapper.converter.ByteArrayToBlobConverter;
 import org.isf.shared.mapper.mappings.PatientMapping;
 import org.isf.shared.pagination.Page;
+import org.isf.testing.rest.FieldsTestHelper;
 import org.isf.utils.exception.OHServiceException;
 import org.isf.utils.exception.model.OHExceptionMessage;
 import org.isf.utils.pagination.PagedResponse;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.modelmapper.ModelMapper;
@@ -94,6 +111,15 @@ class PatientControllerTest {
 	@Mock
 	private PatientConsensusBrowserManager patientConsensusManagerMock;
 
+	@Mock
+	private PatientPhotoService patientPhotoServiceMock;
+
+	@Mock
+	private PatientTypeaheadIndex patientTypeaheadIndexMock;
+
+	@Mock
+	private PatientCityDictionary patientCityDictionaryMock;
+
 	private final PatientMapper patientMapper = new PatientMapper();
 
 	private MockMvc mockMvc;
@@ -105,13 +131,15 @@ class PatientControllerTest {
 		closeable = MockitoAnnotations.openMocks(this);
 		this.mockMvc = MockMvcBuilders
 			.standaloneSetup(new PatientController(patientBrowserManagerMock, admissionBrowserManagerMock, patientMapper,
-				patientConsensusManagerMock))
+				patientConsensusManagerMock, patientPhotoServiceMock, patientTypeaheadIndexMock,
+				patientCityDictionaryMock))
 			.setControllerAdvice(new OHResponseEntityExceptionHandler())
 			.build();
 		ModelMapper modelMapper = new ModelMapper();
 		PatientMapping.addMapping(modelMapper);
 		modelMapper.addConverter(new BlobToByteArrayConverter());
 		modelMapper.addConverter(new ByteArrayToBlobConverter());
+		modelMapper.getConfiguration().setPropertyCondition(new FieldsMappingCondition());
 		ReflectionTestUtils.setField(patientMapper, "modelMapper", modelMapper);
 	}
 
@@ -387,6 +415,112 @@ class PatientControllerTest {
 
 	}
 
+	/**
+	 * Test method for {@link PatientController#getPatients(int, int)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_then_blobPhoto_is_left_out_unless_requested() throws Exception {
+		String request = "/patients";
+		byte[] photo = { 1, 2, 3 };
+		Patient patient = PatientHelper.setup();
+		patient.setCode(123);
+		patient.setPatientProfilePhoto(profilePhoto(photo));
+
+		PagedResponse<Patient> patientPageable = new PagedResponse<>();
+		patientPageable.setData(List.of(patient));
+		patientPageable.setPageInfo(PatientHelper.setParameterPage());
+		when(patientBrowserManagerMock.getPatientsPageable(anyInt(), anyInt()))
+			.thenReturn(patientPageable);
+
+		this.mockMvc
+			.perform(get(request))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].code").value(123))
+			.andExpect(jsonPath("$.data[0].blobPhoto").value(nullValue()));
+
+		this.mockMvc
+			.perform(get(request).param("fields", "code,blobPhoto"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].blobPhoto").value(Base64.getEncoder().encodeToString(photo)));
+	}
+
+	/**
+	 * Test method for {@link PatientController#getPatients(int, int)} with the {@code fields} parameter.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_with_fields_then_only_the_fields_of_data_and_the_pageInfo_are_written() throws Exception {
+		Patient patient = PatientHelper.setup();
+		patient.setCode(123);
+		patient.setPatientProfilePhoto(profilePhoto(new byte[] { 1, 2, 3 }));
+		PagedResponse<Patient> patientPageable = new PagedResponse<>();
+		patientPageable.setData(List.of(patient));
+		patientPageable.setPageInfo(PatientHelper.setParameterPage());
+		when(patientBrowserManagerMock.getPatientsPageable(anyInt(), anyInt()))
+			.thenReturn(patientPageable);
+
+		fieldsMockMvc()
+			.perform(get("/patients").param("fields", "code,firstName"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].code").value(123))
+			.andExpect(jsonPath("$.data[0].firstName").value(patient.getFirstName()))
+			.andExpect(jsonPath("$.data[0].secondName").doesNotExist())
+			.andExpect(jsonPath("$.data[0].blobPhoto").doesNotExist())
+			.andExpect(jsonPath("$.pageInfo").exists());
+	}
+
+	/**
+	 * Test method for {@link PatientController#getPatients(int, int)} with an unknown field.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_with_unknown_field_then_the_field_is_ignored() throws Exception {
+		Patient patient = PatientHelper.setup();
+		patient.setCode(123);
+		PagedResponse<Patient> patientPageable = new PagedResponse<>();
+		patientPageable.setData(List.of(patient));
+		patientPageable.setPageInfo(PatientHelper.setParameterPage());
+		when(patientBrowserManagerMock.getPatientsPageable(anyInt(), anyInt()))
+			.thenReturn(patientPageable);
+
+		fieldsMockMvc()
+			.perform(get("/patients").param("fields", "code,unknownField"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data[0].code").value(123))
+			.andExpect(jsonPath("$.data[0].unknownField").doesNotExist())
+			.andExpect(jsonPath("$.data[0].firstName").doesNotExist());
+	}
+
+	/**
+	 * Test method for {@link PatientController#searchPatient(String, String, java.time.LocalDateTime, String)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_search_then_blobPhoto_is_left_out() throws Exception {
+		String request = "/patients/search";
+		Patient patient = PatientHelper.setup();
+		patient.setCode(123);
+		patient.setPatientProfilePhoto(profilePhoto(new byte[] { 1, 2, 3 }));
+
+		when(patientBrowserManagerMock.getPatients(anyMap())).thenReturn(List.of(patient));
+
+		this.mockMvc
+			.perform(get(request).param("firstName", patient.getFirstName()))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$[0].code").value(123))
+			.andExpect(jsonPath("$[0].blobPhoto").value(nullValue()));
+	}
+
 	/**
 	 * Test method for {@link PatientController#getPatient(int)}.
 	 *
@@ -587,4 +721,167 @@ class PatientControllerTest {
 		oHAPIException.ifPresent(se -> assertThat(se, instanceOf(OHAPIException.class)));
 	}
 
+	/**
+	 * Test method for {@link PatientController#getPatientPhoto(int, Integer, Integer, org.springframework.web.context.request.WebRequest)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patient_photo_with_unexistent_code_then_response_Not_Found() throws Exception {
+		Integer code = 111;
+		String request = "/patients/{code}/photo";
+
+		when(patientBrowserManagerMock.getPatientById(code)).thenReturn(null);
+
+		this.mockMvc
+			.perform(get(request, code))
+			.andDo(log())
+			.andExpect(status().isNotFound());
+	}
+
+	/**
+	 * Test method for {@link PatientController#getPatientPhoto(int, Integer, Integer, org.springframework.web.context.request.WebRequest)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patient_photo_with_matching_etag_then_response_Not_Modified() throws Exception {
+		Integer code = 123;
+		String request = "/patients/{code}/photo";
+		Patient patient = PatientHelper.setup();
+		patient.setCode(code);
+
+		when(patientBrowserManagerMock.getPatientById(code)).thenReturn(patient);
+
+		this.mockMvc
+			.perform(get(request, code).header("If-None-Match", "\"" + code + '-' + patient.getLock() + "-original\""))
+			.andDo(log())
+			.andExpect(status().isNotModified())
+			.andExpect(header().exists("ETag"));
+
+		verify(patientPhotoServiceMock, never()).getPhoto(any(Patient.class), any());
+	}
+
+	/**
+	 * Test method for {@link PatientController#getPatientPhoto(int, Integer, Integer, org.springframework.web.context.request.WebRequest)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patient_photo_with_current_version_then_response_bytes_cached_forever(@TempDir Path directory) throws Exception {
+		Integer code = 123;
+		String request = "/patients/{code}/photo";
+		Patient patient = PatientHelper.setup();
+		patient.setCode(code);
+		byte[] photo = { (byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3 };
+		Path file = Files.write(directory.resolve(patient.getLock() + "-original"), photo);
+
+		when(patientBrowserManagerMock.getPatientById(code)).thenReturn(patient);
+		when(patientPhotoServiceMock.getPhoto(patient, null)).thenReturn(file);
+		when(patientPhotoServiceMock.getMediaType(file)).thenReturn(MediaType.IMAGE_JPEG);
+
+		this.mockMvc
+			.perform(get(request, code).param("v", String.valueOf(patient.getLock())))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().contentType(MediaType.IMAGE_JPEG))
+			.andExpect(content().bytes(photo))
+			.andExpect(header().string("ETag", "\"" + code + '-' + patient.getLock() + "-original\""))
+			.andExpect(header().string("Cache-Control", containsString("max-age=31536000")))
+			.andExpect(header().string("Cache-Control", containsString("immutable")));
+
+		this.mockMvc
+			.perform(get(request, code).param("v", String.valueOf(patient.getLock() + 1)))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(header().string("Cache-Control", containsString("no-cache")));
+	}
+
+	/**
+	 * Test method for {@link PatientController#typeaheadPatient(String, int)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_typeahead_before_index_is_ready_then_response_Service_Unavailable() throws Exception {
+		String request = "/patients/typeahead";
+
+		when(patientTypeaheadIndexMock.isReady()).thenReturn(false);
+
+		this.mockMvc
+			.perform(get(request).param("q", "mar"))
+			.andDo(log())
+			.andExpect(status().isServiceUnavailable());
+	}
+
+	/**
+	 * Test method for {@link PatientController#typeaheadPatient(String, int)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_typeahead_then_response_suggestions() throws Exception {
+		String request = "/patients/typeahead";
+
+		when(patientTypeaheadIndexMock.isReady()).thenReturn(true);
+		when(patientTypeaheadIndexMock.search("mar ros", 10))
+			.thenReturn(List.of(new PatientTypeaheadDTO(123, "Mario", "Rossi", "Via Roma, 12", "Verona", "RSSMRA79E01L781N", 8)));
+
+		this.mockMvc
+			.perform(get(request).param("q", "mar ros"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().string(containsString("Rossi")));
+	}
+
+	/**
+	 * Test method for {@link PatientController#getPatientCities(String, int)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_cities_then_response_dictionary_lookup() throws Exception {
+		String request = "/patients/cities";
+
+		when(patientCityDictionaryMock.isReady()).thenReturn(true);
+		when(patientCityDictionaryMock.lookup("ver", 5)).thenReturn(List.of("Verona", "Vercelli"));
+
+		this.mockMvc
+			.perform(get(request).param("prefix", "ver").param("limit", "5"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().string(containsString("Vercelli")));
+		verify(patientBrowserManagerMock, never()).getCities();
+	}
+
+	/**
+	 * Test method for {@link PatientController#getPatientCities(String, int)}.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	void when_get_patients_cities_before_dictionary_is_ready_then_response_cities_from_database() throws Exception {
+		String request = "/patients/cities";
+
+		when(patientCityDictionaryMock.isReady()).thenReturn(false);
+		when(patientBrowserManagerMock.getCities()).thenReturn(List.of("Milano", "Verona"));
+
+		this.mockMvc
+			.perform(get(request).param("prefix", "ver"))
+			.andDo(log())
+			.andExpect(status().isOk())
+			.andExpect(content().string("[\"Verona\"]"));
+	}
+
+
+	private static PatientProfilePhoto profilePhoto(byte[] photo) {
+		PatientProfilePhoto profilePhoto = new PatientProfilePhoto();
+		profilePhoto.setPhoto(photo);
+		return profilePhoto;
+	}
+
+	private MockMvc fieldsMockMvc() {
+		return FieldsTestHelper.mockMvc(new PatientController(patientBrowserManagerMock, admissionBrowserManagerMock, patientMapper,
+			patientConsensusManagerMock, patientPhotoServiceMock, patientTypeaheadIndexMock, patientCityDictionaryMock));
+	}
 }
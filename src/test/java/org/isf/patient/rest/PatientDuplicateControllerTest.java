@@ -0,0 +1,111 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.rest;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultHandlers.print;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.isf.patient.service.PatientDuplicateDetector;
+import org.isf.patient.service.PatientDuplicateDetector.Candidate;
+import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+class PatientDuplicateControllerTest {
+
+	@Mock
+	private PatientDuplicateDetector patientDuplicateDetectorMock;
+
+	private MockMvc mockMvc;
+
+	private AutoCloseable closeable;
+
+	@BeforeEach
+	void setup() {
+		closeable = MockitoAnnotations.openMocks(this);
+		this.mockMvc = MockMvcBuilders
+			.standaloneSetup(new PatientDuplicateController(patientDuplicateDetectorMock))
+			.setControllerAdvice(new OHResponseEntityExceptionHandler())
+			.build();
+	}
+
+	@AfterEach
+	void closeService() throws Exception {
+		closeable.close();
+	}
+
+	@Test
+	void testGetDuplicates_200() throws Exception {
+		LocalDate birthDate = LocalDate.of(1980, 5, 12);
+		List<Candidate> candidates = List.of(
+			new Candidate(1, "Mario Rossi", birthDate, 7, "Mario Rosi", birthDate, 0.97),
+			new Candidate(2, "Anna Bianchi", birthDate, 9, "Ana Bianchi", null, 0.9),
+			new Candidate(3, "Luca Verdi", null, 4, "Luca Verdi", null, 0.88));
+		when(patientDuplicateDetectorMock.isReady()).thenReturn(true);
+		when(patientDuplicateDetectorMock.getCandidates(anyDouble())).thenReturn(candidates);
+
+		this.mockMvc
+			.perform(get("/patients/duplicates").param("page", "1").param("size", "2"))
+			.andDo(print())
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.data", hasSize(1)))
+			.andExpect(jsonPath("$.data[0].code", is(3)))
+			.andExpect(jsonPath("$.data[0].duplicateCode", is(4)))
+			.andExpect(jsonPath("$.pageInfo.totalNbOfElements", is(3)))
+			.andExpect(jsonPath("$.pageInfo.hasNextPage", is(false)));
+	}
+
+	@Test
+	void testGetDuplicates_503() throws Exception {
+		when(patientDuplicateDetectorMock.isReady()).thenReturn(false);
+
+		this.mockMvc
+			.perform(get("/patients/duplicates"))
+			.andDo(print())
+			.andExpect(status().isServiceUnavailable());
+	}
+
+	@Test
+	void testRefreshDuplicates_202() throws Exception {
+		when(patientDuplicateDetectorMock.refreshInBackground()).thenReturn(true);
+
+		this.mockMvc
+			.perform(post("/patients/duplicates/refresh"))
+			.andDo(print())
+			.andExpect(status().isAccepted());
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+
+import org.isf.patient.model.Patient;
+import org.isf.patient.model.PatientProfilePhoto;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PatientPhotoServiceTest {
+
+	@TempDir
+	Path cacheDirectory;
+
+	@Test
+	void testNewVersionKeepsTheTemporaryFilesBeingWritten() throws Exception {
+		PatientPhotoService service = new PatientPhotoService(cacheDirectory.toString(), new int[] { 64 });
+		Patient patient = patient(1);
+		Path first = service.getPhoto(patient, null);
+		Path patientDirectory = first.getParent();
+		// written by a concurrent request
+		Path inProgress = Files.createFile(patientDirectory.resolve("photo123.tmp"));
+		// left over by a failed request
+		Path leftOver = Files.createFile(patientDirectory.resolve("thumb456.tmp"));
+		Files.setLastModifiedTime(leftOver, FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+		patient.setLock(2);
+		Path second = service.getPhoto(patient, null);
+
+		assertThat(second).hasFileName("2-original").hasBinaryContent(new byte[] { 1, 2, 3 });
+		assertThat(first).doesNotExist();
+		assertThat(inProgress).exists();
+		assertThat(leftOver).doesNotExist();
+	}
+
+	@Test
+	void testEvict() throws Exception {
+		PatientPhotoService service = new PatientPhotoService(cacheDirectory.toString(), new int[] { 64 });
+		Path photo = service.getPhoto(patient(1), null);
+
+		service.evict(1);
+
+		assertThat(photo).doesNotExist();
+	}
+
+	private static Patient patient(int lock) {
+		PatientProfilePhoto profilePhoto = new PatientProfilePhoto();
+		profilePhoto.setPhoto(new byte[] { 1, 2, 3 });
+		Patient patient = new Patient();
+		patient.setCode(1);
+		patient.setLock(lock);
+		patient.setPatientProfilePhoto(profilePhoto);
+		return patient;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.patient.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.isf.patient.dto.PatientTypeaheadDTO;
+import org.isf.patient.model.Patient;
+import org.isf.patient.service.PatientScanner.PatientRow;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PatientTypeaheadIndexTest {
+
+	/** The patients not deleted in the database. */
+	private final List<PatientRow> patients = new ArrayList<>();
+
+	/** Run once while the patients are scanned, after the first one. */
+	private Runnable duringScan;
+
+	private PatientTypeaheadIndex index;
+
+	@BeforeEach
+	void setup() {
+		PatientScanner patientScanner = mock(PatientScanner.class);
+		doAnswer(invocation -> {
+			Consumer<PatientRow> consumer = invocation.getArgument(1);
+			for (PatientRow row : List.copyOf(patients)) {
+				consumer.accept(row);
+				if (duringScan != null) {
+					Runnable hook = duringScan;
+					duringScan = null;
+					hook.run();
+				}
+			}
+			return null;
+		}).when(patientScanner).scan(anyInt(), any());
+		index = new PatientTypeaheadIndex(patientScanner, true, 100);
+
+		patients.add(row(1, "Mario", "Rossi", "Via Garibaldi 3", "Roma", "RSSMRA80A01H501U"));
+		patients.add(row(2, "Maria", "Bianchi", "Via Roma 10", "Milano", null));
+		patients.add(row(3, "Rosa", "Marini", null, "Torino", null));
+	}
+
+	@Test
+	void testSearch_prefixesOfWords() {
+		index.rebuild();
+
+		assertThat(index.isReady()).isTrue();
+		assertThat(index.search("mar", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactlyInAnyOrder(1, 2, 3);
+		assertThat(index.search("ari", 10)).isEmpty();
+		assertThat(index.search("m", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactlyInAnyOrder(1, 2, 3);
+		assertThat(index.search("garib", 10)).extracting(PatientTypeaheadDTO::getCode, PatientTypeaheadDTO::getAddress)
+			.containsExactly(tuple(1, "Via Garibaldi 3"));
+	}
+
+	@Test
+	void testSearch_everyTokenMatches() {
+		index.rebuild();
+
+		assertThat(index.search("mar ros", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactlyInAnyOrder(1, 3);
+		assertThat(index.search("mar tor", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactly(3);
+		assertThat(index.search("mar xyz", 10)).isEmpty();
+	}
+
+	@Test
+	void testSearch_normalizesTheQuery() {
+		index.rebuild();
+
+		assertThat(index.search("  MÁRIO,  ", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactly(1);
+		assertThat(index.search("rssmra80", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactly(1);
+		assertThat(index.search(" -- ", 10)).isEmpty();
+		assertThat(index.search(null, 10)).isEmpty();
+	}
+
+	@Test
+	void testSearch_ranking() {
+		index.rebuild();
+
+		// name 4, tax code 3, city 2, address 1, doubled for a whole word
+		assertThat(index.search("roma", 10)).extracting(PatientTypeaheadDTO::getCode, PatientTypeaheadDTO::getScore)
+			.containsExactly(tuple(1, 4), tuple(2, 2));
+		assertThat(index.search("ro", 10)).extracting(PatientTypeaheadDTO::getCode, PatientTypeaheadDTO::getScore)
+			.containsExactlyInAnyOrder(tuple(1, 4), tuple(3, 4), tuple(2, 1));
+		assertThat(index.search("ro", 10).get(2).getCode()).isEqualTo(2);
+		assertThat(index.search("mario", 10)).extracting(PatientTypeaheadDTO::getScore).containsExactly(8);
+		assertThat(index.search("rossi mario", 10)).extracting(PatientTypeaheadDTO::getScore).containsExactly(16);
+	}
+
+	@Test
+	void testSearch_limit() {
+		index.rebuild();
+
+		assertThat(index.search("roma", 1)).extracting(PatientTypeaheadDTO::getCode).containsExactly(1);
+		assertThat(index.search("mar", 2)).hasSize(2);
+		assertThat(index.search("mar", 0)).isEmpty();
+	}
+
+	@Test
+	void testPutAndRemove() {
+		index.rebuild();
+
+		index.put(patient(4, "Marco", "Verdi", "Firenze"));
+		index.put(patient(2, "Maria", "Neri", "Milano"));
+		index.remove(3);
+
+		assertThat(index.search("mar", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactlyInAnyOrder(1, 2, 4);
+		assertThat(index.search("verdi", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactly(4);
+		// the postings of the previous name are stale
+		assertThat(index.search("bianchi", 10)).isEmpty();
+		assertThat(index.search("neri", 10)).extracting(PatientTypeaheadDTO::getSecondName).containsExactly("Neri");
+		assertThat(index.search("rosa", 10)).isEmpty();
+	}
+
+	@Test
+	void testUpdatesDuringRebuildReplayed() {
+		index.rebuild();
+		// saved after the scan read them
+		duringScan = () -> {
+			index.put(patient(1, "Mario", "Gialli", "Roma"));
+			index.remove(3);
+		};
+
+		index.rebuild();
+
+		assertThat(index.search("gialli", 10)).extracting(PatientTypeaheadDTO::getCode).containsExactly(1);
+		assertThat(index.search("rossi", 10)).isEmpty();
+		assertThat(index.search("rosa", 10)).isEmpty();
+	}
+
+	@Test
+	void testNotBuilt() {
+		assertThat(index.isReady()).isFalse();
+		assertThat(index.search("mar", 10)).isEmpty();
+	}
+
+	private static PatientRow row(int code, String firstName, String secondName, String address, String city, String taxCode) {
+		return new PatientRow(code, firstName, secondName, address, city, taxCode, null, 'M', false);
+	}
+
+	private static Patient patient(int code, String firstName, String secondName, String city) {
+		Patient patient = new Patient();
+		patient.setCode(code);
+		patient.setFirstName(firstName);
+		patient.setSecondName(secondName);
+		patient.setCity(city);
+		return patient;
+	}
+}
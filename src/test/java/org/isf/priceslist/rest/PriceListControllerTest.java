@@ -0,0 +1,210 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.rest;
+
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.isf.priceslist.dto.PriceListCopyJobDTO;
+import org.isf.priceslist.dto.PriceQuoteItemDTO;
+import org.isf.priceslist.manager.PriceListManager;
+import org.isf.priceslist.mapper.PriceListMapper;
+import org.isf.priceslist.mapper.PriceMapper;
+import org.isf.priceslist.model.Price;
+import org.isf.priceslist.model.PriceList;
+import org.isf.priceslist.service.PriceListCopyJobs;
+import org.isf.priceslist.service.PriceMatrix;
+import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class PriceListControllerTest {
+
+	@Mock
+	protected PriceListManager priceListManager;
+
+	@Mock
+	protected PriceListMapper priceListMapper;
+
+	@Mock
+	protected PriceMapper priceMapper;
+
+	@Mock
+	protected PriceListCopyJobs priceListCopyJobs;
+
+	protected PriceMatrix priceMatrix;
+
+	protected PriceList priceList;
+
+	private MockMvc mockMvc;
+
+	private AutoCloseable closeable;
+
+	@BeforeEach
+	void setup() throws Exception {
+		closeable = MockitoAnnotations.openMocks(this);
+		priceList = new PriceList();
+		priceList.setId(1);
+		priceList.setCode("LIST1");
+		priceList.setName("Basic");
+		priceList.setCurrency("USD");
+		when(priceListManager.getLists()).thenReturn(List.of(priceList));
+		when(priceListManager.getPrices()).thenReturn(List.of(new Price(priceList, "EXA", "01.01", "HAEMOGLOBIN", 1500.0)));
+		priceMatrix = new PriceMatrix(priceListManager);
+		this.mockMvc = MockMvcBuilders
+			.standaloneSetup(new PriceListController(priceListManager, priceListMapper, priceMapper, priceMatrix, priceListCopyJobs))
+			.setControllerAdvice(new OHResponseEntityExceptionHandler())
+			.build();
+	}
+
+	@AfterEach
+	void closeService() throws Exception {
+		closeable.close();
+	}
+
+	@Test
+	void testQuote_200() throws Exception {
+		priceMatrix.rebuild();
+
+		this.mockMvc
+			.perform(post("/pricelists/{id}/quote", 1)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().writeValueAsString(List.of(
+					new PriceQuoteItemDTO("EXA", "01.01", 2),
+					new PriceQuoteItemDTO("OTH", "99", 1)))))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.listName").value("Basic"))
+			.andExpect(jsonPath("$.lines[0].unitPrice").value(1500.0))
+			.andExpect(jsonPath("$.lines[0].amount").value(3000.0))
+			.andExpect(jsonPath("$.lines[1].unitPrice").value(nullValue()))
+			.andExpect(jsonPath("$.total").value(3000.0))
+			.andExpect(jsonPath("$.missing").value(1));
+	}
+
+	@Test
+	void testQuote_unknownList_404() throws Exception {
+		priceMatrix.rebuild();
+
+		this.mockMvc
+			.perform(post("/pricelists/{id}/quote", 2)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().writeValueAsString(List.of(new PriceQuoteItemDTO("EXA", "01.01", 1)))))
+			.andExpect(status().isNotFound());
+	}
+
+	@Test
+	void testQuote_notReady_503() throws Exception {
+		this.mockMvc
+			.perform(post("/pricelists/{id}/quote", 1)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().writeValueAsString(List.of(new PriceQuoteItemDTO("EXA", "01.01", 1)))))
+			.andExpect(status().isServiceUnavailable());
+	}
+
+	@Test
+	void testQuote_stale_503() throws Exception {
+		priceMatrix.rebuild();
+		when(priceListManager.getPrices()).thenThrow(new OHServiceException(new OHExceptionMessage("Database unavailable.")));
+		priceMatrix.rebuild();
+
+		this.mockMvc
+			.perform(post("/pricelists/{id}/quote", 1)
+				.contentType(MediaType.APPLICATION_JSON)
+				.content(new ObjectMapper().writeValueAsString(List.of(new PriceQuoteItemDTO("EXA", "01.01", 1)))))
+			.andExpect(status().isServiceUnavailable());
+	}
+
+	@Test
+	void testSubmitCopy_202() throws Exception {
+		priceMatrix.rebuild();
+		when(priceListCopyJobs.submit(priceList, 1.1, 50))
+			.thenReturn(new PriceListCopyJobDTO("job-1", 1, null, 1.1, 50, PriceListCopyJobDTO.Status.QUEUED, 0, 0, null, LocalDateTime.now(), null));
+
+		this.mockMvc
+			.perform(post("/pricelists/{id}/duplicate", 1)
+				.param("factor", "1.1")
+				.param("step", "50"))
+			.andExpect(status().isAccepted())
+			.andExpect(jsonPath("$.jobId").value("job-1"))
+			.andExpect(jsonPath("$.status").value("QUEUED"));
+	}
+
+	@Test
+	void testSubmitCopy_invalidFactor_400() throws Exception {
+		this.mockMvc
+			.perform(post("/pricelists/{id}/duplicate", 1)
+				.param("factor", "0"))
+			.andExpect(status().isBadRequest());
+
+		verify(priceListCopyJobs, never()).submit(any(), anyDouble(), anyDouble());
+	}
+
+	@Test
+	void testSubmitCopy_unknownList_404() throws Exception {
+		this.mockMvc
+			.perform(post("/pricelists/{id}/duplicate", 2))
+			.andExpect(status().isNotFound());
+
+		verify(priceListCopyJobs, never()).submit(any(), anyDouble(), anyDouble());
+	}
+
+	@Test
+	void testGetCopyJob_200() throws Exception {
+		when(priceListCopyJobs.getReport("job-1"))
+			.thenReturn(new PriceListCopyJobDTO("job-1", 1, 9, 1, 0, PriceListCopyJobDTO.Status.RUNNING, 3, 2, null, LocalDateTime.now(), null));
+
+		this.mockMvc
+			.perform(get("/pricelists/duplicate/jobs/{jobId}", "job-1"))
+			.andExpect(status().isOk())
+			.andExpect(jsonPath("$.newListId").value(9))
+			.andExpect(jsonPath("$.copiedPrices").value(2))
+			.andExpect(jsonPath("$.totalPrices").value(3));
+	}
+
+	@Test
+	void testGetCopyJob_unknown_404() throws Exception {
+		this.mockMvc
+			.perform(get("/pricelists/duplicate/jobs/{jobId}", "unknown"))
+			.andExpect(status().isNotFound());
+	}
+}
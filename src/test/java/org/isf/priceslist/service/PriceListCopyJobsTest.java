@@ -0,0 +1,208 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.priceslist.dto.PriceListCopyJobDTO;
+import org.isf.priceslist.manager.PriceListManager;
+import org.isf.priceslist.model.Price;
+import org.isf.priceslist.model.PriceList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+class PriceListCopyJobsTest {
+
+	private final PriceList source = PriceMatrixTest.priceList(1, "Basic");
+
+	private final PriceList target = PriceMatrixTest.priceList(9, "Basic(copy)");
+
+	private final List<Price> persisted = new ArrayList<>();
+
+	private PriceListManager priceListManager;
+
+	private PriceMatrix priceMatrix;
+
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionStatus transaction;
+
+	private TypedQuery<Price> pricesQuery;
+
+	private PriceListCopyJobs priceListCopyJobs;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setup() throws Exception {
+		priceListManager = mock(PriceListManager.class);
+		when(priceListManager.newList(any(PriceList.class))).thenReturn(target);
+		priceMatrix = mock(PriceMatrix.class);
+		transactionManager = mock(PlatformTransactionManager.class);
+		transaction = new SimpleTransactionStatus();
+		when(transactionManager.getTransaction(any())).thenReturn(transaction);
+
+		EntityManager entityManager = mock(EntityManager.class);
+		TypedQuery<Long> countQuery = mock(TypedQuery.class);
+		when(entityManager.createQuery(anyString(), eq(Long.class))).thenReturn(countQuery);
+		when(countQuery.setParameter(anyString(), any())).thenReturn(countQuery);
+		when(countQuery.getSingleResult()).thenReturn(3L);
+		pricesQuery = mock(TypedQuery.class);
+		when(entityManager.createQuery(anyString(), eq(Price.class))).thenReturn(pricesQuery);
+		when(pricesQuery.setParameter(anyString(), any())).thenReturn(pricesQuery);
+		when(pricesQuery.setMaxResults(anyInt())).thenReturn(pricesQuery);
+		when(entityManager.getReference(PriceList.class, 9)).thenReturn(target);
+		doAnswer(invocation -> persisted.add(invocation.getArgument(0))).when(entityManager).persist(any(Price.class));
+
+		priceListCopyJobs = new PriceListCopyJobs(priceListManager, priceMatrix, transactionManager, 2, Duration.ofHours(1));
+		ReflectionTestUtils.setField(priceListCopyJobs, "entityManager", entityManager);
+	}
+
+	@AfterEach
+	void shutdown() {
+		priceListCopyJobs.shutdown();
+	}
+
+	@Test
+	void testSubmit_completed() throws Exception {
+		when(pricesQuery.getResultList()).thenReturn(
+			List.of(price(1, "01.01", 1000.0), price(2, "01.02", 1234.0)),
+			List.of(price(3, "01.03", null)));
+
+		PriceListCopyJobDTO submitted = priceListCopyJobs.submit(source, 1.1, 50);
+		PriceListCopyJobDTO report = awaitFinished(submitted.getJobId());
+
+		assertThat(submitted.getSourceListId()).isEqualTo(1);
+		assertThat(report.getStatus()).isEqualTo(PriceListCopyJobDTO.Status.COMPLETED);
+		assertThat(report.getNewListId()).isEqualTo(9);
+		assertThat(report.getTotalPrices()).isEqualTo(3);
+		assertThat(report.getCopiedPrices()).isEqualTo(3);
+		assertThat(persisted).extracting(Price::getPrice).containsExactly(1100.0, 1350.0, null);
+		assertThat(persisted).allSatisfy(price -> assertThat(price.getList()).isSameAs(target));
+		verify(transactionManager).commit(transaction);
+		verify(priceMatrix).rebuildList(9);
+	}
+
+	@Test
+	void testSubmit_reportsProgress() throws Exception {
+		CountDownLatch secondBatch = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(pricesQuery.getResultList())
+			.thenReturn(List.of(price(1, "01.01", 1000.0), price(2, "01.02", 2000.0)))
+			.thenAnswer(invocation -> {
+				secondBatch.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return List.of(price(3, "01.03", 3000.0));
+			});
+
+		String jobId = priceListCopyJobs.submit(source, 1, 0).getJobId();
+		assertThat(secondBatch.await(5, TimeUnit.SECONDS)).isTrue();
+		PriceListCopyJobDTO running = priceListCopyJobs.getReport(jobId);
+		release.countDown();
+
+		assertThat(running.getStatus()).isEqualTo(PriceListCopyJobDTO.Status.RUNNING);
+		assertThat(running.getTotalPrices()).isEqualTo(3);
+		assertThat(running.getCopiedPrices()).isEqualTo(2);
+		assertThat(awaitFinished(jobId).getCopiedPrices()).isEqualTo(3);
+	}
+
+	@Test
+	void testSubmit_failureRollsBack() throws Exception {
+		when(pricesQuery.getResultList())
+			.thenReturn(List.of(price(1, "01.01", 1000.0), price(2, "01.02", 2000.0)))
+			.thenThrow(new PersistenceException("Connection lost."));
+
+		PriceListCopyJobDTO report = awaitFinished(priceListCopyJobs.submit(source, 1, 0).getJobId());
+
+		assertThat(report.getStatus()).isEqualTo(PriceListCopyJobDTO.Status.FAILED);
+		assertThat(report.getNewListId()).isNull();
+		assertThat(report.getCopiedPrices()).isZero();
+		assertThat(report.getMessage()).isEqualTo("Connection lost.");
+		verify(transactionManager).rollback(transaction);
+		verify(transactionManager, never()).commit(any());
+		verify(priceMatrix, never()).rebuildList(anyInt());
+	}
+
+	@Test
+	void testGetReport_unknownJob() {
+		assertThat(priceListCopyJobs.getReport("unknown")).isNull();
+	}
+
+	@Test
+	void testCopies_factorAndStep() {
+		List<Price> batch = List.of(price(1, "01.01", 1000.0), price(2, "01.02", 1234.0), price(3, "01.03", 1260.0),
+			price(4, "01.04", null));
+
+		List<Price> copies = PriceListCopyJobs.copies(batch, target, 1.1, 50);
+
+		assertThat(copies).extracting(Price::getPrice).containsExactly(1100.0, 1350.0, 1400.0, null);
+		assertThat(copies).extracting(Price::getItem).containsExactly("01.01", "01.02", "01.03", "01.04");
+		assertThat(copies).allSatisfy(price -> assertThat(price.getList()).isSameAs(target));
+	}
+
+	@Test
+	void testCopies_factorWithoutStep() {
+		List<Price> copies = PriceListCopyJobs.copies(List.of(price(1, "01.01", 1234.0)), target, 1.5, 0);
+
+		assertThat(copies.get(0).getPrice()).isEqualTo(1851.0);
+	}
+
+	private PriceListCopyJobDTO awaitFinished(String jobId) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		PriceListCopyJobDTO report = priceListCopyJobs.getReport(jobId);
+		while (report.getFinished() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			report = priceListCopyJobs.getReport(jobId);
+		}
+		assertThat(report.getFinished()).isNotNull();
+		return report;
+	}
+
+	private Price price(int id, String item, Double value) {
+		Price price = new Price(source, "EXA", item, "EXAM " + item, value);
+		price.setId(id);
+		return price;
+	}
+}
@@ -0,0 +1,260 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.priceslist.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.priceslist.dto.PriceQuoteDTO;
+import org.isf.priceslist.dto.PriceQuoteItemDTO;
+import org.isf.priceslist.dto.PriceQuoteLineDTO;
+import org.isf.priceslist.manager.PriceListManager;
+import org.isf.priceslist.model.Price;
+import org.isf.priceslist.model.PriceList;
+import org.isf.utils.exception.OHServiceException;
+import org.isf.utils.exception.model.OHExceptionMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class PriceMatrixTest {
+
+	/** The price lists and prices in the database. */
+	private final List<PriceList> lists = new ArrayList<>();
+
+	private final List<Price> prices = new ArrayList<>();
+
+	private PriceListManager priceListManager;
+
+	private EntityManager entityManager;
+
+	private PriceMatrix priceMatrix;
+
+	private PriceList basic;
+
+	private PriceList premium;
+
+	@BeforeEach
+	void setup() throws Exception {
+		basic = priceList(1, "Basic");
+		premium = priceList(2, "Premium");
+		lists.addAll(List.of(basic, premium));
+		prices.addAll(List.of(
+			new Price(basic, "EXA", "01.01", "HAEMOGLOBIN", 1500.0),
+			new Price(basic, "OPE", "10", "APPENDECTOMY", 20000.0),
+			new Price(premium, "EXA", "01.01", "HAEMOGLOBIN", 3000.0)));
+		priceListManager = mock(PriceListManager.class);
+		when(priceListManager.getLists()).thenAnswer(invocation -> List.copyOf(lists));
+		when(priceListManager.getPrices()).thenAnswer(invocation -> List.copyOf(prices));
+		entityManager = mock(EntityManager.class);
+		when(entityManager.find(eq(PriceList.class), anyInt())).thenAnswer(invocation -> lists.stream()
+			.filter(list -> list.getId() == invocation.getArgument(1, Integer.class))
+			.findFirst()
+			.orElse(null));
+		when(entityManager.createQuery(anyString(), eq(Price.class))).thenAnswer(invocation -> pricesQuery());
+		priceMatrix = new PriceMatrix(priceListManager);
+		ReflectionTestUtils.setField(priceMatrix, "entityManager", entityManager);
+	}
+
+	@Test
+	void testQuote() {
+		priceMatrix.rebuild();
+
+		PriceQuoteDTO quote = priceMatrix.quote(basic, List.of(
+			new PriceQuoteItemDTO("EXA", "01.01", 2),
+			new PriceQuoteItemDTO("OPE", "10", 1)));
+
+		assertThat(quote.getListId()).isEqualTo(1);
+		assertThat(quote.getListName()).isEqualTo("Basic");
+		assertThat(quote.getCurrency()).isEqualTo("USD");
+		assertThat(quote.getLines()).extracting(PriceQuoteLineDTO::getDescription).containsExactly("HAEMOGLOBIN", "APPENDECTOMY");
+		assertThat(quote.getLines()).extracting(PriceQuoteLineDTO::getAmount).containsExactly(3000.0, 20000.0);
+		assertThat(quote.getTotal()).isEqualTo(23000.0);
+		assertThat(quote.getMissing()).isZero();
+	}
+
+	@Test
+	void testQuote_usesPricesOfTheList() {
+		priceMatrix.rebuild();
+
+		PriceQuoteDTO quote = priceMatrix.quote(premium, List.of(new PriceQuoteItemDTO("EXA", "01.01", 2)));
+
+		assertThat(quote.getLines().get(0).getUnitPrice()).isEqualTo(3000.0);
+		assertThat(quote.getTotal()).isEqualTo(6000.0);
+	}
+
+	@Test
+	void testQuote_missingItem() {
+		priceMatrix.rebuild();
+
+		PriceQuoteDTO quote = priceMatrix.quote(premium, List.of(
+			new PriceQuoteItemDTO("OPE", "10", 1),
+			new PriceQuoteItemDTO("EXA", "01.01", 1)));
+
+		PriceQuoteLineDTO missing = quote.getLines().get(0);
+		assertThat(missing.getUnitPrice()).isNull();
+		assertThat(missing.getAmount()).isZero();
+		assertThat(quote.getTotal()).isEqualTo(3000.0);
+		assertThat(quote.getMissing()).isEqualTo(1);
+	}
+
+	@Test
+	void testRebuild_failureMarksTheMatrixStale() throws Exception {
+		priceMatrix.rebuild();
+		when(priceListManager.getPrices())
+			.thenThrow(new OHServiceException(new OHExceptionMessage("Database unavailable.")))
+			.thenAnswer(invocation -> List.copyOf(prices));
+
+		priceMatrix.rebuild();
+
+		assertThat(priceMatrix.isReady()).isFalse();
+		assertThat(priceMatrix.getList(1)).isNull();
+		assertThat(priceMatrix.findListByName("Premium")).isNull();
+
+		priceMatrix.rebuild();
+
+		assertThat(priceMatrix.isReady()).isTrue();
+		assertThat(priceMatrix.findListByName("Premium")).isSameAs(premium);
+	}
+
+	@Test
+	void testRebuildList_readsOnlyTheList() throws Exception {
+		priceMatrix.rebuild();
+		prices.set(2, new Price(premium, "EXA", "01.01", "HAEMOGLOBIN", 3500.0));
+		// written by another client, read by the next full compilation only
+		prices.set(0, new Price(basic, "EXA", "01.01", "HAEMOGLOBIN", 1800.0));
+
+		priceMatrix.rebuildList(2);
+
+		assertThat(priceMatrix.quote(premium, List.of(new PriceQuoteItemDTO("EXA", "01.01", 1))).getTotal()).isEqualTo(3500.0);
+		assertThat(priceMatrix.quote(basic, List.of(new PriceQuoteItemDTO("EXA", "01.01", 1))).getTotal()).isEqualTo(1500.0);
+	}
+
+	@Test
+	void testRebuildList_newAndDeletedLists() {
+		priceMatrix.rebuild();
+		PriceList copy = priceList(3, "Basic");
+		lists.add(copy);
+		prices.add(new Price(copy, "EXA", "01.01", "HAEMOGLOBIN", 1650.0));
+		lists.remove(premium);
+		prices.remove(2);
+
+		priceMatrix.rebuildList(3);
+		priceMatrix.rebuildList(2);
+
+		assertThat(priceMatrix.getList(3)).isSameAs(copy);
+		assertThat(priceMatrix.getList(2)).isNull();
+		assertThat(priceMatrix.findListByName("Premium")).isNull();
+		// the lists with the same name are found by the lowest id
+		assertThat(priceMatrix.findListByName("Basic")).isSameAs(basic);
+		assertThat(priceMatrix.quote(copy, List.of(new PriceQuoteItemDTO("EXA", "01.01", 1))).getTotal()).isEqualTo(1650.0);
+		assertThat(priceMatrix.quote(premium, List.of(new PriceQuoteItemDTO("EXA", "01.01", 1))).getMissing()).isEqualTo(1);
+	}
+
+	@Test
+	void testRebuildGroup_replacesTheGroupInEveryList() {
+		prices.add(new Price(basic, "OTH", "1", "BANDAGE", 100.0));
+		prices.add(new Price(premium, "OTH", "2", "CERTIFICATE", 50.0));
+		priceMatrix.rebuild();
+		prices.removeIf(price -> "OTH".equals(price.getGroup()));
+		prices.add(new Price(premium, "OTH", "1", "BANDAGE", 200.0));
+
+		priceMatrix.rebuildGroup(PriceMatrix.OTHERS_GROUP);
+
+		PriceQuoteDTO quote = priceMatrix.quote(premium, List.of(
+			new PriceQuoteItemDTO("OTH", "1", 1),
+			new PriceQuoteItemDTO("OTH", "2", 1),
+			new PriceQuoteItemDTO("EXA", "01.01", 1)));
+		assertThat(quote.getLines()).extracting(PriceQuoteLineDTO::getUnitPrice).containsExactly(200.0, null, 3000.0);
+		assertThat(priceMatrix.quote(basic, List.of(new PriceQuoteItemDTO("OTH", "1", 1))).getMissing()).isEqualTo(1);
+	}
+
+	@Test
+	void testRebuildList_failureMarksTheMatrixStaleUntilTheNextCompilation() {
+		priceMatrix.rebuild();
+		when(entityManager.find(eq(PriceList.class), anyInt())).thenThrow(new PersistenceException("Connection lost."));
+
+		priceMatrix.rebuildList(2);
+
+		assertThat(priceMatrix.isReady()).isFalse();
+		assertThat(priceMatrix.getList(1)).isNull();
+
+		// compiles the whole matrix again
+		priceMatrix.rebuildList(2);
+
+		assertThat(priceMatrix.isReady()).isTrue();
+		assertThat(priceMatrix.getList(2)).isSameAs(premium);
+	}
+
+	@Test
+	void testRebuildList_notCompiled() {
+		priceMatrix.rebuildList(1);
+
+		assertThat(priceMatrix.isReady()).isTrue();
+		assertThat(priceMatrix.getList(2)).isSameAs(premium);
+	}
+
+	@Test
+	void testNotReady() {
+		assertThat(priceMatrix.isReady()).isFalse();
+		assertThat(priceMatrix.getList(1)).isNull();
+	}
+
+	private TypedQuery<Price> pricesQuery() {
+		@SuppressWarnings("unchecked")
+		TypedQuery<Price> query = mock(TypedQuery.class);
+		Map<String, Object> parameters = new HashMap<>();
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		when(query.getResultList()).thenAnswer(invocation -> prices.stream()
+			.filter(price -> !parameters.containsKey("list") || parameters.get("list").equals(price.getList().getId()))
+			.filter(price -> !parameters.containsKey("group") || parameters.get("group").equals(price.getGroup()))
+			.toList());
+		return query;
+	}
+
+	static PriceList priceList(int id, String name) {
+		PriceList priceList = new PriceList();
+		priceList.setId(id);
+		priceList.setCode("LIST" + id);
+		priceList.setName(name);
+		priceList.setDescription(name + " prices");
+		priceList.setCurrency("USD");
+		return priceList;
+	}
+}
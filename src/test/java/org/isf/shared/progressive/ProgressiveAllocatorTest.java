@@ -0,0 +1,232 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.progressive;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.InstanceOfAssertFactories.MAP;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.Query;
+
+import org.isf.shared.progressive.ProgressiveAllocator.Floor;
+import org.isf.shared.progressive.ProgressiveAllocator.Sequence;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+class ProgressiveAllocatorTest {
+
+	private static final Instant LAST_DAY_OF_2024 = Instant.parse("2024-12-31T12:00:00Z");
+
+	/** Rows of OH_API_PROGRESSIVES: PRG_NEXT by sequence, scope and year. */
+	private final Map<List<Object>, Long> counters = new HashMap<>();
+
+	/** The floors passed to the reservations. */
+	private final List<Long> reservations = new ArrayList<>();
+
+	private long lastInsertId;
+
+	private boolean tableExists = true;
+
+	/** The highest number stored by the clients, and the number of times it was read. */
+	private int highest;
+
+	private int highestReads;
+
+	private final Floor floor = () -> {
+		highestReads++;
+		return highest;
+	};
+
+	private ProgressiveAllocator allocator;
+
+	@BeforeEach
+	void setup() {
+		allocator = newAllocator(3);
+		setClock(LAST_DAY_OF_2024);
+	}
+
+	@Test
+	void testNumbersHandedOutFromTheReservedBlock() throws Exception {
+		highest = 7;
+
+		assertThat(List.of(next(), next(), next())).containsExactly(8, 9, 10);
+		assertThat(counters).containsEntry(List.of("OPD", "", 2024), 11L);
+		assertThat(reservations).containsExactly(8L);
+		assertThat(highestReads).isEqualTo(1);
+	}
+
+	@Test
+	void testBlockExhaustedReservesTheNextOne() throws Exception {
+		assertThat(List.of(next(), next(), next(), next())).containsExactly(1, 2, 3, 4);
+		assertThat(reservations).containsExactly(1L, 1L);
+		assertThat(counters).containsEntry(List.of("OPD", "", 2024), 7L);
+		assertThat(highestReads).isEqualTo(2);
+	}
+
+	@Test
+	void testInstancesGetDisjointBlocks() throws Exception {
+		ProgressiveAllocator other = newAllocator(3);
+		ReflectionTestUtils.setField(other, "clock", ReflectionTestUtils.getField(allocator, "clock"));
+
+		assertThat(next()).isEqualTo(1);
+		assertThat(other.next(Sequence.OPD, "", floor)).isEqualTo(4);
+		assertThat(next()).isEqualTo(2);
+		assertThat(other.next(Sequence.OPD, "", floor)).isEqualTo(5);
+	}
+
+	@Test
+	void testNumbersStoredByTheClientsSkippedAtTheNextReservation() throws Exception {
+		assertThat(next()).isEqualTo(1);
+		// a client still computing MAX + 1 stored numbers up to 10
+		highest = 10;
+
+		assertThat(List.of(next(), next())).containsExactly(2, 3);
+		assertThat(next()).isEqualTo(11);
+		assertThat(reservations).containsExactly(1L, 11L);
+	}
+
+	@Test
+	void testScopesCountedApart() throws Exception {
+		assertThat(allocator.next(Sequence.ADMISSION, "M", floor)).isEqualTo(1);
+		assertThat(allocator.next(Sequence.ADMISSION, "S", floor)).isEqualTo(1);
+		assertThat(allocator.next(Sequence.ADMISSION, "M", floor)).isEqualTo(2);
+	}
+
+	@Test
+	void testYearRolloverRestartsTheNumbers() throws Exception {
+		highest = 41;
+		assertThat(next()).isEqualTo(42);
+
+		setClock(LAST_DAY_OF_2024.plus(Duration.ofDays(1)));
+		highest = 0;
+
+		assertThat(List.of(next(), next())).containsExactly(1, 2);
+		assertThat(counters).containsEntry(List.of("OPD", "", 2024), 45L).containsEntry(List.of("OPD", "", 2025), 4L);
+		// the blocks of 2024 are dropped
+		assertThat(ReflectionTestUtils.getField(allocator, "blocks")).asInstanceOf(MAP).hasSize(1);
+	}
+
+	@Test
+	void testPeekDoesNotHandOut() throws Exception {
+		highest = 4;
+		assertThat(allocator.peek(Sequence.OPD, "", floor)).isEqualTo(5);
+		assertThat(next()).isEqualTo(5);
+
+		highestReads = 0;
+		assertThat(allocator.peek(Sequence.OPD, "", floor)).isEqualTo(6);
+		assertThat(allocator.peek(Sequence.OPD, "", floor)).isEqualTo(6);
+		assertThat(highestReads).isZero();
+		assertThat(next()).isEqualTo(6);
+	}
+
+	@Test
+	void testMissingTableCheckedAgainLater() throws Exception {
+		tableExists = false;
+
+		assertThat(next()).isNull();
+		tableExists = true;
+		assertThat(next()).isNull();
+
+		setClock(LAST_DAY_OF_2024.plus(Duration.ofMinutes(6)));
+		assertThat(next()).isEqualTo(1);
+	}
+
+	@Test
+	void testDisabled() throws Exception {
+		ProgressiveAllocator disabled = new ProgressiveAllocator(transactionManager(), false, 3);
+		highest = 4;
+
+		assertThat(disabled.next(Sequence.OPD, "", floor)).isNull();
+		assertThat(disabled.peek(Sequence.OPD, "", floor)).isEqualTo(5);
+		assertThat(counters).isEmpty();
+	}
+
+	private Integer next() throws Exception {
+		return allocator.next(Sequence.OPD, "", floor);
+	}
+
+	private void setClock(Instant instant) {
+		ReflectionTestUtils.setField(allocator, "clock", Clock.fixed(instant, ZoneOffset.UTC));
+	}
+
+	private ProgressiveAllocator newAllocator(int blockSize) {
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createNativeQuery(anyString())).thenAnswer(invocation -> nativeQuery(invocation.getArgument(0)));
+		ProgressiveAllocator progressiveAllocator = new ProgressiveAllocator(transactionManager(), true, blockSize);
+		ReflectionTestUtils.setField(progressiveAllocator, "entityManager", entityManager);
+		return progressiveAllocator;
+	}
+
+	private static PlatformTransactionManager transactionManager() {
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+		return transactionManager;
+	}
+
+	private Query nativeQuery(String sql) {
+		Query query = mock(Query.class);
+		Map<String, Object> parameters = new HashMap<>();
+		when(query.setParameter(anyString(), any())).thenAnswer(invocation -> {
+			parameters.put(invocation.getArgument(0), invocation.getArgument(1));
+			return query;
+		});
+		when(query.getSingleResult()).thenAnswer(invocation -> {
+			if (!tableExists) {
+				throw new PersistenceException("Table 'oh.OH_API_PROGRESSIVES' doesn't exist");
+			}
+			return sql.contains("LAST_INSERT_ID()") ? (Object) lastInsertId : (Object) 0L;
+		});
+		when(query.executeUpdate()).thenAnswer(invocation -> {
+			List<Object> key = List.of(parameters.get("sequence"), parameters.get("scope"), parameters.get("year"));
+			long start = ((Number) parameters.get("floor")).longValue();
+			if (sql.startsWith("INSERT")) {
+				return counters.putIfAbsent(key, start) == null ? 1 : 0;
+			}
+			Long next = counters.get(key);
+			if (next == null) {
+				return 0;
+			}
+			reservations.add(start);
+			lastInsertId = Math.max(next, start) + ((Number) parameters.get("block")).longValue();
+			counters.put(key, lastInsertId);
+			return 1;
+		});
+		return query;
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.shared.text;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class SearchTextTest {
+
+	@Test
+	void testNormalize() {
+		assertThat(SearchText.normalize(null)).isEmpty();
+		assertThat(SearchText.normalize("")).isEmpty();
+		assertThat(SearchText.normalize("  José-María  O'Neil!! ")).isEqualTo("jose maria o neil");
+		assertThat(SearchText.normalize("ÇAĞRI 12b")).isEqualTo("cagri 12b");
+		assertThat(SearchText.normalize("Via Roma, 10/B")).isEqualTo("via roma 10 b");
+		assertThat(SearchText.normalize("-- ?")).isEmpty();
+	}
+
+	@Test
+	void testTokens() {
+		assertThat(SearchText.tokens("")).isEmpty();
+		assertThat(SearchText.tokens("jose maria")).containsExactly("jose", "maria");
+		assertThat(SearchText.tokens(SearchText.normalize(" a,b "))).containsExactly("a", "b");
+	}
+
+	@Test
+	void testSoundex() {
+		assertThat(SearchText.soundex("robert")).isEqualTo("R163");
+		assertThat(SearchText.soundex("rupert")).isEqualTo("R163");
+		assertThat(SearchText.soundex("tymczak")).isEqualTo("T522");
+		assertThat(SearchText.soundex("lee")).isEqualTo("L000");
+	}
+
+	@Test
+	void testSoundex_sameCodeLetters() {
+		// the first letter and the next one have the same code
+		assertThat(SearchText.soundex("pfister")).isEqualTo("P236");
+		// 'h' and 'w' do not separate letters with the same code
+		assertThat(SearchText.soundex("ashcraft")).isEqualTo("A261");
+		// vowels do
+		assertThat(SearchText.soundex("tetata")).isEqualTo("T330");
+	}
+
+	@Test
+	void testSoundex_ignoresSpacesAndDigits() {
+		assertThat(SearchText.soundex("o neil")).isEqualTo("O540");
+		assertThat(SearchText.soundex("r2d2")).isEqualTo("R300");
+		assertThat(SearchText.soundex("123")).isEmpty();
+		assertThat(SearchText.soundex("")).isEmpty();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.testing.rest;
+
+import org.isf.shared.exceptions.OHResponseEntityExceptionHandler;
+import org.isf.shared.fields.FieldsAnnotationIntrospector;
+import org.isf.shared.fields.FieldsPropertyFilter;
+import org.isf.shared.fields.FieldsResponseBodyAdvice;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Standalone {@link MockMvc} honouring the {@code fields} parameter, with the JSON output configured like
+ * {@link org.isf.OpenHospitalApiApplication} does.
+ */
+public class FieldsTestHelper {
+
+	public static MockMvc mockMvc(Object controller) {
+		ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+		objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+		objectMapper.setAnnotationIntrospector(AnnotationIntrospector.pair(
+			objectMapper.getSerializationConfig().getAnnotationIntrospector(), new FieldsAnnotationIntrospector()));
+		objectMapper.setFilterProvider(FieldsPropertyFilter.defaultProvider());
+		return MockMvcBuilders
+			.standaloneSetup(controller)
+			.setControllerAdvice(new OHResponseEntityExceptionHandler(), new FieldsResponseBodyAdvice())
+			.setMessageConverters(new MappingJackson2HttpMessageConverter(objectMapper))
+			.build();
+	}
+}
@@ -22,6 +22,9 @@
 package org.isf.ward.rest;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -39,9 +42,11 @@ import org.isf.shared.mapper.converter.BlobToByteArrayConverter;
 import org.isf.shared.mapper.converter.ByteArrayToBlobConverter;
 import org.isf.ward.data.WardHelper;
 import org.isf.ward.dto.WardDTO;
+import org.isf.ward.dto.WardOccupancyDTO;
 import org.isf.ward.manager.WardBrowserManager;
 import org.isf.ward.mapper.WardMapper;
 import org.isf.ward.model.Ward;
+import org.isf.ward.service.WardOccupancyTracker;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -63,6 +68,9 @@ class WardControllerTest {
 	@Mock
 	protected WardBrowserManager wardBrowserManagerMock;
 
+	@Mock
+	protected WardOccupancyTracker wardOccupancyTrackerMock;
+
 	protected WardMapper wardMapper = new WardMapper();
 
 	private MockMvc mockMvc;
@@ -73,7 +81,7 @@ class WardControllerTest {
 	void setup() {
 		closeable = MockitoAnnotations.openMocks(this);
 		this.mockMvc = MockMvcBuilders
-				.standaloneSetup(new WardController(wardBrowserManagerMock, wardMapper))
+				.standaloneSetup(new WardController(wardBrowserManagerMock, wardMapper, wardOccupancyTrackerMock))
 				.setControllerAdvice(new OHResponseEntityExceptionHandler())
 				.build();
 		ModelMapper modelMapper = new ModelMapper();
@@ -159,6 +167,47 @@ class WardControllerTest {
 		LOGGER.debug("result: {}", result);
 	}
 
+	@Test
+	void testGetCurrentOccupation_fromTracker() throws Exception {
+		String request = "/wards/occupation/{code}";
+
+		when(wardOccupancyTrackerMock.isReady()).thenReturn(true);
+		when(wardOccupancyTrackerMock.getOccupation("M")).thenReturn(7);
+
+		this.mockMvc
+				.perform(get(request, "M"))
+				.andDo(log())
+				.andExpect(status().isOk())
+				.andExpect(content().string("7"));
+		verify(wardBrowserManagerMock, never()).getCurrentOccupation(any());
+	}
+
+	@Test
+	void testGetOccupancies() throws Exception {
+		String request = "/wards/occupation";
+
+		when(wardOccupancyTrackerMock.isReady()).thenReturn(true);
+		when(wardOccupancyTrackerMock.getOccupancies()).thenReturn(List.of(new WardOccupancyDTO("M", 20, 12)));
+
+		this.mockMvc
+				.perform(get(request))
+				.andDo(log())
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("\"occupied\":12")));
+	}
+
+	@Test
+	void testGetOccupancies_503() throws Exception {
+		String request = "/wards/occupation";
+
+		when(wardOccupancyTrackerMock.isReady()).thenReturn(false);
+
+		this.mockMvc
+				.perform(get(request))
+				.andDo(log())
+				.andExpect(status().isServiceUnavailable());
+	}
+
 	@Test
 	void testNewWard_200() throws Exception {
 		String request = "/wards";
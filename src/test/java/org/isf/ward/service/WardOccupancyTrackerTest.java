@@ -0,0 +1,142 @@
+/*
+ * Open Hospital (www.open-hospital.org)
+ * Copyright © 2006-2024 Informatici Senza Frontiere (info@informaticisenzafrontiere.org)
+ *
+ * Open Hospital is a free and open source software for healthcare data management.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * https://www.gnu.org/licenses/gpl-3.0-standalone.html
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.isf.ward.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+
+import org.isf.ward.dto.WardOccupancyDTO;
+import org.isf.ward.manager.WardBrowserManager;
+import org.isf.ward.model.Ward;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class WardOccupancyTrackerTest {
+
+	/** The patients admitted in the database by ward. */
+	private final Map<String, Integer> admitted = new HashMap<>();
+
+	/** Run while the database is counted, to report the moves of concurrent requests. */
+	private Runnable duringCount = () -> {
+	};
+
+	private WardOccupancyTracker tracker;
+
+	@BeforeEach
+	void setup() throws Exception {
+		WardBrowserManager wardManager = mock(WardBrowserManager.class);
+		when(wardManager.getWards()).thenReturn(List.of(ward("M", 10), ward("S", 6)));
+		EntityManager entityManager = mock(EntityManager.class);
+		when(entityManager.createQuery(anyString(), eq(Object[].class))).thenAnswer(invocation -> {
+			@SuppressWarnings("unchecked")
+			TypedQuery<Object[]> query = mock(TypedQuery.class);
+			when(query.getResultList()).thenAnswer(list -> {
+				List<Object[]> rows = new ArrayList<>();
+				admitted.forEach((code, count) -> rows.add(new Object[] { code, (long) count }));
+				duringCount.run();
+				return rows;
+			});
+			return query;
+		});
+		tracker = new WardOccupancyTracker(wardManager, true, 60000);
+		ReflectionTestUtils.setField(tracker, "entityManager", entityManager);
+	}
+
+	@AfterEach
+	void tearDown() {
+		tracker.shutdown();
+	}
+
+	@Test
+	void testSeedAndMoves() {
+		admitted.put("M", 4);
+		tracker.seedOnStartup();
+
+		tracker.moved(null, "M");
+		tracker.moved("M", "S");
+		tracker.moved("S", null);
+		tracker.moved("S", null);
+
+		assertThat(tracker.isReady()).isTrue();
+		assertThat(tracker.getOccupancies()).extracting(WardOccupancyDTO::getCode, WardOccupancyDTO::getOccupied)
+			.containsExactly(tuple("M", 4), tuple("S", 0));
+	}
+
+	@Test
+	void testReconcileFixesTheDrift() {
+		tracker.seedOnStartup();
+		// admissions saved by other clients
+		admitted.put("S", 3);
+
+		tracker.reconcile();
+
+		assertThat(tracker.getOccupation("S")).isEqualTo(3);
+		assertThat(tracker.getOccupation("M")).isZero();
+	}
+
+	@Test
+	void testMovesDuringTheRecountReplayed() {
+		admitted.put("M", 4);
+		tracker.seedOnStartup();
+		// saved by concurrent requests after the count was read
+		duringCount = () -> {
+			tracker.moved(null, "M");
+			tracker.moved("M", "S");
+			tracker.moved(null, "S");
+		};
+
+		tracker.reconcile();
+
+		assertThat(tracker.getOccupation("M")).isEqualTo(4);
+		assertThat(tracker.getOccupation("S")).isEqualTo(2);
+
+		// replayed once: the next recount reads them from the database
+		admitted.put("S", 2);
+		duringCount = () -> {
+		};
+		tracker.reconcile();
+
+		assertThat(tracker.getOccupation("M")).isEqualTo(4);
+		assertThat(tracker.getOccupation("S")).isEqualTo(2);
+	}
+
+	private static Ward ward(String code, int beds) {
+		Ward ward = mock(Ward.class);
+		when(ward.getCode()).thenReturn(code);
+		when(ward.getBeds()).thenReturn(beds);
+		return ward;
+	}
+}